@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link OverthereUtils#write(InputStream, OutputStream, int)}, which reuses its transfer buffer on the same
+ * thread, with a copy that allocates a new buffer every time, as it did before buffers were pooled. Small files show the
+ * cost of allocating and zeroing a buffer that is much larger than the file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBufferBenchmark {
+
+    @Param({"4096", "262144", "4194304"})
+    private int fileSize;
+
+    @Param({"65536", "1048576"})
+    private int bufferSize;
+
+    private byte[] contents;
+
+    private long written;
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written += len;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        contents = new byte[fileSize];
+        new Random(fileSize).nextBytes(contents);
+    }
+
+    @Benchmark
+    public void pooled() {
+        OverthereUtils.write(new ByteArrayInputStream(contents), sink, bufferSize);
+    }
+
+    @Benchmark
+    public void unpooled() throws IOException {
+        InputStream from = new ByteArrayInputStream(contents);
+        byte[] bytes = new byte[bufferSize];
+        int nRead;
+        while ((nRead = from.read(bytes, 0, bufferSize)) != -1) {
+            sink.write(bytes, 0, nRead);
+        }
+    }
+}
@@ -189,11 +189,101 @@ public class ConnectionOptions {
      */
     public static final int REMOTE_COPY_BUFFER_SIZE_DEFAULT = 64 * 1024; // 64 KB
 
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#copyParallelism">the online documentation</a>
+     */
+    public static final String COPY_PARALLELISM = "copyParallelism";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#copyParallelism">the online documentation</a>
+     */
+    public static final int COPY_PARALLELISM_DEFAULT = 1;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#attributesCacheTtlMillis">the online documentation</a>
+     */
+    public static final String ATTRIBUTES_CACHE_TTL_MILLIS = "attributesCacheTtlMillis";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#attributesCacheTtlMillis">the online documentation</a>
+     */
+    public static final int ATTRIBUTES_CACHE_TTL_MILLIS_DEFAULT = 0;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#attributesCacheMaxSize">the online documentation</a>
+     */
+    public static final String ATTRIBUTES_CACHE_MAX_SIZE = "attributesCacheMaxSize";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#attributesCacheMaxSize">the online documentation</a>
+     */
+    public static final int ATTRIBUTES_CACHE_MAX_SIZE_DEFAULT = 10000;
+
     /**
      * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#remoteCharacterEncoding">the online documentation</a>
      */
     public static final String REMOTE_CHARACTER_ENCODING = "remoteCharacterEncoding";
 
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#processStreamBufferSize">the online documentation</a>
+     */
+    public static final String PROCESS_STREAM_BUFFER_SIZE = "processStreamBufferSize";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#processStreamBufferSize">the online documentation</a>
+     */
+    public static final int PROCESS_STREAM_BUFFER_SIZE_DEFAULT = 64 * 1024; // 64 KB
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolMaxSize">the online documentation</a>
+     */
+    public static final String CONNECTION_POOL_MAX_SIZE = "connectionPoolMaxSize";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolMaxSize">the online documentation</a>
+     */
+    public static final int CONNECTION_POOL_MAX_SIZE_DEFAULT = 8;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolMinIdle">the online documentation</a>
+     */
+    public static final String CONNECTION_POOL_MIN_IDLE = "connectionPoolMinIdle";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolMinIdle">the online documentation</a>
+     */
+    public static final int CONNECTION_POOL_MIN_IDLE_DEFAULT = 0;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolIdleTimeoutMillis">the online documentation</a>
+     */
+    public static final String CONNECTION_POOL_IDLE_TIMEOUT_MILLIS = "connectionPoolIdleTimeoutMillis";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolIdleTimeoutMillis">the online documentation</a>
+     */
+    public static final int CONNECTION_POOL_IDLE_TIMEOUT_MILLIS_DEFAULT = 300000;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolMaxWaitMillis">the online documentation</a>
+     */
+    public static final String CONNECTION_POOL_MAX_WAIT_MILLIS = "connectionPoolMaxWaitMillis";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolMaxWaitMillis">the online documentation</a>
+     */
+    public static final int CONNECTION_POOL_MAX_WAIT_MILLIS_DEFAULT = 60000;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolValidateOnBorrow">the online documentation</a>
+     */
+    public static final String CONNECTION_POOL_VALIDATE_ON_BORROW = "connectionPoolValidateOnBorrow";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#connectionPoolValidateOnBorrow">the online documentation</a>
+     */
+    public static final boolean CONNECTION_POOL_VALIDATE_ON_BORROW_DEFAULT = true;
+
     private final Map<String, Object> options;
 
     /**
@@ -319,6 +409,19 @@ public class ConnectionOptions {
         }
     }
 
+    public long getLong(String key, long defaultValue) {
+        Object o = options.get(key);
+        if (o == null) {
+            return defaultValue;
+        } else if (o instanceof Long || o instanceof Integer) {
+            return ((Number) o).longValue();
+        } else if (o instanceof String) {
+            return Long.parseLong((String) o);
+        } else {
+            throw new IllegalArgumentException("Value specified for connection option " + key + " is neither a Long, an Integer nor a String");
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public <T extends Enum<T>> T getEnum(String key, Class<T> enumClazz) {
         T o = getEnum(key, enumClazz, null);
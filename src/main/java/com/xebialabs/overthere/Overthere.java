@@ -85,4 +85,8 @@ public class Overthere {
         return connector.getConnection(protocol, options);
     }
 
+    static OverthereConnector getConnector() {
+        return connector;
+    }
+
 }
@@ -0,0 +1,430 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.spi.BaseOverthereConnection;
+
+import static com.xebialabs.overthere.ConnectionOptions.*;
+import static com.xebialabs.overthere.util.OverthereUtils.checkNotNull;
+import static com.xebialabs.overthere.util.OverthereUtils.checkState;
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+import static java.lang.String.format;
+
+/**
+ * A pool of {@link OverthereConnection connections} layered on top of an {@link OverthereConnector}. Connections are
+ * pooled per protocol and set of connection options, so that the cost of setting up a connection to a host (key
+ * exchange, authentication, tree connect, etc.) is paid once instead of once per operation.
+ * <p/>
+ * A connection obtained from the pool is leased: invoking {@link OverthereConnection#close()} on it hands it back to
+ * the pool instead of closing it. Before a connection is handed out again its working directory is cleared and its
+ * temporary files are deleted. The pool is configured with the <code>connectionPool*</code> connection options of the
+ * first connection requested for a protocol and set of connection options. Idle connections are evicted whenever the
+ * pool for a host is accessed, or when {@link #evictIdle()} is invoked.
+ * <p/>
+ * Files obtained from a leased connection are bound to the underlying connection, not to the lease. They must not be
+ * used after the leased connection has been closed, because the underlying connection may have been handed to another
+ * caller or closed by then.
+ */
+public class OverthereConnectionPool implements Closeable {
+
+    private static final Set<String> POOL_OPTIONS = new HashSet<>(Arrays.asList(CONNECTION_POOL_MAX_SIZE, CONNECTION_POOL_MIN_IDLE,
+            CONNECTION_POOL_IDLE_TIMEOUT_MILLIS, CONNECTION_POOL_MAX_WAIT_MILLIS, CONNECTION_POOL_VALIDATE_ON_BORROW));
+
+    private final OverthereConnector connector;
+
+    private final ConcurrentMap<PoolKey, HostPool> pools = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection pool that creates its connections with the protocols registered with {@link Overthere}.
+     */
+    public OverthereConnectionPool() {
+        this(Overthere.getConnector());
+    }
+
+    /**
+     * Creates a connection pool that creates its connections with the given connector.
+     *
+     * @param connector the connector to create connections with.
+     */
+    public OverthereConnectionPool(OverthereConnector connector) {
+        this.connector = checkNotNull(connector, "Cannot create OverthereConnectionPool with null connector");
+    }
+
+    /**
+     * Leases a connection from the pool, creating one if no idle connection is available.
+     *
+     * @param protocol The protocol to use, e.g. "local".
+     * @param options  A set of options to use for the connection.
+     * @return the leased connection. Closing it returns it to the pool.
+     */
+    public OverthereConnection getConnection(String protocol, ConnectionOptions options) {
+        checkState(!closed, "Cannot lease a connection from a closed connection pool");
+        PoolKey key = new PoolKey(protocol, options);
+        HostPool pool = pools.get(key);
+        if (pool == null) {
+            HostPool newPool = new HostPool(key, options);
+            pool = pools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool.borrow();
+    }
+
+    /**
+     * Closes all idle connections that have been idle for longer than their configured idle timeout, keeping at least
+     * the configured minimum number of idle connections per host.
+     */
+    public void evictIdle() {
+        for (HostPool pool : pools.values()) {
+            pool.evictIdle();
+        }
+    }
+
+    /**
+     * Returns the number of idle connections in the pool for a protocol and set of connection options.
+     *
+     * @param protocol The protocol.
+     * @param options  The connection options.
+     * @return the number of idle connections.
+     */
+    public int getIdleCount(String protocol, ConnectionOptions options) {
+        HostPool pool = pools.get(new PoolKey(protocol, options));
+        return pool == null ? 0 : pool.getIdleCount();
+    }
+
+    /**
+     * Returns the number of leased connections for a protocol and set of connection options.
+     *
+     * @param protocol The protocol.
+     * @param options  The connection options.
+     * @return the number of leased connections.
+     */
+    public int getLeasedCount(String protocol, ConnectionOptions options) {
+        HostPool pool = pools.get(new PoolKey(protocol, options));
+        return pool == null ? 0 : pool.getLeasedCount();
+    }
+
+    /**
+     * Closes all idle connections. Connections that are still leased are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (HostPool pool : pools.values()) {
+            pool.closeIdle();
+        }
+    }
+
+    private static boolean isValid(OverthereConnection connection) {
+        if (connection instanceof BaseOverthereConnection) {
+            return ((BaseOverthereConnection) connection).isValid();
+        }
+        return true;
+    }
+
+    private static void resetState(OverthereConnection connection) {
+        if (connection instanceof BaseOverthereConnection) {
+            ((BaseOverthereConnection) connection).resetState();
+        } else {
+            connection.setWorkingDirectory(null);
+        }
+    }
+
+    private static final class PoolKey {
+        private final String protocol;
+        private final ConnectionOptions options;
+
+        PoolKey(String protocol, ConnectionOptions options) {
+            this.protocol = checkNotNull(protocol, "Cannot pool connections with null protocol");
+            checkNotNull(options, "Cannot pool connections with null options");
+            this.options = new ConnectionOptions();
+            for (String k : options.keys()) {
+                if (!POOL_OPTIONS.contains(k)) {
+                    this.options.set(k, options.getOptional(k));
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PoolKey that = (PoolKey) o;
+            return protocol.equals(that.protocol) && options.equals(that.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * protocol.hashCode() + options.hashCode();
+        }
+    }
+
+    private static final class IdleConnection {
+        private final OverthereConnection connection;
+        private final long idleSince;
+
+        IdleConnection(OverthereConnection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private final class HostPool {
+        private final PoolKey key;
+        private final int minIdle;
+        private final long idleTimeoutMillis;
+        private final long maxWaitMillis;
+        private final boolean validateOnBorrow;
+        private final Semaphore permits;
+        private final Deque<IdleConnection> idle = new LinkedList<>();
+        private final int maxSize;
+
+        HostPool(PoolKey key, ConnectionOptions options) {
+            this.key = key;
+            this.maxSize = options.getInteger(CONNECTION_POOL_MAX_SIZE, CONNECTION_POOL_MAX_SIZE_DEFAULT);
+            this.minIdle = options.getInteger(CONNECTION_POOL_MIN_IDLE, CONNECTION_POOL_MIN_IDLE_DEFAULT);
+            this.idleTimeoutMillis = options.getInteger(CONNECTION_POOL_IDLE_TIMEOUT_MILLIS, CONNECTION_POOL_IDLE_TIMEOUT_MILLIS_DEFAULT);
+            this.maxWaitMillis = options.getInteger(CONNECTION_POOL_MAX_WAIT_MILLIS, CONNECTION_POOL_MAX_WAIT_MILLIS_DEFAULT);
+            this.validateOnBorrow = options.getBoolean(CONNECTION_POOL_VALIDATE_ON_BORROW, CONNECTION_POOL_VALIDATE_ON_BORROW_DEFAULT);
+            checkState(maxSize > 0, "Connection pool maximum size must be positive");
+            this.permits = new Semaphore(maxSize, true);
+        }
+
+        OverthereConnection borrow() {
+            try {
+                if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    throw new RuntimeIOException(format("Timed out after %d ms waiting for a pooled %s connection", maxWaitMillis, key.protocol));
+                }
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeIOException("Interrupted while waiting for a pooled connection", exc);
+            }
+
+            try {
+                evictIdle();
+                IdleConnection candidate;
+                while ((candidate = pollIdle()) != null) {
+                    if (!validateOnBorrow || isValid(candidate.connection)) {
+                        logger.debug("Leasing pooled connection {}", candidate.connection);
+                        return new PooledConnection(this, candidate.connection);
+                    }
+                    logger.info("Discarding pooled connection {} because it is no longer valid", candidate.connection);
+                    closeQuietly(candidate.connection);
+                }
+                // Some protocols change the options they are given, which must not change the key of this pool
+                return new PooledConnection(this, connector.getConnection(key.protocol, new ConnectionOptions(key.options)));
+            } catch (RuntimeException exc) {
+                permits.release();
+                throw exc;
+            }
+        }
+
+        void release(OverthereConnection connection) {
+            try {
+                if (closed || !isValid(connection)) {
+                    closeQuietly(connection);
+                    return;
+                }
+                try {
+                    resetState(connection);
+                } catch (RuntimeException exc) {
+                    logger.warn(format("Cannot reset pooled connection %s, closing it", connection), exc);
+                    closeQuietly(connection);
+                    return;
+                }
+                synchronized (idle) {
+                    idle.addFirst(new IdleConnection(connection));
+                }
+                logger.debug("Returned connection {} to the pool", connection);
+            } finally {
+                permits.release();
+            }
+            evictIdle();
+        }
+
+        void evictIdle() {
+            List<OverthereConnection> evicted = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            synchronized (idle) {
+                Iterator<IdleConnection> it = idle.descendingIterator();
+                while (it.hasNext() && idle.size() > minIdle) {
+                    IdleConnection c = it.next();
+                    if (now - c.idleSince < idleTimeoutMillis) {
+                        break;
+                    }
+                    it.remove();
+                    evicted.add(c.connection);
+                }
+            }
+            for (OverthereConnection c : evicted) {
+                logger.debug("Evicting idle connection {}", c);
+                closeQuietly(c);
+            }
+        }
+
+        void closeIdle() {
+            IdleConnection c;
+            while ((c = pollIdle()) != null) {
+                closeQuietly(c.connection);
+            }
+        }
+
+        int getIdleCount() {
+            synchronized (idle) {
+                return idle.size();
+            }
+        }
+
+        int getLeasedCount() {
+            return maxSize - permits.availablePermits();
+        }
+
+        private IdleConnection pollIdle() {
+            synchronized (idle) {
+                return idle.pollFirst();
+            }
+        }
+    }
+
+    private static final class PooledConnection implements OverthereConnection {
+        private final HostPool pool;
+        private final OverthereConnection delegate;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PooledConnection(HostPool pool, OverthereConnection delegate) {
+            this.pool = pool;
+            this.delegate = delegate;
+        }
+
+        private OverthereConnection delegate() {
+            checkState(!released.get(), "Pooled connection %s has already been returned to the pool", delegate);
+            return delegate;
+        }
+
+        @Override
+        public OperatingSystemFamily getHostOperatingSystem() {
+            return delegate().getHostOperatingSystem();
+        }
+
+        /**
+         * Returns a file of the underlying connection, which must not be used after this lease has been closed.
+         */
+        @Override
+        public OverthereFile getFile(String hostPath) {
+            return delegate().getFile(hostPath);
+        }
+
+        @Override
+        public OverthereFile getFile(OverthereFile parent, String child) {
+            return delegate().getFile(parent, child);
+        }
+
+        @Override
+        public OverthereFile getTempFile(String nameTemplate) {
+            return delegate().getTempFile(nameTemplate);
+        }
+
+        @Override
+        public OverthereFile getTempFile(String prefix, String suffix) throws RuntimeIOException {
+            return delegate().getTempFile(prefix, suffix);
+        }
+
+        @Override
+        public OverthereFile getWorkingDirectory() {
+            return delegate().getWorkingDirectory();
+        }
+
+        @Override
+        public void setWorkingDirectory(OverthereFile workingDirectory) {
+            delegate().setWorkingDirectory(workingDirectory);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public int execute(OverthereProcessOutputHandler handler, CmdLine commandLine) {
+            return delegate().execute(handler, commandLine);
+        }
+
+        @Override
+        public int execute(CmdLine commandLine) {
+            return delegate().execute(commandLine);
+        }
+
+        @Override
+        public int execute(OverthereExecutionOutputHandler stdoutHandler, OverthereExecutionOutputHandler stderrHandler, CmdLine commandLine) {
+            return delegate().execute(stdoutHandler, stderrHandler, commandLine);
+        }
+
+        @Override
+        public OverthereProcess startProcess(CmdLine commandLine) {
+            return delegate().startProcess(commandLine);
+        }
+
+        @Override
+        public boolean canStartProcess() {
+            return delegate().canStartProcess();
+        }
+
+        @Override
+        public ConnectionOptions getOptions() {
+            return delegate().getOptions();
+        }
+
+        /**
+         * Returns the connection to the pool instead of closing it.
+         */
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                pool.release(delegate);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(OverthereConnectionPool.class);
+}
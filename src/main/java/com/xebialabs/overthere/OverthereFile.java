@@ -25,8 +25,11 @@ package com.xebialabs.overthere;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * An abstract representation of a file that can be access through an {@link OverthereConnection}. It could be a local
@@ -143,6 +146,21 @@ public interface OverthereFile {
      */
     long length();
 
+    /**
+     * Returns the attributes of this file. Contrary to calling {@link #exists()}, {@link #isFile()},
+     * {@link #isDirectory()}, {@link #length()} etc. one by one, the attributes are retrieved together, with a single
+     * request to the remote host where the protocol allows it. This default implementation, for implementations that
+     * predate this method, still retrieves them one by one.
+     *
+     * @return a snapshot of the attributes of this file, never <code>null</code>.
+     */
+    default OverthereFileAttributes getAttributes() {
+        if (!exists()) {
+            return OverthereFileAttributes.nonExistent();
+        }
+        return new OverthereFileAttributes(true, isFile(), isDirectory(), isHidden(), length(), lastModified(), canRead(), canWrite(), canExecute());
+    }
+
     /**
      * Returns an input stream to read from this file. The complete contents of this input stream must be read before
      * another operation on this file or its corresponding {@link OverthereConnection} is performed.
@@ -159,6 +177,23 @@ public interface OverthereFile {
      */
     OutputStream getOutputStream();
 
+    /**
+     * Opens a channel to read and write this file at any position, so that part of a file can be read or changed
+     * without transferring the whole file. The options are the {@link java.nio.file.StandardOpenOption standard open
+     * options} accepted by {@link java.nio.file.Files#newByteChannel(java.nio.file.Path, OpenOption...)}. Without
+     * options the file is opened for reading. The channel must be closed to release the resources held on the remote
+     * host. This default implementation throws an {@link UnsupportedOperationException}; implementations for protocols
+     * that can read and write at an offset override it, usually with a
+     * {@link com.xebialabs.overthere.spi.PositionalByteChannel}.
+     *
+     * @param options how the file is opened.
+     * @return a channel connected to this file.
+     * @throws UnsupportedOperationException if the connection does not support random access or one of the options.
+     */
+    default SeekableByteChannel newByteChannel(OpenOption... options) {
+        throw new UnsupportedOperationException("Cannot open a byte channel on " + this);
+    }
+
     /**
      * Sets the execute permission on this file.
      *
@@ -185,6 +220,19 @@ public interface OverthereFile {
      */
     List<OverthereFile> listFiles();
 
+    /**
+     * Lists the files in this directory while they are read from the host, so that the first entries of a very large
+     * directory are available before the whole directory has been read. The stream must be closed when it is not
+     * consumed completely, to release the remote resources held by the listing. If this file is not a directory, the
+     * outcome is unspecified. This default implementation lists the whole directory with {@link #listFiles()} first;
+     * implementations that can read the listing incrementally should override it.
+     *
+     * @return the files in this directory, in an unspecified order.
+     */
+    default Stream<OverthereFile> streamFiles() {
+        return listFiles().stream();
+    }
+
     /**
      * Creates this directory. If the parent directory does not exists, a {@link RuntimeIOException} is thrown.
      */
@@ -219,7 +267,8 @@ public interface OverthereFile {
      * and across file systems withtin a {@link OverthereConnection connection}.
      *
      * @param dest the file to copy to.
-     * @param config configurations to copy if needed
+     * @param config configurations to copy if needed, e.g. the settings of a
+     *               {@link com.xebialabs.overthere.util.ResumableFileCopier resumable copy}.
      */
 
     void copyToWithConfig(final OverthereFile dest, Map<String, String> config);
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere;
+
+/**
+ * A snapshot of the attributes of an {@link OverthereFile}, as returned by {@link OverthereFile#getAttributes()}. The
+ * attributes are retrieved together, usually with a single request to the remote host, and are not updated when the
+ * file changes afterwards.
+ */
+public final class OverthereFileAttributes {
+
+    private static final OverthereFileAttributes NON_EXISTENT = new OverthereFileAttributes(false, false, false, false, 0, 0, false, false, false);
+
+    private final boolean exists;
+    private final boolean isFile;
+    private final boolean isDirectory;
+    private final boolean isHidden;
+    private final long length;
+    private final long lastModified;
+    private final boolean canRead;
+    private final boolean canWrite;
+    private final boolean canExecute;
+
+    public OverthereFileAttributes(boolean exists, boolean isFile, boolean isDirectory, boolean isHidden, long length, long lastModified,
+                                   boolean canRead, boolean canWrite, boolean canExecute) {
+        this.exists = exists;
+        this.isFile = isFile;
+        this.isDirectory = isDirectory;
+        this.isHidden = isHidden;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.canRead = canRead;
+        this.canWrite = canWrite;
+        this.canExecute = canExecute;
+    }
+
+    /**
+     * @return the attributes of a file that does not exist.
+     */
+    public static OverthereFileAttributes nonExistent() {
+        return NON_EXISTENT;
+    }
+
+    /**
+     * @return <code>true</code> if and only if the file existed.
+     */
+    public boolean exists() {
+        return exists;
+    }
+
+    /**
+     * @return <code>true</code> if and only if the file was a regular file.
+     */
+    public boolean isFile() {
+        return isFile;
+    }
+
+    /**
+     * @return <code>true</code> if and only if the file was a directory.
+     */
+    public boolean isDirectory() {
+        return isDirectory;
+    }
+
+    /**
+     * @return <code>true</code> if and only if the file was a hidden file.
+     */
+    public boolean isHidden() {
+        return isHidden;
+    }
+
+    /**
+     * @return the length of the file, in bytes.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return the time the file was last modified, in milliseconds since the epoch (00:00:00 GMT, January 1, 1970), or
+     * <code>0</code> if it is not known, for example because the attributes were read with a command that does not print
+     * it in a parseable format.
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return <code>true</code> if and only if the file could be read.
+     */
+    public boolean canRead() {
+        return canRead;
+    }
+
+    /**
+     * @return <code>true</code> if and only if the file could be written.
+     */
+    public boolean canWrite() {
+        return canWrite;
+    }
+
+    /**
+     * @return <code>true</code> if and only if the file could be executed.
+     */
+    public boolean canExecute() {
+        return canExecute;
+    }
+
+    @Override
+    public String toString() {
+        return "exists=" + exists + ", isFile=" + isFile + ", isDirectory=" + isDirectory + ", isHidden=" + isHidden + ", length=" + length
+                + ", lastModified=" + lastModified + ", canRead=" + canRead + ", canWrite=" + canWrite + ", canExecute=" + canExecute;
+    }
+}
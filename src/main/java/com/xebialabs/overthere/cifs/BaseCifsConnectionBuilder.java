@@ -161,6 +161,46 @@ public abstract class BaseCifsConnectionBuilder {
      */
     public static final String DEFAULT_WINRM_TIMEOUT = "PT60.000S";
 
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmHttpMaxConnections">the online documentation</a>
+     */
+    public static final String WINRM_HTTP_MAX_CONNECTIONS = "winrmHttpMaxConnections";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmHttpMaxConnections">the online documentation</a>
+     */
+    public static final int WINRM_HTTP_MAX_CONNECTIONS_DEFAULT = 20;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmMaxIdleShells">the online documentation</a>
+     */
+    public static final String WINRM_MAX_IDLE_SHELLS = "winrmMaxIdleShells";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmMaxIdleShells">the online documentation</a>
+     */
+    public static final int WINRM_MAX_IDLE_SHELLS_DEFAULT = 2;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmShellIdleTimeoutMillis">the online documentation</a>
+     */
+    public static final String WINRM_SHELL_IDLE_TIMEOUT_MILLIS = "winrmShellIdleTimeoutMillis";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmShellIdleTimeoutMillis">the online documentation</a>
+     */
+    public static final int WINRM_SHELL_IDLE_TIMEOUT_MILLIS_DEFAULT = 60000;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmMaxEnvelopSize">the online documentation</a>
+     */
+    public static final String WINRM_MAX_ENVELOP_SIZE = "winrmMaxEnvelopSize";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmMaxEnvelopSize">the online documentation</a>
+     */
+    public static final int WINRM_MAX_ENVELOP_SIZE_DEFAULT = 512000;
+
     /**
      * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrsAllowDelegate">the online documentation</a>
      */
@@ -245,4 +285,34 @@ public abstract class BaseCifsConnectionBuilder {
      * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_winrmUseCanonicalHostname">the online documentation</a>
      */
     public static final boolean WINRM_USE_CANONICAL_HOSTNAME_DEFAULT = false;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_zipTransfer">the online documentation</a>
+     */
+    public static final String ZIP_TRANSFER = "zipTransfer";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_zipTransfer">the online documentation</a>
+     */
+    public static final boolean ZIP_TRANSFER_DEFAULT = false;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_zipProbeCommand">the online documentation</a>
+     */
+    public static final String ZIP_PROBE_COMMAND = "zipProbeCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_zipProbeCommand">the online documentation</a>
+     */
+    public static final String ZIP_PROBE_COMMAND_DEFAULT = "tar --version";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_zipExpandCommand">the online documentation</a>
+     */
+    public static final String ZIP_EXPAND_COMMAND = "zipExpandCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#smb_cifs_zipExpandCommand">the online documentation</a>
+     */
+    public static final String ZIP_EXPAND_COMMAND_DEFAULT = "tar -xf {0} -C {1}";
 }
@@ -82,6 +82,8 @@ public abstract class CifsConnection extends BaseOverthereConnection {
 
     protected NtlmPasswordAuthentication authentication;
 
+    protected final ZipBulkTransfer zipBulkTransfer;
+
     /**
      * Creates a {@link CifsConnection}. Don't invoke directly. Use
      * {@link Overthere#getConnection(String, ConnectionOptions)} instead.
@@ -104,6 +106,7 @@ public abstract class CifsConnection extends BaseOverthereConnection {
         this.cifsPort = addressCifsPort.getPort();
         this.encoder = new PathEncoder(null, null, this.address, cifsPort, options.get(PATH_SHARE_MAPPINGS, PATH_SHARE_MAPPINGS_DEFAULT));
         this.authentication = new NtlmPasswordAuthentication(null, username, password);
+        this.zipBulkTransfer = new ZipBulkTransfer(options);
     }
 
     protected abstract void connect();
@@ -23,10 +23,15 @@
 package com.xebialabs.overthere.cifs;
 
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.spi.BaseOverthereFile;
+import com.xebialabs.overthere.spi.BulkCopySupport;
+import com.xebialabs.overthere.spi.ByteChannelOptions;
+import com.xebialabs.overthere.spi.PositionalByteChannel;
 import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
+import jcifs.smb.SmbRandomAccessFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,12 +39,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 import static java.lang.String.format;
 
-class CifsFile extends BaseOverthereFile<CifsConnection> {
+class CifsFile extends BaseOverthereFile<CifsConnection> implements BulkCopySupport {
 
     private SmbFile smbFile;
 
@@ -79,6 +86,10 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
 
     @Override
     public boolean exists() throws RuntimeIOException {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.exists();
+        }
         logger.debug("Checking for existence of {}", smbFile.getUncPath());
 
         try {
@@ -123,6 +134,10 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
 
     @Override
     public boolean isFile() throws RuntimeIOException {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isFile();
+        }
         logger.debug("Checking whether {} is a file", smbFile.getUncPath());
 
         try {
@@ -134,6 +149,10 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
 
     @Override
     public boolean isDirectory() throws RuntimeIOException {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isDirectory();
+        }
         logger.debug("Checking whether {} is a directory", smbFile.getUncPath());
 
         try {
@@ -156,6 +175,10 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
 
     @Override
     public long lastModified() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.lastModified();
+        }
         logger.debug("Retrieving last modification date of {}", smbFile.getUncPath());
 
         try {
@@ -167,6 +190,10 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
 
     @Override
     public long length() throws RuntimeIOException {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.length();
+        }
         logger.debug("Retrieving length of {}", smbFile.getUncPath());
 
         try {
@@ -176,6 +203,25 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
         }
     }
 
+    /**
+     * The attributes are queried once by {@link SmbFile#exists()} and then served from the attribute cache of jCIFS.
+     */
+    @Override
+    protected OverthereFileAttributes retrieveAttributes() {
+        logger.debug("Retrieving attributes of {}", smbFile.getUncPath());
+
+        try {
+            if (!smbFile.exists()) {
+                return OverthereFileAttributes.nonExistent();
+            }
+            boolean isFile = smbFile.isFile();
+            return new OverthereFileAttributes(true, isFile, smbFile.isDirectory(), smbFile.isHidden(), isFile ? smbFile.length() : 0,
+                    smbFile.lastModified(), smbFile.canRead(), smbFile.canWrite(), smbFile.canRead());
+        } catch (SmbException exc) {
+            throw new RuntimeIOException(format("Cannot retrieve attributes of %s: %s", smbFile.getUncPath(), exc.toString()), exc);
+        }
+    }
+
     @Override
     public List<OverthereFile> listFiles() throws RuntimeIOException {
         logger.debug("Listing directory {}", smbFile.getUncPath());
@@ -195,6 +241,7 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
     @Override
     public void mkdir() throws RuntimeIOException {
         logger.debug("Creating directory {}", smbFile.getUncPath());
+        invalidateAttributes();
 
         try {
             smbFile.mkdir();
@@ -206,6 +253,7 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
     @Override
     public void mkdirs() throws RuntimeIOException {
         logger.debug("Creating directories {}", smbFile.getUncPath());
+        invalidateAttributes();
 
         try {
             smbFile.mkdirs();
@@ -219,6 +267,8 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
         logger.debug("Renaming {} to {}", smbFile.getUncPath(), dest);
 
         if (dest instanceof CifsFile) {
+            invalidateAttributes();
+            invalidateAttributes(dest);
             SmbFile targetSmbFile = ((CifsFile) dest).getSmbFile();
             try {
                 smbFile.renameTo(targetSmbFile);
@@ -239,6 +289,7 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
     @Override
     public void delete() throws RuntimeIOException {
         logger.debug("Deleting {}", smbFile.getUncPath());
+        invalidateAttributes();
 
         try {
             if (smbFile.isDirectory()) {
@@ -257,6 +308,7 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
     @Override
     public void deleteRecursively() throws RuntimeIOException {
         logger.debug("Deleting {} recursively", smbFile.getUncPath());
+        invalidateAttributes();
 
         try {
             if (smbFile.isDirectory()) {
@@ -328,9 +380,23 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
         }
     }
 
+    /**
+     * Copies a directory as one zip archive that is expanded on the host, if the connection can start processes.
+     */
+    @Override
+    public boolean copyFromBulk(OverthereFile source) {
+        return connection.zipBulkTransfer.copy(source, this);
+    }
+
+    @Override
+    public boolean copyToBulk(OverthereFile destination) {
+        return false;
+    }
+
     @Override
     public OutputStream getOutputStream() {
         logger.debug("Opening CIFS output stream for {}", smbFile.getUncPath());
+        invalidateAttributes();
 
         try {
             final OutputStream wrapped = smbFile.getOutputStream();
@@ -368,6 +434,63 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
         }
     }
 
+    /**
+     * Opens a channel on a jCIFS {@link SmbRandomAccessFile}. jCIFS creates files that are opened for writing, so the
+     * existence of the file is checked before it is opened.
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(OpenOption... options) {
+        ByteChannelOptions channelOptions = ByteChannelOptions.of(options);
+        logger.debug("Opening CIFS byte channel for {}", smbFile.getUncPath());
+        invalidateAttributes();
+
+        boolean exists = exists();
+        if (exists && channelOptions.isCreateNew()) {
+            throw new RuntimeIOException(format("Cannot open %s: file already exists", smbFile.getUncPath()));
+        }
+        if (!exists && !channelOptions.isCreate() && !channelOptions.isCreateNew()) {
+            throw new RuntimeIOException(format("Cannot open %s: file does not exist", smbFile.getUncPath()));
+        }
+
+        try {
+            final SmbRandomAccessFile file = new SmbRandomAccessFile(smbFile, channelOptions.isWrite() || !exists ? "rw" : "r");
+            if (exists && channelOptions.isTruncateExisting() && channelOptions.isWrite()) {
+                file.setLength(0);
+            }
+            return new PositionalByteChannel(channelOptions, CIFS_MAX_CHANNEL_WRITE_SIZE) {
+                @Override
+                protected int readAt(long offset, byte[] b, int off, int len) throws IOException {
+                    file.seek(offset);
+                    return file.read(b, off, Math.min(len, CIFS_MAX_READ_SIZE));
+                }
+
+                @Override
+                protected void writeAt(long offset, byte[] b, int off, int len) throws IOException {
+                    file.seek(offset);
+                    file.write(b, off, len);
+                }
+
+                @Override
+                protected long sizeOf() throws IOException {
+                    return file.length();
+                }
+
+                @Override
+                protected void truncateTo(long size) throws IOException {
+                    file.setLength(size);
+                }
+
+                @Override
+                protected void closeChannel() throws IOException {
+                    logger.debug("Closing CIFS byte channel for {}", smbFile.getUncPath());
+                    file.close();
+                }
+            };
+        } catch (IOException exc) {
+            throw new RuntimeIOException(format("Cannot open %s: %s", smbFile.getUncPath(), exc.toString()), exc);
+        }
+    }
+
     private void upgradeToDirectorySmbFile() throws MalformedURLException {
         if (!smbFile.getPath().endsWith("/")) {
             smbFile = new SmbFile(smbFile.getURL() + "/", connection.authentication);
@@ -397,6 +520,16 @@ class CifsFile extends BaseOverthereFile<CifsConnection> {
         return getConnection() + "/" + getPath();
     }
 
+    /**
+     * The number of bytes read by one request of a byte channel.
+     */
+    private static final int CIFS_MAX_READ_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes written by one request of a byte channel, which jCIFS splits into SMB requests.
+     */
+    private static final int CIFS_MAX_CHANNEL_WRITE_SIZE = 1024 * 1024;
+
     private static Logger logger = LoggerFactory.getLogger(CifsFile.class);
 
 }
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.cifs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.CmdLine;
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.OverthereConnection;
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.util.CapturingOverthereExecutionOutputHandler;
+
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_EXPAND_COMMAND;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_EXPAND_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_PROBE_COMMAND;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_PROBE_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_TRANSFER;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_TRANSFER_DEFAULT;
+import static com.xebialabs.overthere.util.CapturingOverthereExecutionOutputHandler.capturingHandler;
+import static com.xebialabs.overthere.util.LoggingOverthereExecutionOutputHandler.loggingErrorHandler;
+import static com.xebialabs.overthere.util.LoggingOverthereExecutionOutputHandler.loggingOutputHandler;
+import static com.xebialabs.overthere.util.MultipleOverthereExecutionOutputHandler.multiHandler;
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+import static java.lang.String.format;
+
+/**
+ * Copies a directory tree to a Windows host as one zip archive. The archive is written on the fly into a single file
+ * in the temporary directory of the connection, and is then expanded into the target directory with
+ * {@link BaseCifsConnectionBuilder#ZIP_EXPAND_COMMAND}. Only connections that can start processes use this. Before the
+ * first archive is uploaded, {@link BaseCifsConnectionBuilder#ZIP_PROBE_COMMAND} is run to check that the expand command
+ * is available; if it fails, or the expand command fails once, the connection copies directories file by file from then
+ * on.
+ */
+public final class ZipBulkTransfer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+
+    private final String expandCommand;
+
+    private final String probeCommand;
+
+    private volatile Boolean expandAvailable;
+
+    public ZipBulkTransfer(ConnectionOptions options) {
+        this.enabled = options.getBoolean(ZIP_TRANSFER, ZIP_TRANSFER_DEFAULT);
+        this.expandCommand = options.get(ZIP_EXPAND_COMMAND, ZIP_EXPAND_COMMAND_DEFAULT);
+        this.probeCommand = options.get(ZIP_PROBE_COMMAND, ZIP_PROBE_COMMAND_DEFAULT);
+    }
+
+    /**
+     * Copies the contents of a directory to a directory on the host.
+     *
+     * @param source      the source directory.
+     * @param destination the destination directory. It is created if it does not exist.
+     * @return <code>true</code> if the directory was copied, <code>false</code> if it should be copied file by file.
+     */
+    public boolean copy(OverthereFile source, OverthereFile destination) {
+        OverthereConnection connection = destination.getConnection();
+        if (!enabled || !connection.canStartProcess() || !canExpand(connection)) {
+            return false;
+        }
+        OverthereFileAttributes destinationAttributes = destination.getAttributes();
+        if (destinationAttributes.exists() && !destinationAttributes.isDirectory()) {
+            return false;
+        }
+
+        OverthereFile archive = connection.getTempFile("overthere-copy", ".zip");
+        try {
+            logger.debug("Copying {} to {} as zip archive {}", source, destination, archive);
+            writeArchive(source, archive);
+            if (!destinationAttributes.exists()) {
+                destination.mkdir();
+            }
+            return expandArchive(connection, archive, destination);
+        } finally {
+            try {
+                archive.delete();
+            } catch (RuntimeIOException exc) {
+                logger.warn("Cannot delete zip archive {}", archive, exc);
+            }
+        }
+    }
+
+    /**
+     * Determines whether archives can be expanded on the host. The probe command is run once per connection, so that a
+     * host without the expand command does not receive a whole archive first.
+     */
+    private boolean canExpand(OverthereConnection connection) {
+        Boolean available = expandAvailable;
+        if (available == null) {
+            CmdLine cmdLine = new CmdLine().addTemplatedFragment(probeCommand);
+            try {
+                available = connection.execute(loggingOutputHandler(logger), loggingErrorHandler(logger), cmdLine) == 0;
+            } catch (RuntimeIOException exc) {
+                logger.warn("Cannot run command [{}] on {}", cmdLine, connection, exc);
+                available = false;
+            }
+            if (!available) {
+                logger.info("Command [{}] failed on {}, directories will be copied file by file", cmdLine, connection);
+            }
+            expandAvailable = available;
+        }
+        return available;
+    }
+
+    private boolean expandArchive(OverthereConnection connection, OverthereFile archive, OverthereFile destination) {
+        CmdLine cmdLine = new CmdLine().addTemplatedFragment(expandCommand, archive.getPath(), destination.getPath());
+        CapturingOverthereExecutionOutputHandler capturedStderr = capturingHandler();
+        int errno = connection.execute(loggingOutputHandler(logger), multiHandler(loggingErrorHandler(logger), capturedStderr), cmdLine);
+        if (errno != 0) {
+            logger.warn("Cannot expand zip archive {} into {} with command [{}]: {} (errno={}). Directories will be copied file by file.", archive,
+                    destination, cmdLine, capturedStderr.getOutput(), errno);
+            expandAvailable = false;
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeArchive(OverthereFile source, OverthereFile archive) {
+        OutputStream out = archive.getOutputStream();
+        try {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            // The archive only exists to turn many small writes into one large one, so favour speed over size
+            zip.setLevel(Deflater.BEST_SPEED);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            addChildren(zip, source, "", buffer);
+            zip.close();
+        } catch (IOException exc) {
+            closeQuietly(out);
+            throw new RuntimeIOException(format("Cannot write %s to zip archive %s", source, archive), exc);
+        } catch (RuntimeException exc) {
+            closeQuietly(out);
+            throw exc;
+        }
+    }
+
+    /**
+     * Adds the children of a directory. The attributes of each child are retrieved once, which is free for files whose
+     * attributes were returned by the listing.
+     */
+    private static void addChildren(ZipOutputStream zip, OverthereFile dir, String prefix, byte[] buffer) throws IOException {
+        for (OverthereFile child : dir.listFiles()) {
+            String name = prefix + child.getName();
+            OverthereFileAttributes attributes = child.getAttributes();
+            if (attributes.isDirectory()) {
+                zip.putNextEntry(newEntry(name + "/", attributes));
+                zip.closeEntry();
+                addChildren(zip, child, name + "/", buffer);
+            } else {
+                zip.putNextEntry(newEntry(name, attributes));
+                try (InputStream in = child.getInputStream()) {
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                        zip.write(buffer, 0, n);
+                    }
+                }
+                zip.closeEntry();
+            }
+        }
+    }
+
+    private static ZipEntry newEntry(String name, OverthereFileAttributes attributes) {
+        ZipEntry entry = new ZipEntry(name);
+        long lastModified = attributes.lastModified();
+        if (lastModified > 0) {
+            entry.setTime(lastModified);
+        }
+        return entry;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(ZipBulkTransfer.class);
+
+}
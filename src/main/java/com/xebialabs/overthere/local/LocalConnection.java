@@ -54,11 +54,24 @@ public class LocalConnection extends BaseOverthereConnection implements Overther
      */
     public static final String LOCAL_PROTOCOL = "local";
 
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#local_localCopyStrategy">the online documentation</a>
+     */
+    public static final String LOCAL_COPY_STRATEGY = "localCopyStrategy";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#local_localCopyStrategy">the online documentation</a>
+     */
+    public static final LocalCopyStrategy LOCAL_COPY_STRATEGY_DEFAULT = LocalCopyStrategy.COPY;
+
+    protected final LocalCopyStrategy copyStrategy;
+
     /**
      * Constructs a connection to the local host.
      */
     public LocalConnection(String protocol, ConnectionOptions options, AddressPortMapper mapper) {
         super(protocol, fixOptions(options), mapper, true);
+        this.copyStrategy = options.getEnum(LOCAL_COPY_STRATEGY, LocalCopyStrategy.class, LOCAL_COPY_STRATEGY_DEFAULT);
     }
 
     /**
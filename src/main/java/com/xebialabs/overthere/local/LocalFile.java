@@ -24,17 +24,34 @@ package com.xebialabs.overthere.local;
 
 import com.xebialabs.overthere.ConnectionOptions;
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.spi.BaseOverthereFile;
+import com.xebialabs.overthere.spi.FileListingIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static com.xebialabs.overthere.local.LocalConnection.LOCAL_PROTOCOL;
+import static java.lang.String.format;
 
 /**
  * A local file.
@@ -87,26 +104,46 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
 
     @Override
     public long lastModified() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.lastModified();
+        }
         return file.lastModified();
     }
 
     @Override
     public long length() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.length();
+        }
         return file.length();
     }
 
     @Override
     public boolean exists() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.exists();
+        }
         return file.exists();
     }
 
     @Override
     public boolean isFile() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isFile();
+        }
         return file.isFile();
     }
 
     @Override
     public boolean isDirectory() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isDirectory();
+        }
         return file.isDirectory();
     }
 
@@ -130,9 +167,24 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
         return file.canExecute();
     }
 
+    @Override
+    protected OverthereFileAttributes retrieveAttributes() {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException exc) {
+            return OverthereFileAttributes.nonExistent();
+        } catch (IOException exc) {
+            throw new RuntimeIOException("Cannot retrieve attributes of " + file, exc);
+        }
+        return new OverthereFileAttributes(true, attrs.isRegularFile(), attrs.isDirectory(), file.isHidden(), attrs.size(),
+                attrs.lastModifiedTime().toMillis(), file.canRead(), file.canWrite(), file.canExecute());
+    }
+
     @Override
     public void setExecutable(boolean executable) {
         logger.debug("Setting execute permission on {} to {}", this, executable);
+        invalidateAttributes();
 
         file.setExecutable(executable);
     }
@@ -140,6 +192,7 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
     @Override
     public void delete() {
         logger.debug("Deleting {}", this);
+        invalidateAttributes();
 
         try {
             Files.delete(file.toPath());
@@ -151,6 +204,7 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
     @Override
     public void mkdir() {
         logger.debug("Creating directory {}", this);
+        invalidateAttributes();
 
         if (!file.mkdir()) {
             throw new RuntimeIOException("Cannot mkdir " + this);
@@ -160,6 +214,7 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
     @Override
     public void mkdirs() {
         logger.debug("Creating directory {}", this);
+        invalidateAttributes();
 
         if (!file.mkdirs()) {
             throw new RuntimeIOException("Cannot mkdir " + this);
@@ -177,11 +232,107 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
         return list;
     }
 
+    @Override
+    public Stream<OverthereFile> streamFiles() {
+        logger.debug("Streaming directory {}", this);
+
+        final DirectoryStream<Path> entries;
+        try {
+            entries = Files.newDirectoryStream(file.toPath());
+        } catch (IOException exc) {
+            throw new RuntimeIOException("Cannot list directory " + this, exc);
+        }
+        final Iterator<Path> it = entries.iterator();
+        return new FileListingIterator(this) {
+            @Override
+            protected OverthereFile computeNext() {
+                return it.hasNext() ? new LocalFile(connection, it.next().toFile()) : null;
+            }
+
+            @Override
+            protected void doClose() throws IOException {
+                entries.close();
+            }
+        }.stream();
+    }
+
     @Override
     protected void shortCircuitCopyFrom(OverthereFile source) {
         copyFrom(source);
     }
 
+    /**
+     * Copies local files within the operating system instead of through streams, see {@link LocalCopyStrategy}.
+     * Directories are walked with {@link Files#walkFileTree} and merged into an existing destination directory.
+     */
+    @Override
+    protected void copyFrom(OverthereFile source) {
+        if (!(source instanceof LocalFile)) {
+            super.copyFrom(source);
+            return;
+        }
+
+        logger.debug("Copying {} to {}", source, this);
+        Path srcPath = ((LocalFile) source).file.toPath();
+        Path dstPath = file.toPath();
+        try {
+            if (Files.isDirectory(srcPath)) {
+                copyDirectory(srcPath, dstPath);
+            } else {
+                checkNotADirectory(dstPath);
+                copyFile(srcPath, dstPath);
+            }
+        } catch (NoSuchFileException exc) {
+            throw new RuntimeIOException(format("Cannot copy %s to %s: %s does not exist", source, this, exc.getFile()), exc);
+        } catch (IOException exc) {
+            throw new RuntimeIOException(format("Cannot copy %s to %s", source, this), exc);
+        }
+    }
+
+    private void copyDirectory(final Path srcDir, final Path dstDir) throws IOException {
+        Files.walkFileTree(srcDir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path target = dstDir.resolve(srcDir.relativize(dir));
+                if (Files.exists(target) && !Files.isDirectory(target)) {
+                    throw new RuntimeIOException("Destination directory " + target + " exists but is not a directory");
+                }
+                Files.createDirectories(target);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path srcFile, BasicFileAttributes attrs) throws IOException {
+                Path target = dstDir.resolve(srcDir.relativize(srcFile));
+                checkNotADirectory(target);
+                copyFile(srcFile, target);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void copyFile(Path srcFile, Path dstFile) throws IOException {
+        if (Files.exists(dstFile) && Files.isSameFile(srcFile, dstFile)) {
+            return;
+        }
+        if (getConnection().copyStrategy == LocalCopyStrategy.HARDLINK) {
+            try {
+                Files.deleteIfExists(dstFile);
+                Files.createLink(dstFile, srcFile);
+                return;
+            } catch (IOException | UnsupportedOperationException exc) {
+                logger.debug("Cannot link {} to {}, copying it instead: {}", dstFile, srcFile, exc.toString());
+            }
+        }
+        Files.copy(srcFile, dstFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void checkNotADirectory(Path dstFile) {
+        if (Files.isDirectory(dstFile)) {
+            throw new RuntimeIOException("Destination file " + dstFile + " exists but is a directory");
+        }
+    }
+
     @Override
     public void renameTo(OverthereFile dest) {
         logger.debug("Renaming {} to {}", this, dest);
@@ -189,6 +340,8 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
         if (!(dest instanceof LocalFile)) {
             throw new RuntimeIOException("Destination is not a " + LocalFile.class.getName());
         }
+        invalidateAttributes();
+        invalidateAttributes(dest);
 
         if (!file.renameTo(((LocalFile) dest).file)) {
             throw new RuntimeIOException("Cannot rename " + this + " to " + dest);
@@ -215,6 +368,7 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
     @Override
     public OutputStream getOutputStream() {
         logger.debug("Opening file output stream for {}", this);
+        invalidateAttributes();
 
         try {
             return asBuffered(new FileOutputStream(file){
@@ -229,6 +383,21 @@ public class LocalFile extends BaseOverthereFile<LocalConnection> implements Ser
         }
     }
 
+    /**
+     * Opens a {@link FileChannel}, which accepts all {@link java.nio.file.StandardOpenOption standard open options}.
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(OpenOption... options) {
+        logger.debug("Opening file channel for {}", this);
+        invalidateAttributes();
+
+        try {
+            return FileChannel.open(file.toPath(), options);
+        } catch (IOException exc) {
+            throw new RuntimeIOException("Cannot open " + this, exc);
+        }
+    }
+
     @Override
     public boolean equals(Object that) {
         if (!(that instanceof LocalFile))
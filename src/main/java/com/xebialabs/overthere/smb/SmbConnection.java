@@ -41,6 +41,7 @@ import com.xebialabs.overthere.ConnectionOptions;
 import com.xebialabs.overthere.OverthereFile;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.cifs.CifsConnectionType;
+import com.xebialabs.overthere.cifs.ZipBulkTransfer;
 import com.xebialabs.overthere.proxy.ProxyConnection;
 import com.xebialabs.overthere.spi.AddressPortMapper;
 import com.xebialabs.overthere.spi.BaseOverthereConnection;
@@ -49,7 +50,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 import static com.xebialabs.overthere.ConnectionOptions.*;
 import static com.xebialabs.overthere.cifs.CifsConnectionBuilder.CONNECTION_TYPE;
@@ -66,10 +72,12 @@ public class SmbConnection extends BaseOverthereConnection {
     private Connection connection;
     private Session session;
     private int port;
+    private final ConcurrentMap<String, DiskShare> shares = new ConcurrentHashMap<>();
 
     protected final String password;
     protected CifsConnectionType cifsConnectionType;
     protected final String username;
+    protected final ZipBulkTransfer zipBulkTransfer;
 
     private static ConnectionOptions fixOptions(final ConnectionOptions options) {
         CifsConnectionType type = options.getEnum(CONNECTION_TYPE, CifsConnectionType.class);
@@ -115,6 +123,7 @@ public class SmbConnection extends BaseOverthereConnection {
                 .withEncryptData(encryptData)
                 .build();
         client = new SMBClient(config);
+        zipBulkTransfer = new ZipBulkTransfer(options);
     }
 
     public void connect() {
@@ -153,6 +162,14 @@ public class SmbConnection extends BaseOverthereConnection {
 
     @Override
     protected void doClose() {
+        List<DiskShare> connectedShares;
+        synchronized (shares) {
+            connectedShares = new ArrayList<>(shares.values());
+            shares.clear();
+        }
+        for (DiskShare share : connectedShares) {
+            closeShare(share);
+        }
         try {
             if (session != null) {
                 session.close();
@@ -188,7 +205,47 @@ public class SmbConnection extends BaseOverthereConnection {
         return "smb:" + cifsConnectionType.toString().toLowerCase() + "://" + username + "@" + hostname + ":" + smbPort + ":" + port;
     }
 
+    /**
+     * Returns the connected share with the given name. Shares are connected once per session and reused by all files
+     * of this connection, a share that has been disconnected is connected again.
+     */
     protected DiskShare getShare(String shareName) {
+        DiskShare share = shares.get(shareName);
+        if (share != null && share.isConnected()) {
+            return share;
+        }
+        synchronized (shares) {
+            share = shares.get(shareName);
+            if (share == null || !share.isConnected()) {
+                share = connectShare(shareName);
+                shares.put(shareName, share);
+            }
+            return share;
+        }
+    }
+
+    /**
+     * Runs an operation on the share with the given name. If the tree connect of a cached share has been invalidated
+     * by the server, the share is connected again and the operation is retried once.
+     */
+    <T> T withShare(String shareName, Function<DiskShare, T> operation) {
+        DiskShare share = getShare(shareName);
+        try {
+            return operation.apply(share);
+        } catch (SMBApiException exc) {
+            if (exc.getStatus() != NtStatus.STATUS_NETWORK_NAME_DELETED) {
+                throw exc;
+            }
+            logger.debug("Share {} was disconnected by the server, reconnecting", shareName);
+            if (shares.remove(shareName, share)) {
+                closeShare(share);
+            }
+            return operation.apply(getShare(shareName));
+        }
+    }
+
+    private DiskShare connectShare(String shareName) {
+        logger.debug("Connecting to share {}", shareName);
         Share share = session.connectShare(shareName);
         if (!(share instanceof DiskShare)) {
             close();
@@ -197,6 +254,14 @@ public class SmbConnection extends BaseOverthereConnection {
         return (DiskShare) share;
     }
 
+    private static void closeShare(DiskShare share) {
+        try {
+            share.close();
+        } catch (IOException e) {
+            logger.warn("Exception while trying to close smb share", e);
+        }
+    }
+
     private UserAndDomain getUserNameAndDomain(String user) {
         if (user.contains("\\")) {
             String[] split = user.split("\\\\");
@@ -25,29 +25,40 @@ package com.xebialabs.overthere.smb;
 import com.hierynomus.msdtyp.AccessMask;
 import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileAllInformation;
 import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
 import com.hierynomus.mssmb2.SMB2CreateDisposition;
 import com.hierynomus.mssmb2.SMB2ShareAccess;
 import com.hierynomus.mssmb2.SMBApiException;
 import com.hierynomus.protocol.commons.EnumWithValue.EnumUtils;
 import com.hierynomus.smbj.share.DiskEntry;
+import com.hierynomus.smbj.share.Directory;
 import com.hierynomus.smbj.share.DiskShare;
 import com.hierynomus.smbj.share.File;
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.spi.BaseOverthereFile;
+import com.xebialabs.overthere.spi.BulkCopySupport;
+import com.xebialabs.overthere.spi.ByteChannelOptions;
+import com.xebialabs.overthere.spi.FileListingIterator;
+import com.xebialabs.overthere.spi.PositionalByteChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static java.lang.String.format;
 
 
-public class SmbFile extends BaseOverthereFile<SmbConnection> {
+public class SmbFile extends BaseOverthereFile<SmbConnection> implements BulkCopySupport {
 
     private final String hostPath;
     private boolean overwrite = true;
@@ -85,7 +96,39 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
 
     @Override
     public boolean exists() {
-        return isFile() || isDirectory();
+        return getAttributes().exists();
+    }
+
+    /**
+     * Retrieves the attributes by opening the file or directory once with the maximum access allowed and querying all
+     * of its information through that handle, so that the permissions reflect the access granted to the user.
+     */
+    @Override
+    protected OverthereFileAttributes retrieveAttributes() {
+        logger.debug("Retrieving attributes of {}", getPath());
+        String pathOnShare = getPathOnShare();
+        FileAllInformation info;
+        int accessFlags;
+        try {
+            info = onShare(share -> {
+                try (DiskEntry entry = share.open(pathOnShare, EnumSet.of(AccessMask.MAXIMUM_ALLOWED), null, SMB2ShareAccess.ALL,
+                        SMB2CreateDisposition.FILE_OPEN, null)) {
+                    return entry.getFileInformation();
+                }
+            });
+            accessFlags = info.getAccessInformation().getAccessFlags();
+        } catch (SMBApiException e) {
+            if (e.getStatus().equals(NtStatus.STATUS_OBJECT_NAME_NOT_FOUND) ||
+                    e.getStatus().equals(NtStatus.STATUS_OBJECT_PATH_NOT_FOUND))
+                return OverthereFileAttributes.nonExistent();
+            throw new RuntimeIOException(format("Cannot retrieve attributes of %s: %s", getPathOnShare(), e.toString()), e);
+        }
+        boolean isDirectory = info.getStandardInformation().isDirectory();
+        long attrMask = info.getBasicInformation().getFileAttributes();
+        return new OverthereFileAttributes(true, !isDirectory, isDirectory, EnumUtils.isSet(attrMask, FileAttributes.FILE_ATTRIBUTE_HIDDEN),
+                info.getStandardInformation().getEndOfFile(), info.getBasicInformation().getLastWriteTime().toEpochMillis(),
+                EnumUtils.isSet(accessFlags, AccessMask.FILE_READ_DATA), EnumUtils.isSet(accessFlags, AccessMask.FILE_WRITE_DATA),
+                EnumUtils.isSet(accessFlags, AccessMask.FILE_EXECUTE));
     }
 
     @Override
@@ -121,15 +164,22 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
 
     private int getAccessMask(Set<AccessMask> requestAccesSet) {
     	String pathOnShare = getPathOnShare();
-    	try (DiskEntry entry = getShare().open(pathOnShare, requestAccesSet, null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null)) {
-            return entry.getFileInformation().getAccessInformation().getAccessFlags();
-        }
+    	return onShare(share -> {
+            try (DiskEntry entry = share.open(pathOnShare, requestAccesSet, null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null)) {
+                return entry.getFileInformation().getAccessInformation().getAccessFlags();
+            }
+        });
     }
 
     @Override
     public boolean isFile() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isFile();
+        }
         try {
-            return getShare().fileExists(getPathOnShare());
+            String pathOnShare = getPathOnShare();
+            return onShare(share -> share.fileExists(pathOnShare));
         } catch (SMBApiException e) {
             if (e.getStatus().equals(NtStatus.STATUS_FILE_IS_A_DIRECTORY) ||
                     e.getStatus().equals(NtStatus.STATUS_OBJECT_PATH_NOT_FOUND))
@@ -140,8 +190,13 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
 
     @Override
     public boolean isDirectory() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isDirectory();
+        }
         try {
-            return getShare().folderExists(getPathOnShare());
+            String pathOnShare = getPathOnShare();
+            return onShare(share -> share.folderExists(pathOnShare));
         } catch (SMBApiException e) {
             if (e.getStatus().equals(NtStatus.STATUS_NOT_A_DIRECTORY) ||
                     e.getStatus().equals(NtStatus.STATUS_OBJECT_PATH_NOT_FOUND))
@@ -157,19 +212,30 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
 
     @Override
     public long lastModified() {
-        return 0;
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.lastModified();
+        }
+        String pathOnShare = getPathOnShare();
+        return onShare(share -> share.getFileInformation(pathOnShare).getBasicInformation().getLastWriteTime().toEpochMillis());
     }
 
     @Override
     public long length() {
-        return getShare().getFileInformation(getPathOnShare()).getStandardInformation().getEndOfFile();
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.length();
+        }
+        String pathOnShare = getPathOnShare();
+        return onShare(share -> share.getFileInformation(pathOnShare).getStandardInformation().getEndOfFile());
     }
 
     @Override
     public InputStream getInputStream() throws RuntimeIOException {
         logger.debug("Opening SMB input stream for {}", getSharePath());
-        final File file = getShare().openFile(getPathOnShare(),
-                EnumSet.of(AccessMask.GENERIC_READ), null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null);
+        final String pathOnShare = getPathOnShare();
+        final File file = onShare(share -> share.openFile(pathOnShare,
+                EnumSet.of(AccessMask.GENERIC_READ), null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null));
 
         final InputStream wrapped = file.getInputStream();
         return asBuffered(new InputStream() {
@@ -203,13 +269,29 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
         });
     }
 
+    /**
+     * Copies a directory as one zip archive that is expanded on the host, if the connection can start processes.
+     */
+    @Override
+    public boolean copyFromBulk(OverthereFile source) {
+        return connection.zipBulkTransfer.copy(source, this);
+    }
+
+    @Override
+    public boolean copyToBulk(OverthereFile destination) {
+        return false;
+    }
+
     @Override
     public OutputStream getOutputStream() {
         logger.debug("Opening SMB output stream for {}", getSharePath());
+        invalidateAttributes();
         SMB2CreateDisposition createDisposition = SMB2CreateDisposition.FILE_OVERWRITE_IF;
         if (!overwrite) createDisposition = SMB2CreateDisposition.FILE_CREATE;
-        final File file = getShare().openFile(getPathOnShare(), EnumSet.of(AccessMask.GENERIC_WRITE),
-                null, SMB2ShareAccess.ALL, createDisposition, null);
+        final SMB2CreateDisposition disposition = createDisposition;
+        final String pathOnShare = getPathOnShare();
+        final File file = onShare(share -> share.openFile(pathOnShare, EnumSet.of(AccessMask.GENERIC_WRITE),
+                null, SMB2ShareAccess.ALL, disposition, null));
 
         final OutputStream wrapped = file.getOutputStream();
 
@@ -244,6 +326,64 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
         });
     }
 
+    /**
+     * Opens a channel that reads and writes with SMB2 requests at the position of the channel.
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(OpenOption... options) {
+        ByteChannelOptions channelOptions = ByteChannelOptions.of(options);
+        logger.debug("Opening SMB byte channel for {}", getSharePath());
+        invalidateAttributes();
+
+        Set<AccessMask> accessMask = EnumSet.noneOf(AccessMask.class);
+        if (channelOptions.isRead()) {
+            accessMask.add(AccessMask.GENERIC_READ);
+        }
+        if (channelOptions.isWrite()) {
+            accessMask.add(AccessMask.GENERIC_WRITE);
+        }
+
+        final SMB2CreateDisposition disposition;
+        if (channelOptions.isCreateNew()) {
+            disposition = SMB2CreateDisposition.FILE_CREATE;
+        } else if (channelOptions.isCreate()) {
+            disposition = channelOptions.isTruncateExisting() ? SMB2CreateDisposition.FILE_OVERWRITE_IF : SMB2CreateDisposition.FILE_OPEN_IF;
+        } else {
+            disposition = channelOptions.isTruncateExisting() ? SMB2CreateDisposition.FILE_OVERWRITE : SMB2CreateDisposition.FILE_OPEN;
+        }
+
+        final String pathOnShare = getPathOnShare();
+        final File file = onShare(share -> share.openFile(pathOnShare, accessMask, null, SMB2ShareAccess.ALL, disposition, null));
+
+        return new PositionalByteChannel(channelOptions, SMB_MAX_CHANNEL_WRITE_SIZE) {
+            @Override
+            protected int readAt(long offset, byte[] b, int off, int len) {
+                return file.read(b, offset, off, Math.min(len, SMB_MAX_READ_SIZE));
+            }
+
+            @Override
+            protected void writeAt(long offset, byte[] b, int off, int len) {
+                file.write(b, offset, off, len);
+            }
+
+            @Override
+            protected long sizeOf() {
+                return file.getFileInformation().getStandardInformation().getEndOfFile();
+            }
+
+            @Override
+            protected void truncateTo(long size) {
+                file.setLength(size);
+            }
+
+            @Override
+            protected void closeChannel() {
+                logger.debug("Closing SMB byte channel for {}", getSharePath());
+                file.close();
+            }
+        };
+    }
+
     @Override
     public void setExecutable(boolean executable) {
         // the execute permission does not exist on Windows
@@ -265,9 +405,9 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
         logger.debug("Listing directory {}", sharePath);
         try {
             List<OverthereFile> files = new ArrayList<>();
-            for (FileIdBothDirectoryInformation info : getShare().list(sharePath)) {
+            for (FileIdBothDirectoryInformation info : onShare(share -> share.list(sharePath))) {
                 if (!info.getFileName().equals(".") && !info.getFileName().equals("..")) {
-                    files.add(getFile(info.getFileName()));
+                    files.add(getListedFile(info));
                 }
             }
             return files;
@@ -276,16 +416,70 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
         }
     }
 
+    @Override
+    public Stream<OverthereFile> streamFiles() {
+        String sharePath = getPathOnShare();
+        logger.debug("Streaming directory {}", sharePath);
+        final Directory directory;
+        try {
+            directory = onShare(share -> share.openDirectory(sharePath, EnumSet.of(AccessMask.FILE_LIST_DIRECTORY), null,
+                    SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null));
+        } catch (SMBApiException e) {
+            throw new RuntimeIOException(format("Cannot list directory %s: %s", sharePath, e.toString()), e);
+        }
+        // Each QUERY_DIRECTORY continuation is only sent when the entries of the previous one have been consumed
+        final Iterator<FileIdBothDirectoryInformation> infos = directory.iterator(FileIdBothDirectoryInformation.class);
+        return new FileListingIterator(this) {
+            @Override
+            protected OverthereFile computeNext() {
+                while (infos.hasNext()) {
+                    FileIdBothDirectoryInformation info = infos.next();
+                    if (!info.getFileName().equals(".") && !info.getFileName().equals("..")) {
+                        return getListedFile(info);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            protected void doClose() {
+                directory.close();
+            }
+        }.stream();
+    }
+
+    private SmbFile getListedFile(FileIdBothDirectoryInformation info) {
+        SmbFile file = (SmbFile) getFile(info.getFileName());
+        file.setListedAttributes(toListedAttributes(info));
+        return file;
+    }
+
+    /**
+     * The directory listing does not include the access granted to the user, so the permissions are derived from the
+     * read-only attribute.
+     */
+    private static OverthereFileAttributes toListedAttributes(FileIdBothDirectoryInformation info) {
+        long attrMask = info.getFileAttributes();
+        boolean isDirectory = EnumUtils.isSet(attrMask, FileAttributes.FILE_ATTRIBUTE_DIRECTORY);
+        return new OverthereFileAttributes(true, !isDirectory, isDirectory, EnumUtils.isSet(attrMask, FileAttributes.FILE_ATTRIBUTE_HIDDEN),
+                info.getEndOfFile(), info.getLastWriteTime().toEpochMillis(), true,
+                !EnumUtils.isSet(attrMask, FileAttributes.FILE_ATTRIBUTE_READONLY), true);
+    }
+
     @Override
     public void mkdir() {
         makeDirectory(getPathOnShare());
     }
 
     private void makeDirectory(String path) {
+        invalidateAttributes();
         String sharePath = getPathOnShare();
         logger.debug("Creating directory {}", sharePath);
         try {
-            getShare().mkdir(path);
+            onShare(share -> {
+                share.mkdir(path);
+                return null;
+            });
         } catch (SMBApiException e) {
             throw new RuntimeIOException(format("Cannot create directory %s: %s", sharePath, e.toString()), e);
         }
@@ -295,9 +489,10 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
     public void mkdirs() {
         String sharePath = getPathOnShare();
         logger.debug("Creating directories {}", sharePath);
+        invalidateAttributes();
         String[] paths = SmbPaths.getPathListFromOuterToInner(sharePath);
         for (String p : paths) {
-            if (!getShare().folderExists(p))
+            if (!onShare(share -> share.folderExists(p)))
                 makeDirectory(p);
         }
     }
@@ -306,6 +501,8 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
     public void renameTo(OverthereFile dest) {
         final String srcPathOnShare = getPathOnShare();
         logger.debug("Renaming {} to {}", srcPathOnShare, dest);
+        invalidateAttributes();
+        invalidateAttributes(dest);
         if (!(dest instanceof SmbFile)) {
             throw new RuntimeIOException(
                     format("Cannot move/rename smb:%s: file/directory %s  to non-smb:%s: file/directory %s",
@@ -313,21 +510,27 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
                             connection.cifsConnectionType.toString().toLowerCase(), dest));
         }
         SmbFile destSmbFile = (SmbFile) dest;
-        DiskShare destShare = destSmbFile.getShare();
-        DiskShare srcShare = getShare();
-        if (!srcShare.getSmbPath().toUncPath().equalsIgnoreCase(destShare.getSmbPath().toUncPath())) {
-            throw new RuntimeIOException(
-                    format("Cannot move smb:%s: file/directory %s on the other share smb:%s: file/directory %s",
-                            connection.cifsConnectionType.toString().toLowerCase(), getSharePath(),
-                            connection.cifsConnectionType.toString().toLowerCase(), dest));
-        }
-        try ( DiskEntry srcEntry = isFile()
-                ? srcShare.openFile(srcPathOnShare, EnumSet.of(AccessMask.DELETE), null,
-                                SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null)
-                : srcShare.openDirectory(srcPathOnShare, EnumSet.of(AccessMask.DELETE), null,
-                                SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null)
-        ) {
-            srcEntry.rename(destSmbFile.getPathOnShare());
+        final String destUncPath = destSmbFile.onShare(share -> share.getSmbPath().toUncPath());
+        final String destPathOnShare = destSmbFile.getPathOnShare();
+        final boolean isFile = isFile();
+        try {
+            onShare(srcShare -> {
+                if (!srcShare.getSmbPath().toUncPath().equalsIgnoreCase(destUncPath)) {
+                    throw new RuntimeIOException(
+                            format("Cannot move smb:%s: file/directory %s on the other share smb:%s: file/directory %s",
+                                    connection.cifsConnectionType.toString().toLowerCase(), getSharePath(),
+                                    connection.cifsConnectionType.toString().toLowerCase(), dest));
+                }
+                try ( DiskEntry srcEntry = isFile
+                        ? srcShare.openFile(srcPathOnShare, EnumSet.of(AccessMask.DELETE), null,
+                                        SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null)
+                        : srcShare.openDirectory(srcPathOnShare, EnumSet.of(AccessMask.DELETE), null,
+                                        SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null)
+                ) {
+                    srcEntry.rename(destPathOnShare);
+                }
+                return null;
+            });
         } catch (SMBApiException exc) {
             throw new RuntimeIOException(
                     format("Cannot move/rename %s to %s: %s", srcPathOnShare, dest, exc.toString()), exc);
@@ -354,13 +557,21 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
 
     private void delete(boolean recursive) {
         String sharePath = getPathOnShare();
+        boolean isFile = getAttributes().isFile();
+        invalidateAttributes();
         try {
-            if (isFile()) {
+            if (isFile) {
                 logger.debug("deleting file {}", sharePath);
-                getShare().rm(sharePath);
+                onShare(share -> {
+                    share.rm(sharePath);
+                    return null;
+                });
             } else {
                 logger.debug("deleting directory {}", sharePath);
-                getShare().rmdir(sharePath, recursive);
+                onShare(share -> {
+                    share.rmdir(sharePath, recursive);
+                    return null;
+                });
             }
         } catch (SMBApiException e) {
             throw new RuntimeIOException(format("Cannot delete %s: %s", sharePath, e.toString()), e);
@@ -375,13 +586,14 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
         return SmbPaths.getPathOnShare(getSharePath());
     }
 
-    private DiskShare getShare() {
+    private <T> T onShare(Function<DiskShare, T> operation) {
         String shareName = SmbPaths.getShareName(getSharePath());
-        return connection.getShare(shareName);
+        return connection.withShare(shareName, operation);
     }
 
     private boolean checkAttributes(FileAttributes mask) {
-        long attrMask = getShare().getFileInformation(getPathOnShare()).getBasicInformation().getFileAttributes();
+        String pathOnShare = getPathOnShare();
+        long attrMask = onShare(share -> share.getFileInformation(pathOnShare).getBasicInformation().getFileAttributes());
         return EnumUtils.isSet(attrMask, mask);
     }
 
@@ -389,5 +601,15 @@ public class SmbFile extends BaseOverthereFile<SmbConnection> {
         return new SmbFile(getConnection(), path, pathMappings);
     }
 
+    /**
+     * The largest read that every SMB2 server has to accept.
+     */
+    private static final int SMB_MAX_READ_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes written by a byte channel at a time. smbj splits them into requests the server accepts.
+     */
+    private static final int SMB_MAX_CHANNEL_WRITE_SIZE = 1024 * 1024;
+
     private static Logger logger = LoggerFactory.getLogger(SmbFile.class);
 }
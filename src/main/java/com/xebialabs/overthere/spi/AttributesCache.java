@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.OverthereFileAttributes;
+
+/**
+ * Caches the attributes of the files of a connection by path. It is enabled with the
+ * {@link ConnectionOptions#ATTRIBUTES_CACHE_TTL_MILLIS} connection option. Entries expire after that time and the least
+ * recently used entries are evicted when more than {@link ConnectionOptions#ATTRIBUTES_CACHE_MAX_SIZE} paths are cached.
+ * <p/>
+ * Files invalidate the entries of their path, their ancestors and, for directories, their descendants whenever they
+ * are modified through the connection. Modifications made by other means are only seen once the entries have expired.
+ */
+public final class AttributesCache {
+
+    private final long ttlNanos;
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * The cached paths in sorted order, so that the paths below a directory can be found as a range. Guarded by the
+     * lock on {@link #entries}.
+     */
+    private final NavigableSet<String> paths = new TreeSet<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    AttributesCache(long ttlMillis, final int maxSize) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    paths.remove(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return whether attributes are cached at all.
+     */
+    public boolean isEnabled() {
+        return ttlNanos > 0;
+    }
+
+    OverthereFileAttributes get(String path) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        synchronized (entries) {
+            Entry entry = entries.get(path);
+            if (entry != null) {
+                if (System.nanoTime() - entry.createdNanos < ttlNanos) {
+                    hits.incrementAndGet();
+                    return entry.attributes;
+                }
+                remove(path);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(String path, OverthereFileAttributes attributes) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            paths.add(path);
+            entries.put(path, new Entry(attributes, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Removes the entries of a path and of its ancestors, which may have been created or whose contents have changed.
+     * If the path was not known to be a regular file, the entries of the paths below it are removed as well.
+     */
+    void invalidate(String path) {
+        invalidate(path, false);
+    }
+
+    /**
+     * Removes the entries of a path, of its ancestors and of all the paths below it, e.g. after a copy that may have
+     * created the path and its descendants while it was cached as non-existent.
+     */
+    void invalidateTree(String path) {
+        invalidate(path, true);
+    }
+
+    private void invalidate(String path, boolean tree) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            for (int i = path.length() - 2; i >= 0; i--) {
+                if (isSeparator(path.charAt(i))) {
+                    remove(path.substring(0, i));
+                    remove(path.substring(0, i + 1));
+                }
+            }
+
+            Entry removed = remove(path);
+            if ((!tree && removed != null && !removed.attributes.isDirectory()) || path.isEmpty()) {
+                return;
+            }
+            if (isSeparator(path.charAt(path.length() - 1))) {
+                removeStartingWith(path);
+            } else {
+                removeStartingWith(path + '/');
+                removeStartingWith(path + '\\');
+            }
+        }
+    }
+
+    private Entry remove(String path) {
+        paths.remove(path);
+        return entries.remove(path);
+    }
+
+    /**
+     * Removes the entries of the paths that start with a prefix, which sort from the prefix up to the prefix with its
+     * last character incremented.
+     */
+    private void removeStartingWith(String prefix) {
+        int last = prefix.length() - 1;
+        String end = prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+        for (Iterator<String> it = paths.subSet(prefix, true, end, false).iterator(); it.hasNext(); ) {
+            entries.remove(it.next());
+            it.remove();
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            paths.clear();
+        }
+    }
+
+    /**
+     * @return the number of paths cached.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of times attributes were found in the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times attributes were not found in the cache and had to be retrieved from the host.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AttributesCache[size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+    private static class Entry {
+        final OverthereFileAttributes attributes;
+        final long createdNanos;
+
+        Entry(OverthereFileAttributes attributes, long createdNanos) {
+            this.attributes = attributes;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
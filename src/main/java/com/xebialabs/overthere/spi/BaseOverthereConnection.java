@@ -23,6 +23,7 @@
 package com.xebialabs.overthere.spi;
 
 import com.xebialabs.overthere.*;
+import com.xebialabs.overthere.util.OverthereFileCopier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -35,6 +36,9 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import static com.xebialabs.overthere.ConnectionOptions.*;
 import static com.xebialabs.overthere.util.ConsoleOverthereExecutionOutputHandler.syserrHandler;
@@ -67,6 +71,10 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
     protected final String temporaryFileHolderDirectoryNamePrefix;
     protected final List<OverthereFile> temporaryFileHolderDirectories = new ArrayList<>();
     protected final int streamBufferSize;
+    protected final int copyParallelism;
+    protected final Semaphore copyPermits;
+    private ExecutorService copyExecutor;
+    protected final AttributesCache attributesCache;
     protected int temporaryFileHolderDirectoryNameSuffix = 0;
     protected OverthereFile workingDirectory;
     private volatile boolean isConnected;
@@ -85,6 +93,10 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
         this.temporaryFileCreationRetries = options.getInteger(TEMPORARY_FILE_CREATION_RETRIES, TEMPORARY_FILE_CREATION_RETRIES_DEFAULT);
         this.temporaryFileHolderDirectoryNamePrefix = "ot-" + (new SimpleDateFormat("yyyyMMdd'T'HHmmssSSS")).format(new Date());
         this.streamBufferSize = options.getInteger(REMOTE_COPY_BUFFER_SIZE, REMOTE_COPY_BUFFER_SIZE_DEFAULT);
+        this.copyParallelism = options.getInteger(COPY_PARALLELISM, COPY_PARALLELISM_DEFAULT);
+        this.copyPermits = new Semaphore(Math.max(copyParallelism, 1));
+        this.attributesCache = new AttributesCache(options.getInteger(ATTRIBUTES_CACHE_TTL_MILLIS, ATTRIBUTES_CACHE_TTL_MILLIS_DEFAULT),
+                options.getInteger(ATTRIBUTES_CACHE_MAX_SIZE, ATTRIBUTES_CACHE_MAX_SIZE_DEFAULT));
     }
 
     protected void connected() {
@@ -102,6 +114,30 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
         return os;
     }
 
+    /**
+     * Returns the cache of file attributes of this connection, which is only enabled when the
+     * {@link ConnectionOptions#ATTRIBUTES_CACHE_TTL_MILLIS} connection option is set.
+     *
+     * @return the cache, never <code>null</code>.
+     */
+    public AttributesCache getAttributesCache() {
+        return attributesCache;
+    }
+
+    /**
+     * Returns the executor on which the files of directories copied to this connection are copied when the
+     * {@link ConnectionOptions#COPY_PARALLELISM} connection option is more than one. It is shared by all those copies,
+     * which together copy no more files at the same time than there are {@link #copyPermits}.
+     *
+     * @return the executor, whose threads are created as needed.
+     */
+    protected synchronized ExecutorService getCopyExecutor() {
+        if (copyExecutor == null) {
+            copyExecutor = Executors.newCachedThreadPool(OverthereFileCopier::newCopierThread);
+        }
+        return copyExecutor;
+    }
+
     /**
      * Closes the connection. Depending on the {@link ConnectionOptions#TEMPORARY_DIRECTORY_DELETE_ON_DISCONNECT}
      * connection option, deletes all temporary files that have been created on the host.
@@ -113,6 +149,13 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
         }
 
         try {
+            synchronized (this) {
+                if (copyExecutor != null) {
+                    copyExecutor.shutdown();
+                    copyExecutor = null;
+                }
+            }
+
             if (deleteTemporaryDirectoryOnDisconnect) {
                 deleteConnectionTemporaryDirectory();
             }
@@ -203,7 +246,7 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
         }
     }
 
-    private void deleteConnectionTemporaryDirectory() {
+    private synchronized void deleteConnectionTemporaryDirectory() {
         for (OverthereFile d : temporaryFileHolderDirectories) {
             try {
                 logger.info("Deleting temporary directory {}", d);
@@ -212,6 +255,30 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
                 logger.warn("Got exception while deleting connection temporary directory {}. Ignoring it.", d, exc);
             }
         }
+        temporaryFileHolderDirectories.clear();
+    }
+
+    /**
+     * Checks whether this connection can still be used. Subclasses that hold on to a transport that can be dropped by the
+     * remote host should override this method to check that transport as well.
+     *
+     * @return <code>true</code> if the connection is open and usable, <code>false</code> otherwise.
+     */
+    public boolean isValid() {
+        return isConnected;
+    }
+
+    /**
+     * Resets the state that one user of this connection may have left behind, so that the connection can be handed out
+     * again by a {@link com.xebialabs.overthere.OverthereConnectionPool}. The working directory is cleared and, depending
+     * on the {@link ConnectionOptions#TEMPORARY_DIRECTORY_DELETE_ON_DISCONNECT} connection option, the temporary files
+     * that have been created so far are deleted.
+     */
+    public void resetState() {
+        setWorkingDirectory(null);
+        if (deleteTemporaryDirectoryOnDisconnect) {
+            deleteConnectionTemporaryDirectory();
+        }
     }
 
     /**
@@ -254,6 +321,16 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
         return options;
     }
 
+    /**
+     * Returns the protocol used to construct this connection. Together with the {@link #getOptions() options} it can be
+     * used to open another connection to the same host.
+     *
+     * @return the protocol.
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
     @Override
     public final int execute(final CmdLine commandLine) {
         return execute(sysoutHandler(), syserrHandler(), commandLine);
@@ -302,7 +379,11 @@ public abstract class BaseOverthereConnection implements OverthereConnection {
         }
     }
 
-    private Thread getThread(final String streamName, final String commandLine, final OverthereExecutionOutputHandler outputHandler, final InputStream stream, final CountDownLatch latch, final Map<String, String> mdcContext) {
+    /**
+     * Creates a thread that reads a stream of a process line by line into a handler, with the given MDC context, and
+     * counts down the latch when the stream has been read.
+     */
+    protected Thread getThread(final String streamName, final String commandLine, final OverthereExecutionOutputHandler outputHandler, final InputStream stream, final CountDownLatch latch, final Map<String, String> mdcContext) {
         Thread t = new Thread(format("%s reader", streamName)) {
             @Override
             public void run() {
@@ -33,9 +33,11 @@ import org.slf4j.LoggerFactory;
 
 import com.xebialabs.overthere.CmdLine;
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.util.CapturingOverthereExecutionOutputHandler;
 import com.xebialabs.overthere.util.OverthereFileCopier;
+import com.xebialabs.overthere.util.ResumableFileCopier;
 
 import static com.xebialabs.overthere.util.OverthereUtils.checkArgument;
 import static com.xebialabs.overthere.ConnectionOptions.DIRECTORY_COPY_COMMAND_FOR_UNIX;
@@ -64,6 +66,8 @@ public abstract class BaseOverthereFile<C extends BaseOverthereConnection> imple
 
     protected C connection;
 
+    private volatile OverthereFileAttributes listedAttributes;
+
     protected BaseOverthereFile() {
         this.connection = null;
     }
@@ -82,9 +86,132 @@ public abstract class BaseOverthereFile<C extends BaseOverthereConnection> imple
         return getConnection().getFile(this, child);
     }
 
+    /**
+     * Returns the attributes read with the directory listing this file was returned from, the first time it is called,
+     * then those cached by the connection, and retrieves them from the host otherwise.
+     */
+    @Override
+    public OverthereFileAttributes getAttributes() {
+        OverthereFileAttributes attributes = listedAttributes;
+        if (attributes != null) {
+            // Only used once, as nothing expires them
+            listedAttributes = null;
+            return attributes;
+        }
+
+        AttributesCache cache = getAttributesCache();
+        if (cache == null) {
+            return retrieveAttributes();
+        }
+        attributes = cache.get(getPath());
+        if (attributes == null) {
+            attributes = retrieveAttributes();
+            cache.put(getPath(), attributes);
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns the attributes from {@link #getAttributes()} if they do not have to be retrieved from the host for this
+     * call alone, i.e. if the connection caches attributes or this file was returned by a listing that included them,
+     * and <code>null</code> otherwise. Implementations of {@link #exists()}, {@link #isFile()}, {@link #isDirectory()},
+     * {@link #length()} and {@link #lastModified()} answer from these attributes when they are available, so that the
+     * cache is used whichever accessor is called. Their {@link #retrieveAttributes()} must then not call them.
+     *
+     * @return the attributes of this file, or <code>null</code>.
+     */
+    protected final OverthereFileAttributes getCachedAttributes() {
+        if (listedAttributes == null && getAttributesCache() == null) {
+            return null;
+        }
+        return getAttributes();
+    }
+
+    /**
+     * Retrieves the attributes one by one. Subclasses should override this to retrieve them with a single request.
+     *
+     * @return the attributes of this file.
+     */
+    protected OverthereFileAttributes retrieveAttributes() {
+        return OverthereFile.super.getAttributes();
+    }
+
+    /**
+     * Sets the attributes read with the directory listing that returned this file. Implementations of
+     * {@link #listFiles()} call this when the listing includes the attributes of the children, so that
+     * {@link #getAttributes()} does not have to retrieve them again. If the connection caches attributes they are
+     * cached, and expire, like any other attributes. Otherwise they are kept with this file until the first call to
+     * {@link #getAttributes()}, which usually directly follows the listing.
+     *
+     * @param attributes the attributes of this file.
+     */
+    protected void setListedAttributes(OverthereFileAttributes attributes) {
+        AttributesCache cache = getAttributesCache();
+        if (cache != null) {
+            cache.put(getPath(), attributes);
+        } else {
+            this.listedAttributes = attributes;
+        }
+    }
+
+    /**
+     * Discards the attributes read with the directory listing and the attributes cached by the connection for this file,
+     * its ancestors and its descendants. Implementations call this whenever they modify the file.
+     */
+    protected void invalidateAttributes() {
+        this.listedAttributes = null;
+        AttributesCache cache = getAttributesCache();
+        if (cache != null) {
+            cache.invalidate(getPath());
+        }
+    }
+
+    /**
+     * Discards the attributes of this file, its ancestors and everything below it, whatever this file was known to be.
+     * Used after copies, which may create a whole tree where nothing, or a file, was cached before.
+     */
+    protected void invalidateAttributeTree() {
+        this.listedAttributes = null;
+        AttributesCache cache = getAttributesCache();
+        if (cache != null) {
+            cache.invalidateTree(getPath());
+        }
+    }
+
+    /**
+     * Discards the attributes of another file, e.g. the destination of {@link #renameTo(OverthereFile)}.
+     *
+     * @param file the file that is modified.
+     */
+    protected static void invalidateAttributes(OverthereFile file) {
+        if (file instanceof BaseOverthereFile) {
+            ((BaseOverthereFile<?>) file).invalidateAttributes();
+        }
+    }
+
+    private AttributesCache getAttributesCache() {
+        AttributesCache cache = connection != null ? connection.getAttributesCache() : null;
+        if (cache == null || !cache.isEnabled()) {
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * Returns this directory with the listings and attributes of the tree below it read in advance, so that walking
+     * the tree does not need a request per directory. Subclasses that can read a whole tree with a single request
+     * should override this. This implementation returns this directory itself.
+     *
+     * @param depthLimit how deep the tree is read (less than 0 means unlimited).
+     * @return a file for this directory whose {@link #listFiles()} returns the files read in advance.
+     */
+    public OverthereFile prefetchTree(int depthLimit) {
+        return this;
+    }
+
     @Override
     public void deleteRecursively() throws RuntimeIOException {
-        if (isDirectory()) {
+        if (getAttributes().isDirectory()) {
             RuntimeIOException accumulator = new RuntimeIOException("Cannot delete " + this + ", not all children are deleted.");
             for (OverthereFile each : listFiles()) {
                 try {
@@ -110,24 +237,42 @@ public abstract class BaseOverthereFile<C extends BaseOverthereConnection> imple
         copyToDestination(dest);
     }
 
+    /**
+     * Copies a regular file to another connection with a {@link ResumableFileCopier} if the configuration asks for a
+     * {@link ResumableFileCopier#RESUMABLE resumable} copy, and like {@link #copyTo(OverthereFile)} otherwise.
+     */
     @Override
     public final void copyToWithConfig(final OverthereFile dest, final Map<String, String> config) {
-        copyToDestination(dest);
+        if (ResumableFileCopier.isResumable(config) && !getConnection().equals(dest.getConnection()) && getAttributes().isFile()) {
+            try {
+                ResumableFileCopier.copy(this, dest, config);
+            } finally {
+                invalidateAttributes(dest);
+            }
+        } else {
+            copyToDestination(dest);
+        }
     }
 
     protected void copyFrom(OverthereFile source) {
-        OverthereFileCopier.copy(source, this);
+        if (connection.copyParallelism > 1) {
+            OverthereFileCopier.copy(source, this, connection.getCopyExecutor(), connection.copyPermits);
+        } else {
+            OverthereFileCopier.copy(source, this);
+        }
     }
 
     protected void shortCircuitCopyFrom(OverthereFile source) {
-        checkArgument(source.exists(), "Source file [%s] does not exist", source);
+        OverthereFileAttributes srcAttributes = source.getAttributes();
+        checkArgument(srcAttributes.exists(), "Source file [%s] does not exist", source);
 
-        boolean srcIsDir = source.isDirectory();
-        if (exists()) {
+        boolean srcIsDir = srcAttributes.isDirectory();
+        OverthereFileAttributes dstAttributes = getAttributes();
+        if (dstAttributes.exists()) {
             if (srcIsDir) {
-                checkArgument(isDirectory(), "Cannot copy source directory [%s] to target file [%s]", source, this);
+                checkArgument(dstAttributes.isDirectory(), "Cannot copy source directory [%s] to target file [%s]", source, this);
             } else {
-                checkArgument(!isDirectory(), "Cannot copy source file [%s] to target directory [%s]", source, this);
+                checkArgument(!dstAttributes.isDirectory(), "Cannot copy source file [%s] to target directory [%s]", source, this);
             }
         } else {
             if (srcIsDir) {
@@ -195,10 +340,17 @@ public abstract class BaseOverthereFile<C extends BaseOverthereConnection> imple
     private void copyToDestination(final OverthereFile dest) {
         checkArgument(dest instanceof BaseOverthereFile<?>, "dest is not a subclass of BaseOverthereFile");
 
-        if (getConnection().equals(dest.getConnection())) {
-            ((BaseOverthereFile<?>) dest).shortCircuitCopyFrom(this);
-        } else {
-            ((BaseOverthereFile<?>) dest).copyFrom(this);
+        BaseOverthereFile<?> baseDest = (BaseOverthereFile<?>) dest;
+        baseDest.invalidateAttributeTree();
+        try {
+            if (getConnection().equals(dest.getConnection())) {
+                baseDest.shortCircuitCopyFrom(this);
+            } else {
+                baseDest.copyFrom(this);
+            }
+        } finally {
+            // The copy looks up the destination, which caches it as it was before the copy
+            baseDest.invalidateAttributeTree();
         }
     }
 
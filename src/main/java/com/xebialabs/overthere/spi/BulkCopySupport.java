@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.util.OverthereFileCopier;
+
+/**
+ * Implemented by files that can copy a whole directory tree in one bulk transfer instead of file by file.
+ * {@link OverthereFileCopier} offers every directory it copies to the destination and then to the source, and only
+ * walks the directory itself when neither of them took the copy.
+ */
+public interface BulkCopySupport {
+
+    /**
+     * Copies the contents of a directory to this directory in one transfer, if the source is of a type this file can
+     * transfer from. This directory is created if it does not exist.
+     *
+     * @param source the source directory. Must exist and must be a directory.
+     * @return <code>true</code> if the directory was copied, <code>false</code> if it should be copied in another way.
+     */
+    boolean copyFromBulk(OverthereFile source);
+
+    /**
+     * Copies the contents of this directory to another directory in one transfer, if the destination is of a type this
+     * file can transfer to. The destination is created if it does not exist.
+     *
+     * @param destination the destination directory. Its parent directory must exist.
+     * @return <code>true</code> if the directory was copied, <code>false</code> if it should be copied in another way.
+     */
+    boolean copyToBulk(OverthereFile destination);
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@link StandardOpenOption open options} passed to {@link com.xebialabs.overthere.OverthereFile#newByteChannel(OpenOption...)},
+ * interpreted as {@link java.nio.file.Files#newByteChannel(java.nio.file.Path, OpenOption...)} does for protocols that
+ * implement the channel themselves.
+ */
+public final class ByteChannelOptions {
+
+    private final boolean read;
+    private final boolean write;
+    private final boolean append;
+    private final boolean create;
+    private final boolean createNew;
+    private final boolean truncateExisting;
+
+    private ByteChannelOptions(boolean read, boolean write, boolean append, boolean create, boolean createNew, boolean truncateExisting) {
+        this.read = read;
+        this.write = write;
+        this.append = append;
+        this.create = create;
+        this.createNew = createNew;
+        this.truncateExisting = truncateExisting;
+    }
+
+    /**
+     * Interprets open options. Without {@link StandardOpenOption#WRITE WRITE} or {@link StandardOpenOption#APPEND APPEND}
+     * the channel is opened for reading. {@link StandardOpenOption#CREATE CREATE},
+     * {@link StandardOpenOption#CREATE_NEW CREATE_NEW} and {@link StandardOpenOption#TRUNCATE_EXISTING TRUNCATE_EXISTING}
+     * are ignored when the channel is not opened for writing. {@link StandardOpenOption#SPARSE SPARSE} is ignored.
+     *
+     * @param options the options.
+     * @return the interpreted options.
+     * @throws IllegalArgumentException      if the options cannot be combined.
+     * @throws UnsupportedOperationException if an option is not supported.
+     */
+    public static ByteChannelOptions of(OpenOption... options) {
+        boolean read = false, write = false, append = false, create = false, createNew = false, truncateExisting = false;
+        for (OpenOption option : options) {
+            if (option == StandardOpenOption.READ) {
+                read = true;
+            } else if (option == StandardOpenOption.WRITE) {
+                write = true;
+            } else if (option == StandardOpenOption.APPEND) {
+                append = true;
+            } else if (option == StandardOpenOption.CREATE) {
+                create = true;
+            } else if (option == StandardOpenOption.CREATE_NEW) {
+                createNew = true;
+            } else if (option == StandardOpenOption.TRUNCATE_EXISTING) {
+                truncateExisting = true;
+            } else if (option != StandardOpenOption.SPARSE) {
+                throw new UnsupportedOperationException("Cannot open a byte channel with option " + option);
+            }
+        }
+
+        if (append) {
+            if (read) {
+                throw new IllegalArgumentException("Cannot open a byte channel with both READ and APPEND");
+            }
+            if (truncateExisting) {
+                throw new IllegalArgumentException("Cannot open a byte channel with both APPEND and TRUNCATE_EXISTING");
+            }
+            write = true;
+        }
+        if (!write) {
+            return new ByteChannelOptions(true, false, false, false, false, false);
+        }
+        return new ByteChannelOptions(read, true, append, create && !createNew, createNew, truncateExisting && !createNew);
+    }
+
+    /**
+     * @return whether the channel can be read from.
+     */
+    public boolean isRead() {
+        return read;
+    }
+
+    /**
+     * @return whether the channel can be written to.
+     */
+    public boolean isWrite() {
+        return write;
+    }
+
+    /**
+     * @return whether every write goes to the end of the file.
+     */
+    public boolean isAppend() {
+        return append;
+    }
+
+    /**
+     * @return whether the file is created if it does not exist. Never set together with {@link #isCreateNew()}.
+     */
+    public boolean isCreate() {
+        return create;
+    }
+
+    /**
+     * @return whether the file is created and opening fails if it already exists.
+     */
+    public boolean isCreateNew() {
+        return createNew;
+    }
+
+    /**
+     * @return whether an existing file is truncated to length <code>0</code> when it is opened.
+     */
+    public boolean isTruncateExisting() {
+        return truncateExisting;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.RuntimeIOException;
+
+/**
+ * Iterates over the entries of a directory listing that is read from the host while the entries are consumed.
+ * Subclasses read the next entry in {@link #computeNext()} and release the remote resources held by the listing in
+ * {@link #doClose()}, which is invoked once, either when the listing is exhausted or when it is closed early.
+ */
+public abstract class FileListingIterator implements Iterator<OverthereFile>, Closeable {
+
+    private final OverthereFile directory;
+
+    private OverthereFile next;
+
+    private boolean done;
+
+    private boolean closed;
+
+    protected FileListingIterator(OverthereFile directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Reads the next entry of the listing.
+     *
+     * @return the next entry, or <code>null</code> if the listing is exhausted.
+     */
+    protected abstract OverthereFile computeNext() throws IOException;
+
+    /**
+     * Releases the remote resources held by the listing.
+     */
+    protected abstract void doClose() throws IOException;
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            if (closed) {
+                throw new IllegalStateException("Listing of " + directory + " has been closed");
+            }
+            try {
+                next = computeNext();
+            } catch (IOException exc) {
+                closeAfterFailure();
+                throw new RuntimeIOException("Cannot list directory " + directory, exc);
+            } catch (RuntimeException exc) {
+                closeAfterFailure();
+                throw exc;
+            }
+            if (next == null) {
+                done = true;
+                close();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public OverthereFile next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        OverthereFile file = next;
+        next = null;
+        return file;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            doClose();
+        } catch (IOException exc) {
+            throw new RuntimeIOException("Cannot close listing of directory " + directory, exc);
+        }
+    }
+
+    /**
+     * @return a sequential stream of the remaining entries that closes this listing when the stream is closed.
+     */
+    public Stream<OverthereFile> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    private void closeAfterFailure() {
+        done = true;
+        try {
+            close();
+        } catch (RuntimeException exc) {
+            logger.debug("Ignoring exception while closing listing of directory {} after a failure", directory, exc);
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(FileListingIterator.class);
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Base class for {@link SeekableByteChannel SeekableByteChannels} on protocols that read and write at an explicit offset,
+ * such as SFTP and SMB. It keeps the position, implements append mode, splits transfers into requests of at most the
+ * maximum request size and checks that the channel is open and was opened for the operation, so that subclasses only
+ * have to implement the positional requests.
+ */
+public abstract class PositionalByteChannel implements SeekableByteChannel {
+
+    private final ByteChannelOptions options;
+
+    private final int maxRequestSize;
+
+    private byte[] transferBuffer;
+
+    private long position;
+
+    private boolean open = true;
+
+    /**
+     * @param options        how the file was opened.
+     * @param maxRequestSize the maximum number of bytes read or written by one request.
+     */
+    protected PositionalByteChannel(ByteChannelOptions options, int maxRequestSize) {
+        this.options = options;
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (!options.isRead()) {
+            throw new NonReadableChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int len = Math.min(dst.remaining(), maxRequestSize);
+        int n;
+        if (dst.hasArray()) {
+            n = readAt(position, dst.array(), dst.arrayOffset() + dst.position(), len);
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            byte[] b = transferBuffer(len);
+            n = readAt(position, b, 0, len);
+            if (n > 0) {
+                dst.put(b, 0, n);
+            }
+        }
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    /**
+     * Writes all remaining bytes of the buffer, with as many requests as needed.
+     */
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        checkOpen();
+        if (!options.isWrite()) {
+            throw new NonWritableChannelException();
+        }
+        if (options.isAppend()) {
+            position = sizeOf();
+        }
+        int written = 0;
+        while (src.hasRemaining()) {
+            int len = Math.min(src.remaining(), maxRequestSize);
+            if (src.hasArray()) {
+                writeAt(position, src.array(), src.arrayOffset() + src.position(), len);
+                src.position(src.position() + len);
+            } else {
+                byte[] b = transferBuffer(len);
+                src.get(b, 0, len);
+                writeAt(position, b, 0, len);
+            }
+            position += len;
+            written += len;
+        }
+        return written;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position must not be negative but was " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        checkOpen();
+        return sizeOf();
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long size) throws IOException {
+        checkOpen();
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must not be negative but was " + size);
+        }
+        if (!options.isWrite()) {
+            throw new NonWritableChannelException();
+        }
+        if (size < sizeOf()) {
+            truncateTo(size);
+        }
+        if (position > size) {
+            position = size;
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (open) {
+            open = false;
+            closeChannel();
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private byte[] transferBuffer(int len) {
+        if (transferBuffer == null || transferBuffer.length < len) {
+            transferBuffer = new byte[len];
+        }
+        return transferBuffer;
+    }
+
+    /**
+     * Reads bytes at an offset with one request.
+     *
+     * @param offset the offset in the file.
+     * @param b      the array to read into.
+     * @param off    the offset in the array.
+     * @param len    the maximum number of bytes to read, at least one and at most the maximum request size.
+     * @return the number of bytes read, possibly fewer than <code>len</code>, or <code>-1</code> if the offset is at or
+     * beyond the end of the file.
+     */
+    protected abstract int readAt(long offset, byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Writes bytes at an offset with one request.
+     *
+     * @param offset the offset in the file.
+     * @param b      the array to write from.
+     * @param off    the offset in the array.
+     * @param len    the number of bytes to write, at least one and at most the maximum request size.
+     */
+    protected abstract void writeAt(long offset, byte[] b, int off, int len) throws IOException;
+
+    /**
+     * @return the current size of the file.
+     */
+    protected abstract long sizeOf() throws IOException;
+
+    /**
+     * Truncates the file.
+     *
+     * @param size the new size of the file, smaller than the current size.
+     */
+    protected abstract void truncateTo(long size) throws IOException;
+
+    /**
+     * Releases the remote resources held by the channel. Called once.
+     */
+    protected abstract void closeChannel() throws IOException;
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.util.OverthereFileCopier;
+
+/**
+ * Implemented by files that can copy a large regular file in segments, transferring several byte ranges of the file at
+ * the same time. {@link OverthereFileCopier} offers every regular file it copies to the destination and then to the
+ * source, and only copies the file through its streams when neither of them took the copy.
+ */
+public interface SegmentedCopySupport {
+
+    /**
+     * Copies a regular file to this file in segments, if the source is large enough and can be read at arbitrary
+     * offsets.
+     *
+     * @param source the source file. Must exist and must be a regular file.
+     * @return <code>true</code> if the file was copied, <code>false</code> if it should be copied in another way.
+     */
+    boolean copyFromSegmented(OverthereFile source);
+
+    /**
+     * Copies this regular file to another file in segments, if this file is large enough and the destination can be
+     * written at arbitrary offsets.
+     *
+     * @param destination the destination file. Must not be a directory. Its parent directory must exist.
+     * @return <code>true</code> if the file was copied, <code>false</code> if it should be copied in another way.
+     */
+    boolean copyToSegmented(OverthereFile destination);
+
+}
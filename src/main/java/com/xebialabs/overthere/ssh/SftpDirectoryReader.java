@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.RemoteDirectory;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
+
+/**
+ * An open SFTP directory that is read one <code>READDIR</code> batch at a time, contrary to
+ * {@link RemoteDirectory#scan(net.schmizz.sshj.sftp.RemoteResourceFilter)} which reads the whole directory before
+ * returning.
+ */
+class SftpDirectoryReader extends RemoteDirectory {
+
+    private SftpDirectoryReader(SFTPEngine engine, String path, byte[] handle) {
+        super(engine, path, handle);
+    }
+
+    static SftpDirectoryReader open(SFTPEngine engine, String path) throws IOException {
+        byte[] handle = engine.request(engine.newRequest(PacketType.OPENDIR).putString(path, engine.getSubsystem().getRemoteCharset()))
+                .retrieve(engine.getTimeoutMs(), TimeUnit.MILLISECONDS)
+                .ensurePacketTypeIs(PacketType.HANDLE)
+                .readBytes();
+        return new SftpDirectoryReader(engine, path, handle);
+    }
+
+    /**
+     * Reads the next batch of entries, skipping <code>.</code> and <code>..</code>.
+     *
+     * @return the entries, or <code>null</code> if the end of the directory has been reached.
+     */
+    List<RemoteResourceInfo> readBatch() throws IOException {
+        Response res = requester.request(newRequest(PacketType.READDIR)).retrieve(requester.getTimeoutMs(), TimeUnit.MILLISECONDS);
+        switch (res.getType()) {
+        case NAME:
+            int count = res.readUInt32AsInt();
+            List<RemoteResourceInfo> batch = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = res.readString(requester.getSubsystem().getRemoteCharset());
+                res.readString(); // long name
+                FileAttributes attrs = res.readFileAttributes();
+                if (!".".equals(name) && !"..".equals(name)) {
+                    batch.add(new RemoteResourceInfo(requester.getPathHelper().getComponents(path, name), attrs));
+                }
+            }
+            return batch;
+        case STATUS:
+            res.ensureStatusIs(Response.StatusCode.EOF);
+            return null;
+        default:
+            throw new SFTPException("Unexpected packet: " + res.getType());
+        }
+    }
+}
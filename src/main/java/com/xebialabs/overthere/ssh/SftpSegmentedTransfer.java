@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.RuntimeIOException;
+
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+import static java.lang.String.format;
+
+/**
+ * Copies a large file between the local host and an SFTP host in segments. The file is split into byte ranges of
+ * {@link SshConnectionBuilder#SFTP_SEGMENT_SIZE} bytes that are read and written at their own offsets, several at the
+ * same time, each over an SFTP channel of its own. The segments may be spread over additional SSH connections to the
+ * same host. A segment that fails is transferred again from its start, and the size of the copy is verified once all
+ * segments are done.
+ */
+class SftpSegmentedTransfer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger segmentThreadCount = new AtomicInteger();
+
+    private final SshSftpConnection connection;
+
+    private final String sftpPath;
+
+    private final File localFile;
+
+    private final boolean upload;
+
+    private final long length;
+
+    SftpSegmentedTransfer(SshSftpConnection connection, String sftpPath, File localFile, boolean upload, long length) {
+        this.connection = connection;
+        this.sftpPath = sftpPath;
+        this.localFile = localFile;
+        this.upload = upload;
+        this.length = length;
+    }
+
+    /**
+     * Uploads a local file in segments.
+     *
+     * @param localFile  the local file to read.
+     * @param connection the connection to the host to write to.
+     * @param sftpPath   the SFTP path of the file to write.
+     */
+    static void upload(File localFile, SshSftpConnection connection, String sftpPath) {
+        new SftpSegmentedTransfer(connection, sftpPath, localFile, true, localFile.length()).transfer();
+    }
+
+    /**
+     * Downloads a remote file in segments.
+     *
+     * @param connection the connection to the host to read from.
+     * @param sftpPath   the SFTP path of the file to read.
+     * @param length     the length of the file to read.
+     * @param localFile  the local file to write.
+     */
+    static void download(SshSftpConnection connection, String sftpPath, long length, File localFile) {
+        new SftpSegmentedTransfer(connection, sftpPath, localFile, false, length).transfer();
+    }
+
+    private void transfer() {
+        logger.info("Copying {} in segments of {} bytes {} {}:{}", localFile, connection.sftpSegmentSize, upload ? "to" : "from", connection, sftpPath);
+        createDestination();
+
+        List<SshSftpConnection> connections = new ArrayList<>();
+        connections.add(connection);
+        ExecutorService pool = Executors.newFixedThreadPool(connection.sftpSegmentParallelism, r -> {
+            Thread t = new Thread(r, "Overthere SFTP segment copier " + segmentThreadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (int i = 1; i < connection.sftpSegmentConnections; i++) {
+                connections.add(connection.openSegmentConnection());
+            }
+
+            List<Future<?>> segments = new ArrayList<>();
+            int index = 0;
+            for (final Segment segment : plan(length, connection.sftpSegmentSize)) {
+                final SshSftpConnection segmentConnection = connections.get(index++ % connections.size());
+                segments.add(pool.submit(() -> transferSegment(segmentConnection, segment.offset, segment.length)));
+            }
+            awaitSegments(segments);
+        } finally {
+            pool.shutdownNow();
+            for (SshSftpConnection c : connections.subList(1, connections.size())) {
+                closeQuietly(c);
+            }
+        }
+
+        verifyLength();
+    }
+
+    /**
+     * Splits a file into consecutive segments of <code>segmentSize</code> bytes, the last of which may be shorter.
+     */
+    static List<Segment> plan(long length, int segmentSize) {
+        List<Segment> segments = new ArrayList<>();
+        for (long offset = 0; offset < length; offset += segmentSize) {
+            segments.add(new Segment(offset, Math.min(segmentSize, length - offset)));
+        }
+        return segments;
+    }
+
+    private void awaitSegments(List<Future<?>> segments) {
+        RuntimeException failure = null;
+        for (Future<?> segment : segments) {
+            try {
+                if (failure == null) {
+                    segment.get();
+                } else {
+                    segment.cancel(true);
+                }
+            } catch (ExecutionException exc) {
+                Throwable cause = exc.getCause();
+                failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeIOException(cause);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                failure = new RuntimeIOException(format("Interrupted while copying %s in segments", localFile), exc);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Copies a segment, starting it again up to {@link SshConnectionBuilder#SFTP_SEGMENT_RETRIES} times when it fails.
+     */
+    void transferSegment(SshSftpConnection segmentConnection, long offset, long segmentLength) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                logger.debug("Copying segment at offset {} of {} bytes of {}", offset, segmentLength, localFile);
+                copySegment(segmentConnection, offset, segmentLength);
+                return;
+            } catch (IOException exc) {
+                if (attempt >= connection.sftpSegmentRetries || Thread.currentThread().isInterrupted()) {
+                    throw new RuntimeIOException(format("Cannot copy segment at offset %d of %s %s %s:%s", offset, localFile, upload ? "to" : "from",
+                            connection, sftpPath), exc);
+                }
+                logger.warn("Copying segment at offset {} of {} failed, retrying", offset, localFile, exc);
+            }
+        }
+    }
+
+    void copySegment(SshSftpConnection segmentConnection, long offset, long segmentLength) throws IOException {
+        if (upload) {
+            uploadSegment(segmentConnection, offset, segmentLength);
+        } else {
+            downloadSegment(segmentConnection, offset, segmentLength);
+        }
+    }
+
+    private void uploadSegment(SshSftpConnection segmentConnection, final long offset, final long segmentLength) throws IOException {
+        segmentConnection.withSftpClient(sftp -> {
+            try (RemoteFile remoteFile = sftp.open(sftpPath, EnumSet.of(OpenMode.WRITE));
+                 FileChannel channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ)) {
+                OutputStream out = remoteFile.new RemoteFileOutputStream(offset, connection.sftpMaxUnconfirmedWrites);
+                copyRange(Channels.newInputStream(channel.position(offset)), out, segmentLength);
+                out.close();
+            }
+            return null;
+        });
+    }
+
+    private void downloadSegment(SshSftpConnection segmentConnection, final long offset, final long segmentLength) throws IOException {
+        segmentConnection.withSftpClient(sftp -> {
+            try (RemoteFile remoteFile = sftp.open(sftpPath, EnumSet.of(OpenMode.READ));
+                 FileChannel channel = FileChannel.open(localFile.toPath(), StandardOpenOption.WRITE)) {
+                InputStream in = remoteFile.new ReadAheadRemoteFileInputStream(connection.sftpMaxUnconfirmedReads, offset);
+                try {
+                    copyRange(in, Channels.newOutputStream(channel.position(offset)), segmentLength);
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+            return null;
+        });
+    }
+
+    private void createDestination() {
+        try {
+            if (upload) {
+                connection.withSftpClient(sftp -> {
+                    sftp.open(sftpPath, EnumSet.of(OpenMode.CREAT, OpenMode.WRITE, OpenMode.TRUNC)).close();
+                    return null;
+                });
+            } else {
+                FileChannel.open(localFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).close();
+            }
+        } catch (IOException exc) {
+            throw new RuntimeIOException(format("Cannot create %s", upload ? sftpPath : localFile), exc);
+        }
+    }
+
+    private void verifyLength() {
+        long copied;
+        try {
+            copied = upload ? connection.withSftpClient(sftp -> sftp.size(sftpPath)) : localFile.length();
+        } catch (IOException exc) {
+            throw new RuntimeIOException(format("Cannot determine the size of %s", sftpPath), exc);
+        }
+        if (copied != length) {
+            throw new RuntimeIOException(format("Copy of %s %s %s:%s has %d bytes instead of %d bytes", localFile, upload ? "to" : "from", connection, sftpPath,
+                    copied, length));
+        }
+    }
+
+    private static void copyRange(InputStream in, OutputStream out, long count) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new EOFException(format("Unexpected end of file with %d bytes of the segment left", remaining));
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        out.flush();
+    }
+
+    /**
+     * A byte range of the file that is copied on its own.
+     */
+    static final class Segment {
+        final long offset;
+        final long length;
+
+        Segment(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(SftpSegmentedTransfer.class);
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+
+/**
+ * Streams to and from commands like "cat" that run in their own session without a pseudo-terminal, so that binary
+ * contents pass through unchanged. Closing a stream waits for the command and fails if it did not exit with
+ * <code>0</code>.
+ */
+final class SshCommandStreams {
+
+    private SshCommandStreams() {
+    }
+
+    /**
+     * Starts a command whose stdout is the contents of a file.
+     *
+     * @param client      the client to open the session with.
+     * @param commandLine the command line.
+     * @param description the file, for logging and error messages.
+     * @return the stdout of the command.
+     */
+    static InputStream openInputStream(SSHClient client, String commandLine, String description) throws IOException {
+        Session session = client.startSession();
+        try {
+            final Session.Command command = session.exec(commandLine);
+            return new FilterInputStream(command.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        // Only check the exit status when the file has been read, closing early aborts the command
+                        if (in.read() < 0) {
+                            awaitCommand(command, commandLine, description);
+                        }
+                    } finally {
+                        session.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException exc) {
+            closeQuietly(session);
+            throw exc;
+        }
+    }
+
+    /**
+     * Starts a command whose stdin is written to a file.
+     *
+     * @param client      the client to open the session with.
+     * @param commandLine the command line.
+     * @param description the file, for logging and error messages.
+     * @return the stdin of the command.
+     */
+    static OutputStream openOutputStream(SSHClient client, String commandLine, String description) throws IOException {
+        Session session = client.startSession();
+        try {
+            final Session.Command command = session.exec(commandLine);
+            return new FilterOutputStream(command.getOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        // Closing stdin sends EOF, after which the command finishes writing the file
+                        out.close();
+                        awaitCommand(command, commandLine, description);
+                    } finally {
+                        session.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException exc) {
+            closeQuietly(session);
+            throw exc;
+        }
+    }
+
+    /**
+     * Runs a command and discards its output.
+     *
+     * @param client      the client to open the session with.
+     * @param commandLine the command line.
+     * @return the exit status of the command, or <code>-1</code> if the server did not report one.
+     */
+    static int execute(SSHClient client, String commandLine) throws IOException {
+        try (Session session = client.startSession()) {
+            Session.Command command = session.exec(commandLine);
+            command.getInputStream().transferTo(OutputStream.nullOutputStream());
+            command.join(COMMAND_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Integer exitStatus = command.getExitStatus();
+            logger.debug("Command [{}] returned {}", commandLine, exitStatus);
+            return exitStatus == null ? -1 : exitStatus;
+        }
+    }
+
+    private static void awaitCommand(Session.Command command, String commandLine, String description) throws IOException {
+        command.join(COMMAND_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Integer exitStatus = command.getExitStatus();
+        if (exitStatus == null || exitStatus != 0) {
+            String stderr = new String(command.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            throw new IOException("Cannot transfer " + description + ": command [" + commandLine + "] returned " + exitStatus
+                    + (stderr.isEmpty() ? "" : ": " + stderr));
+        }
+        logger.debug("Command [{}] for {} finished", commandLine, description);
+    }
+
+    private static final int COMMAND_EXIT_TIMEOUT_SECONDS = 60;
+
+    private static Logger logger = LoggerFactory.getLogger(SshCommandStreams.class);
+
+}
@@ -44,13 +44,16 @@ import net.schmizz.sshj.userauth.password.PasswordFinder;
 import net.schmizz.sshj.userauth.password.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -101,6 +104,16 @@ abstract class SshConnection extends BaseOverthereConnection {
 
     protected int heartbeatInterval;
 
+    protected boolean tarTransfer;
+
+    protected String tarProbeCommand;
+
+    protected String tarUploadCommand;
+
+    protected String tarDownloadCommand;
+
+    private volatile Boolean tarAvailable;
+
     protected SSHClient sshClient;
 
     private static final Pattern ptyPattern = Pattern.compile(PTY_PATTERN);
@@ -145,6 +158,10 @@ abstract class SshConnection extends BaseOverthereConnection {
         allocatePty = options.getOptional(ALLOCATE_PTY);
         openShellBeforeExecute = options.getBoolean(OPEN_SHELL_BEFORE_EXECUTE, OPEN_SHELL_BEFORE_EXECUTE_DEFAULT);
         transportTimeoutMillis = options.getInteger(TRANSPORT_TIMEOUT_MILLIS, TRANSPORT_TIMEOUT_MILLIS_DEFAULT);
+        tarTransfer = options.getBoolean(TAR_TRANSFER, TAR_TRANSFER_DEFAULT);
+        tarProbeCommand = options.get(TAR_PROBE_COMMAND, TAR_PROBE_COMMAND_DEFAULT);
+        tarUploadCommand = options.get(TAR_UPLOAD_COMMAND, TAR_UPLOAD_COMMAND_DEFAULT);
+        tarDownloadCommand = options.get(TAR_DOWNLOAD_COMMAND, TAR_DOWNLOAD_COMMAND_DEFAULT);
     }
 
     protected void connect() {
@@ -265,11 +282,43 @@ abstract class SshConnection extends BaseOverthereConnection {
         }
     }
 
+    @Override
+    public boolean isValid() {
+        SSHClient client = sshClient;
+        return super.isValid() && client != null && client.isConnected() && client.isAuthenticated();
+    }
+
     protected SSHClient getSshClient() {
         checkState(sshClient != null, "Not (yet) connected");
         return sshClient;
     }
 
+    /**
+     * Determines whether directories can be copied to and from this host as a tar stream. The probe command is run
+     * once per connection; if it fails, directories are copied file by file.
+     */
+    boolean canTransferWithTar() {
+        if (!tarTransfer || os != OperatingSystemFamily.UNIX) {
+            return false;
+        }
+
+        Boolean available = tarAvailable;
+        if (available == null) {
+            String probeCmdLine = new CmdLine().addTemplatedFragment(tarProbeCommand).toCommandLine(os, false);
+            try {
+                available = SshCommandStreams.execute(getSshClient(), probeCmdLine) == 0;
+            } catch (IOException exc) {
+                logger.warn("Cannot run command [{}] on {}", probeCmdLine, this, exc);
+                available = false;
+            }
+            if (!available) {
+                logger.info("Command [{}] failed on {}, directories will be copied file by file", probeCmdLine, this);
+            }
+            tarAvailable = available;
+        }
+        return available;
+    }
+
     @Override
     public OverthereFile getFile(OverthereFile parent, String child) throws RuntimeIOException {
         checkParentFile(parent);
@@ -388,6 +437,19 @@ abstract class SshConnection extends BaseOverthereConnection {
         return commandLine.getArguments().size() >= 2 && commandLine.getArguments().get(0).toString(os, false).equals(pseudoCommand);
     }
 
+    /**
+     * Starts a daemon thread that reads a stream of a process that is read by the caller while it runs, such as the
+     * stderr of a command whose stdout is streamed, in the same way as {@link #execute} reads the output of a command.
+     *
+     * @return the started thread.
+     */
+    Thread startReaderThread(String streamName, CmdLine commandLine, OverthereExecutionOutputHandler outputHandler, InputStream stream) {
+        Thread t = getThread(streamName, commandLine.toString(), outputHandler, stream, new CountDownLatch(1), MDC.getCopyOfContextMap());
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
     protected SshProcess createProcess(Session session, CmdLine commandLine) throws TransportException, ConnectionException {
         return new SshProcess(this, os, session, commandLine);
     }
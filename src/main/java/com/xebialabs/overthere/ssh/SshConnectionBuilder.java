@@ -107,6 +107,17 @@ public class SshConnectionBuilder implements OverthereConnectionBuilder {
      */
     public static final String DELETE_RECURSIVELY_COMMAND_DEFAULT = "rm -rf {0}";
 
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_getFileAttributesCommand">the online documentation</a>
+     */
+    public static final String GET_FILE_ATTRIBUTES_COMMAND = "getFileAttributesCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_getFileAttributesCommand">the online documentation</a>
+     * <em>NOTE:</em>: prints the type, size, modification time and mode of the file in the format of {@link #LIST_TREE_COMMAND_DEFAULT}.
+     */
+    public static final String GET_FILE_ATTRIBUTES_COMMAND_DEFAULT = "find {0} -maxdepth 0 -printf '%y/%s/%T@/%m/%P\\n'";
+
     /**
      * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_getFileInfoCommand">the online documentation</a>
      */
@@ -139,6 +150,118 @@ public class SshConnectionBuilder implements OverthereConnectionBuilder {
      */
     public static final String LIST_FILES_COMMAND_DEFAULT = "ls -a1 {0}";
 
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_readFileCommand">the online documentation</a>
+     */
+    public static final String READ_FILE_COMMAND = "readFileCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_readFileCommand">the online documentation</a>
+     */
+    public static final String READ_FILE_COMMAND_DEFAULT = "cat {0}";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_writeFileCommand">the online documentation</a>
+     */
+    public static final String WRITE_FILE_COMMAND = "writeFileCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_writeFileCommand">the online documentation</a>
+     */
+    public static final String WRITE_FILE_COMMAND_DEFAULT = "cat > {0}";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_readRangeCommand">the online documentation</a>
+     */
+    public static final String READ_RANGE_COMMAND = "readRangeCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_readRangeCommand">the online documentation</a>
+     */
+    public static final String READ_RANGE_COMMAND_DEFAULT = "dd if={0} bs={1} skip={2} count={3}";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_writeRangeCommand">the online documentation</a>
+     */
+    public static final String WRITE_RANGE_COMMAND = "writeRangeCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_writeRangeCommand">the online documentation</a>
+     */
+    public static final String WRITE_RANGE_COMMAND_DEFAULT = "dd of={0} bs={1} seek={2} conv=notrunc";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_truncateFileCommand">the online documentation</a>
+     */
+    public static final String TRUNCATE_FILE_COMMAND = "truncateFileCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_truncateFileCommand">the online documentation</a>
+     */
+    public static final String TRUNCATE_FILE_COMMAND_DEFAULT = "dd if=/dev/null of={0} bs=1 seek={1}";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_listTreeCommand">the online documentation</a>
+     */
+    public static final String LIST_TREE_COMMAND = "listTreeCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_listTreeCommand">the online documentation</a>
+     * <em>NOTE:</em>: each line holds the type, size, modification time, mode and relative path of a file, separated by slashes.
+     */
+    public static final String LIST_TREE_COMMAND_DEFAULT = "find {0} -mindepth 1 -maxdepth {1} -printf '%y/%s/%T@/%m/%P\\n'";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_listTreeFallbackCommand">the online documentation</a>
+     */
+    public static final String LIST_TREE_FALLBACK_COMMAND = "listTreeFallbackCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_listTreeFallbackCommand">the online documentation</a>
+     * <em>NOTE:</em>: reads the whole tree, so it is only used for walks without a depth limit.
+     */
+    public static final String LIST_TREE_FALLBACK_COMMAND_DEFAULT = "ls -lRa {0}";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarTransfer">the online documentation</a>
+     */
+    public static final String TAR_TRANSFER = "tarTransfer";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarTransfer">the online documentation</a>
+     */
+    public static final boolean TAR_TRANSFER_DEFAULT = true;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarProbeCommand">the online documentation</a>
+     */
+    public static final String TAR_PROBE_COMMAND = "tarProbeCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarProbeCommand">the online documentation</a>
+     */
+    public static final String TAR_PROBE_COMMAND_DEFAULT = "command -v tar";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarUploadCommand">the online documentation</a>
+     */
+    public static final String TAR_UPLOAD_COMMAND = "tarUploadCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarUploadCommand">the online documentation</a>
+     */
+    public static final String TAR_UPLOAD_COMMAND_DEFAULT = "tar xf - -C {0}";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarDownloadCommand">the online documentation</a>
+     */
+    public static final String TAR_DOWNLOAD_COMMAND = "tarDownloadCommand";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_tarDownloadCommand">the online documentation</a>
+     */
+    public static final String TAR_DOWNLOAD_COMMAND_DEFAULT = "tar cf - -C {0} .";
+
     /**
      * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_mkdirCommand">the online documentation</a>
      */
@@ -501,6 +624,86 @@ public class SshConnectionBuilder implements OverthereConnectionBuilder {
      */
     public static final int TRANSPORT_TIMEOUT_MILLIS_DEFAULT = 30_000;
 
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpMaxChannels">the online documentation</a>
+     */
+    public static final String SFTP_MAX_CHANNELS = "sftpMaxChannels";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpMaxChannels">the online documentation</a>
+     */
+    public static final int SFTP_MAX_CHANNELS_DEFAULT = 4;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpMaxUnconfirmedReads">the online documentation</a>
+     */
+    public static final String SFTP_MAX_UNCONFIRMED_READS = "sftpMaxUnconfirmedReads";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpMaxUnconfirmedReads">the online documentation</a>
+     */
+    public static final int SFTP_MAX_UNCONFIRMED_READS_DEFAULT = 16;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpMaxUnconfirmedWrites">the online documentation</a>
+     */
+    public static final String SFTP_MAX_UNCONFIRMED_WRITES = "sftpMaxUnconfirmedWrites";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpMaxUnconfirmedWrites">the online documentation</a>
+     */
+    public static final int SFTP_MAX_UNCONFIRMED_WRITES_DEFAULT = 16;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentedTransferThreshold">the online documentation</a>
+     */
+    public static final String SFTP_SEGMENTED_TRANSFER_THRESHOLD = "sftpSegmentedTransferThreshold";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentedTransferThreshold">the online documentation</a>
+     */
+    public static final long SFTP_SEGMENTED_TRANSFER_THRESHOLD_DEFAULT = 256L * 1024 * 1024;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentSize">the online documentation</a>
+     */
+    public static final String SFTP_SEGMENT_SIZE = "sftpSegmentSize";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentSize">the online documentation</a>
+     */
+    public static final int SFTP_SEGMENT_SIZE_DEFAULT = 64 * 1024 * 1024;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentParallelism">the online documentation</a>
+     */
+    public static final String SFTP_SEGMENT_PARALLELISM = "sftpSegmentParallelism";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentParallelism">the online documentation</a>
+     */
+    public static final int SFTP_SEGMENT_PARALLELISM_DEFAULT = 4;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentRetries">the online documentation</a>
+     */
+    public static final String SFTP_SEGMENT_RETRIES = "sftpSegmentRetries";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentRetries">the online documentation</a>
+     */
+    public static final int SFTP_SEGMENT_RETRIES_DEFAULT = 2;
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentConnections">the online documentation</a>
+     */
+    public static final String SFTP_SEGMENT_CONNECTIONS = "sftpSegmentConnections";
+
+    /**
+     * See <a href="https://github.com/xebialabs/overthere/blob/master/README.md#ssh_sftpSegmentConnections">the online documentation</a>
+     */
+    public static final int SFTP_SEGMENT_CONNECTIONS_DEFAULT = 1;
+
     protected SshConnection connection;
 
     public SshConnectionBuilder(String type, ConnectionOptions options, AddressPortMapper mapper) {
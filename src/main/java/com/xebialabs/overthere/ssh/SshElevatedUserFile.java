@@ -25,12 +25,15 @@ package com.xebialabs.overthere.ssh;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xebialabs.overthere.CmdLine;
 import com.xebialabs.overthere.OverthereExecutionOutputHandler;
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereProcess;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.util.CapturingOverthereExecutionOutputHandler;
 
@@ -70,6 +73,14 @@ class SshElevatedUserFile extends SshScpFile {
         return super.executeCommand(outHandler, errHandler, commandLine);
     }
 
+    @Override
+    protected OverthereProcess startCommand(CmdLine commandLine) {
+        if (isTempFile) {
+            commandLine = SshConnection.prefixWithPseudoCommand(commandLine, NOELEVATION_PSEUDO_COMMAND);
+        }
+        return super.startCommand(commandLine);
+    }
+
     @Override
     public OverthereFile getFile(String name) {
         SshElevatedUserFile f = (SshElevatedUserFile) super.getFile(name);
@@ -101,10 +112,23 @@ class SshElevatedUserFile extends SshScpFile {
             return super.getOutputStream();
         } else {
             logger.debug("Opening {} output stream to write to file {}", connection.protocolAndConnectionType, this);
+            invalidateAttributes();
             return new SshElevatedUserOutputStream(this, connection.getTempFile(getName()));
         }
     }
 
+    /**
+     * Only temporary files can be opened as a byte channel, because the commands that read and write part of a file
+     * run as the connecting user.
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(OpenOption... options) {
+        if (isTempFile) {
+            return super.newByteChannel(options);
+        }
+        throw new UnsupportedOperationException("Cannot open a byte channel on " + this + " as another user");
+    }
+
     @Override
     public void mkdir() throws RuntimeIOException {
         if (isTempFile) {
@@ -132,6 +156,7 @@ class SshElevatedUserFile extends SshScpFile {
             overrideUmask(this);
         } else {
             logger.debug("Copying file or directory {} to {}", source, this);
+            invalidateAttributes();
             OverthereFile tempFile = getConnection().getTempFile(getName());
             try {
                 connection.getSshClient().newSCPFileTransfer().newSCPUploadClient().copy(new OverthereFileLocalSourceFile(source), tempFile.getPath());
@@ -143,6 +168,24 @@ class SshElevatedUserFile extends SshScpFile {
         }
     }
 
+    /**
+     * The tar stream runs as the connecting user, so it is only used for temporary files.
+     */
+    @Override
+    public boolean copyFromBulk(OverthereFile source) {
+        return isTempFile && super.copyFromBulk(source);
+    }
+
+    @Override
+    public boolean copyToBulk(OverthereFile destination) {
+        return isTempFile && super.copyToBulk(destination);
+    }
+
+    @Override
+    protected SshScpFile newTreeRoot() {
+        return new SshElevatedUserFile((SshElevatedUserConnection) connection, getPath(), isTempFile);
+    }
+
     @Override
     protected CmdLine postProcessShortCircuitCopyCommand(CmdLine cmdLine) {
         if(isTempFile) {
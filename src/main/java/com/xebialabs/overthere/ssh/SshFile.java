@@ -23,7 +23,9 @@
 package com.xebialabs.overthere.ssh;
 
 import com.xebialabs.overthere.*;
+import com.xebialabs.overthere.local.LocalFile;
 import com.xebialabs.overthere.spi.BaseOverthereFile;
+import com.xebialabs.overthere.spi.BulkCopySupport;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -35,7 +37,7 @@ import static com.xebialabs.overthere.util.OverthereUtils.mkString;
 /**
  * A file on a host connected through SSH.
  */
-abstract class SshFile<C extends SshConnection> extends BaseOverthereFile<C> {
+abstract class SshFile<C extends SshConnection> extends BaseOverthereFile<C> implements BulkCopySupport {
 
     protected List<String> pathComponents;
 
@@ -91,8 +93,9 @@ abstract class SshFile<C extends SshConnection> extends BaseOverthereFile<C> {
 
     @Override
     public void delete() throws RuntimeIOException {
-        if (exists()) {
-            if (isDirectory()) {
+        OverthereFileAttributes attributes = getAttributes();
+        if (attributes.exists()) {
+            if (attributes.isDirectory()) {
                 deleteDirectory();
             } else {
                 deleteFile();
@@ -108,6 +111,52 @@ abstract class SshFile<C extends SshConnection> extends BaseOverthereFile<C> {
         return connection.execute(outHandler, errHandler, commandLine);
     }
 
+    protected OverthereProcess startCommand(CmdLine commandLine) {
+        return connection.startProcess(commandLine);
+    }
+
+    /**
+     * Copies a local directory to this directory as a tar stream, if the host supports it.
+     */
+    @Override
+    public boolean copyFromBulk(OverthereFile source) {
+        if (!(source instanceof LocalFile) || !connection.canTransferWithTar()) {
+            return false;
+        }
+        OverthereFileAttributes attributes = getAttributes();
+        if (attributes.exists() && !attributes.isDirectory()) {
+            return false;
+        }
+
+        if (!attributes.exists()) {
+            mkdir();
+        }
+        invalidateAttributes();
+        SshTarTransfer.upload(((LocalFile) source).getFile().toPath(), connection, getPath());
+        return true;
+    }
+
+    /**
+     * Copies this directory to a local directory as a tar stream, if the host supports it.
+     */
+    @Override
+    public boolean copyToBulk(OverthereFile destination) {
+        if (!(destination instanceof LocalFile) || !connection.canTransferWithTar()) {
+            return false;
+        }
+        OverthereFileAttributes attributes = destination.getAttributes();
+        if (attributes.exists() && !attributes.isDirectory()) {
+            return false;
+        }
+
+        if (!attributes.exists()) {
+            destination.mkdir();
+        }
+        invalidateAttributes(destination);
+        SshTarTransfer.download(connection, getPath(), ((LocalFile) destination).getFile().toPath());
+        return true;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof SshFile)) {
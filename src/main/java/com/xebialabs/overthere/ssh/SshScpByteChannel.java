@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.CmdLine;
+import com.xebialabs.overthere.spi.ByteChannelOptions;
+import com.xebialabs.overthere.spi.PositionalByteChannel;
+
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+import static java.lang.String.format;
+
+/**
+ * A byte channel on a file of an SCP connection, which has no protocol to read or write part of a file. Reads start a
+ * <code>dd</code> command that skips to the offset in whole blocks. They are aligned to {@link #BLOCK_SIZE} and read
+ * {@link #READ_AHEAD_SIZE} bytes ahead, so that a file that is read in small pieces does not start a command for every
+ * piece. Writes start a <code>dd</code> command that seeks to the offset in blocks of {@link #READ_AHEAD_SIZE} and is
+ * kept running while the following writes continue where the previous one ended, so that a range written in pieces is
+ * streamed through a single command. A write that does not start at a block boundary first reads the start of its block
+ * and writes it back, so that the block size stays large. Errors of a write may therefore only be reported by a later
+ * operation on the channel or when it is closed.
+ */
+class SshScpByteChannel extends PositionalByteChannel {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    static final int READ_AHEAD_SIZE = 16 * BLOCK_SIZE;
+
+    private final SshScpFile file;
+
+    private final SshScpConnection connection;
+
+    private byte[] readAhead;
+
+    private long readAheadOffset;
+
+    private int readAheadLength;
+
+    private OutputStream pendingWrite;
+
+    private long pendingWriteOffset;
+
+    SshScpByteChannel(SshScpFile file, ByteChannelOptions options) {
+        super(options, READ_AHEAD_SIZE);
+        this.file = file;
+        this.connection = file.getConnection();
+    }
+
+    @Override
+    protected int readAt(long offset, byte[] b, int off, int len) throws IOException {
+        finishWrite();
+        if (offset < readAheadOffset || offset >= readAheadOffset + readAheadLength) {
+            if (!fillReadAhead(offset)) {
+                return -1;
+            }
+        }
+        int start = (int) (offset - readAheadOffset);
+        int n = Math.min(len, readAheadLength - start);
+        System.arraycopy(readAhead, start, b, off, n);
+        return n;
+    }
+
+    /**
+     * Reads the blocks from the one containing the offset into the read ahead buffer.
+     *
+     * @return <code>false</code> if the offset is at or beyond the end of the file.
+     */
+    private boolean fillReadAhead(long offset) throws IOException {
+        readAheadLength = 0;
+        if (readAhead == null) {
+            readAhead = new byte[READ_AHEAD_SIZE];
+        }
+        long skip = offset / BLOCK_SIZE;
+        String cmdLine = commandLine(connection.readRangeCommand, file.getPath(), BLOCK_SIZE, skip, READ_AHEAD_SIZE / BLOCK_SIZE);
+        logger.trace("Reading {} at offset {} with command [{}]", file, offset, cmdLine);
+
+        InputStream in = SshCommandStreams.openInputStream(connection.getSshClient(), cmdLine, file.toString());
+        int n;
+        try {
+            n = in.readNBytes(readAhead, 0, READ_AHEAD_SIZE);
+        } catch (IOException exc) {
+            closeQuietly(in);
+            throw exc;
+        }
+        try {
+            in.close();
+        } catch (IOException exc) {
+            // dd may fail to skip past the end of the file
+            if (n == 0 && offset >= sizeOf()) {
+                return false;
+            }
+            throw exc;
+        }
+
+        readAheadOffset = skip * BLOCK_SIZE;
+        readAheadLength = n;
+        return offset < readAheadOffset + readAheadLength;
+    }
+
+    @Override
+    protected void writeAt(long offset, byte[] b, int off, int len) throws IOException {
+        if (pendingWrite == null || offset != pendingWriteOffset) {
+            finishWrite();
+            startWrite(offset);
+        }
+        try {
+            pendingWrite.write(b, off, len);
+        } catch (IOException exc) {
+            closeQuietly(pendingWrite);
+            pendingWrite = null;
+            throw exc;
+        }
+        pendingWriteOffset += len;
+    }
+
+    /**
+     * Starts a command that writes from the start of the block containing the offset and writes the bytes of that
+     * block before the offset back to it. Bytes beyond the end of the file are written as zeroes, as the file would have
+     * been extended with.
+     */
+    private void startWrite(long offset) throws IOException {
+        int misalignment = (int) (offset % READ_AHEAD_SIZE);
+        long blockOffset = offset - misalignment;
+        byte[] head = new byte[misalignment];
+        if (misalignment > 0 && fillReadAhead(blockOffset)) {
+            System.arraycopy(readAhead, 0, head, 0, Math.min(misalignment, readAheadLength));
+        }
+        readAheadLength = 0;
+
+        String cmdLine = commandLine(connection.writeRangeCommand, file.getPath(), READ_AHEAD_SIZE, blockOffset / READ_AHEAD_SIZE);
+        logger.trace("Writing to {} at offset {} with command [{}]", file, offset, cmdLine);
+
+        OutputStream out = SshCommandStreams.openOutputStream(connection.getSshClient(), cmdLine, file.toString());
+        try {
+            out.write(head);
+        } catch (IOException exc) {
+            closeQuietly(out);
+            throw exc;
+        }
+        pendingWrite = out;
+        pendingWriteOffset = offset;
+    }
+
+    /**
+     * Closes the stdin of the running write command and waits for it to finish, so that the file can be read or
+     * changed otherwise.
+     */
+    private void finishWrite() throws IOException {
+        if (pendingWrite != null) {
+            OutputStream out = pendingWrite;
+            pendingWrite = null;
+            logger.trace("Finishing write to {} up to offset {}", file, pendingWriteOffset);
+            out.close();
+        }
+    }
+
+    @Override
+    protected long sizeOf() throws IOException {
+        finishWrite();
+        return file.currentLength();
+    }
+
+    @Override
+    protected void truncateTo(long size) throws IOException {
+        finishWrite();
+        readAheadLength = 0;
+        String cmdLine = commandLine(connection.truncateFileCommand, file.getPath(), size);
+        logger.debug("Truncating {} to {} bytes with command [{}]", file, size, cmdLine);
+        int exitStatus = SshCommandStreams.execute(connection.getSshClient(), cmdLine);
+        if (exitStatus != 0) {
+            throw new IOException(format("Cannot truncate %s: command [%s] returned %d", file, cmdLine, exitStatus));
+        }
+    }
+
+    @Override
+    protected void closeChannel() throws IOException {
+        finishWrite();
+        logger.debug("Closed byte channel for {}", file);
+    }
+
+    /**
+     * Fills in a command template. The numbers are passed as strings, so that they are not formatted with grouping
+     * separators.
+     */
+    private String commandLine(String template, String path, long... numbers) {
+        Object[] args = new Object[numbers.length + 1];
+        args[0] = path;
+        for (int i = 0; i < numbers.length; i++) {
+            args[i + 1] = Long.toString(numbers[i]);
+        }
+        return new CmdLine().addTemplatedFragment(template, args).toCommandLine(connection.getHostOperatingSystem(), false);
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(SshScpByteChannel.class);
+
+}
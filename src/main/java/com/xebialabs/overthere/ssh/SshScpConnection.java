@@ -36,14 +36,24 @@ import static com.xebialabs.overthere.ssh.SshConnectionBuilder.DELETE_FILE_COMMA
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.DELETE_FILE_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.DELETE_RECURSIVELY_COMMAND;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.DELETE_RECURSIVELY_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.GET_FILE_ATTRIBUTES_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.GET_FILE_ATTRIBUTES_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.GET_FILE_INFO_COMMAND;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.GET_FILE_INFO_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_FILES_COMMAND;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_FILES_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_TREE_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_TREE_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_TREE_FALLBACK_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_TREE_FALLBACK_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.MKDIRS_COMMAND;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.MKDIRS_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.MKDIR_COMMAND;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.MKDIR_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.READ_FILE_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.READ_FILE_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.READ_RANGE_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.READ_RANGE_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.RENAME_TO_COMMAND;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.RENAME_TO_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SET_EXECUTABLE_COMMAND;
@@ -51,6 +61,12 @@ import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SET_EXECUTABLE_CO
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SET_NOT_EXECUTABLE_COMMAND;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SET_NOT_EXECUTABLE_COMMAND_DEFAULT;
 import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SSH_PROTOCOL;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.TRUNCATE_FILE_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.TRUNCATE_FILE_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.WRITE_FILE_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.WRITE_FILE_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.WRITE_RANGE_COMMAND;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.WRITE_RANGE_COMMAND_DEFAULT;
 
 /**
  * A connection to a Unix host using SSH w/ SCP.
@@ -65,8 +81,24 @@ class SshScpConnection extends SshConnection {
 
     protected String getFileInfoCommand;
 
+    protected String getFileAttributesCommand;
+
     protected String listFilesCommand;
 
+    protected String readFileCommand;
+
+    protected String writeFileCommand;
+
+    protected String readRangeCommand;
+
+    protected String writeRangeCommand;
+
+    protected String truncateFileCommand;
+
+    protected String listTreeCommand;
+
+    protected String listTreeFallbackCommand;
+
     protected String mkdirCommand;
 
     protected String mkdirsCommand;
@@ -85,7 +117,15 @@ class SshScpConnection extends SshConnection {
         deleteFileCommand = options.get(DELETE_FILE_COMMAND, DELETE_FILE_COMMAND_DEFAULT);
         deleteRecursivelyCommand = options.get(DELETE_RECURSIVELY_COMMAND, DELETE_RECURSIVELY_COMMAND_DEFAULT);
         getFileInfoCommand = options.get(GET_FILE_INFO_COMMAND, GET_FILE_INFO_COMMAND_DEFAULT);
+        getFileAttributesCommand = options.get(GET_FILE_ATTRIBUTES_COMMAND, GET_FILE_ATTRIBUTES_COMMAND_DEFAULT);
         listFilesCommand = options.get(LIST_FILES_COMMAND, LIST_FILES_COMMAND_DEFAULT);
+        readFileCommand = options.get(READ_FILE_COMMAND, READ_FILE_COMMAND_DEFAULT);
+        writeFileCommand = options.get(WRITE_FILE_COMMAND, WRITE_FILE_COMMAND_DEFAULT);
+        readRangeCommand = options.get(READ_RANGE_COMMAND, READ_RANGE_COMMAND_DEFAULT);
+        writeRangeCommand = options.get(WRITE_RANGE_COMMAND, WRITE_RANGE_COMMAND_DEFAULT);
+        truncateFileCommand = options.get(TRUNCATE_FILE_COMMAND, TRUNCATE_FILE_COMMAND_DEFAULT);
+        listTreeCommand = options.get(LIST_TREE_COMMAND, LIST_TREE_COMMAND_DEFAULT);
+        listTreeFallbackCommand = options.get(LIST_TREE_FALLBACK_COMMAND, LIST_TREE_FALLBACK_COMMAND_DEFAULT);
         mkdirCommand = options.get(MKDIR_COMMAND, MKDIR_COMMAND_DEFAULT);
         mkdirsCommand = options.get(MKDIRS_COMMAND, MKDIRS_COMMAND_DEFAULT);
         renameToCommand = options.get(RENAME_TO_COMMAND, RENAME_TO_COMMAND_DEFAULT);
@@ -24,18 +24,27 @@ package com.xebialabs.overthere.ssh;
 
 import com.xebialabs.overthere.CmdLine;
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
+import com.xebialabs.overthere.OverthereProcess;
 import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.spi.ByteChannelOptions;
+import com.xebialabs.overthere.spi.FileListingIterator;
 import com.xebialabs.overthere.util.CapturingOverthereExecutionOutputHandler;
 import net.schmizz.sshj.xfer.scp.SCPUploadClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static com.xebialabs.overthere.CmdLine.build;
 import static com.xebialabs.overthere.ssh.SshConnection.NOCD_PSEUDO_COMMAND;
@@ -44,6 +53,7 @@ import static com.xebialabs.overthere.util.LoggingOverthereExecutionOutputHandle
 import static com.xebialabs.overthere.util.LoggingOverthereExecutionOutputHandler.loggingOutputHandler;
 import static com.xebialabs.overthere.util.MultipleOverthereExecutionOutputHandler.multiHandler;
 import static com.xebialabs.overthere.util.NullOverthereExecutionOutputHandler.swallow;
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
 import static java.lang.String.format;
 
 /**
@@ -55,6 +65,8 @@ class SshScpFile extends SshFile<SshScpConnection> {
 
     private static Pattern permissionsTokenPattern = Pattern.compile(PERMISSIONS_TOKEN_PATTERN);
 
+    private volatile List<OverthereFile> listedChildren;
+
     /**
      * Constructs an SshScpOverthereFile
      *
@@ -67,6 +79,10 @@ class SshScpFile extends SshFile<SshScpConnection> {
 
     @Override
     public boolean exists() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.exists();
+        }
         return getFileInfo().exists;
     }
 
@@ -87,25 +103,71 @@ class SshScpFile extends SshFile<SshScpConnection> {
 
     @Override
     public boolean isFile() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isFile();
+        }
         return getFileInfo().isFile;
     }
 
     @Override
     public boolean isDirectory() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isDirectory();
+        }
         return getFileInfo().isDirectory;
     }
 
+    /**
+     * Returns the last modification date read with {@link #getAttributes()}, or <code>0</code> if the host cannot print
+     * it.
+     */
     @Override
     public long lastModified() {
-        // FIXME: Implement by parsing the date output of `ls -l`
-        throw new UnsupportedOperationException();
+        return getAttributes().lastModified();
     }
 
     @Override
     public long length() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.length();
+        }
         return getFileInfo().length;
     }
 
+    /**
+     * Retrieves the attributes with a single "find -printf", or with a single "ls -ld" if "find" fails. The last
+     * modification date is not available from "ls -ld" and is then reported as <code>0</code>.
+     */
+    @Override
+    protected OverthereFileAttributes retrieveAttributes() {
+        CmdLine findCmdLine = CmdLine.build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.getFileAttributesCommand, getPath());
+        CapturingOverthereExecutionOutputHandler capturedOutput = capturingHandler();
+        if (executeCommand(capturedOutput, swallow(), findCmdLine) == 0) {
+            List<String> lines = capturedOutput.getOutputLines();
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String line = stripCarriageReturn(lines.get(i));
+                if (!line.isEmpty()) {
+                    OverthereFileAttributes attributes = parseFindFields(line.split("/", 5), getName());
+                    if (attributes != null) {
+                        return attributes;
+                    }
+                    break;
+                }
+            }
+            logger.debug("Cannot parse file attributes output [{}] of {}, falling back to ls", capturedOutput.getOutput(), this);
+        }
+
+        LsResults results = getFileInfo();
+        if (!results.exists) {
+            return OverthereFileAttributes.nonExistent();
+        }
+        return new OverthereFileAttributes(true, results.isFile, results.isDirectory, isHidden(), results.length, 0,
+                results.canRead, results.canWrite, results.canExecute);
+    }
+
     /**
      * Gets information about the file by executing "ls -ld" on it.
      *
@@ -191,69 +253,88 @@ class SshScpFile extends SshFile<SshScpConnection> {
         public boolean canExecute;
     }
 
+    /**
+     * Streams the file with "scp -f" while the caller reads it, or with the read file command if the output of scp
+     * does not follow the SCP protocol.
+     */
     @Override
     public InputStream getInputStream() throws RuntimeIOException {
         try {
-            final File tempFile = File.createTempFile("scp_download", ".tmp");
-            tempFile.deleteOnExit();
-
-            logger.debug("Downloading contents of {} to temporary file {}", this, tempFile);
-            connection.getSshClient().newSCPFileTransfer().download(getPath(), tempFile.getPath());
-
-            logger.debug("Opening input stream to temporary file {} to retrieve contents downloaded from {}. Temporary file will be deleted when the stream is closed", tempFile, this);
-            return asBuffered(new FileInputStream(tempFile) {
-                @Override
-                public void close() throws IOException {
-                    logger.debug("Closing input stream to temporary file {}", tempFile);
-                    try {
-                        super.close();
-                    } finally {
-                        logger.debug("Deleting temporary file {}", tempFile);
-                        tempFile.delete();
-                    }
-
-                }
-            });
+            String scpCmdLine = build("scp", "-f", getPath()).toCommandLine(connection.getHostOperatingSystem(), false);
+            InputStream in = SshScpInputStream.open(connection.getSshClient(), scpCmdLine, toString());
+            if (in == null) {
+                String readCmdLine = new CmdLine().addTemplatedFragment(connection.readFileCommand, getPath()).toCommandLine(connection.getHostOperatingSystem(), false);
+                logger.debug("Opening input stream to {} with command [{}]", this, readCmdLine);
+                in = SshCommandStreams.openInputStream(connection.getSshClient(), readCmdLine, toString());
+            } else {
+                logger.debug("Opened SCP input stream to {}", this);
+            }
+            return asBuffered(in);
         } catch (IOException exc) {
             throw new RuntimeIOException(format("Cannot open %s for reading: %s", this, exc.toString()), exc);
         }
     }
 
+    /**
+     * Streams what the caller writes to the stdin of the write file command. The SCP protocol is not used because it
+     * requires the length of the file before its contents.
+     */
     @Override
     public OutputStream getOutputStream() throws RuntimeIOException {
+        invalidateAttributes();
         try {
-            final File tempFile = File.createTempFile("scp_upload", ".tmp");
-            tempFile.deleteOnExit();
-
-            logger.debug("Opening output stream to temporary file {} to store contents to be uploaded to {} when the stream is closed", tempFile, SshScpFile.this);
-            return asBuffered(new FileOutputStream(tempFile) {
-                @Override
-                public void close() throws IOException {
-                    logger.debug("Closing output stream to temporary file {}", tempFile);
-                    try {
-                        super.close();
-                    } finally {
-                        uploadAndDelete(tempFile);
-                    }
-                }
-
-                private void uploadAndDelete(File tempFile) throws IOException {
-                    logger.debug("Uploading contents of temporary file {} to to {}", tempFile, SshScpFile.this);
-                    try {
-                        connection.getSshClient().newSCPFileTransfer().upload(tempFile.getPath(), getPath());
-                    } finally {
-                        logger.debug("Deleting temporary file {}", tempFile);
-                        tempFile.delete();
-                    }
-                }
-            });
+            String writeCmdLine = new CmdLine().addTemplatedFragment(connection.writeFileCommand, getPath()).toCommandLine(connection.getHostOperatingSystem(), false);
+            logger.debug("Opening output stream to {} with command [{}]", this, writeCmdLine);
+            return asBuffered(SshCommandStreams.openOutputStream(connection.getSshClient(), writeCmdLine, toString()));
         } catch (IOException exc) {
             throw new RuntimeIOException(format("Cannot open %s for writing: %s", this, exc.toString()), exc);
         }
     }
 
+    /**
+     * Opens a channel that reads and writes with the read range and write range commands, <code>dd</code> by default.
+     * Creating a file that does not exist yet is not atomic.
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(OpenOption... options) {
+        ByteChannelOptions channelOptions = ByteChannelOptions.of(options);
+        logger.debug("Opening byte channel for {}", this);
+        invalidateAttributes();
+
+        boolean exists = exists();
+        if (exists && channelOptions.isCreateNew()) {
+            throw new RuntimeIOException(format("Cannot open %s: file already exists", this));
+        }
+        if (!exists && !channelOptions.isCreate() && !channelOptions.isCreateNew()) {
+            throw new RuntimeIOException(format("Cannot open %s: file does not exist", this));
+        }
+
+        SshScpByteChannel channel = new SshScpByteChannel(this, channelOptions);
+        if (!exists || channelOptions.isTruncateExisting()) {
+            try {
+                channel.truncateTo(0);
+            } catch (IOException exc) {
+                throw new RuntimeIOException(format("Cannot open %s: %s", this, exc.toString()), exc);
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * @return the length of the file, read again from the host.
+     */
+    long currentLength() {
+        invalidateAttributes();
+        return length();
+    }
+
     @Override
     public List<OverthereFile> listFiles() {
+        List<OverthereFile> children = listedChildren;
+        if (children != null) {
+            return new ArrayList<>(children);
+        }
+
         logger.debug("Listing directory {}", this);
 
         CmdLine lsCmdLine = build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.listFilesCommand, getPath());
@@ -276,6 +357,283 @@ class SshScpFile extends SshFile<SshScpConnection> {
         return files;
     }
 
+    /**
+     * Reads the output of the list files command while it is produced. Closing the stream before it is exhausted
+     * terminates the command.
+     */
+    @Override
+    public Stream<OverthereFile> streamFiles() {
+        List<OverthereFile> children = listedChildren;
+        if (children != null) {
+            return children.stream();
+        }
+
+        logger.debug("Streaming directory {}", this);
+
+        CmdLine lsCmdLine = build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.listFilesCommand, getPath());
+        final OverthereProcess process = startCommand(lsCmdLine);
+        final BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getStdout()));
+        final CapturingOverthereExecutionOutputHandler capturedStderr = capturingHandler();
+        final Thread stderrReader = connection.startReaderThread("stderr", lsCmdLine, capturedStderr, process.getStderr());
+
+        return new FileListingIterator(this) {
+            private boolean exhausted;
+
+            @Override
+            protected OverthereFile computeNext() throws IOException {
+                for (String lsLine = stdout.readLine(); lsLine != null; lsLine = stdout.readLine()) {
+                    // Filter out the '.' and '..'
+                    if (!(".".equals(lsLine) || "..".equals(lsLine))) {
+                        return connection.getFile(SshScpFile.this, lsLine);
+                    }
+                }
+                exhausted = true;
+                return null;
+            }
+
+            @Override
+            protected void doClose() throws IOException {
+                try {
+                    if (!exhausted) {
+                        process.destroy();
+                        return;
+                    }
+                    int errno = process.waitFor();
+                    stderrReader.join();
+                    if (errno != 0) {
+                        throw new RuntimeIOException("Cannot list directory " + SshScpFile.this + ": " + capturedStderr.getOutput() + " (errno=" + errno + ")");
+                    }
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    process.destroy();
+                    throw new RuntimeIOException("Interrupted while listing directory " + SshScpFile.this, exc);
+                } finally {
+                    closeQuietly(stdout);
+                }
+            }
+        }.stream();
+    }
+
+    /**
+     * Reads the tree with a single "find" command, or with a single "ls -lR" if "find" fails. "ls -lR" cannot stop at
+     * the depth limit, so it is only used when the depth is not limited. Otherwise, or if both fail, this directory is
+     * returned and the tree is listed directory by directory.
+     */
+    @Override
+    public OverthereFile prefetchTree(int depthLimit) {
+        logger.debug("Reading tree {}", this);
+
+        String maxDepth = Integer.toString(depthLimit < 0 ? Integer.MAX_VALUE : depthLimit);
+        CmdLine findCmdLine = build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.listTreeCommand, getPath(), maxDepth);
+        CapturingOverthereExecutionOutputHandler capturedStdout = capturingHandler();
+        if (executeCommand(capturedStdout, swallow(), findCmdLine) == 0) {
+            SshScpFile root = newTreeRoot();
+            if (root.parseFindOutput(capturedStdout.getOutputLines(), depthLimit)) {
+                return root;
+            }
+        }
+
+        if (depthLimit >= 0) {
+            logger.debug("Cannot read tree {} to depth {} with a single command, its directories will be listed one by one", this, depthLimit);
+            return this;
+        }
+
+        CmdLine lsCmdLine = build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.listTreeFallbackCommand, getPath());
+        capturedStdout = capturingHandler();
+        if (executeCommand(capturedStdout, swallow(), lsCmdLine) == 0) {
+            SshScpFile root = newTreeRoot();
+            if (root.parseLsRecursiveOutput(capturedStdout.getOutputLines(), depthLimit)) {
+                return root;
+            }
+        }
+
+        logger.debug("Cannot read tree {} with a single command, its directories will be listed one by one", this);
+        return this;
+    }
+
+    /**
+     * @return a new file for this path, to which the tree read in advance is attached.
+     */
+    protected SshScpFile newTreeRoot() {
+        return new SshScpFile(connection, getPath());
+    }
+
+    /**
+     * Parses the output of the list tree command, one "type/size/mtime/mode/relative path" line per file. Parents are
+     * printed before their children.
+     */
+    boolean parseFindOutput(List<String> lines, int depthLimit) {
+        Map<String, SshScpFile> directories = new HashMap<>();
+        directories.put("", this);
+        listedChildren = new ArrayList<>();
+        for (String line : lines) {
+            line = stripCarriageReturn(line);
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("/", 5);
+            if (fields.length < 5) {
+                logger.debug("Cannot parse list tree output line [{}]", line);
+                return false;
+            }
+
+            String relativePath = fields[4];
+            int slash = relativePath.lastIndexOf('/');
+            SshScpFile parent = directories.get(slash < 0 ? "" : relativePath.substring(0, slash));
+            if (parent == null) {
+                logger.debug("Cannot parse list tree output line [{}] because its directory was not listed before it", line);
+                return false;
+            }
+            String name = relativePath.substring(slash + 1);
+
+            OverthereFileAttributes attributes = parseFindFields(fields, name);
+            if (attributes == null) {
+                logger.debug("Cannot parse list tree output line [{}]", line);
+                return false;
+            }
+
+            SshScpFile child = parent.addListedChild(name, attributes, depthOf(relativePath), depthLimit);
+            if (attributes.isDirectory()) {
+                directories.put(relativePath, child);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the "type/size/mtime/mode" fields printed by "find -printf".
+     *
+     * @return the attributes, or <code>null</code> if the fields cannot be parsed.
+     */
+    private static OverthereFileAttributes parseFindFields(String[] fields, String name) {
+        if (fields.length < 4 || fields[0].length() != 1) {
+            return null;
+        }
+        try {
+            int mode = Integer.parseInt(fields[3], 8);
+            long lastModified = (long) (Double.parseDouble(fields[2]) * 1000);
+            return new OverthereFileAttributes(true, "f".equals(fields[0]), "d".equals(fields[0]), name.startsWith("."),
+                    Long.parseLong(fields[1]), lastModified, (mode & 0400) != 0, (mode & 0200) != 0, (mode & 0100) != 0);
+        } catch (NumberFormatException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the output of "ls -lR". Each directory is listed under a "path:" header after the listing of its parent.
+     * The last modification date is not available and is reported as <code>0</code>.
+     */
+    boolean parseLsRecursiveOutput(List<String> lines, int depthLimit) {
+        Map<String, SshScpFile> directories = new HashMap<>();
+        directories.put("", this);
+        listedChildren = new ArrayList<>();
+        String rootPrefix = getPath().endsWith("/") ? getPath() : getPath() + "/";
+        SshScpFile current = this;
+        String currentRelativePath = "";
+        for (String line : lines) {
+            line = stripCarriageReturn(line);
+            if (line.isEmpty() || line.startsWith("total ")) {
+                continue;
+            }
+
+            LsResults results = new LsResults();
+            if (!parseLsOutputLine(results, line)) {
+                if (!line.endsWith(":")) {
+                    logger.debug("Cannot parse recursive ls output line [{}]", line);
+                    return false;
+                }
+                String path = line.substring(0, line.length() - 1);
+                if (path.equals(getPath())) {
+                    currentRelativePath = "";
+                } else if (path.startsWith(rootPrefix)) {
+                    currentRelativePath = path.substring(rootPrefix.length());
+                } else {
+                    logger.debug("Cannot parse recursive ls output line [{}] because it is not below {}", line, this);
+                    return false;
+                }
+                // Directories below the depth limit are listed too, but not added to the tree
+                current = directories.get(currentRelativePath);
+                continue;
+            }
+
+            String name = getLsFileName(line);
+            if (name == null) {
+                logger.debug("Cannot parse file name from recursive ls output line [{}]", line);
+                return false;
+            }
+            if (current == null || ".".equals(name) || "..".equals(name)) {
+                continue;
+            }
+
+            String relativePath = currentRelativePath.isEmpty() ? name : currentRelativePath + "/" + name;
+            int depth = depthOf(relativePath);
+            if (depthLimit >= 0 && depth > depthLimit) {
+                continue;
+            }
+            SshScpFile child = current.addListedChild(name, new OverthereFileAttributes(true, results.isFile, results.isDirectory, name.startsWith("."),
+                    results.length, 0, results.canRead, results.canWrite, results.canExecute), depth, depthLimit);
+            if (results.isDirectory) {
+                directories.put(relativePath, child);
+            }
+        }
+        return true;
+    }
+
+    private SshScpFile addListedChild(String name, OverthereFileAttributes attributes, int depth, int depthLimit) {
+        SshScpFile child = (SshScpFile) connection.getFile(this, name);
+        child.setListedAttributes(attributes);
+        if (attributes.isDirectory() && (depthLimit < 0 || depth < depthLimit)) {
+            child.listedChildren = new ArrayList<>();
+        }
+        listedChildren.add(child);
+        return child;
+    }
+
+    /**
+     * Returns the file name of an "ls -l" output line, i.e. everything after the date, without the target of a
+     * symbolic link.
+     */
+    private static String getLsFileName(String line) {
+        String[] tokens = line.split("\\s+", 9);
+        if (tokens.length < 9) {
+            return null;
+        }
+        String name = tokens[8];
+        if (tokens[4].endsWith(",")) {
+            // Device files have a "major, minor" pair instead of a size
+            String[] deviceTokens = name.split("\\s+", 2);
+            if (deviceTokens.length < 2) {
+                return null;
+            }
+            name = deviceTokens[1];
+        }
+        if (tokens[0].startsWith("l")) {
+            int arrow = name.indexOf(" -> ");
+            if (arrow >= 0) {
+                name = name.substring(0, arrow);
+            }
+        }
+        return name;
+    }
+
+    private static int depthOf(String relativePath) {
+        int depth = 1;
+        for (int i = relativePath.indexOf('/'); i >= 0; i = relativePath.indexOf('/', i + 1)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    @Override
+    protected void invalidateAttributes() {
+        super.invalidateAttributes();
+        listedChildren = null;
+    }
+
     @Override
     public void mkdir() {
         logger.debug("Creating directory {}", this);
@@ -291,6 +649,7 @@ class SshScpFile extends SshFile<SshScpConnection> {
     }
 
     protected void mkdir(String command) throws RuntimeIOException {
+        invalidateAttributes();
         CmdLine mkdirCmdLine = CmdLine.build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(command, getPath());
         executeAndThrowOnErrorCode(mkdirCmdLine, "Cannot create directory or -ies " + this);
 
@@ -302,6 +661,8 @@ class SshScpFile extends SshFile<SshScpConnection> {
     @Override
     public void renameTo(OverthereFile dest) {
         logger.debug("Renaming {} to {}", this, dest);
+        invalidateAttributes();
+        invalidateAttributes(dest);
 
         if (dest instanceof SshScpFile) {
             SshScpFile sshScpDestFile = (SshScpFile) dest;
@@ -321,6 +682,7 @@ class SshScpFile extends SshFile<SshScpConnection> {
     @Override
     public void setExecutable(boolean executable) {
         logger.debug("Setting execute permission on {} to {}", this, executable);
+        invalidateAttributes();
 
         CmdLine chmodCmdLine = CmdLine.build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(executable ? connection.setExecutableCommand : connection.setNotExecutableCommand, getPath());
         executeAndThrowOnErrorCode(chmodCmdLine, "Cannot set execute permission on file " + this + " to " + executable);
@@ -329,6 +691,7 @@ class SshScpFile extends SshFile<SshScpConnection> {
     @Override
     protected void deleteDirectory() {
         logger.debug("Deleting directory {}", this);
+        invalidateAttributes();
 
         CmdLine rmdirCmdLine = CmdLine.build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.deleteDirectoryCommand, getPath());
         executeAndThrowOnErrorCode(rmdirCmdLine, "Cannot delete directory " + this);
@@ -337,6 +700,7 @@ class SshScpFile extends SshFile<SshScpConnection> {
     @Override
     protected void deleteFile() {
         logger.debug("Deleting file {}", this);
+        invalidateAttributes();
 
         CmdLine rmCmdLine = CmdLine.build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.deleteFileCommand, getPath());
         executeAndThrowOnErrorCode(rmCmdLine, "Cannot delete file " + this);
@@ -345,6 +709,7 @@ class SshScpFile extends SshFile<SshScpConnection> {
     @Override
     public void deleteRecursively() throws RuntimeIOException {
         logger.debug("Recursively deleting file or directory {}", this);
+        invalidateAttributes();
 
         CmdLine rmCmdLine = CmdLine.build(NOCD_PSEUDO_COMMAND).addTemplatedFragment(connection.deleteRecursivelyCommand, getPath());
         executeAndThrowOnErrorCode(rmCmdLine, "Cannot recursively delete file or directory " + this);
@@ -353,6 +718,11 @@ class SshScpFile extends SshFile<SshScpConnection> {
     @Override
     protected void copyFrom(OverthereFile source) {
         logger.debug("Copying file or directory {} to {}", source, this);
+        invalidateAttributes();
+
+        if (source.isDirectory() && copyFromBulk(source)) {
+            return;
+        }
 
         SCPUploadClient uploadClient = connection.getSshClient().newSCPFileTransfer().newSCPUploadClient();
 
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+
+/**
+ * An input stream that reads a file with the source side of the SCP protocol ("scp -f") while the caller reads it, so
+ * that the file does not have to be downloaded to a local temporary file first.
+ */
+class SshScpInputStream extends InputStream {
+
+    private final Session session;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private final String description;
+
+    private long remaining;
+
+    private boolean finished;
+
+    private SshScpInputStream(Session session, Session.Command command, long length, String description) {
+        this.session = session;
+        this.in = command.getInputStream();
+        this.out = command.getOutputStream();
+        this.remaining = length;
+        this.description = description;
+    }
+
+    /**
+     * Starts "scp -f" and reads the header of the file.
+     *
+     * @param client      the client to open the session with.
+     * @param commandLine the "scp -f" command line.
+     * @param description the file, for logging and error messages.
+     * @return the stream, or <code>null</code> if the output of the command does not follow the SCP protocol, e.g.
+     * because scp is not installed or the login scripts print to stdout.
+     * @throws IOException if the file cannot be read, e.g. because it does not exist.
+     */
+    static SshScpInputStream open(SSHClient client, String commandLine, String description) throws IOException {
+        Session session = client.startSession();
+        try {
+            Session.Command command = session.exec(commandLine);
+            OutputStream out = command.getOutputStream();
+            InputStream in = command.getInputStream();
+            signal(out);
+
+            int type = in.read();
+            if (type == 1 || type == 2) {
+                throw new IOException("Cannot read " + description + ": " + readLine(in));
+            }
+            if (type != 'C') {
+                logger.debug("Not reading {} with SCP because [{}] returned unexpected output", description, commandLine);
+                closeQuietly(session);
+                return null;
+            }
+
+            String header = readLine(in);
+            String[] fields = header.split(" ", 3);
+            long length;
+            try {
+                length = Long.parseLong(fields.length == 3 ? fields[1] : "");
+            } catch (NumberFormatException exc) {
+                logger.debug("Not reading {} with SCP because [{}] returned unexpected header [C{}]", description, commandLine, header);
+                closeQuietly(session);
+                return null;
+            }
+
+            logger.debug("Reading {} bytes of {} with SCP", length, description);
+            signal(out);
+            return new SshScpInputStream(session, command, length, description);
+        } catch (IOException | RuntimeException exc) {
+            closeQuietly(session);
+            throw exc;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            finish();
+            return -1;
+        }
+
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("Unexpected end of " + description + " with " + remaining + " bytes remaining");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    /**
+     * Reads the status that follows the contents of the file and acknowledges it.
+     */
+    private void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        int status = in.read();
+        if (status != 0) {
+            throw new IOException("Cannot read " + description + ": " + (status > 0 ? readLine(in) : "unexpected end of stream"));
+        }
+        signal(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (remaining == 0) {
+                finish();
+            } else {
+                logger.debug("Closing SCP stream of {} with {} bytes unread", description, remaining);
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    private static void signal(OutputStream out) throws IOException {
+        out.write(0);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                break;
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(SshScpInputStream.class);
+
+}
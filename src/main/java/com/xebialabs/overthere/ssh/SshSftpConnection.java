@@ -23,17 +23,42 @@
 package com.xebialabs.overthere.ssh;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.Overthere;
 import com.xebialabs.overthere.OverthereFile;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.spi.AddressPortMapper;
 
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_MAX_CHANNELS;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_MAX_CHANNELS_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_MAX_UNCONFIRMED_READS;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_MAX_UNCONFIRMED_READS_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_MAX_UNCONFIRMED_WRITES;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_MAX_UNCONFIRMED_WRITES_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENTED_TRANSFER_THRESHOLD;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENTED_TRANSFER_THRESHOLD_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_CONNECTIONS;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_CONNECTIONS_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_PARALLELISM;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_PARALLELISM_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_RETRIES;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_RETRIES_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_SIZE;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_SIZE_DEFAULT;
+import static com.xebialabs.overthere.util.OverthereUtils.checkArgument;
 import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
 import static java.lang.String.format;
 
@@ -42,10 +67,56 @@ import static java.lang.String.format;
  */
 abstract class SshSftpConnection extends SshConnection {
 
-    private SFTPClient sharedSftpClient;
+    private final int maxSftpChannels;
+
+    protected final int sftpMaxUnconfirmedReads;
+
+    protected final int sftpMaxUnconfirmedWrites;
+
+    protected final long sftpSegmentedTransferThreshold;
+
+    protected final int sftpSegmentSize;
+
+    protected final int sftpSegmentParallelism;
+
+    protected final int sftpSegmentRetries;
+
+    protected final int sftpSegmentConnections;
+
+    /**
+     * All open SFTP clients, mapped to the number of callers that are currently using them. Guards all SFTP client
+     * bookkeeping.
+     */
+    private final Map<SFTPClient, Integer> sftpClientLeases = new IdentityHashMap<>();
+
+    private final Deque<SFTPClient> idleSftpClients = new ArrayDeque<>();
+
+    /**
+     * Broken clients that are no longer handed out, mapped to the number of callers still using them. They are
+     * disconnected when the last of those hands them back.
+     */
+    private final Map<SFTPClient, Integer> brokenSftpClientLeases = new IdentityHashMap<>();
+
+    private int openingSftpClients;
 
     public SshSftpConnection(String type, ConnectionOptions options, AddressPortMapper mapper) {
         super(type, options, mapper);
+        this.maxSftpChannels = options.getInteger(SFTP_MAX_CHANNELS, SFTP_MAX_CHANNELS_DEFAULT);
+        checkArgument(maxSftpChannels > 0, "Value for %s must be positive", SFTP_MAX_CHANNELS);
+        this.sftpMaxUnconfirmedReads = options.getInteger(SFTP_MAX_UNCONFIRMED_READS, SFTP_MAX_UNCONFIRMED_READS_DEFAULT);
+        checkArgument(sftpMaxUnconfirmedReads > 0, "Value for %s must be positive", SFTP_MAX_UNCONFIRMED_READS);
+        this.sftpMaxUnconfirmedWrites = options.getInteger(SFTP_MAX_UNCONFIRMED_WRITES, SFTP_MAX_UNCONFIRMED_WRITES_DEFAULT);
+        checkArgument(sftpMaxUnconfirmedWrites >= 0, "Value for %s must not be negative", SFTP_MAX_UNCONFIRMED_WRITES);
+        this.sftpSegmentedTransferThreshold = options.getLong(SFTP_SEGMENTED_TRANSFER_THRESHOLD, SFTP_SEGMENTED_TRANSFER_THRESHOLD_DEFAULT);
+        checkArgument(sftpSegmentedTransferThreshold >= 0, "Value for %s must not be negative", SFTP_SEGMENTED_TRANSFER_THRESHOLD);
+        this.sftpSegmentSize = options.getInteger(SFTP_SEGMENT_SIZE, SFTP_SEGMENT_SIZE_DEFAULT);
+        checkArgument(sftpSegmentSize > 0, "Value for %s must be positive", SFTP_SEGMENT_SIZE);
+        this.sftpSegmentParallelism = options.getInteger(SFTP_SEGMENT_PARALLELISM, SFTP_SEGMENT_PARALLELISM_DEFAULT);
+        checkArgument(sftpSegmentParallelism > 0, "Value for %s must be positive", SFTP_SEGMENT_PARALLELISM);
+        this.sftpSegmentRetries = options.getInteger(SFTP_SEGMENT_RETRIES, SFTP_SEGMENT_RETRIES_DEFAULT);
+        checkArgument(sftpSegmentRetries >= 0, "Value for %s must not be negative", SFTP_SEGMENT_RETRIES);
+        this.sftpSegmentConnections = options.getInteger(SFTP_SEGMENT_CONNECTIONS, SFTP_SEGMENT_CONNECTIONS_DEFAULT);
+        checkArgument(sftpSegmentConnections > 0, "Value for %s must be positive", SFTP_SEGMENT_CONNECTIONS);
     }
 
     @Override
@@ -55,9 +126,16 @@ abstract class SshSftpConnection extends SshConnection {
 
     @Override
     public void doClose() {
-        if (sharedSftpClient != null) {
-            disconnectSftp(sharedSftpClient);
-            sharedSftpClient = null;
+        List<SFTPClient> clients;
+        synchronized (sftpClientLeases) {
+            clients = new ArrayList<>(sftpClientLeases.keySet());
+            clients.addAll(brokenSftpClientLeases.keySet());
+            sftpClientLeases.clear();
+            idleSftpClients.clear();
+            brokenSftpClientLeases.clear();
+        }
+        for (SFTPClient sftp : clients) {
+            disconnectSftp(sftp);
         }
 
         super.doClose();
@@ -68,11 +146,133 @@ abstract class SshSftpConnection extends SshConnection {
         return new SshSftpFile(this, hostPath);
     }
 
-    SFTPClient getSharedSftpClient() {
-        if ( sharedSftpClient == null ) {
-            sharedSftpClient = connectSftp();
+    /**
+     * Leases an SFTP client. An idle client is reused if available, otherwise a new SFTP subsystem channel is opened as
+     * long as fewer than {@link SshConnectionBuilder#SFTP_MAX_CHANNELS} channels are open. When that maximum has been
+     * reached, the least used client is shared; sshj multiplexes concurrent requests over one SFTP channel, so sharing
+     * never blocks the caller. Every leased client must be handed back with {@link #releaseSftpClient(SFTPClient, boolean)}.
+     *
+     * @return the leased client.
+     */
+    SFTPClient leaseSftpClient() {
+        List<SFTPClient> stale = new ArrayList<>();
+        try {
+            synchronized (sftpClientLeases) {
+                SFTPClient sftp;
+                while ((sftp = idleSftpClients.pollFirst()) != null) {
+                    if (isOpen(sftp)) {
+                        sftpClientLeases.put(sftp, 1);
+                        return sftp;
+                    }
+                    sftpClientLeases.remove(sftp);
+                    stale.add(sftp);
+                }
+
+                if (!sftpClientLeases.isEmpty() && sftpClientLeases.size() + openingSftpClients >= maxSftpChannels) {
+                    SFTPClient leastUsed = null;
+                    for (Map.Entry<SFTPClient, Integer> e : sftpClientLeases.entrySet()) {
+                        if (leastUsed == null || e.getValue() < sftpClientLeases.get(leastUsed)) {
+                            leastUsed = e.getKey();
+                        }
+                    }
+                    sftpClientLeases.put(leastUsed, sftpClientLeases.get(leastUsed) + 1);
+                    return leastUsed;
+                }
+
+                openingSftpClients++;
+            }
+        } finally {
+            for (SFTPClient sftp : stale) {
+                disconnectSftp(sftp);
+            }
+        }
+
+        SFTPClient sftp = null;
+        try {
+            sftp = connectSftp();
+            return sftp;
+        } finally {
+            synchronized (sftpClientLeases) {
+                openingSftpClients--;
+                if (sftp != null) {
+                    sftpClientLeases.put(sftp, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands back a client obtained from {@link #leaseSftpClient()}.
+     *
+     * @param sftp   the client.
+     * @param broken whether the client failed in a way that makes it unusable. A broken client is no longer handed out
+     *               and is disconnected once all the callers that share it have handed it back.
+     */
+    void releaseSftpClient(SFTPClient sftp, boolean broken) {
+        boolean disconnect = false;
+        synchronized (sftpClientLeases) {
+            Integer leases = sftpClientLeases.get(sftp);
+            if (leases == null) {
+                leases = brokenSftpClientLeases.remove(sftp);
+                if (leases == null) {
+                    // Already discarded by closing the connection
+                    return;
+                }
+                if (leases > 1) {
+                    brokenSftpClientLeases.put(sftp, leases - 1);
+                } else {
+                    disconnect = true;
+                }
+            } else if (broken || !isOpen(sftp)) {
+                sftpClientLeases.remove(sftp);
+                idleSftpClients.remove(sftp);
+                if (leases > 1) {
+                    logger.debug("SFTP client to {} is broken, closing it when the other {} users hand it back", this, leases - 1);
+                    brokenSftpClientLeases.put(sftp, leases - 1);
+                } else {
+                    disconnect = true;
+                }
+            } else if (leases > 1) {
+                sftpClientLeases.put(sftp, leases - 1);
+            } else {
+                sftpClientLeases.put(sftp, 0);
+                idleSftpClients.addFirst(sftp);
+            }
+        }
+        if (disconnect) {
+            disconnectSftp(sftp);
+        }
+    }
+
+    /**
+     * Runs an SFTP operation on a leased client.
+     */
+    <T> T withSftpClient(SftpOperation<T> operation) throws IOException {
+        SFTPClient sftp = leaseSftpClient();
+        boolean broken = true;
+        try {
+            T result = operation.execute(sftp);
+            broken = false;
+            return result;
+        } catch (SFTPException e) {
+            // The server answered with an error status, the channel itself is fine
+            broken = false;
+            throw e;
+        } finally {
+            releaseSftpClient(sftp, broken);
         }
-        return sharedSftpClient;
+    }
+
+    /**
+     * Opens another connection to the same host with the same options, used to spread the segments of a segmented
+     * transfer over more than one SSH connection.
+     */
+    SshSftpConnection openSegmentConnection() {
+        return (SshSftpConnection) Overthere.getConnection(protocol, options);
+    }
+
+    private static boolean isOpen(SFTPClient sftp) {
+        return sftp.getSFTPEngine().getSubsystem().isOpen();
     }
 
     SFTPClient connectSftp() {
@@ -91,6 +291,10 @@ abstract class SshSftpConnection extends SshConnection {
 
     protected abstract String pathToSftpPath(String path);
 
+    interface SftpOperation<T> {
+        T execute(SFTPClient sftp) throws IOException;
+    }
+
     private static Logger logger = LoggerFactory.getLogger(SshSftpConnection.class);
 
 }
@@ -23,7 +23,13 @@
 package com.xebialabs.overthere.ssh;
 
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.local.LocalFile;
+import com.xebialabs.overthere.spi.ByteChannelOptions;
+import com.xebialabs.overthere.spi.FileListingIterator;
+import com.xebialabs.overthere.spi.PositionalByteChannel;
+import com.xebialabs.overthere.spi.SegmentedCopySupport;
 import net.schmizz.sshj.sftp.*;
 import net.schmizz.sshj.xfer.FilePermission;
 import org.slf4j.Logger;
@@ -32,9 +38,15 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
 import static java.lang.String.format;
@@ -42,7 +54,7 @@ import static java.lang.String.format;
 /**
  * A file on a host connected through SSH that is accessed using SFTP.
  */
-class SshSftpFile extends SshFile<SshSftpConnection> {
+class SshSftpFile extends SshFile<SshSftpConnection> implements SegmentedCopySupport {
 
     public SshSftpFile(SshSftpConnection connection, String path) {
         super(connection, path);
@@ -54,10 +66,14 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
 
     @Override
     public boolean exists() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.exists();
+        }
         logger.debug("Checking {} for existence", this);
 
         try {
-            return connection.getSharedSftpClient().statExistence(getSftpPath()) != null;
+            return connection.withSftpClient(sftp -> sftp.statExistence(getSftpPath())) != null;
         } catch (IOException e) {
             throw new RuntimeIOException(format("Cannot check existence of file %s", this), e);
         }
@@ -65,21 +81,37 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
 
     @Override
     public boolean isFile() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isFile();
+        }
         return stat().getType() == FileMode.Type.REGULAR;
     }
 
     @Override
     public boolean isDirectory() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.isDirectory();
+        }
         return stat().getType() == FileMode.Type.DIRECTORY;
     }
 
     @Override
     public long lastModified() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.lastModified();
+        }
         return stat().getMtime() * 1000;
     }
 
     @Override
     public long length() {
+        OverthereFileAttributes attributes = getCachedAttributes();
+        if (attributes != null) {
+            return attributes.length();
+        }
         return stat().getSize();
     }
 
@@ -98,6 +130,29 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
         return hasPermission(FilePermission.USR_X);
     }
 
+    @Override
+    protected OverthereFileAttributes retrieveAttributes() {
+        logger.debug("Retrieving attributes of {}", this);
+
+        FileAttributes attrs;
+        try {
+            attrs = connection.withSftpClient(sftp -> sftp.statExistence(getSftpPath()));
+        } catch (IOException e) {
+            throw new RuntimeIOException(format("Cannot retrieve attributes of %s", this), e);
+        }
+        if (attrs == null) {
+            return OverthereFileAttributes.nonExistent();
+        }
+        return toAttributes(attrs, isHidden());
+    }
+
+    private static OverthereFileAttributes toAttributes(FileAttributes attrs, boolean hidden) {
+        Set<FilePermission> permissions = attrs.getPermissions();
+        return new OverthereFileAttributes(true, attrs.getType() == FileMode.Type.REGULAR, attrs.getType() == FileMode.Type.DIRECTORY, hidden,
+                attrs.getSize(), attrs.getMtime() * 1000, permissions.contains(FilePermission.USR_R), permissions.contains(FilePermission.USR_W),
+                permissions.contains(FilePermission.USR_X));
+    }
+
     private boolean hasPermission(FilePermission perm) {
         return stat().getPermissions().contains(perm);
     }
@@ -106,7 +161,7 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
         logger.debug("Statting {}", this);
 
         try {
-            return connection.getSharedSftpClient().stat(getSftpPath());
+            return connection.withSftpClient(sftp -> sftp.stat(getSftpPath()));
         } catch (IOException e) {
             throw new RuntimeIOException(format("Cannot stat %s", this), e);
         }
@@ -118,7 +173,7 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
 
         try {
             // read files from host
-            List<RemoteResourceInfo> ls = connection.getSharedSftpClient().ls(getSftpPath());
+            List<RemoteResourceInfo> ls = connection.withSftpClient(sftp -> sftp.ls(getSftpPath()));
 
             // copy files to list, skipping . and ..
             List<OverthereFile> files = new ArrayList<>();
@@ -127,7 +182,7 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
                 if (filename.equals(".") || filename.equals("..")) {
                     continue;
                 }
-                files.add(getFile(filename));
+                files.add(getListedFile(l));
             }
 
             return files;
@@ -136,22 +191,130 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
         }
     }
 
+    @Override
+    public Stream<OverthereFile> streamFiles() {
+        logger.debug("Streaming directory {}", this);
+
+        final SFTPClient sftp = connection.leaseSftpClient();
+        final SftpDirectoryReader reader;
+        try {
+            reader = SftpDirectoryReader.open(sftp.getSFTPEngine(), getSftpPath());
+        } catch (IOException e) {
+            connection.releaseSftpClient(sftp, !(e instanceof SFTPException));
+            throw new RuntimeIOException(format("Cannot list directory %s", this), e);
+        }
+
+        return new FileListingIterator(this) {
+            private Iterator<RemoteResourceInfo> batch = Collections.emptyIterator();
+
+            @Override
+            protected OverthereFile computeNext() throws IOException {
+                while (!batch.hasNext()) {
+                    List<RemoteResourceInfo> infos = reader.readBatch();
+                    if (infos == null) {
+                        return null;
+                    }
+                    batch = infos.iterator();
+                }
+                return getListedFile(batch.next());
+            }
+
+            @Override
+            protected void doClose() throws IOException {
+                boolean broken = true;
+                try {
+                    reader.close();
+                    broken = false;
+                } catch (SFTPException e) {
+                    broken = false;
+                    throw e;
+                } finally {
+                    connection.releaseSftpClient(sftp, broken);
+                }
+            }
+        }.stream();
+    }
+
+    private OverthereFile getListedFile(RemoteResourceInfo info) {
+        OverthereFile file = getFile(info.getName());
+        OverthereFileAttributes attributes = listedAttributes(info);
+        if (file instanceof SshSftpFile && attributes != null) {
+            ((SshSftpFile) file).setListedAttributes(attributes);
+        }
+        return file;
+    }
+
+    /**
+     * Returns the attributes of a directory entry, or <code>null</code> when they have to be retrieved separately. The
+     * server describes symbolic links themselves instead of their targets, so those are statted when first needed.
+     */
+    static OverthereFileAttributes listedAttributes(RemoteResourceInfo info) {
+        if (info.getAttributes().getType() == FileMode.Type.SYMLINK) {
+            return null;
+        }
+        return toAttributes(info.getAttributes(), info.getName().startsWith("."));
+    }
+
     @Override
     protected void copyFrom(OverthereFile source) {
-        SFTPFileTransfer fileTransfer = connection.getSharedSftpClient().getFileTransfer();
+        if (source.isFile() && copyFromSegmented(source)) {
+            return;
+        }
+        if (source.isDirectory() && copyFromBulk(source)) {
+            return;
+        }
+
+        invalidateAttributes();
         try {
-            fileTransfer.upload(new OverthereFileLocalSourceFile(source), getSftpPath());
+            connection.withSftpClient(sftp -> {
+                sftp.getFileTransfer().upload(new OverthereFileLocalSourceFile(source), getSftpPath());
+                return null;
+            });
         } catch (IOException ioe) {
             throw new RuntimeIOException(format("Cannot upload %s to %s", source, this), ioe);
         }
     }
 
+    @Override
+    public boolean copyFromSegmented(OverthereFile source) {
+        if (!(source instanceof LocalFile) || !isSegmentedTransferSize(source.length())) {
+            return false;
+        }
+
+        invalidateAttributes();
+        SftpSegmentedTransfer.upload(((LocalFile) source).getFile(), connection, getSftpPath());
+        return true;
+    }
+
+    @Override
+    public boolean copyToSegmented(OverthereFile destination) {
+        if (!(destination instanceof LocalFile)) {
+            return false;
+        }
+        long length = length();
+        if (!isSegmentedTransferSize(length)) {
+            return false;
+        }
+
+        invalidateAttributes(destination);
+        SftpSegmentedTransfer.download(connection, getSftpPath(), length, ((LocalFile) destination).getFile());
+        return true;
+    }
+
+    private boolean isSegmentedTransferSize(long length) {
+        return connection.sftpSegmentedTransferThreshold > 0 && length >= connection.sftpSegmentedTransferThreshold;
+    }
+
     @Override
     public void mkdir() {
         logger.debug("Creating directory {}", this);
+        invalidateAttributes();
 
         try {
-            connection.getSharedSftpClient().mkdir(getSftpPath());
+            connection.withSftpClient(sftp -> {
+                sftp.mkdir(getSftpPath());
+                return null;
+            });
         } catch (IOException e) {
             throw new RuntimeIOException(format("Cannot create directory %s", this), e);
         }
@@ -160,8 +323,12 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
     @Override
     public void mkdirs() {
         logger.debug("Creating directories {}", this);
+        invalidateAttributes();
         try {
-            connection.getSharedSftpClient().mkdirs(getSftpPath());
+            connection.withSftpClient(sftp -> {
+                sftp.mkdirs(getSftpPath());
+                return null;
+            });
         } catch (IOException e) {
             throw new RuntimeIOException(format("Cannot create directories %s", this), e);
         }
@@ -170,12 +337,17 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
     @Override
     public void renameTo(OverthereFile dest) {
         logger.debug("Renaming {} to {}", this, dest);
+        invalidateAttributes();
+        invalidateAttributes(dest);
 
         if (dest instanceof SshSftpFile) {
             SshSftpFile sftpDest = (SshSftpFile) dest;
             if (sftpDest.getConnection() == getConnection()) {
                 try {
-                    connection.getSharedSftpClient().rename(getSftpPath(), sftpDest.getSftpPath());
+                    connection.withSftpClient(sftp -> {
+                        sftp.rename(getSftpPath(), sftpDest.getSftpPath());
+                        return null;
+                    });
                 } catch (IOException e) {
                     throw new RuntimeIOException(format("Cannot move/rename file/directory %s to %s", this, dest), e);
                 }
@@ -193,15 +365,19 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
     @Override
     public void setExecutable(boolean executable) {
         logger.debug("Setting execute permission on {} to {}", this, executable);
+        invalidateAttributes();
 
         try {
-            int permissionsMask = connection.getSharedSftpClient().stat(getSftpPath()).getMode().getPermissionsMask();
-            if (executable) {
-                permissionsMask |= 0111;
-            } else {
-                permissionsMask &= ~0111;
-            }
-            connection.getSharedSftpClient().chmod(getPath(), permissionsMask);
+            connection.withSftpClient(sftp -> {
+                int permissionsMask = sftp.stat(getSftpPath()).getMode().getPermissionsMask();
+                if (executable) {
+                    permissionsMask |= 0111;
+                } else {
+                    permissionsMask &= ~0111;
+                }
+                sftp.chmod(getPath(), permissionsMask);
+                return null;
+            });
         } catch (IOException e) {
             throw new RuntimeIOException(format("Cannot set execute permission on %s to %b", this, executable), e);
         }
@@ -210,9 +386,13 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
     @Override
     protected void deleteFile() {
         logger.debug("Deleting file {}", this);
+        invalidateAttributes();
 
         try {
-            connection.getSharedSftpClient().rm(getSftpPath());
+            connection.withSftpClient(sftp -> {
+                sftp.rm(getSftpPath());
+                return null;
+            });
         } catch (IOException e) {
             throw new RuntimeIOException(format("Cannot delete file %s", this), e);
         }
@@ -221,9 +401,13 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
     @Override
     protected void deleteDirectory() {
         logger.debug("Deleting directory {}", this);
+        invalidateAttributes();
 
         try {
-            connection.getSharedSftpClient().rmdir(getSftpPath());
+            connection.withSftpClient(sftp -> {
+                sftp.rmdir(getSftpPath());
+                return null;
+            });
         } catch (IOException e) {
             throw new RuntimeIOException(format("Cannot delete directory %s", this), e);
         }
@@ -233,10 +417,12 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
     public InputStream getInputStream() {
         logger.debug("Opening SFTP input stream for {}", this);
 
+        final SFTPClient sftp = connection.leaseSftpClient();
         try {
-            final SFTPClient sftp = connection.connectSftp();
-            final RemoteFile remoteFile = sftp.open(getSftpPath(), EnumSet.of(OpenMode.READ));
-            final InputStream wrapped = remoteFile.new RemoteFileInputStream();
+            final RemoteFile remoteFile = openRemoteFile(sftp, EnumSet.of(OpenMode.READ));
+            // Keep several read requests in flight, so that throughput is not bound by the round trip time. sshj sizes
+            // each request to fit the maximum packet size announced by the server.
+            final InputStream wrapped = remoteFile.new ReadAheadRemoteFileInputStream(connection.sftpMaxUnconfirmedReads);
 
             return asBuffered(new InputStream() {
 
@@ -287,7 +473,7 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
                         wrapped.close();
                     } finally {
                         closeQuietly(remoteFile);
-                        connection.disconnectSftp(sftp);
+                        connection.releaseSftpClient(sftp, false);
                     }
                 }
             });
@@ -299,11 +485,12 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
     @Override
     public OutputStream getOutputStream() {
         logger.debug("Opening SFTP ouput stream for {}", this);
+        invalidateAttributes();
 
+        final SFTPClient sftp = connection.leaseSftpClient();
         try {
-            final SFTPClient sftp = connection.connectSftp();
-            final RemoteFile remoteFile = sftp.open(getSftpPath(), EnumSet.of(OpenMode.CREAT, OpenMode.WRITE, OpenMode.TRUNC));
-            final OutputStream wrapped = remoteFile.new RemoteFileOutputStream();
+            final RemoteFile remoteFile = openRemoteFile(sftp, EnumSet.of(OpenMode.CREAT, OpenMode.WRITE, OpenMode.TRUNC));
+            final OutputStream wrapped = remoteFile.new RemoteFileOutputStream(0, connection.sftpMaxUnconfirmedWrites);
 
             return asBuffered(new OutputStream() {
 
@@ -319,7 +506,7 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
 
                 @Override
                 public void write(byte[] b, int off, int len) throws IOException {
-                    wrapped.write(b, off, len);
+                    writeInRequests(wrapped, b, off, len);
                 }
 
                 @Override
@@ -334,7 +521,7 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
                         wrapped.close();
                     } finally {
                         closeQuietly(remoteFile);
-                        connection.disconnectSftp(sftp);
+                        connection.releaseSftpClient(sftp, false);
                     }
                 }
             });
@@ -343,6 +530,154 @@ class SshSftpFile extends SshFile<SshSftpConnection> {
         }
     }
 
+    /**
+     * Opens a channel that reads and writes with SFTP requests at the position of the channel. Writes keep several
+     * requests in flight, like {@link #getOutputStream()}, also across consecutive writes: they wait for the requests to
+     * be confirmed only when the channel is read, resized, closed or written at another position.
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(OpenOption... options) {
+        ByteChannelOptions channelOptions = ByteChannelOptions.of(options);
+        logger.debug("Opening SFTP byte channel for {}", this);
+        invalidateAttributes();
+
+        Set<OpenMode> modes = EnumSet.noneOf(OpenMode.class);
+        if (channelOptions.isRead()) {
+            modes.add(OpenMode.READ);
+        }
+        if (channelOptions.isWrite()) {
+            modes.add(OpenMode.WRITE);
+        }
+        if (channelOptions.isCreate() || channelOptions.isCreateNew()) {
+            modes.add(OpenMode.CREAT);
+        }
+        if (channelOptions.isCreateNew()) {
+            modes.add(OpenMode.EXCL);
+        }
+        if (channelOptions.isTruncateExisting()) {
+            modes.add(OpenMode.TRUNC);
+        }
+
+        final SFTPClient sftp = connection.leaseSftpClient();
+        try {
+            final RemoteFile remoteFile = openRemoteFile(sftp, modes);
+            return new PositionalByteChannel(channelOptions, SFTP_MAX_CHANNEL_WRITE_SIZE) {
+                private OutputStream pendingWrite;
+
+                private long pendingWriteOffset;
+
+                @Override
+                protected int readAt(long offset, byte[] b, int off, int len) throws IOException {
+                    finishWrite();
+                    return remoteFile.read(offset, b, off, Math.min(len, SFTP_MAX_READ_SIZE));
+                }
+
+                @Override
+                protected void writeAt(long offset, byte[] b, int off, int len) throws IOException {
+                    // Writes that continue where the previous one ended go to the same stream, so that its requests
+                    // stay in flight across them
+                    if (pendingWrite == null || offset != pendingWriteOffset) {
+                        finishWrite();
+                        pendingWrite = remoteFile.new RemoteFileOutputStream(offset, connection.sftpMaxUnconfirmedWrites);
+                        pendingWriteOffset = offset;
+                    }
+                    try {
+                        writeInRequests(pendingWrite, b, off, len);
+                    } catch (IOException | RuntimeException exc) {
+                        closeQuietly(pendingWrite);
+                        pendingWrite = null;
+                        throw exc;
+                    }
+                    pendingWriteOffset += len;
+                }
+
+                @Override
+                protected long sizeOf() throws IOException {
+                    finishWrite();
+                    return remoteFile.length();
+                }
+
+                @Override
+                protected void truncateTo(long size) throws IOException {
+                    finishWrite();
+                    remoteFile.setLength(size);
+                }
+
+                @Override
+                protected void closeChannel() throws IOException {
+                    logger.debug("Closing SFTP byte channel for {}", SshSftpFile.this);
+                    try {
+                        finishWrite();
+                    } finally {
+                        try {
+                            remoteFile.close();
+                        } finally {
+                            connection.releaseSftpClient(sftp, false);
+                        }
+                    }
+                }
+
+                /**
+                 * Closing the stream waits for its writes to be confirmed but leaves the remote file open.
+                 */
+                private void finishWrite() throws IOException {
+                    if (pendingWrite != null) {
+                        OutputStream out = pendingWrite;
+                        pendingWrite = null;
+                        out.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new RuntimeIOException(format("Cannot open %s", this), e);
+        }
+    }
+
+    /**
+     * Writes to a {@link RemoteFile.RemoteFileOutputStream} in pieces that every SFTP server accepts. The stream sends
+     * every write as a single request, and OpenSSH drops requests larger than 256 KB. Keeping the pieces small also
+     * lets the stream keep several of them in flight.
+     */
+    static void writeInRequests(OutputStream out, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, SFTP_MAX_WRITE_SIZE);
+            out.write(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Opens the remote file on a leased client, releasing the client again if the file cannot be opened.
+     */
+    private RemoteFile openRemoteFile(SFTPClient sftp, Set<OpenMode> modes) throws IOException {
+        try {
+            return sftp.open(getSftpPath(), modes);
+        } catch (SFTPException e) {
+            connection.releaseSftpClient(sftp, false);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            connection.releaseSftpClient(sftp, true);
+            throw e;
+        }
+    }
+
+    /**
+     * The largest read that every SFTP server has to accept.
+     */
+    private static final int SFTP_MAX_READ_SIZE = 32 * 1024;
+
+    /**
+     * The largest write that every SFTP server has to accept.
+     */
+    static final int SFTP_MAX_WRITE_SIZE = 32 * 1024;
+
+    /**
+     * The number of bytes a byte channel passes to its write stream at once. They are sent as several requests of at
+     * most {@link #SFTP_MAX_WRITE_SIZE} bytes.
+     */
+    private static final int SFTP_MAX_CHANNEL_WRITE_SIZE = 1024 * 1024;
+
     private static Logger logger = LoggerFactory.getLogger(SshSftpFile.class);
 
 }
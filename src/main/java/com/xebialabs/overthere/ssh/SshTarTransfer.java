@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.CmdLine;
+import com.xebialabs.overthere.RuntimeIOException;
+
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+import static java.lang.String.format;
+
+/**
+ * Copies a directory tree between the local host and an SSH host as a single tar stream over an exec channel. The
+ * archive is generated and extracted on the local host while it is being transferred, so that no temporary files are
+ * needed and every file costs no more than its header and contents.
+ */
+final class SshTarTransfer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SshTarTransfer() {
+    }
+
+    /**
+     * Copies the contents of a local directory into a remote directory with {@link SshConnectionBuilder#TAR_UPLOAD_COMMAND}.
+     *
+     * @param localDirectory  the local directory.
+     * @param connection      the connection to the host.
+     * @param remoteDirectory the path of the remote directory. Must exist.
+     */
+    static void upload(Path localDirectory, SshConnection connection, String remoteDirectory) {
+        String cmdLine = new CmdLine().addTemplatedFragment(connection.tarUploadCommand, remoteDirectory).toCommandLine(connection.getHostOperatingSystem(), false);
+        String description = format("%s to %s:%s", localDirectory, connection, remoteDirectory);
+        logger.debug("Copying {} as a tar stream with command [{}]", description, cmdLine);
+        try {
+            OutputStream out = SshCommandStreams.openOutputStream(connection.getSshClient(), cmdLine, description);
+            try {
+                OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+                TarArchive.write(localDirectory, buffered);
+                buffered.flush();
+            } catch (IOException | RuntimeException exc) {
+                closeQuietly(out);
+                throw exc;
+            }
+            out.close();
+        } catch (IOException exc) {
+            throw new RuntimeIOException(format("Cannot copy %s: %s", description, exc.toString()), exc);
+        }
+    }
+
+    /**
+     * Copies the contents of a remote directory into a local directory with {@link SshConnectionBuilder#TAR_DOWNLOAD_COMMAND}.
+     *
+     * @param connection      the connection to the host.
+     * @param remoteDirectory the path of the remote directory.
+     * @param localDirectory  the local directory. Must exist.
+     */
+    static void download(SshConnection connection, String remoteDirectory, Path localDirectory) {
+        String cmdLine = new CmdLine().addTemplatedFragment(connection.tarDownloadCommand, remoteDirectory).toCommandLine(connection.getHostOperatingSystem(), false);
+        String description = format("%s:%s to %s", connection, remoteDirectory, localDirectory);
+        logger.debug("Copying {} as a tar stream with command [{}]", description, cmdLine);
+        try {
+            InputStream in = SshCommandStreams.openInputStream(connection.getSshClient(), cmdLine, description);
+            try {
+                TarArchive.extract(new BufferedInputStream(in, BUFFER_SIZE), localDirectory);
+            } catch (IOException | RuntimeException exc) {
+                closeQuietly(in);
+                throw exc;
+            }
+            in.close();
+        } catch (IOException exc) {
+            throw new RuntimeIOException(format("Cannot copy %s: %s", description, exc.toString()), exc);
+        }
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(SshTarTransfer.class);
+
+}
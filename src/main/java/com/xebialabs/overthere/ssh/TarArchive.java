@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.String.format;
+
+/**
+ * Writes a local directory tree as a POSIX tar archive and extracts such an archive into a local directory with
+ * Commons Compress, streaming the contents without temporary files. Regular files, directories and symbolic links are
+ * supported, with their permissions and modification times. Paths, link targets and sizes that do not fit the ustar
+ * header are stored in PAX extended headers. When extracting, GNU long name headers and hard links are understood as
+ * well, and entries that would end up outside the target directory are rejected.
+ */
+final class TarArchive {
+
+    static final int BLOCK_SIZE = TarConstants.DEFAULT_RCDSIZE;
+
+    private static final PosixFilePermission[] PERMISSION_BITS = {
+            PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+            PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+    };
+
+    private TarArchive() {
+    }
+
+    /**
+     * Writes the contents of a directory as a tar archive. The entries are named relative to the directory, so that
+     * extracting the archive recreates the contents of the directory and not the directory itself. Symbolic links are
+     * stored as links and not followed.
+     *
+     * @param directory the directory to archive.
+     * @param out       the stream to write the archive to. It is not closed.
+     */
+    static void write(final Path directory, final OutputStream out) throws IOException {
+        final TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tar.setAddPaxHeadersForNonAsciiNames(true);
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(directory)) {
+                    TarArchiveEntry entry = new TarArchiveEntry(entryName(directory, dir) + "/", TarConstants.LF_DIR);
+                    entry.setMode(getMode(dir, 0755));
+                    entry.setModTime(attrs.lastModifiedTime());
+                    tar.putArchiveEntry(entry);
+                    tar.closeArchiveEntry();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = entryName(directory, file);
+                if (attrs.isSymbolicLink()) {
+                    TarArchiveEntry entry = new TarArchiveEntry(name, TarConstants.LF_SYMLINK);
+                    entry.setLinkName(Files.readSymbolicLink(file).toString().replace('\\', '/'));
+                    entry.setMode(0777);
+                    entry.setModTime(attrs.lastModifiedTime());
+                    tar.putArchiveEntry(entry);
+                    tar.closeArchiveEntry();
+                } else if (attrs.isRegularFile()) {
+                    TarArchiveEntry entry = new TarArchiveEntry(name, TarConstants.LF_NORMAL);
+                    entry.setMode(getMode(file, Files.isExecutable(file) ? 0755 : 0644));
+                    entry.setSize(attrs.size());
+                    entry.setModTime(attrs.lastModifiedTime());
+                    tar.putArchiveEntry(entry);
+                    Files.copy(file, tar);
+                    tar.closeArchiveEntry();
+                } else {
+                    logger.warn("Not archiving {} as it is not a regular file, directory or symbolic link", file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // Writes the end of archive records without closing the stream
+        tar.finish();
+        tar.flush();
+    }
+
+    /**
+     * Extracts a tar archive into a directory. Directories are created as needed and existing files are overwritten.
+     * The permissions and modification times of directories are applied once all entries have been extracted, so that
+     * read-only directories can still be filled. The stream is read up to its end, so that the process writing the
+     * archive can finish.
+     *
+     * @param in        the stream to read the archive from. It is not closed.
+     * @param directory the directory to extract the archive into. Must exist.
+     */
+    static void extract(InputStream in, Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        List<ExtractedDirectory> directories = new ArrayList<>();
+
+        TarArchiveEntry entry;
+        while ((entry = tar.getNextEntry()) != null) {
+            String name = entry.getName();
+            Path target = resolve(root, name);
+            if (target == null) {
+                continue;
+            }
+
+            int mode = entry.getMode() & 07777;
+            FileTime mtime = entry.getLastModifiedTime();
+            if (entry.isDirectory()) {
+                checkNoSymbolicLinks(root, target);
+                Files.createDirectories(target);
+                directories.add(new ExtractedDirectory(target, mode, mtime));
+            } else if (entry.isSymbolicLink()) {
+                checkNoSymbolicLinks(root, target.getParent());
+                Files.createDirectories(target.getParent());
+                Files.deleteIfExists(target);
+                Files.createSymbolicLink(target, Paths.get(entry.getLinkName()));
+            } else if (entry.isLink()) {
+                String link = entry.getLinkName();
+                Path linked = resolve(root, link);
+                if (linked == null || !Files.isRegularFile(linked, LinkOption.NOFOLLOW_LINKS)) {
+                    throw new IOException(format("Hard link %s points to %s, which has not been extracted as a regular file", name, link));
+                }
+                checkNoSymbolicLinks(root, target.getParent());
+                Files.createDirectories(target.getParent());
+                if (!linked.equals(target)) {
+                    Files.copy(linked, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                }
+            } else if (entry.isFile()) {
+                checkNoSymbolicLinks(root, target.getParent());
+                Files.createDirectories(target.getParent());
+                if (Files.isSymbolicLink(target)) {
+                    Files.delete(target);
+                }
+                try (OutputStream out = Files.newOutputStream(target)) {
+                    tar.transferTo(out);
+                }
+                setMode(target, mode);
+                Files.setLastModifiedTime(target, mtime);
+            } else {
+                logger.warn("Not extracting {} as entries of type '{}' are not supported", name, (char) entry.getLinkFlag());
+            }
+        }
+
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            ExtractedDirectory dir = directories.get(i);
+            setMode(dir.path, dir.mode);
+            Files.setLastModifiedTime(dir.path, dir.lastModified);
+        }
+
+        // Drain the trailing zero blocks and record padding
+        in.transferTo(OutputStream.nullOutputStream());
+    }
+
+    private static String entryName(Path directory, Path file) {
+        StringBuilder name = new StringBuilder();
+        for (Path component : directory.relativize(file)) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(component.toString());
+        }
+        return name.toString();
+    }
+
+    private static int getMode(Path file, int defaultMode) {
+        try {
+            int mode = 0;
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file, LinkOption.NOFOLLOW_LINKS);
+            for (int bit = 0; bit < PERMISSION_BITS.length; bit++) {
+                if (permissions.contains(PERMISSION_BITS[bit])) {
+                    mode |= 1 << bit;
+                }
+            }
+            return mode;
+        } catch (UnsupportedOperationException | IOException exc) {
+            return defaultMode;
+        }
+    }
+
+    private static void setMode(Path file, int mode) throws IOException {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int bit = 0; bit < PERMISSION_BITS.length; bit++) {
+            if ((mode & (1 << bit)) != 0) {
+                permissions.add(PERMISSION_BITS[bit]);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(file, permissions);
+        } catch (UnsupportedOperationException exc) {
+            if ((mode & 0100) != 0) {
+                file.toFile().setExecutable(true);
+            }
+        }
+    }
+
+    /**
+     * Resolves the name of an entry against the directory it is extracted into.
+     *
+     * @return the path, or <code>null</code> if the entry is the directory itself.
+     */
+    private static Path resolve(Path root, String name) throws IOException {
+        String relative = name;
+        while (relative.startsWith("./")) {
+            relative = relative.substring(2);
+        }
+        if (relative.isEmpty() || relative.equals(".") || relative.equals("./")) {
+            return null;
+        }
+        if (relative.startsWith("/")) {
+            throw new IOException(format("Not extracting entry %s as it has an absolute path", name));
+        }
+        for (String component : relative.split("/")) {
+            if (component.equals("..")) {
+                throw new IOException(format("Not extracting entry %s as it refers to a parent directory", name));
+            }
+        }
+        Path target = root.resolve(relative).normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException(format("Not extracting entry %s as it is outside of %s", name, root));
+        }
+        return target.equals(root) ? null : target;
+    }
+
+    /**
+     * Makes sure that a path below the directory the archive is extracted into does not pass through a symbolic link,
+     * so that a link in the archive cannot be used to write files outside that directory.
+     */
+    private static void checkNoSymbolicLinks(Path root, Path path) throws IOException {
+        for (Path p = path; p != null && !p.equals(root) && p.startsWith(root); p = p.getParent()) {
+            if (Files.isSymbolicLink(p)) {
+                throw new IOException(format("Not extracting into %s as it is a symbolic link", p));
+            }
+        }
+    }
+
+    /**
+     * A directory that has been extracted, whose permissions and modification time are applied at the end.
+     */
+    private static final class ExtractedDirectory {
+        final Path path;
+        final int mode;
+        final FileTime lastModified;
+
+        ExtractedDirectory(Path path, int mode, FileTime lastModified) {
+            this.path = path;
+            this.mode = mode;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(TarArchive.class);
+
+}
@@ -26,6 +26,7 @@ import com.xebialabs.overthere.*;
 import com.xebialabs.overthere.cifs.CifsConnectionType;
 import com.xebialabs.overthere.spi.AddressPortMapper;
 import com.xebialabs.overthere.spi.ProcessConnection;
+import com.xebialabs.overthere.util.RingBufferPipe;
 import org.apache.commons.net.telnet.InvalidTelnetOptionException;
 import org.apache.commons.net.telnet.TelnetClient;
 import org.apache.commons.net.telnet.WindowSizeOptionHandler;
@@ -66,6 +67,7 @@ public class TelnetConnection implements ProcessConnection {
     private int connectionTimeoutMillis;
 
     private int socketTimeoutMillis;
+    private int processStreamBufferSize;
     private OperatingSystemFamily os;
     private OverthereFile workingDirectory;
     private String username;
@@ -80,6 +82,7 @@ public class TelnetConnection implements ProcessConnection {
         this.os = options.getEnum(OPERATING_SYSTEM, OperatingSystemFamily.class);
         this.connectionTimeoutMillis = options.getInteger(CONNECTION_TIMEOUT_MILLIS, CONNECTION_TIMEOUT_MILLIS_DEFAULT);
         this.socketTimeoutMillis = options.getInteger(SOCKET_TIMEOUT_MILLIS, SOCKET_TIMEOUT_MILLIS_DEFAULT);
+        this.processStreamBufferSize = options.getInteger(PROCESS_STREAM_BUFFER_SIZE, PROCESS_STREAM_BUFFER_SIZE_DEFAULT);
 
         this.address = addressPort.getHostName();
         this.port = addressPort.getPort();
@@ -112,8 +115,9 @@ public class TelnetConnection implements ProcessConnection {
             tc.setSoTimeout(socketTimeoutMillis);
             final InputStream stdout = tc.getInputStream();
             final OutputStream stdin = tc.getOutputStream();
-            final PipedInputStream callersStdout = new PipedInputStream();
-            final PipedOutputStream toCallersStdout = new PipedOutputStream(callersStdout);
+            final RingBufferPipe stdoutPipe = new RingBufferPipe(processStreamBufferSize);
+            final InputStream callersStdout = stdoutPipe.getInputStream();
+            final OutputStream toCallersStdout = stdoutPipe.getOutputStream();
             final ByteArrayOutputStream outputBuf = new ByteArrayOutputStream();
             final int[] exitValue = new int[1];
             exitValue[0] = -1;
@@ -165,7 +169,11 @@ public class TelnetConnection implements ProcessConnection {
                             logger.error("Cannot find errorlevel in Windows output: " + outputBuf);
                         }
                     } catch (IOException exc) {
+                        stdoutPipe.fail(exc);
                         throw new RuntimeIOException(format("Cannot start command [%s] on [%s]", obfuscatedCmd, TelnetConnection.this), exc);
+                    } catch (RuntimeException exc) {
+                        stdoutPipe.fail(exc);
+                        throw exc;
                     } finally {
                         closeQuietly(toCallersStdout);
                     }
@@ -259,12 +267,12 @@ public class TelnetConnection implements ProcessConnection {
         this.workingDirectory = workingDirectory;
     }
 
-    private static void receive(final InputStream stdout, final ByteArrayOutputStream outputBuf, final PipedOutputStream toCallersStdout,
+    private static void receive(final InputStream stdout, final ByteArrayOutputStream outputBuf, final OutputStream toCallersStdout,
                                 final String expectedString) throws IOException {
         receive(stdout, outputBuf, toCallersStdout, expectedString, null);
     }
 
-    private static void receive(final InputStream stdout, final ByteArrayOutputStream outputBuf, final PipedOutputStream toCallersStdout,
+    private static void receive(final InputStream stdout, final ByteArrayOutputStream outputBuf, final OutputStream toCallersStdout,
                                 final String expectedString, final String unexpectedString) throws IOException {
         boolean lastCharWasCr = false;
         boolean lastCharWasEsc = false;
@@ -313,7 +321,7 @@ public class TelnetConnection implements ProcessConnection {
         }
     }
 
-    private static void handleReceivedLine(final ByteArrayOutputStream outputBuf, final String outputBufStr, final PipedOutputStream toCallersStdout)
+    private static void handleReceivedLine(final ByteArrayOutputStream outputBuf, final String outputBufStr, final OutputStream toCallersStdout)
             throws IOException {
         if (!outputBufStr.contains(DETECTABLE_WINDOWS_PROMPT)) {
             toCallersStdout.write(outputBuf.toByteArray());
@@ -23,11 +23,25 @@
 package com.xebialabs.overthere.util;
 
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.spi.BulkCopySupport;
+import com.xebialabs.overthere.spi.SegmentedCopySupport;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.xebialabs.overthere.ConnectionOptions.REMOTE_COPY_BUFFER_SIZE;
+import static com.xebialabs.overthere.ConnectionOptions.REMOTE_COPY_BUFFER_SIZE_DEFAULT;
 import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
 import static com.xebialabs.overthere.util.OverthereUtils.write;
 
@@ -42,12 +56,24 @@ public final class OverthereFileCopier extends OverthereFileTransmitter {
     private static final String SOURCE = "Source";
     private static final String DESTINATION = "Destination";
 
+    private static final AtomicInteger copierThreadCount = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final Queue<Future<?>> copies = new ConcurrentLinkedQueue<>();
+    private final Queue<RuntimeException> failures = new ConcurrentLinkedQueue<>();
+
     private OverthereFileCopier() {
+        this.executor = null;
+        this.inFlight = null;
     }
 
-    private OverthereFileCopier(OverthereFile srcDir, OverthereFile dstDir) {
+    private OverthereFileCopier(OverthereFile srcDir, OverthereFile dstDir, ExecutorService executor, Semaphore inFlight) {
         super(srcDir, dstDir);
+        this.executor = executor;
+        this.inFlight = inFlight;
     }
+
     /**
      * Copies a file or directory.
      *
@@ -57,23 +83,154 @@ public final class OverthereFileCopier extends OverthereFileTransmitter {
      * @throws RuntimeIOException if an I/O error occurred
      */
     public static void copy(OverthereFile src, OverthereFile dst) {
-        if (src.isDirectory()) {
-            copyDirectory(src, dst);
+        copy(src, dst, null, null);
+    }
+
+    /**
+     * Copies a file or directory, copying up to <code>parallelism</code> files of a directory at the same time. The
+     * directory is walked and the destination directories are created on the calling thread while the files are being
+     * copied.
+     *
+     * @param src         the source file or directory.
+     * @param dst         the destination file or directory. If it exists it must be of the same type as the source. Its
+     *                    parent directory must exist.
+     * @param parallelism the maximum number of files copied at the same time.
+     * @throws RuntimeIOException if an I/O error occurred
+     */
+    public static void copy(OverthereFile src, OverthereFile dst, int parallelism) {
+        if (parallelism <= 1) {
+            copy(src, dst);
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, OverthereFileCopier::newCopierThread);
+        try {
+            copy(src, dst, pool, new Semaphore(parallelism));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Copies a file or directory, copying the files of a directory on the given executor as long as permits are
+     * available. Copies that share the executor and the permits, such as all the copies to one connection, together
+     * copy no more files at the same time than there are permits.
+     *
+     * @param src      the source file or directory.
+     * @param dst      the destination file or directory. If it exists it must be of the same type as the source. Its
+     *                 parent directory must exist.
+     * @param executor the executor to copy the files on, or <code>null</code> to copy them on the calling thread.
+     * @param inFlight the permits to copy a file, one of which is held while the file is copied.
+     * @throws RuntimeIOException if an I/O error occurred
+     */
+    public static void copy(OverthereFile src, OverthereFile dst, ExecutorService executor, Semaphore inFlight) {
+        if (src.getAttributes().isDirectory()) {
+            if (!copyBulk(src, dst)) {
+                new OverthereFileCopier(src, dst, executor, inFlight).startTransmission();
+            }
         } else {
             new OverthereFileCopier().transmitFile(src, dst);
         }
     }
 
     /**
-     * Copies a directory recursively.
+     * @return a daemon thread to copy files on.
+     */
+    public static Thread newCopierThread(Runnable runnable) {
+        Thread t = new Thread(runnable, "Overthere file copier " + copierThreadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+
+    @Override
+    protected void startTransmission() {
+        if (executor == null) {
+            super.startTransmission();
+            return;
+        }
+
+        RuntimeException failure = null;
+        try {
+            super.startTransmission();
+        } catch (RuntimeException exc) {
+            failure = exc;
+        } finally {
+            awaitCopies();
+        }
+
+        if (failure == null) {
+            failure = failures.poll();
+        }
+        if (failure != null) {
+            for (RuntimeException other = failures.poll(); other != null; other = failures.poll()) {
+                if (other != failure) {
+                    failure.addSuppressed(other);
+                }
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for the files of this copy to be copied. Other copies on the same executor are not waited for.
+     */
+    private void awaitCopies() {
+        for (Future<?> copy = copies.poll(); copy != null; copy = copies.poll()) {
+            try {
+                copy.get();
+            } catch (ExecutionException exc) {
+                // Runtime exceptions are added to the failures by the copy itself
+                throw new RuntimeIOException("Cannot copy file", exc.getCause());
+            } catch (InterruptedException exc) {
+                copy.cancel(true);
+                for (Future<?> other = copies.poll(); other != null; other = copies.poll()) {
+                    other.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new RuntimeIOException("Interrupted while waiting for files to be copied", exc);
+            }
+        }
+    }
+
+    /**
+     * Copies a regular file, on one of the copier threads if files are copied in parallel.
      *
-     * @param srcDir the source directory. Must exist and must not be a directory.
-     * @param dstDir the destination directory. May exists but must a directory. Its parent directory must exist.
+     * @param srcFile the source file. Must exists and must not be a directory.
+     * @param dstFile the destination file. May exists but must not be a directory. Its parent directory must exist.
      * @throws RuntimeIOException if an I/O error occurred
      */
-    private static void copyDirectory(OverthereFile srcDir, OverthereFile dstDir) throws RuntimeIOException {
-        OverthereFileCopier dirCopier = new OverthereFileCopier(srcDir, dstDir);
-        dirCopier.startTransmission();
+    @Override
+    protected void transmitFile(final OverthereFile srcFile, final OverthereFile dstFile) throws RuntimeIOException {
+        if (executor == null) {
+            copyFile(srcFile, dstFile);
+            return;
+        }
+
+        RuntimeException failure = failures.peek();
+        if (failure != null) {
+            throw failure;
+        }
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeIOException("Interrupted while copying " + srcFile + " to " + dstFile, exc);
+        }
+        try {
+            copies.add(executor.submit(() -> {
+                try {
+                    copyFile(srcFile, dstFile);
+                } catch (RuntimeException exc) {
+                    failures.add(exc);
+                } finally {
+                    inFlight.release();
+                }
+            }));
+        } catch (RejectedExecutionException exc) {
+            inFlight.release();
+            throw new RuntimeIOException("Cannot copy " + srcFile + " to " + dstFile, exc);
+        }
     }
 
     /**
@@ -83,21 +240,25 @@ public final class OverthereFileCopier extends OverthereFileTransmitter {
      * @param dstFile the destination file. May exists but must not be a directory. Its parent directory must exist.
      * @throws RuntimeIOException if an I/O error occurred
      */
-    @Override
-    protected void transmitFile(final OverthereFile srcFile, final OverthereFile dstFile) throws RuntimeIOException {
-        checkFileExists(srcFile, SOURCE);
-        checkReallyIsAFile(dstFile, DESTINATION);
+    private void copyFile(final OverthereFile srcFile, final OverthereFile dstFile) throws RuntimeIOException {
+        OverthereFileAttributes srcAttributes = checkFileExists(srcFile, SOURCE);
+        OverthereFileAttributes dstAttributes = dstFile.getAttributes();
+        checkReallyIsAFile(dstFile, dstAttributes, DESTINATION);
 
         logger.debug("Copying file {} to {}", srcFile, dstFile);
-        if (dstFile.exists())
+        if (dstAttributes.exists())
             logger.trace("About to overwrite existing file {}", dstFile);
 
+        if (copySegmented(srcFile, dstFile)) {
+            return;
+        }
+
         try {
             InputStream is = srcFile.getInputStream();
             try {
                 OutputStream os = dstFile.getOutputStream();
                 try {
-                    write(is, os);
+                    write(is, os, transferBufferSize(srcFile, srcAttributes));
                 } finally {
                     closeQuietly(os);
                 }
@@ -108,4 +269,28 @@ public final class OverthereFileCopier extends OverthereFileTransmitter {
             throw new RuntimeIOException("Cannot copy " + srcFile + " to " + dstFile, exc.getCause());
         }
     }
+
+    /**
+     * Returns the buffer size to copy a file with: the <code>remoteCopyBufferSize</code> of the source connection, which
+     * is also the size of the buffers of the streams it returns, so that the bytes are not copied through those buffers
+     * as well. Smaller files are copied with a buffer that just holds them.
+     */
+    private static int transferBufferSize(final OverthereFile srcFile, final OverthereFileAttributes srcAttributes) {
+        int preferredSize = srcFile.getConnection().getOptions().getInteger(REMOTE_COPY_BUFFER_SIZE, REMOTE_COPY_BUFFER_SIZE_DEFAULT);
+        return OverthereUtils.transferBufferSize(srcAttributes.length(), preferredSize);
+    }
+
+    private static boolean copyBulk(final OverthereFile srcDir, final OverthereFile dstDir) {
+        if (dstDir instanceof BulkCopySupport && ((BulkCopySupport) dstDir).copyFromBulk(srcDir)) {
+            return true;
+        }
+        return srcDir instanceof BulkCopySupport && ((BulkCopySupport) srcDir).copyToBulk(dstDir);
+    }
+
+    private static boolean copySegmented(final OverthereFile srcFile, final OverthereFile dstFile) {
+        if (dstFile instanceof SegmentedCopySupport && ((SegmentedCopySupport) dstFile).copyFromSegmented(srcFile)) {
+            return true;
+        }
+        return srcFile instanceof SegmentedCopySupport && ((SegmentedCopySupport) srcFile).copyToSegmented(dstFile);
+    }
 }
@@ -27,6 +27,7 @@ import java.util.List;
 
 import com.xebialabs.overthere.OverthereFile;
 import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.spi.BaseOverthereFile;
 
 /**
  * Abstract class that walks through a directory hierarchy and provides subclasses with convenient hooks to add specific
@@ -129,7 +130,7 @@ public abstract class OverthereFileDirectoryWalker {
                 throw new NullPointerException("Start Directory is null");
             }
             handleStart(startDirectory);
-            walk(startDirectory, 0);
+            walk(prefetchTree(startDirectory), 0);
             handleEnd();
         } catch (IOException e) {
             throw new RuntimeIOException(e);
@@ -137,6 +138,20 @@ public abstract class OverthereFileDirectoryWalker {
 
     }
 
+    /**
+     * Reads the tree below the start directory in advance if the connection supports it, so that
+     * {@link #listFiles(OverthereFile)} and the attributes of the children do not need a request per directory.
+     *
+     * @param startDirectory the directory to start from.
+     * @return the directory to walk.
+     */
+    private OverthereFile prefetchTree(OverthereFile startDirectory) {
+        if (startDirectory instanceof BaseOverthereFile) {
+            return ((BaseOverthereFile<?>) startDirectory).prefetchTree(depthLimit);
+        }
+        return startDirectory;
+    }
+
     /**
      * Main recursive method to examine the directory hierarchy.
      *
@@ -154,7 +169,7 @@ public abstract class OverthereFileDirectoryWalker {
                     handleRestricted(directory, childDepth);
                 } else {
                     for (OverthereFile childFile : childFiles) {
-                        if (childFile.isDirectory()) {
+                        if (childFile.getAttributes().isDirectory()) {
                             walk(childFile, childDepth);
                         } else {
                             handleFile(childFile, childDepth);
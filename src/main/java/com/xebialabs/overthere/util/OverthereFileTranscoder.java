@@ -82,7 +82,7 @@ public class OverthereFileTranscoder extends OverthereFileTransmitter {
      * @throws RuntimeIOException if an I/O error occurred
      */
     public static void transcode(OverthereFile src, Charset srcCharset, OverthereFile dst, Charset dstCharset) {
-        if (src.isDirectory()) {
+        if (src.getAttributes().isDirectory()) {
             transcodeDirectory(src, srcCharset, dst, dstCharset);
         } else {
             new OverthereFileTranscoder(srcCharset, dstCharset).transmitFile(src, dst);
@@ -104,10 +104,11 @@ public class OverthereFileTranscoder extends OverthereFileTransmitter {
     @Override
     protected void transmitFile(OverthereFile srcFile, OverthereFile dstFile) {
         checkFileExists(srcFile, SOURCE);
-        checkReallyIsAFile(dstFile, DESTINATION);
+        OverthereFileAttributes dstAttributes = dstFile.getAttributes();
+        checkReallyIsAFile(dstFile, dstAttributes, DESTINATION);
 
         logger.debug("Transcoding file {} ({}) to {} ({})", srcFile, srcCharset, dstFile, dstCharset);
-        if (dstFile.exists()) {
+        if (dstAttributes.exists()) {
             logger.trace("About to overwrite existing file {}", dstFile);
         }
 
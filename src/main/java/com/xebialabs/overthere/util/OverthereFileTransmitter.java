@@ -1,6 +1,7 @@
 package com.xebialabs.overthere.util;
 
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,8 +34,9 @@ public abstract class OverthereFileTransmitter extends OverthereFileDirectoryWal
             dstDir = createSubdirectoryAndMakeCurrent(dstDir, scrDir.getName());
         }
 
-        if (dstDir.exists()) {
-            checkReallyIsADirectory(dstDir, DESTINATION);
+        OverthereFileAttributes dstDirAttributes = dstDir.getAttributes();
+        if (dstDirAttributes.exists()) {
+            checkReallyIsADirectory(dstDir, dstDirAttributes, DESTINATION);
             logger.trace("About to copy files into existing directory {}", dstDir);
         } else {
             dstDir.mkdir();
@@ -78,7 +80,19 @@ public abstract class OverthereFileTransmitter extends OverthereFileDirectoryWal
      * @throws RuntimeIOException if file is a directory.
      */
     protected void checkReallyIsAFile(OverthereFile file, String fileDescription) {
-        if (file.exists() && file.isDirectory()) {
+        checkReallyIsAFile(file, file.getAttributes(), fileDescription);
+    }
+
+    /**
+     * Assert that if a file exists, it is not a directory.
+     *
+     * @param file            to check.
+     * @param attributes      of the file to check.
+     * @param fileDescription to prepend to error message.
+     * @throws RuntimeIOException if file is a directory.
+     */
+    protected void checkReallyIsAFile(OverthereFile file, OverthereFileAttributes attributes, String fileDescription) {
+        if (attributes.exists() && attributes.isDirectory()) {
             throw new RuntimeIOException(fileDescription + " file " + file + " exists but is a directory");
         }
     }
@@ -91,10 +105,11 @@ public abstract class OverthereFileTransmitter extends OverthereFileDirectoryWal
      * @throws RuntimeIOException if directory does not exist or if it a flat file.
      */
     protected void checkDirectoryExists(OverthereFile dir, String dirDescription) {
-        if (!dir.exists()) {
+        OverthereFileAttributes attributes = dir.getAttributes();
+        if (!attributes.exists()) {
             throw new RuntimeIOException(dirDescription + " directory " + dir + " does not exist");
         }
-        checkReallyIsADirectory(dir, dirDescription);
+        checkReallyIsADirectory(dir, attributes, dirDescription);
     }
 
     /**
@@ -105,7 +120,19 @@ public abstract class OverthereFileTransmitter extends OverthereFileDirectoryWal
      * @throws RuntimeIOException if file is not a directory.
      */
     protected void checkReallyIsADirectory(OverthereFile dir, String dirDescription) {
-        if (dir.exists() && !dir.isDirectory()) {
+        checkReallyIsADirectory(dir, dir.getAttributes(), dirDescription);
+    }
+
+    /**
+     * Assert that if a file exists, it must be a directory.
+     *
+     * @param dir            is the directory to check.
+     * @param attributes     of the directory to check.
+     * @param dirDescription to prepend to error message.
+     * @throws RuntimeIOException if file is not a directory.
+     */
+    protected void checkReallyIsADirectory(OverthereFile dir, OverthereFileAttributes attributes, String dirDescription) {
+        if (attributes.exists() && !attributes.isDirectory()) {
             throw new RuntimeIOException(dirDescription + " directory " + dir + " exists but is not a directory");
         }
     }
@@ -115,13 +142,16 @@ public abstract class OverthereFileTransmitter extends OverthereFileDirectoryWal
      *
      * @param file              to check.
      * @param sourceDescription to prepend to error message.
+     * @return the attributes of the file.
      * @throws RuntimeIOException if file does not exist or is a directory.
      */
-    protected void checkFileExists(OverthereFile file, String sourceDescription) {
-        if (!file.exists()) {
+    protected OverthereFileAttributes checkFileExists(OverthereFile file, String sourceDescription) {
+        OverthereFileAttributes attributes = file.getAttributes();
+        if (!attributes.exists()) {
             throw new RuntimeIOException(sourceDescription + " file " + file + " does not exist");
         }
-        checkReallyIsAFile(file, sourceDescription);
+        checkReallyIsAFile(file, attributes, sourceDescription);
+        return attributes;
     }
 
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -24,12 +24,14 @@ package com.xebialabs.overthere.util;
 
 import com.xebialabs.overthere.ConnectionOptions;
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
@@ -44,23 +46,55 @@ import static java.lang.String.format;
 public class OverthereUtils {
 
     private static final Logger logger = LoggerFactory.getLogger(OverthereUtils.class);
+
+    /**
+     * The size of the buffer used to copy streams when no better size is known.
+     */
+    static final int DEFAULT_TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The smallest buffer used to copy streams, so that short files do not take more reads than needed.
+     */
+    static final int MIN_TRANSFER_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The largest buffer that is kept for reuse by a thread.
+     */
+    static final int MAX_POOLED_TRANSFER_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> transferBuffers = new ThreadLocal<>();
+
     /**
-     * Reads the contents of an {@link OverthereFile} into a byte array.
+     * Reads the contents of an {@link OverthereFile} into a byte array. The array is sized from the length in the
+     * {@link OverthereFile#getAttributes() attributes} of the file, which are usually cached or listed already, so the
+     * contents are not copied again once they have been read.
      *
      * @param from the file to read from.
      * @return the byte array.
      */
     public static byte[] read(final OverthereFile from) {
+        // Before the stream is opened, as no other operation may be performed on the file while it is read
+        long length = lengthOf(from);
         InputStream is = from.getInputStream();
         try {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            int nRead;
-            byte[] bytes = new byte[1024];
-            while ((nRead = is.read(bytes, 0, bytes.length)) != -1) {
-                os.write(bytes, 0, nRead);
+            if (length <= 0 || length > Integer.MAX_VALUE - 8) {
+                return is.readAllBytes();
             }
 
-            return os.toByteArray();
+            byte[] bytes = new byte[(int) length];
+            int nRead = is.readNBytes(bytes, 0, bytes.length);
+            if (nRead < bytes.length) {
+                return Arrays.copyOf(bytes, nRead);
+            }
+
+            // The file may have grown since its length was determined
+            byte[] rest = is.readAllBytes();
+            if (rest.length == 0) {
+                return bytes;
+            }
+            byte[] all = Arrays.copyOf(bytes, bytes.length + rest.length);
+            System.arraycopy(rest, 0, all, bytes.length, rest.length);
+            return all;
         } catch (IOException exc) {
             throw new RuntimeException(exc);
         } finally {
@@ -76,21 +110,10 @@ public class OverthereUtils {
      * @return the string.
      */
     public static String read(final OverthereFile from, final String charsetName) {
-        InputStream is = from.getInputStream();
         try {
-            InputStreamReader isr = new InputStreamReader(is, charsetName);
-            StringBuilder b = new StringBuilder();
-            int nRead;
-            char[] chars = new char[1024];
-            while ((nRead = isr.read(chars, 0, chars.length)) != -1) {
-                b.append(chars, 0, nRead);
-            }
-
-            return b.toString();
-        } catch (IOException exc) {
+            return new String(read(from), charsetName);
+        } catch (UnsupportedEncodingException exc) {
             throw new RuntimeException(exc);
-        } finally {
-            closeQuietly(is);
         }
     }
 
@@ -126,29 +149,88 @@ public class OverthereUtils {
      * @param to the {@link java.io.OutputStream} to write to.
      */
     public static void write(InputStream from, OutputStream to) {
+        write(from, to, DEFAULT_TRANSFER_BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the contents of an {@link java.io.InputStream} to an {@link java.io.OutputStream}, reading at most
+     * <code>bufferSize</code> bytes at a time. When the streams are a {@link BufferedInputStream} or a
+     * {@link BufferedOutputStream} with a buffer no larger than <code>bufferSize</code>, the bytes bypass their buffers
+     * instead of being copied through them. The buffer is reused by later copies on the same thread.
+     *
+     * @param from       the {@link java.io.InputStream} to read from.
+     * @param to         the {@link java.io.OutputStream} to write to.
+     * @param bufferSize the number of bytes to read at a time.
+     */
+    public static void write(InputStream from, OutputStream to, int bufferSize) {
+        checkArgument(bufferSize > 0, "Buffer size must be positive but was %d", bufferSize);
+        byte[] bytes = borrowTransferBuffer(bufferSize);
         try {
-            byte[] bytes = new byte[1024];
             int nRead;
-            while ((nRead = from.read(bytes, 0, bytes.length)) != -1) {
+            while ((nRead = from.read(bytes, 0, bufferSize)) != -1) {
                 to.write(bytes, 0, nRead);
             }
         } catch (IOException ioe) {
             throw new RuntimeIOException(ioe);
+        } finally {
+            returnTransferBuffer(bytes);
         }
     }
 
     public static void write(Reader from, Writer to) {
         try {
-            char[] chars = new char[1024];
-            int nRead;
-            while ((nRead = from.read(chars, 0, chars.length)) != -1) {
-                to.write(chars, 0, nRead);
-            }
+            from.transferTo(to);
         } catch (IOException ioe) {
             throw new RuntimeIOException(ioe);
         }
     }
 
+    /**
+     * Returns the buffer size to use to copy a file of the given length. Files shorter than the preferred size are
+     * copied with a buffer that just holds them, so that small files do not allocate or touch a large buffer.
+     *
+     * @param length        the length of the file, or a negative number if it is not known.
+     * @param preferredSize the buffer size preferred by the connection, e.g. its
+     *                      {@link ConnectionOptions#REMOTE_COPY_BUFFER_SIZE remoteCopyBufferSize}.
+     * @return the buffer size.
+     */
+    public static int transferBufferSize(long length, int preferredSize) {
+        int size = preferredSize > 0 ? preferredSize : DEFAULT_TRANSFER_BUFFER_SIZE;
+        if (length >= 0 && length < size) {
+            size = (int) Math.max(length, Math.min(MIN_TRANSFER_BUFFER_SIZE, size));
+        }
+        return size;
+    }
+
+    private static long lengthOf(OverthereFile file) {
+        try {
+            OverthereFileAttributes attributes = file.getAttributes();
+            return attributes.isFile() ? attributes.length() : -1;
+        } catch (RuntimeIOException exc) {
+            logger.trace("Cannot determine length of {}, reading it without presizing the buffer", file, exc);
+            return -1;
+        }
+    }
+
+    private static byte[] borrowTransferBuffer(int size) {
+        byte[] bytes = transferBuffers.get();
+        if (bytes != null && bytes.length >= size) {
+            transferBuffers.remove();
+            return bytes;
+        }
+        return new byte[size];
+    }
+
+    private static void returnTransferBuffer(byte[] bytes) {
+        if (bytes.length > MAX_POOLED_TRANSFER_BUFFER_SIZE) {
+            return;
+        }
+        byte[] pooled = transferBuffers.get();
+        if (pooled == null || pooled.length < bytes.length) {
+            transferBuffers.set(bytes);
+        }
+    }
+
 
     /**
      * Writes the contents of a {@link String} to an {@link OverthereFile}.
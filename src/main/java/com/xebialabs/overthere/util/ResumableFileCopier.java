@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.Overthere;
+import com.xebialabs.overthere.OverthereConnection;
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.local.LocalConnection;
+import com.xebialabs.overthere.spi.BaseOverthereConnection;
+
+import static com.xebialabs.overthere.ConnectionOptions.REMOTE_COPY_BUFFER_SIZE;
+import static com.xebialabs.overthere.ConnectionOptions.REMOTE_COPY_BUFFER_SIZE_DEFAULT;
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+import static java.lang.String.format;
+
+/**
+ * Copies a regular file so that a copy that fails, e.g. because the connection was lost, continues where it stopped
+ * instead of starting over. It is used by {@link OverthereFile#copyToWithConfig(OverthereFile, Map)} when the
+ * configuration sets {@link #RESUMABLE} to <code>true</code>.
+ * <p/>
+ * The destination is written through a {@link OverthereFile#newByteChannel(java.nio.file.OpenOption...) byte channel},
+ * from the resume offset to the end without repositioning, so that the SFTP and SCP channels send the rest of the copy
+ * through a single stream instead of a request or command per buffer.
+ * Before every attempt the length of the destination is read. If it is not longer than the source and the checksum of
+ * its last {@link #RESUME_CHECKSUM_LENGTH} bytes matches the source, the copy continues at that offset, otherwise the
+ * destination is truncated and the copy starts over. This also applies to the first attempt, so a copy that was
+ * interrupted by the end of the process continues when it is started again. After a failure, connections to remote
+ * hosts are opened again with the protocol and options of the original connections, and closed when the attempt is
+ * over. The original connections are left as they are.
+ * <p/>
+ * If the destination cannot be opened as a byte channel, failed copies are retried from the start.
+ */
+public final class ResumableFileCopier {
+
+    /**
+     * Whether the copy is resumable. The default value is <code>false</code>.
+     */
+    public static final String RESUMABLE = "resumable";
+
+    /**
+     * The number of times a failed copy is resumed.
+     */
+    public static final String RESUME_RETRIES = "resumeRetries";
+
+    /**
+     * Default value for {@link #RESUME_RETRIES}.
+     */
+    public static final int RESUME_RETRIES_DEFAULT = 3;
+
+    /**
+     * The number of milliseconds to wait before a failed copy is resumed.
+     */
+    public static final String RESUME_RETRY_DELAY_MILLIS = "resumeRetryDelayMillis";
+
+    /**
+     * Default value for {@link #RESUME_RETRY_DELAY_MILLIS}.
+     */
+    public static final int RESUME_RETRY_DELAY_MILLIS_DEFAULT = 1000;
+
+    /**
+     * The number of bytes before the resume offset whose SHA-256 checksums in the source and the destination must be
+     * equal for the copy to continue at that offset. <code>0</code> resumes on the length of the destination alone.
+     */
+    public static final String RESUME_CHECKSUM_LENGTH = "resumeChecksumLength";
+
+    /**
+     * Default value for {@link #RESUME_CHECKSUM_LENGTH}.
+     */
+    public static final int RESUME_CHECKSUM_LENGTH_DEFAULT = 1024 * 1024;
+
+    private final OverthereFile source;
+    private final OverthereFile destination;
+    private final int retries;
+    private final int retryDelayMillis;
+    private final int checksumLength;
+
+    private ResumableFileCopier(OverthereFile source, OverthereFile destination, Map<String, String> config) {
+        this.source = source;
+        this.destination = destination;
+        this.retries = getInteger(config, RESUME_RETRIES, RESUME_RETRIES_DEFAULT);
+        this.retryDelayMillis = getInteger(config, RESUME_RETRY_DELAY_MILLIS, RESUME_RETRY_DELAY_MILLIS_DEFAULT);
+        this.checksumLength = getInteger(config, RESUME_CHECKSUM_LENGTH, RESUME_CHECKSUM_LENGTH_DEFAULT);
+    }
+
+    /**
+     * @param config the configuration passed to {@link OverthereFile#copyToWithConfig(OverthereFile, Map)}, may be
+     *               <code>null</code>.
+     * @return whether the configuration asks for a resumable copy.
+     */
+    public static boolean isResumable(Map<String, String> config) {
+        return config != null && Boolean.parseBoolean(config.get(RESUMABLE));
+    }
+
+    /**
+     * Copies a regular file.
+     *
+     * @param source      the source file. Must exist and must be a regular file.
+     * @param destination the destination file. May exist but must not be a directory. Its parent directory must exist.
+     * @param config      the settings of the copy.
+     * @throws RuntimeIOException if the copy still fails after the configured number of retries.
+     */
+    public static void copy(OverthereFile source, OverthereFile destination, Map<String, String> config) {
+        new ResumableFileCopier(source, destination, config).copy();
+    }
+
+    private void copy() {
+        Progress progress = new Progress();
+        RuntimeException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                logger.info("Resuming copy of {} to {} after {} bytes (retry {} of {})", source, destination, progress.copied, attempt, retries);
+                sleep();
+            }
+
+            List<OverthereConnection> reopened = new ArrayList<>();
+            try {
+                OverthereFile src = attempt == 0 ? source : reopen(source, reopened);
+                OverthereFile dst = attempt == 0 ? destination : reopen(destination, reopened);
+                transfer(src, dst, progress);
+                return;
+            } catch (RuntimeException exc) {
+                if (!isTransient(exc)) {
+                    throw exc;
+                }
+                logger.warn("Copy of {} to {} failed after {} bytes", source, destination, progress.copied, exc);
+                failure = exc;
+            } finally {
+                for (OverthereConnection connection : reopened) {
+                    closeQuietly(connection);
+                }
+            }
+        }
+        throw new RuntimeIOException(format("Cannot copy %s to %s after %d attempts", source, destination, retries + 1), failure);
+    }
+
+    /**
+     * Transport failures are reported as {@link RuntimeIOException RuntimeIOExceptions}, as other runtime exceptions
+     * that wrap an {@link IOException}, e.g. a lost connection, or as {@link IllegalStateException
+     * IllegalStateExceptions} when a connection or channel was closed underneath the copy. Other exceptions, such as
+     * invalid arguments, fail again when retried.
+     */
+    static boolean isTransient(RuntimeException exc) {
+        if (exc instanceof RuntimeIOException || exc instanceof UncheckedIOException || exc instanceof IllegalStateException) {
+            return true;
+        }
+        for (Throwable cause = exc.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void transfer(OverthereFile src, OverthereFile dst, Progress progress) {
+        SeekableByteChannel out;
+        try {
+            out = dst.newByteChannel(StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        } catch (UnsupportedOperationException exc) {
+            logger.debug("Cannot open a byte channel on {}, copying {} from the start", dst, src);
+            progress.copied = 0;
+            src.copyTo(dst);
+            return;
+        }
+
+        try {
+            long length = src.length();
+            long offset = resumeOffset(src, out, length);
+            if (out.size() > offset) {
+                out.truncate(offset);
+            }
+            out.position(offset);
+            progress.copied = offset;
+            if (offset > 0) {
+                logger.info("Continuing copy of {} to {} at byte {} of {}", src, dst, offset, length);
+            }
+
+            InputStream in = openAt(src, offset);
+            try {
+                byte[] buffer = new byte[OverthereUtils.transferBufferSize(length - offset, bufferSize(src))];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(ByteBuffer.wrap(buffer, 0, n));
+                    progress.copied += n;
+                }
+            } finally {
+                closeQuietly(in);
+            }
+
+            if (progress.copied != length) {
+                throw new RuntimeIOException(format("Cannot copy %s to %s: copied %d bytes but expected %d", src, dst, progress.copied, length));
+            }
+            out.close();
+        } catch (IOException exc) {
+            throw new RuntimeIOException(format("Cannot copy %s to %s", src, dst), exc);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * @return the length of the destination if the copy can continue there, or <code>0</code>.
+     */
+    private long resumeOffset(OverthereFile src, SeekableByteChannel out, long length) throws IOException {
+        long offset = out.size();
+        if (offset == 0) {
+            return 0;
+        }
+        if (offset > length) {
+            logger.debug("Destination of {} is longer than the source, copying from the start", src);
+            return 0;
+        }
+
+        int n = (int) Math.min(checksumLength, offset);
+        if (n > 0) {
+            out.position(offset - n);
+            byte[] actual = checksum(Channels.newInputStream(out), n);
+            InputStream in = openAt(src, offset - n);
+            byte[] expected;
+            try {
+                expected = checksum(in, n);
+            } finally {
+                closeQuietly(in);
+            }
+            if (!MessageDigest.isEqual(expected, actual)) {
+                logger.info("Checksum of the last {} bytes of the destination of {} does not match, copying from the start", n, src);
+                return 0;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Opens a file for reading at an offset. A byte channel is used if possible, so that the bytes before the offset do
+     * not have to be read.
+     */
+    private static InputStream openAt(OverthereFile file, long offset) throws IOException {
+        if (offset > 0) {
+            try {
+                SeekableByteChannel channel = file.newByteChannel(StandardOpenOption.READ);
+                try {
+                    channel.position(offset);
+                } catch (IOException | RuntimeException exc) {
+                    closeQuietly(channel);
+                    throw exc;
+                }
+                return Channels.newInputStream(channel);
+            } catch (UnsupportedOperationException exc) {
+                logger.debug("Cannot open a byte channel on {}, skipping {} bytes of its input stream", file, offset);
+            }
+        }
+
+        InputStream in = file.getInputStream();
+        try {
+            in.skipNBytes(offset);
+        } catch (IOException | RuntimeException exc) {
+            closeQuietly(in);
+            throw exc;
+        }
+        return in;
+    }
+
+    private static byte[] checksum(InputStream in, int length) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);
+        }
+        byte[] buffer = new byte[Math.min(length, OverthereUtils.DEFAULT_TRANSFER_BUFFER_SIZE)];
+        int remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, Math.min(remaining, buffer.length));
+            if (n < 0) {
+                break;
+            }
+            digest.update(buffer, 0, n);
+            remaining -= n;
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Opens the connection of a file again and returns the file on the new connection. Local files and files on
+     * connections that cannot be opened by protocol are returned as they are.
+     */
+    private static OverthereFile reopen(OverthereFile file, List<OverthereConnection> reopened) {
+        OverthereConnection connection = file.getConnection();
+        if (!(connection instanceof BaseOverthereConnection) || connection instanceof LocalConnection) {
+            return file;
+        }
+
+        OverthereConnection newConnection;
+        try {
+            newConnection = Overthere.getConnection(((BaseOverthereConnection) connection).getProtocol(), connection.getOptions());
+        } catch (IllegalArgumentException exc) {
+            logger.debug("Cannot open connection {} again, resuming on the same connection", connection, exc);
+            return file;
+        }
+        reopened.add(newConnection);
+        return newConnection.getFile(file.getPath());
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(retryDelayMillis);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeIOException(format("Interrupted while resuming copy of %s to %s", source, destination), exc);
+        }
+    }
+
+    private static int bufferSize(OverthereFile file) {
+        ConnectionOptions options = file.getConnection().getOptions();
+        return options.getInteger(REMOTE_COPY_BUFFER_SIZE, REMOTE_COPY_BUFFER_SIZE_DEFAULT);
+    }
+
+    private static int getInteger(Map<String, String> config, String key, int defaultValue) {
+        String value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException(format("Value specified for copy configuration %s is not an integer: %s", key, value), exc);
+        }
+    }
+
+    /**
+     * The number of bytes of the destination that have been written, kept per copy across its attempts.
+     */
+    private static final class Progress {
+        long copied;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(ResumableFileCopier.class);
+
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.xebialabs.overthere.util.OverthereUtils.checkArgument;
+
+/**
+ * A bounded pipe that hands bytes from one producer thread to one consumer thread through a ring buffer. Unlike
+ * {@link java.io.PipedInputStream} it does not take a lock for every write, does not poll once a second for a dead
+ * writer and can be sized to the expected output.
+ * <p/>
+ * The positions in the ring are only ever advanced by their owning thread, so the producer and the consumer never
+ * contend for a lock. A thread that has to wait for data or for space parks itself and is unparked by the other side.
+ * <p/>
+ * The producer ends the stream by closing the {@link #getOutputStream() output stream}, or by calling
+ * {@link #fail(Exception)}, in which case the consumer gets the failure once it has read the remaining bytes. When the
+ * consumer closes the {@link #getInputStream() input stream}, subsequent writes fail.
+ */
+public final class RingBufferPipe {
+
+    private final byte[] buffer;
+
+    // Total number of bytes written and read; only written by the producer and consumer respectively
+    private volatile long writePosition;
+    private volatile long readPosition;
+
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+    private volatile IOException failure;
+
+    private volatile Thread waitingReader;
+    private volatile Thread waitingWriter;
+
+    private final PipeInputStream inputStream = new PipeInputStream();
+    private final PipeOutputStream outputStream = new PipeOutputStream();
+
+    /**
+     * Creates a pipe.
+     *
+     * @param capacity the number of bytes that can be written before the producer blocks.
+     */
+    public RingBufferPipe(int capacity) {
+        checkArgument(capacity > 0, "Capacity of pipe must be positive, not %d", capacity);
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * @return the stream the consumer reads from.
+     */
+    public PipeInputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return the stream the producer writes to.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Ends the stream with an error. The consumer can read the bytes written so far, after which reading throws an
+     * {@link IOException} caused by <code>cause</code>.
+     *
+     * @param cause the reason the producer stopped.
+     */
+    public void fail(Exception cause) {
+        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        outputStream.close();
+    }
+
+    private int read(byte[] b, int off, int len, long timeoutNanos) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        final long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        for (; ; ) {
+            if (readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+
+            final long r = readPosition;
+            // Read the closed flag before the position, so that no bytes written before closing are missed
+            final boolean eof = writerClosed;
+            final int available = (int) (writePosition - r);
+            if (available > 0) {
+                final int n = Math.min(len, available);
+                final int index = (int) (r % buffer.length);
+                final int firstPart = Math.min(n, buffer.length - index);
+                System.arraycopy(buffer, index, b, off, firstPart);
+                System.arraycopy(buffer, 0, b, off + firstPart, n - firstPart);
+                readPosition = r + n;
+                LockSupport.unpark(waitingWriter);
+                return n;
+            }
+
+            if (eof) {
+                if (failure != null) {
+                    throw new IOException("Producer of pipe failed", failure);
+                }
+                return -1;
+            }
+
+            if (deadline != 0 && deadline - System.nanoTime() <= 0) {
+                return 0;
+            }
+
+            waitingReader = Thread.currentThread();
+            try {
+                if (writePosition == r && !writerClosed && !readerClosed) {
+                    if (deadline != 0) {
+                        LockSupport.parkNanos(this, deadline - System.nanoTime());
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+            } finally {
+                waitingReader = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while reading from pipe");
+            }
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (writerClosed) {
+                throw new IOException("Pipe closed");
+            }
+            if (readerClosed) {
+                throw new IOException("Reader of pipe closed");
+            }
+
+            final long w = writePosition;
+            final int free = buffer.length - (int) (w - readPosition);
+            if (free > 0) {
+                final int n = Math.min(len, free);
+                final int index = (int) (w % buffer.length);
+                final int firstPart = Math.min(n, buffer.length - index);
+                System.arraycopy(b, off, buffer, index, firstPart);
+                System.arraycopy(b, off + firstPart, buffer, 0, n - firstPart);
+                writePosition = w + n;
+                LockSupport.unpark(waitingReader);
+                off += n;
+                len -= n;
+                continue;
+            }
+
+            waitingWriter = Thread.currentThread();
+            try {
+                if (w - readPosition == buffer.length && !readerClosed) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                waitingWriter = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while writing to pipe");
+            }
+        }
+    }
+
+    /**
+     * The consumer side of a {@link RingBufferPipe}.
+     */
+    public final class PipeInputStream extends InputStream {
+
+        private final byte[] single = new byte[1];
+
+        private PipeInputStream() {
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = RingBufferPipe.this.read(single, 0, 1, 0);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkBounds(b, off, len);
+            return RingBufferPipe.this.read(b, off, len, 0);
+        }
+
+        /**
+         * Reads bytes, waiting at most the specified time for them to become available.
+         *
+         * @return the number of bytes read, <code>0</code> if the timeout expired before any bytes were available or
+         * <code>-1</code> if the end of the stream has been reached.
+         */
+        public int read(byte[] b, int off, int len, long timeout, TimeUnit unit) throws IOException {
+            checkBounds(b, off, len);
+            checkArgument(timeout > 0, "Timeout must be positive, not %d", timeout);
+            return RingBufferPipe.this.read(b, off, len, unit.toNanos(timeout));
+        }
+
+        @Override
+        public int available() {
+            return (int) (writePosition - readPosition);
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            LockSupport.unpark(waitingWriter);
+        }
+    }
+
+    private final class PipeOutputStream extends OutputStream {
+
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            RingBufferPipe.this.write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkBounds(b, off, len);
+            RingBufferPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            writerClosed = true;
+            LockSupport.unpark(waitingReader);
+        }
+    }
+
+    private static void checkBounds(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.util.Date;
+import javax.security.auth.RefreshFailedException;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the JAAS {@link Subject} of a Kerberos login so that it can be used for many WinRM requests. The ticket
+ * granting ticket is renewed, or a new login is performed, when it nears expiry. Because the service tickets obtained
+ * with the subject are stored in it as well, reusing the subject also avoids a round trip to the KDC per request.
+ */
+class KerberosLogin {
+
+    /**
+     * Renew when less than this fraction of the ticket lifetime remains.
+     */
+    private static final double RENEW_AT_REMAINING_LIFETIME = 0.2;
+
+    /**
+     * Always renew when the ticket expires within this number of milliseconds.
+     */
+    private static final long RENEW_MARGIN_MILLIS = 60 * 1000;
+
+    private final String username;
+    private final String password;
+    private final boolean debug;
+    private final boolean ticketCache;
+
+    private LoginContext loginContext;
+
+    KerberosLogin(String username, String password, boolean debug, boolean ticketCache) {
+        this.username = username;
+        this.password = password;
+        this.debug = debug;
+        this.ticketCache = ticketCache;
+    }
+
+    /**
+     * Returns the subject of the current login, logging in or renewing the ticket granting ticket first if needed.
+     *
+     * @return the subject.
+     * @throws LoginException if the login fails.
+     */
+    synchronized Subject getSubject() throws LoginException {
+        if (loginContext != null) {
+            KerberosTicket tgt = getTicketGrantingTicket(loginContext.getSubject());
+            if (tgt != null && !needsRenewal(tgt, System.currentTimeMillis())) {
+                return loginContext.getSubject();
+            }
+            if (tgt != null && renew(tgt)) {
+                return loginContext.getSubject();
+            }
+        }
+
+        login();
+        return loginContext.getSubject();
+    }
+
+    /**
+     * Logs out, discarding the tickets held by the subject. Only to be called once no requests are sent as the subject
+     * anymore, e.g. when the connection is closed.
+     */
+    synchronized void logout() {
+        if (loginContext == null) {
+            return;
+        }
+        try {
+            loginContext.logout();
+        } catch (LoginException exc) {
+            logger.debug("Ignoring failure to log out Kerberos principal {}", username, exc);
+        }
+        loginContext = null;
+    }
+
+    /**
+     * Logs in again and swaps in the new login. The previous login is not logged out: that would destroy the tickets of
+     * its subject while other threads may still be sending requests as that subject. It is discarded once they are done
+     * with it.
+     */
+    private void login() throws LoginException {
+        logger.debug("Logging in Kerberos principal {}", username);
+        LoginContext newLoginContext = new LoginContext("", null, new ProvidedAuthCallback(username, password), new KerberosJaasConfiguration(debug, ticketCache));
+        newLoginContext.login();
+        loginContext = newLoginContext;
+    }
+
+    private boolean renew(KerberosTicket tgt) {
+        if (!tgt.isRenewable() || tgt.getRenewTill() == null || tgt.getRenewTill().getTime() <= System.currentTimeMillis() + RENEW_MARGIN_MILLIS) {
+            return false;
+        }
+        try {
+            logger.debug("Renewing Kerberos ticket granting ticket of {}", username);
+            tgt.refresh();
+            return !needsRenewal(tgt, System.currentTimeMillis());
+        } catch (RefreshFailedException exc) {
+            logger.debug("Cannot renew Kerberos ticket granting ticket of {}, logging in again", username, exc);
+            return false;
+        }
+    }
+
+    static boolean needsRenewal(KerberosTicket tgt, long now) {
+        if (tgt.isDestroyed() || tgt.getEndTime() == null) {
+            return true;
+        }
+        Date start = tgt.getStartTime() != null ? tgt.getStartTime() : tgt.getAuthTime();
+        long end = tgt.getEndTime().getTime();
+        long lifetime = start != null ? end - start.getTime() : 0;
+        long remaining = end - now;
+        return remaining < RENEW_MARGIN_MILLIS || remaining < lifetime * RENEW_AT_REMAINING_LIFETIME;
+    }
+
+    private static KerberosTicket getTicketGrantingTicket(Subject subject) {
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getServer().getName().startsWith("krbtgt/")) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(KerberosLogin.class);
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * The result of a WinRM Receive request. The response is parsed with a pull parser, so that the base64 encoded
+ * <code>Stream</code> elements are decoded into the stdout and stderr sinks one element at a time, without building a
+ * document of the whole response.
+ */
+class ReceiveResponse {
+
+    private static final String STATE_DONE = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell/CommandState/Done";
+
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private boolean done;
+
+    private Integer exitCode;
+
+    private long streamBytes;
+
+    private ReceiveResponse() {
+    }
+
+    /**
+     * Parses a Receive response.
+     *
+     * @param in     the response body.
+     * @param stdout the sink for the decoded <code>stdout</code> stream.
+     * @param stderr the sink for the decoded <code>stderr</code> stream.
+     * @return the state of the command.
+     */
+    static ReceiveResponse parse(InputStream in, OutputStream stdout, OutputStream stderr) throws IOException, XMLStreamException {
+        final ReceiveResponse response = new ReceiveResponse();
+        final String ns = Namespaces.NS_WIN_SHELL.getURI();
+        final Base64 base64 = new Base64();
+        final XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT || !ns.equals(reader.getNamespaceURI())) {
+                    continue;
+                }
+
+                switch (reader.getLocalName()) {
+                case "Stream":
+                    String name = reader.getAttributeValue(null, "Name");
+                    OutputStream sink = "stdout".equals(name) ? stdout : "stderr".equals(name) ? stderr : null;
+                    String text = reader.getElementText();
+                    if (sink != null && !text.isEmpty()) {
+                        byte[] decoded = base64.decode(text);
+                        response.streamBytes += decoded.length;
+                        sink.write(decoded);
+                    }
+                    break;
+                case "CommandState":
+                    if (STATE_DONE.equals(reader.getAttributeValue(null, "State"))) {
+                        response.done = true;
+                    }
+                    break;
+                case "ExitCode":
+                    if (response.done) {
+                        response.exitCode = parseExitCode(reader.getElementText());
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return response;
+    }
+
+    /**
+     * @return whether the command has finished.
+     */
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return the exit code of the command, or <code>null</code> if it was not part of the response.
+     */
+    Integer getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return the number of decoded <code>stdout</code> and <code>stderr</code> bytes in the response.
+     */
+    long getStreamBytes() {
+        return streamBytes;
+    }
+
+    private static Integer parseExitCode(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException exc) {
+            return -1;
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+}
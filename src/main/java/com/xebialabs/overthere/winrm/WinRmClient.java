@@ -37,26 +37,21 @@ import org.apache.http.auth.Credentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.config.Lookup;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
-import org.apache.http.conn.HttpClientConnectionManager;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.ssl.SSLContexts;
 import org.dom4j.*;
 import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,30 +60,37 @@ import javax.net.SocketFactory;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.security.auth.Subject;
-import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.kerberos.KerberosPrincipal;
-import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 import java.io.*;
-import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
-import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
 import static org.apache.http.auth.AuthScope.*;
 import static org.apache.http.client.params.AuthPolicy.*;
-import static org.apache.http.util.EntityUtils.consume;
+import static org.apache.http.util.EntityUtils.consumeQuietly;
 
 /**
  * See http://msdn.microsoft.com/en-us/library/cc251731(v=prot.10).aspx for some examples of how the WS-MAN protocol works on Windows
  */
 class WinRmClient {
+    /**
+     * WinRM (HTTP.SYS) closes idle keep-alive connections after two minutes, so stop reusing them well before that.
+     */
+    private static final long IDLE_HTTP_CONNECTION_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Room left in a Send envelope for the SOAP headers and the Send and Stream elements around the base64 encoded input.
+     */
+    private static final int SEND_ENVELOPE_OVERHEAD = 4096;
+
     private final SocketFactory socketFactory;
     private final String username;
     private final boolean enableKerberos;
@@ -99,6 +101,8 @@ class WinRmClient {
 
     private String winRmTimeout;
     private int winRmEnvelopSize;
+    private int winRmMaxEnvelopSize;
+    private int receiveEnvelopSize;
     private String winRmLocale;
     private WinrmHttpsCertificateTrustStrategy httpsCertTrustStrategy;
     private WinrmHttpsHostnameVerificationStrategy httpsHostnameVerifyStrategy;
@@ -117,6 +121,16 @@ class WinRmClient {
 
     private boolean useJumpstation;
 
+    private CloseableHttpClient httpClient;
+
+    private KerberosLogin kerberosLogin;
+
+    /**
+     * One HTTP context per thread, so that an established SPNEGO/Kerberos authentication state is kept between the
+     * requests sent by that thread instead of being renegotiated for every request.
+     */
+    private final ThreadLocal<HttpContext> httpContexts = ThreadLocal.withInitial(BasicHttpContext::new);
+
     public WinRmClient(final String username, final String password, final URL targetURL, final String unmappedAddress, final int unmappedPort, final SocketFactory socketFactory) {
         int posOfAtSign = username.indexOf('@');
         if (posOfAtSign >= 0) {
@@ -160,6 +174,11 @@ class WinRmClient {
     public String executeCommand(String command) {
         logger.debug("Sending WinRM Execute Command request to shell {}", shellId);
 
+        // A shell can be reused for several commands, so reset the state of the previous command
+        commandId = null;
+        exitValue = -1;
+        chunk = 0;
+
         final Element bodyContent = DocumentHelper.createElement(QName.get("CommandLine", Namespaces.NS_WIN_SHELL));
         String encoded = "\"" + command + "\"";
         bodyContent.addElement(QName.get("Command", Namespaces.NS_WIN_SHELL)).addText(encoded);
@@ -174,24 +193,36 @@ class WinRmClient {
         return commandId;
     }
 
-    public boolean receiveOutput(OutputStream stdout, OutputStream stderr) throws IOException {
+    public boolean receiveOutput(final OutputStream stdout, final OutputStream stderr) throws IOException {
         logger.debug("Sending WinRM Receive Output request for command {} in shell {}", commandId, shellId);
 
+        final int envelopSize = getReceiveEnvelopSize();
         final Element bodyContent = DocumentHelper.createElement(QName.get("Receive", Namespaces.NS_WIN_SHELL));
         bodyContent.addElement(QName.get("DesiredStream", Namespaces.NS_WIN_SHELL)).addAttribute("CommandId", commandId).addText("stdout stderr");
-        final Document requestDocument = getRequestDocument(Action.WS_RECEIVE, ResourceURI.RESOURCE_URI_CMD, null, bodyContent);
+        final Document requestDocument = getRequestDocument(Action.WS_RECEIVE, ResourceURI.RESOURCE_URI_CMD, null, bodyContent, envelopSize);
 
-        Document responseDocument = sendRequest(requestDocument, SoapAction.RECEIVE);
+        final ReceiveResponse response;
+        try {
+            response = sendRequest(requestDocument, SoapAction.RECEIVE, new ResponseReader<ReceiveResponse>() {
+                @Override
+                public ReceiveResponse read(InputStream in) throws Exception {
+                    return ReceiveResponse.parse(in, stdout, stderr);
+                }
+            });
+        } catch (UnexpectedResponseException exc) {
+            if (envelopSize <= winRmEnvelopSize) {
+                throw exc;
+            }
+            // The request was rejected, so no output was consumed and it is safe to ask again
+            logger.debug("WinRM Receive Output request with envelop size {} was rejected, falling back to envelop size {}", envelopSize, winRmEnvelopSize, exc);
+            receiveEnvelopSize = winRmMaxEnvelopSize = winRmEnvelopSize;
+            return receiveOutput(stdout, stderr);
+        }
 
         logger.debug("Received WinRM Receive Output response for command {} in shell {}", commandId, shellId);
 
-        handleStream(responseDocument, ResponseExtractor.STDOUT, stdout);
-        handleStream(responseDocument, ResponseExtractor.STDERR, stderr);
-
-        if (chunk == 0) {
-            parseExitCode(responseDocument);
-        }
         chunk++;
+        receiveEnvelopSize = nextReceiveEnvelopSize(envelopSize, winRmMaxEnvelopSize, response.getStreamBytes());
 
         /*
          * We may need to get additional output if the stream has not finished. The CommandState will change from
@@ -205,10 +236,11 @@ class WinRmClient {
          * State="http://schemas.microsoft.com/wbem/wsman/1/windows/shell/CommandState/Done">
          * <rsp:ExitCode>0</rsp:ExitCode> </rsp:CommandState>
          */
-        final List<?> list = ResponseExtractor.STREAM_DONE.getXPath().selectNodes(responseDocument);
-        if (!list.isEmpty()) {
-            logger.trace("Found CommandState element with State=Done, parsing exit code and returning false.");
-            parseExitCode(responseDocument);
+        if (response.isDone()) {
+            logger.trace("Found CommandState element with State=Done, exit code is {}, returning false.", response.getExitCode());
+            if (response.getExitCode() != null) {
+                exitValue = response.getExitCode();
+            }
             return false;
         } else {
             logger.trace("Did not find CommandState element with State=Done, returning true.");
@@ -217,11 +249,20 @@ class WinRmClient {
     }
 
     public void sendInput(byte[] buf) throws IOException {
-        logger.debug("Sending WinRM Send Input request for command {} in shell {}", commandId, shellId);
+        sendInput(buf, 0, buf.length);
+    }
+
+    /**
+     * Sends <code>len</code> bytes of input to the command. At most {@link #getMaxInputChunkSize()} bytes fit in one Send
+     * request.
+     */
+    public void sendInput(byte[] buf, int off, int len) throws IOException {
+        logger.debug("Sending WinRM Send Input request with {} bytes for command {} in shell {}", len, commandId, shellId);
 
         final Element bodyContent = DocumentHelper.createElement(QName.get("Send", Namespaces.NS_WIN_SHELL));
         final Base64 base64 = new Base64();
-        bodyContent.addElement(QName.get("Stream", Namespaces.NS_WIN_SHELL)).addAttribute("Name", "stdin").addAttribute("CommandId", commandId).addText(base64.encodeAsString(buf));
+        final String encoded = new String(base64.encode(buf, off, len), StandardCharsets.US_ASCII);
+        bodyContent.addElement(QName.get("Stream", Namespaces.NS_WIN_SHELL)).addAttribute("Name", "stdin").addAttribute("CommandId", commandId).addText(encoded);
         final Document requestDocument = getRequestDocument(Action.WS_SEND, ResourceURI.RESOURCE_URI_CMD, null, bodyContent);
         sendRequest(requestDocument, SoapAction.SEND);
 
@@ -262,35 +303,39 @@ class WinRmClient {
         return exitValue;
     }
 
-    private void parseExitCode(Document responseDocument) {
-        try {
-            logger.trace("Parsing exit code");
-            String exitCode = getFirstElement(responseDocument, ResponseExtractor.EXIT_CODE);
-            logger.trace("Found exit code {}", exitCode);
-            try {
-                exitValue = Integer.parseInt(exitCode);
-            } catch (NumberFormatException exc) {
-                logger.error("Cannot parse exit code {}, setting it to -1", exc);
-                exitValue = -1;
-            }
-        } catch (Exception exc) {
-            logger.trace("Exit code not found,");
-        }
+    public String getShellId() {
+        return shellId;
     }
 
-    private static void handleStream(Document responseDocument, ResponseExtractor stream, OutputStream out) throws IOException {
-        @SuppressWarnings("unchecked") final List<Node> streams = stream.getXPath().selectNodes(responseDocument);
-        if (!streams.isEmpty()) {
-            final Base64 base64 = new Base64();
-            Iterator<Node> itStreams = streams.iterator();
-            while (itStreams.hasNext()) {
-                Node node = itStreams.next();
-                // TODO check performance with http://www.iharder.net/current/java/base64/
-                final byte[] decode = base64.decode(node.getText());
-                out.write(decode);
-            }
-        }
+    public String getCommandId() {
+        return commandId;
+    }
+
+    /**
+     * @return the largest number of input bytes that, base64 encoded, fit in a Send request of the configured envelop size.
+     */
+    public int getMaxInputChunkSize() {
+        return maxInputChunkSize(winRmEnvelopSize);
+    }
+
+    static int maxInputChunkSize(int envelopSize) {
+        return Math.max(WinRmConnection.STDIN_BUF_SIZE, (envelopSize - SEND_ENVELOPE_OVERHEAD) / 4 * 3);
+    }
+
+    private int getReceiveEnvelopSize() {
+        return Math.max(winRmEnvelopSize, receiveEnvelopSize);
+    }
 
+    /**
+     * Doubles the envelop size of the next Receive request, up to <code>maxEnvelopSize</code>, when the base64 encoded
+     * output took up at least half of the current envelop, i.e. when the command produces output faster than it is received.
+     */
+    static int nextReceiveEnvelopSize(int envelopSize, int maxEnvelopSize, long streamBytes) {
+        final long encodedBytes = (streamBytes + 2) / 3 * 4;
+        if (encodedBytes * 2 < envelopSize || envelopSize >= maxEnvelopSize) {
+            return envelopSize;
+        }
+        return (int) Math.min((long) envelopSize * 2, maxEnvelopSize);
     }
 
     private static String getFirstElement(Document doc, ResponseExtractor extractor) {
@@ -303,10 +348,14 @@ class WinRmClient {
     }
 
     private Document getRequestDocument(Action action, ResourceURI resourceURI, OptionSet optionSet, Element bodyContent) {
+        return getRequestDocument(action, resourceURI, optionSet, bodyContent, winRmEnvelopSize);
+    }
+
+    private Document getRequestDocument(Action action, ResourceURI resourceURI, OptionSet optionSet, Element bodyContent, int envelopSize) {
         SoapMessageBuilder message = Soapy.newMessage();
         SoapMessageBuilder.EnvelopeBuilder envelope = message.envelope();
         try {
-            addHeaders(envelope, action, resourceURI, optionSet);
+            addHeaders(envelope, action, resourceURI, optionSet, envelopSize);
         } catch (URISyntaxException e) {
             throw new IllegalArgumentException(e);
         }
@@ -318,11 +367,11 @@ class WinRmClient {
         return message.getDocument();
     }
 
-    private void addHeaders(SoapMessageBuilder.EnvelopeBuilder envelope, Action action, ResourceURI resourceURI, OptionSet optionSet)
+    private void addHeaders(SoapMessageBuilder.EnvelopeBuilder envelope, Action action, ResourceURI resourceURI, OptionSet optionSet, int envelopSize)
             throws URISyntaxException {
         HeaderBuilder header = envelope.header();
         header.to(targetURL.toURI()).replyTo(new URI("http://schemas.xmlsoap.org/ws/2004/08/addressing/role/anonymous"));
-        header.maxEnvelopeSize(winRmEnvelopSize);
+        header.maxEnvelopeSize(envelopSize);
         header.withId(getUUID());
         header.withLocale(winRmLocale);
         header.withTimeout(winRmTimeout);
@@ -341,49 +390,65 @@ class WinRmClient {
     }
 
     private Document sendRequest(final Document requestDocument, final SoapAction soapAction) {
+        return sendRequest(requestDocument, soapAction, DOCUMENT_READER);
+    }
+
+    private <T> T sendRequest(final Document requestDocument, final SoapAction soapAction, final ResponseReader<T> responseReader) {
         if (enableKerberos) {
-            return runPrivileged(new PrivilegedSendMessage(requestDocument, soapAction));
+            return runPrivileged(new PrivilegedSendMessage<T>(requestDocument, soapAction, responseReader));
         } else {
-            return doSendRequest(requestDocument, soapAction);
+            return doSendRequest(requestDocument, soapAction, responseReader);
         }
     }
 
     /**
-     * Performs the JAAS login and run the sendRequest method within a privileged scope.
+     * Performs the JAAS login and run the sendRequest method within a privileged scope. The login is reused across
+     * requests if a shared {@link KerberosLogin} has been set.
      */
-    private Document runPrivileged(final PrivilegedSendMessage privilegedSendMessage) {
-        final CallbackHandler handler = new ProvidedAuthCallback(username, password);
-        Document result;
+    private <T> T runPrivileged(final PrivilegedSendMessage<T> privilegedSendMessage) {
+        final KerberosLogin login = kerberosLogin != null ? kerberosLogin : createKerberosLogin();
+        T result;
         try {
-            final LoginContext lc = new LoginContext("", null, handler, new KerberosJaasConfiguration(kerberosDebug, kerberosTicketCache));
-            lc.login();
-
-            result = Subject.doAs(lc.getSubject(), privilegedSendMessage);
+            result = Subject.doAs(login.getSubject(), privilegedSendMessage);
         } catch (LoginException e) {
             throw new WinRmRuntimeIOException("Login failure sending message on " + targetURL + " error: " + e.getMessage(),
                     privilegedSendMessage.getRequestDocument(), null, e);
         } catch (PrivilegedActionException e) {
             throw new WinRmRuntimeIOException("Failure sending message on " + targetURL + " error: " + e.getMessage(),
                     privilegedSendMessage.getRequestDocument(), null, e.getException());
+        } finally {
+            if (login != kerberosLogin) {
+                login.logout();
+            }
         }
         return result;
     }
 
+    /**
+     * Creates a Kerberos login for the credentials of this client. The login may be shared by all
+     * {@link WinRmClient WinRmClients} for the same endpoint and credentials, see {@link #setKerberosLogin(KerberosLogin)}.
+     */
+    KerberosLogin createKerberosLogin() {
+        return new KerberosLogin(username, password, kerberosDebug, kerberosTicketCache);
+    }
+
     /**
      * PrivilegedExceptionAction that wraps the internal sendRequest
      */
-    private class PrivilegedSendMessage implements PrivilegedExceptionAction<Document> {
+    private class PrivilegedSendMessage<T> implements PrivilegedExceptionAction<T> {
         private Document requestDocument;
         private SoapAction soapAction;
+        private ResponseReader<T> responseReader;
 
-        private PrivilegedSendMessage(final Document requestDocument, final SoapAction soapAction) {
+        private PrivilegedSendMessage(final Document requestDocument, final SoapAction soapAction, final ResponseReader<T> responseReader) {
             this.requestDocument = requestDocument;
             this.soapAction = soapAction;
+            this.responseReader = responseReader;
         }
 
         @Override
-        public Document run() throws Exception {
-            return WinRmClient.this.doSendRequest(requestDocument, soapAction);
+        public T run() throws Exception {
+            return WinRmClient.this.doSendRequest(requestDocument, soapAction, responseReader);
         }
 
         public Document getRequestDocument() {
@@ -392,50 +457,31 @@ class WinRmClient {
     }
 
     /**
-     * Internal sendRequest, performs the HTTP request and returns the result document.
+     * Reads the body of a successful response straight from the HTTP entity, so that large responses do not have to be
+     * buffered as a string first.
      */
-    private Document doSendRequest(final Document requestDocument, final SoapAction soapAction) {
-        final HttpClientBuilder client = HttpClientBuilder.create();
-        HttpClientConnectionManager connectionManager = getHttpClientConnectionManager();
-        try {
-            configureHttpClient(client);
-            try(CloseableHttpClient httpClient = client.build()) {
-                final HttpContext context = new BasicHttpContext();
-                final HttpPost request = new HttpPost(targetURL.toURI());
-
-                if (soapAction != null) {
-                    request.setHeader("SOAPAction", soapAction.getValue());
-                }
-
-                final String requestBody = toString(requestDocument);
-                logger.trace("Request:\nPOST {}\n{}", targetURL, requestBody);
-
-                final HttpEntity entity = createEntity(requestBody);
-                request.setEntity(entity);
-
-                final HttpResponse response = httpClient.execute(request, context);
-
-                logResponseHeaders(response);
+    private interface ResponseReader<T> {
+        T read(InputStream in) throws Exception;
+    }
 
-                Document responseDocument = null;
-                try {
-                    final String responseBody = handleResponse(response, context);
-                    responseDocument = DocumentHelper.parseText(responseBody);
-                    logDocument("Response body:", responseDocument);
-                } catch(WinRmRuntimeIOException e) {
-                    if (response.getStatusLine().getStatusCode() == 200) {
-                    	throw e;
-                    }
-                }
-                
-                if (response.getStatusLine().getStatusCode() != 200) {
-                    throw new WinRmRuntimeIOException(String.format("Unexpected HTTP response on %s:  %s (%s)",
-                            targetURL, response.getStatusLine().getReasonPhrase(), response.getStatusLine().getStatusCode()));
-                }
+    private static final ResponseReader<Document> DOCUMENT_READER = new ResponseReader<Document>() {
+        @Override
+        public Document read(InputStream in) throws Exception {
+            return new SAXReader().read(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+    };
 
-                return responseDocument;
-            } finally {
-                connectionManager.shutdown();
+    /**
+     * Internal sendRequest, performs the HTTP request and returns the result read by the response reader. Uses the
+     * shared HTTP client if one has been set, otherwise a new HTTP client is built for just this request.
+     */
+    private <T> T doSendRequest(final Document requestDocument, final SoapAction soapAction, final ResponseReader<T> responseReader) {
+        try {
+            if (httpClient != null) {
+                return executeRequest(httpClient, requestDocument, soapAction, responseReader);
+            }
+            try (CloseableHttpClient oneShotClient = createHttpClient(1)) {
+                return executeRequest(oneShotClient, requestDocument, soapAction, responseReader);
             }
         } catch (WinRmRuntimeIOException exc) {
             throw exc;
@@ -444,19 +490,56 @@ class WinRmClient {
         }
     }
 
-    private HttpClientConnectionManager getHttpClientConnectionManager() {
-        final Lookup<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create().register("http", new PlainConnectionSocketFactory() {
-            @Override
-            public Socket createSocket(HttpContext context) throws IOException {
-                return socketFactory.createSocket();
-            }
-        }).register("https", new SSLConnectionSocketFactory(SSLContexts.createDefault(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()) {
-            @Override
-            public Socket createSocket(HttpContext context) throws IOException {
-                return socketFactory.createSocket();
+    private <T> T executeRequest(final CloseableHttpClient client, final Document requestDocument, final SoapAction soapAction,
+                                 final ResponseReader<T> responseReader) throws Exception {
+        final HttpContext context = httpContexts.get();
+        final HttpPost request = new HttpPost(targetURL.toURI());
+
+        if (soapAction != null) {
+            request.setHeader("SOAPAction", soapAction.getValue());
+        }
+
+        logDocument("Request:\nPOST " + targetURL, requestDocument);
+        request.setEntity(createEntity(requestDocument));
+
+        final HttpResponse response = client.execute(request, context);
+        try {
+            logResponseHeaders(response);
+
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                logErrorResponse(response);
+                throw new UnexpectedResponseException(String.format("Unexpected HTTP response on %s:  %s (%s)",
+                        targetURL, response.getStatusLine().getReasonPhrase(), statusCode));
             }
-        }).build();
-        return new BasicHttpClientConnectionManager(socketFactoryRegistry);
+
+            return readResponse(response, responseReader);
+        } finally {
+            // Always drain the response so that the HTTP connection can be kept alive and reused
+            consumeQuietly(response.getEntity());
+        }
+    }
+
+    /**
+     * Builds an HTTP client for this endpoint that pools and keeps alive up to <code>maxConnections</code>
+     * connections. The client may be shared by all {@link WinRmClient WinRmClients} for the same endpoint and
+     * credentials, see {@link #setHttpClient(CloseableHttpClient)}.
+     */
+    CloseableHttpClient createHttpClient(int maxConnections) {
+        final HttpClientBuilder client = HttpClientBuilder.create();
+        try {
+            configureHttpClient(client);
+        } catch (GeneralSecurityException exc) {
+            throw new WinRmRuntimeIOException("Cannot configure HTTP client for " + targetURL, exc);
+        }
+        // All requests are made with the same credentials, so connections authenticated with a connection based
+        // scheme (Kerberos, SPNEGO) can be reused by every request
+        client.disableConnectionState();
+        client.setMaxConnPerRoute(maxConnections);
+        client.setMaxConnTotal(maxConnections);
+        client.evictExpiredConnections();
+        client.evictIdleConnections(IDLE_HTTP_CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return client.build();
     }
 
     private void configureHttpClient(final HttpClientBuilder httpclient) throws GeneralSecurityException {
@@ -546,30 +629,52 @@ class WinRmClient {
 
 
     /**
-     * Handle the httpResponse and return the SOAP XML String.
+     * Checks the content type of the httpResponse and reads the SOAP XML from it with the response reader.
      */
-    protected String handleResponse(final HttpResponse response, final HttpContext context) throws IOException {
+    private <T> T readResponse(final HttpResponse response, final ResponseReader<T> responseReader) throws Exception {
         final HttpEntity entity = response.getEntity();
-        if (null == entity.getContentType() || !entity.getContentType().getValue().startsWith("application/soap+xml")) {
-            throw new WinRmRuntimeIOException("Error when sending request to " + targetURL + "; Unexpected content-type: " + entity.getContentType());
+        if (null == entity || null == entity.getContentType() || !entity.getContentType().getValue().startsWith("application/soap+xml")) {
+            throw new WinRmRuntimeIOException("Error when sending request to " + targetURL + "; Unexpected content-type: "
+                    + (entity == null ? null : entity.getContentType()));
         }
 
         final InputStream is = entity.getContent();
-        final Writer writer = new StringWriter();
-        final Reader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
         try {
-            int n;
-            final char[] buffer = new char[1024];
-            while ((n = reader.read(buffer)) != -1) {
-                writer.write(buffer, 0, n);
+            if (!logger.isTraceEnabled()) {
+                return responseReader.read(is);
             }
+            final byte[] responseBody = toByteArray(is);
+            logger.trace("Response body:\n{}", new String(responseBody, StandardCharsets.UTF_8));
+            return responseReader.read(new ByteArrayInputStream(responseBody));
         } finally {
-            closeQuietly(reader);
             closeQuietly(is);
-            consume(response.getEntity());
         }
+    }
 
-        return writer.toString();
+    /**
+     * Logs the body of an error response, which usually holds a SOAP fault describing what went wrong.
+     */
+    private static void logErrorResponse(final HttpResponse response) {
+        final HttpEntity entity = response.getEntity();
+        if (!logger.isTraceEnabled() || entity == null) {
+            return;
+        }
+
+        try (InputStream is = entity.getContent()) {
+            logger.trace("Response body:\n{}", new String(toByteArray(is), StandardCharsets.UTF_8));
+        } catch (IOException exc) {
+            logger.trace("Cannot read response body", exc);
+        }
+    }
+
+    private static byte[] toByteArray(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
     }
 
     private static String toString(Document doc) {
@@ -585,10 +690,20 @@ class WinRmClient {
     }
 
     /**
-     * Create the HttpEntity to send in the request.
+     * Create the HttpEntity to send in the request. The document is written compactly as UTF-8 bytes straight from the
+     * DOM, without an intermediate pretty printed string. The entity is repeatable, so that it can be resent when the
+     * server challenges for authentication.
      */
-    protected HttpEntity createEntity(final String requestDocAsString) {
-        return new StringEntity(requestDocAsString, ContentType.create("application/soap+xml", "UTF-8"));
+    protected HttpEntity createEntity(final Document requestDocument) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        try {
+            XMLWriter xmlWriter = new XMLWriter(out, OutputFormat.createCompactFormat());
+            xmlWriter.write(requestDocument);
+            xmlWriter.close();
+        } catch (IOException exc) {
+            throw new WinRmRuntimeIOException("Cannnot convert XML to bytes ", exc);
+        }
+        return new ByteArrayEntity(out.toByteArray(), ContentType.create("application/soap+xml", "UTF-8"));
     }
 
     public void setWinRmTimeout(String timeout) {
@@ -599,6 +714,10 @@ class WinRmClient {
         this.winRmEnvelopSize = envelopSize;
     }
 
+    public void setWinRmMaxEnvelopSize(int maxEnvelopSize) {
+        this.winRmMaxEnvelopSize = maxEnvelopSize;
+    }
+
     public void setWinRmLocale(String locale) {
         this.winRmLocale = locale;
     }
@@ -656,6 +775,10 @@ class WinRmClient {
         this.useCanonicalHostname = useCanonicalHostname;
     }
 
+    public boolean isKerberosEnabled() {
+        return enableKerberos;
+    }
+
     public boolean isUseJumpstation() {
         return useJumpstation;
     }
@@ -664,6 +787,30 @@ class WinRmClient {
         this.useJumpstation = useJumpstation;
     }
 
+    /**
+     * Sets the Kerberos login to authenticate requests with. The login is not logged out by this class.
+     */
+    public void setKerberosLogin(KerberosLogin kerberosLogin) {
+        this.kerberosLogin = kerberosLogin;
+    }
+
+    /**
+     * Sets the HTTP client to send all requests with. The client is not closed by this class.
+     */
+    public void setHttpClient(CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Thrown when the WinRM service answered a request with an error, as opposed to the request not reaching it.
+     */
+    @SuppressWarnings("serial")
+    static class UnexpectedResponseException extends WinRmRuntimeIOException {
+        UnexpectedResponseException(String message) {
+            super(message);
+        }
+    }
+
     private static Logger logger = LoggerFactory.getLogger(WinRmClient.class);
 
 }
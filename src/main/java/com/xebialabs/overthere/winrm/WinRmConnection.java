@@ -28,6 +28,8 @@ import com.xebialabs.overthere.cifs.WinrmHttpsCertificateTrustStrategy;
 import com.xebialabs.overthere.cifs.WinrmHttpsHostnameVerificationStrategy;
 import com.xebialabs.overthere.spi.AddressPortMapper;
 import com.xebialabs.overthere.spi.ProcessConnection;
+import com.xebialabs.overthere.util.RingBufferPipe;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +37,11 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.xebialabs.overthere.ConnectionOptions.*;
 import static com.xebialabs.overthere.cifs.CifsConnectionBuilder.*;
@@ -63,8 +70,25 @@ public class WinRmConnection implements ProcessConnection {
     private ConnectionOptions options;
     private final String unmappedAddress;
     private final int unmappedPort;
+    private CloseableHttpClient httpClient;
+    private KerberosLogin kerberosLogin;
+    private final int maxIdleShells;
+    private final long shellIdleTimeoutMillis;
+    private final int processStreamBufferSize;
+    private final Deque<IdleShell> idleShells = new ArrayDeque<>();
+    private boolean closed;
     public static final int STDIN_BUF_SIZE = 4096;
 
+    /**
+     * How long to wait for more input before sending what has been read from stdin so far.
+     */
+    private static final long STDIN_COALESCE_MILLIS = 5;
+
+    /**
+     * How long to wait for the thread sending stdin to finish before deciding that a shell cannot be reused.
+     */
+    private static final long INPUT_READER_JOIN_TIMEOUT_MILLIS = 5000;
+
     public WinRmConnection(ConnectionOptions options, AddressPortMapper mapper, OverthereFile workingDirectory) {
         this.workingDirectory = workingDirectory;
         this.options = options;
@@ -82,6 +106,9 @@ public class WinRmConnection implements ProcessConnection {
         this.username = options.get(USERNAME);
         this.password = options.get(PASSWORD);
         this.protocol = options.get(PROTOCOL);
+        this.maxIdleShells = options.getInteger(WINRM_MAX_IDLE_SHELLS, WINRM_MAX_IDLE_SHELLS_DEFAULT);
+        this.shellIdleTimeoutMillis = options.getInteger(WINRM_SHELL_IDLE_TIMEOUT_MILLIS, WINRM_SHELL_IDLE_TIMEOUT_MILLIS_DEFAULT);
+        this.processStreamBufferSize = options.getInteger(PROCESS_STREAM_BUFFER_SIZE, PROCESS_STREAM_BUFFER_SIZE_DEFAULT);
 
         checkIsWindowsHost(os, protocol, connectionType);
         checkNotOldStyleWindowsDomain(username, protocol, connectionType);
@@ -100,140 +127,150 @@ public class WinRmConnection implements ProcessConnection {
             cmdString = "CD /D " + workingDirectory.getPath() + " & " + cmdString;
         }
 
-        final WinRmClient winRmClient = createWinrmClient();
-        try {
-            final PipedInputStream fromCallersStdin = new PipedInputStream();
-            final PipedOutputStream callersStdin = new PipedOutputStream(fromCallersStdin);
-            final PipedInputStream callersStdout = new PipedInputStream();
-            final PipedOutputStream toCallersStdout = new PipedOutputStream(callersStdout);
-            final PipedInputStream callersStderr = new PipedInputStream();
-            final PipedOutputStream toCallersStderr = new PipedOutputStream(callersStderr);
-
-            winRmClient.createShell();
-            final String commandId = winRmClient.executeCommand(cmdString);
-
-            final Exception[] inputReaderTheaException = new Exception[1];
-            final Thread inputReaderThead = new Thread(format("WinRM input reader for command [%s]", commandId)) {
-                @Override
-                public void run() {
-                    try {
-                        byte[] buf = new byte[STDIN_BUF_SIZE];
-                        for (; ; ) {
-                            int n = fromCallersStdin.read(buf);
-                            if (n == -1)
-                                break;
-                            if (n == 0)
-                                continue;
-
-                            byte[] bufToSend = new byte[n];
-                            System.arraycopy(buf, 0, bufToSend, 0, n);
-                            winRmClient.sendInput(bufToSend);
+        final RingBufferPipe stdoutPipe = new RingBufferPipe(processStreamBufferSize);
+        final InputStream callersStdout = stdoutPipe.getInputStream();
+        final OutputStream toCallersStdout = stdoutPipe.getOutputStream();
+        final RingBufferPipe stderrPipe = new RingBufferPipe(processStreamBufferSize);
+        final InputStream callersStderr = stderrPipe.getInputStream();
+        final OutputStream toCallersStderr = stderrPipe.getOutputStream();
+
+        final WinRmClient winRmClient = startCommand(cmdString);
+        final String commandId = winRmClient.getCommandId();
+
+        // Input is sent in chunks as large as fit in one envelop, so the pipe must be able to hold at least one chunk
+        final int maxInputChunkSize = winRmClient.getMaxInputChunkSize();
+        final RingBufferPipe stdinPipe = new RingBufferPipe(Math.max(processStreamBufferSize, maxInputChunkSize));
+        final RingBufferPipe.PipeInputStream fromCallersStdin = stdinPipe.getInputStream();
+        final OutputStream callersStdin = stdinPipe.getOutputStream();
+
+        final Exception[] inputReaderTheaException = new Exception[1];
+        final Thread inputReaderThead = new Thread(format("WinRM input reader for command [%s]", commandId)) {
+            @Override
+            public void run() {
+                try {
+                    byte[] buf = new byte[maxInputChunkSize];
+                    for (; ; ) {
+                        int n = fromCallersStdin.read(buf);
+                        if (n == -1)
+                            break;
+                        if (n == 0)
+                            continue;
+
+                        // Coalesce input that keeps coming into one Send request
+                        int m;
+                        while (n < buf.length && (m = fromCallersStdin.read(buf, n, buf.length - n, STDIN_COALESCE_MILLIS, TimeUnit.MILLISECONDS)) > 0) {
+                            n += m;
                         }
-                    } catch (Exception exc) {
-                        inputReaderTheaException[0] = exc;
-                    } finally {
-                        closeQuietly(fromCallersStdin);
+                        winRmClient.sendInput(buf, 0, n);
                     }
+                } catch (Exception exc) {
+                    inputReaderTheaException[0] = exc;
+                } finally {
+                    closeQuietly(fromCallersStdin);
                 }
-            };
-            inputReaderThead.setDaemon(true);
-            inputReaderThead.start();
-
-            final Exception[] outputReaderThreadException = new Exception[1];
-            final Thread outputReaderThread = new Thread(format("WinRM output reader for command [%s]", commandId)) {
-                @Override
-                public void run() {
-                    try {
-                        for (; ; ) {
-                            if (!winRmClient.receiveOutput(toCallersStdout, toCallersStderr))
-                                break;
-                        }
-                    } catch (Exception exc) {
-                        outputReaderThreadException[0] = exc;
-                    } finally {
-                        closeQuietly(toCallersStdout);
-                        closeQuietly(toCallersStderr);
+            }
+        };
+        inputReaderThead.setDaemon(true);
+        inputReaderThead.start();
+
+        final Exception[] outputReaderThreadException = new Exception[1];
+        final Thread outputReaderThread = new Thread(format("WinRM output reader for command [%s]", commandId)) {
+            @Override
+            public void run() {
+                try {
+                    for (; ; ) {
+                        if (!winRmClient.receiveOutput(toCallersStdout, toCallersStderr))
+                            break;
                     }
+                } catch (Exception exc) {
+                    outputReaderThreadException[0] = exc;
+                    stdoutPipe.fail(exc);
+                    stderrPipe.fail(exc);
+                } finally {
+                    closeQuietly(toCallersStdout);
+                    closeQuietly(toCallersStderr);
                 }
-            };
-            outputReaderThread.setDaemon(true);
-            outputReaderThread.start();
-
-            return new OverthereProcess() {
-                boolean processTerminated = false;
-
-                @Override
-                public synchronized OutputStream getStdin() {
-                    return callersStdin;
-                }
-
-                @Override
-                public synchronized InputStream getStdout() {
-                    return callersStdout;
-                }
-
-                @Override
-                public synchronized InputStream getStderr() {
-                    return callersStderr;
+            }
+        };
+        outputReaderThread.setDaemon(true);
+        outputReaderThread.start();
+
+        return new OverthereProcess() {
+            boolean processTerminated = false;
+            int exitCode = -1;
+
+            @Override
+            public synchronized OutputStream getStdin() {
+                return callersStdin;
+            }
+
+            @Override
+            public synchronized InputStream getStdout() {
+                return callersStdout;
+            }
+
+            @Override
+            public synchronized InputStream getStderr() {
+                return callersStderr;
+            }
+
+            @Override
+            public synchronized int waitFor() {
+                if (processTerminated) {
+                    return exitValue();
                 }
 
-                @Override
-                public synchronized int waitFor() {
-                    if (processTerminated) {
-                        return exitValue();
-                    }
-
+                try {
                     try {
-                        try {
-                            outputReaderThread.join();
-                        } finally {
-                            closeQuietly(callersStdin);
-                            processTerminated = true;
-                            try {
-                                winRmClient.deleteShell();
-                            }catch (Throwable t){
-                                logger.warn("Failure while deleting winrm shell", t);
-                            }
+                        outputReaderThread.join();
+                    } finally {
+                        closeQuietly(callersStdin);
+                        processTerminated = true;
+                        // Read the exit code before the shell can be handed to another command
+                        exitCode = winRmClient.exitValue();
+                        if (!outputReaderThread.isAlive() && outputReaderThreadException[0] == null && joinQuietly(inputReaderThead)) {
+                            releaseShell(winRmClient);
+                        } else {
+                            deleteShellQuietly(winRmClient);
                         }
-                        if (outputReaderThreadException[0] != null) {
-                            if (outputReaderThreadException[0] instanceof RuntimeException) {
-                                throw (RuntimeException) outputReaderThreadException[0];
-                            } else {
-                                throw new RuntimeIOException(format("Cannot execute command [%s] on [%s]", obfuscatedCmd, WinRmConnection.this), outputReaderThreadException[0]);
-                            }
+                    }
+                    if (outputReaderThreadException[0] != null) {
+                        if (outputReaderThreadException[0] instanceof RuntimeException) {
+                            throw (RuntimeException) outputReaderThreadException[0];
+                        } else {
+                            throw new RuntimeIOException(format("Cannot execute command [%s] on [%s]", obfuscatedCmd, WinRmConnection.this), outputReaderThreadException[0]);
                         }
-                        return exitValue();
-                    } catch (InterruptedException exc) {
-                        throw new RuntimeIOException(format("Cannot execute command [%s] on [%s]", obfuscatedCmd, WinRmConnection.this), exc);
                     }
+                    return exitValue();
+                } catch (InterruptedException exc) {
+                    throw new RuntimeIOException(format("Cannot execute command [%s] on [%s]", obfuscatedCmd, WinRmConnection.this), exc);
                 }
+            }
 
-                @Override
-                public synchronized void destroy() {
-                    if (processTerminated) {
-                        return;
-                    }
-
-                    closeQuietly(callersStdin);
-                    processTerminated = true;
-                    winRmClient.signal();
-                    winRmClient.deleteShell();
+            @Override
+            public synchronized void destroy() {
+                if (processTerminated) {
+                    return;
                 }
 
-                @Override
-                public synchronized int exitValue() {
-                    if (!processTerminated) {
-                        throw new IllegalThreadStateException(format("Process for command [%s] on [%s] is still running", obfuscatedCmd,
-                                WinRmConnection.this));
-                    }
-
-                    return winRmClient.exitValue();
+                closeQuietly(callersStdin);
+                processTerminated = true;
+                winRmClient.signal();
+                exitCode = winRmClient.exitValue();
+                winRmClient.deleteShell();
+            }
+
+            @Override
+            public synchronized int exitValue() {
+                if (!processTerminated) {
+                    throw new IllegalThreadStateException(format("Process for command [%s] on [%s] is still running", obfuscatedCmd,
+                            WinRmConnection.this));
                 }
-            };
 
-        } catch (IOException exc) {
-            throw new RuntimeIOException("Cannot execute command " + cmd + " on " + this, exc);
-        }
+                return exitCode;
+            }
+        };
+
     }
 
     @Override
@@ -243,7 +280,28 @@ public class WinRmConnection implements ProcessConnection {
 
     @Override
     public void close() {
-        // no-op
+        List<IdleShell> shellsToDelete;
+        synchronized (idleShells) {
+            closed = true;
+            shellsToDelete = new ArrayList<>(idleShells);
+            idleShells.clear();
+        }
+        for (IdleShell shell : shellsToDelete) {
+            deleteShellQuietly(shell.client);
+        }
+        closeClients();
+    }
+
+    private synchronized void closeClients() {
+        if (httpClient != null) {
+            logger.debug("Closing HTTP client for {}", this);
+            closeQuietly(httpClient);
+            httpClient = null;
+        }
+        if (kerberosLogin != null) {
+            kerberosLogin.logout();
+            kerberosLogin = null;
+        }
     }
 
     @Override
@@ -251,10 +309,96 @@ public class WinRmConnection implements ProcessConnection {
         this.workingDirectory = workingDirectory;
     }
 
+    /**
+     * Starts a command in an idle shell if one is available, otherwise in a newly created shell. An idle shell that
+     * the WinRM service rejects, e.g. because it has been closed on the server side, is discarded.
+     */
+    private WinRmClient startCommand(String cmdString) {
+        WinRmClient client;
+        while ((client = pollIdleShell()) != null) {
+            try {
+                client.executeCommand(cmdString);
+                logger.debug("Reusing WinRM shell {}", client.getShellId());
+                return client;
+            } catch (WinRmClient.UnexpectedResponseException exc) {
+                logger.debug("Discarding WinRM shell {} because it cannot be reused", client.getShellId(), exc);
+                deleteShellQuietly(client);
+            } catch (RuntimeException exc) {
+                // The request may not have reached the server, so don't risk running the command twice
+                deleteShellQuietly(client);
+                throw exc;
+            }
+        }
+
+        client = createWinrmClient();
+        client.createShell();
+        try {
+            client.executeCommand(cmdString);
+        } catch (RuntimeException exc) {
+            deleteShellQuietly(client);
+            throw exc;
+        }
+        return client;
+    }
+
+    private WinRmClient pollIdleShell() {
+        List<IdleShell> expired = new ArrayList<>();
+        try {
+            synchronized (idleShells) {
+                IdleShell shell;
+                while ((shell = idleShells.pollFirst()) != null) {
+                    if (System.currentTimeMillis() - shell.idleSince < shellIdleTimeoutMillis) {
+                        return shell.client;
+                    }
+                    expired.add(shell);
+                }
+                return null;
+            }
+        } finally {
+            for (IdleShell shell : expired) {
+                deleteShellQuietly(shell.client);
+            }
+        }
+    }
+
+    /**
+     * Keeps the shell of a finished command for reuse, or deletes it if enough shells are idle already.
+     */
+    private void releaseShell(WinRmClient client) {
+        WinRmClient toDelete = client;
+        synchronized (idleShells) {
+            if (!closed && maxIdleShells > 0) {
+                idleShells.addFirst(new IdleShell(client));
+                toDelete = idleShells.size() > maxIdleShells ? idleShells.pollLast().client : null;
+            }
+        }
+        if (toDelete != null) {
+            deleteShellQuietly(toDelete);
+        }
+    }
+
+    private static void deleteShellQuietly(WinRmClient client) {
+        try {
+            client.deleteShell();
+        } catch (Throwable t) {
+            logger.warn("Failure while deleting winrm shell", t);
+        }
+    }
+
+    private static boolean joinQuietly(Thread thread) {
+        try {
+            thread.join(INPUT_READER_JOIN_TIMEOUT_MILLIS);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
     private WinRmClient createWinrmClient() {
         final WinRmClient client = new WinRmClient(username, password, createWinrmURL(), unmappedAddress, unmappedPort, mapper.socketFactory());
         client.setWinRmTimeout(options.get(WINRM_TIMEMOUT, DEFAULT_WINRM_TIMEOUT));
         client.setWinRmEnvelopSize(options.get(WINRM_ENVELOP_SIZE, WINRM_ENVELOP_SIZE_DEFAULT));
+        client.setWinRmMaxEnvelopSize(options.getInteger(WINRM_MAX_ENVELOP_SIZE, WINRM_MAX_ENVELOP_SIZE_DEFAULT));
         client.setWinRmLocale(options.get(WINRM_LOCALE, WINRM_LOCALE_DEFAULT));
         client.setHttpsCertTrustStrategy(options.getEnum(WINRM_HTTPS_CERTIFICATE_TRUST_STRATEGY, WinrmHttpsCertificateTrustStrategy.class, WINRM_HTTPS_CERTIFICATE_TRUST_STRATEGY_DEFAULT));
         client.setHttpsHostnameVerifyStrategy(options.getEnum(WINRM_HTTPS_HOSTNAME_VERIFICATION_STRATEGY, WinrmHttpsHostnameVerificationStrategy.class, WINRM_HTTPS_HOSTNAME_VERIFICATION_STRATEGY_DEFAULT));
@@ -266,9 +410,36 @@ public class WinRmConnection implements ProcessConnection {
         client.setSoTimeout(socketTimeoutMillis);
         client.setUseCanonicalHostname(options.getBoolean(WINRM_USE_CANONICAL_HOSTNAME, WINRM_USE_CANONICAL_HOSTNAME_DEFAULT));
         client.setUseJumpstation(options.get(JUMPSTATION, null) != null);
+        client.setHttpClient(getHttpClient(client));
+        if (client.isKerberosEnabled()) {
+            client.setKerberosLogin(getKerberosLogin(client));
+        }
         return client;
     }
 
+    /**
+     * Returns the Kerberos login shared by all {@link WinRmClient WinRmClients} of this connection, so that the KDC is
+     * only contacted when the tickets near expiry instead of for every request.
+     */
+    private synchronized KerberosLogin getKerberosLogin(WinRmClient client) {
+        if (kerberosLogin == null) {
+            kerberosLogin = client.createKerberosLogin();
+        }
+        return kerberosLogin;
+    }
+
+    /**
+     * Returns the HTTP client shared by all {@link WinRmClient WinRmClients} of this connection, so that HTTP
+     * connections (and their TLS sessions and authentication) are kept alive and reused across requests and commands.
+     */
+    private synchronized CloseableHttpClient getHttpClient(WinRmClient client) {
+        if (httpClient == null) {
+            logger.debug("Creating HTTP client for {}", this);
+            httpClient = client.createHttpClient(options.getInteger(WINRM_HTTP_MAX_CONNECTIONS, WINRM_HTTP_MAX_CONNECTIONS_DEFAULT));
+        }
+        return httpClient;
+    }
+
     private URL createWinrmURL() {
         final String scheme = options.getBoolean(WINRM_ENABLE_HTTPS, WINRM_ENABLE_HTTPS_DEFAULT) ? "https" : "http";
         final String context = options.get(WINRM_CONTEXT, WINRM_CONTEXT_DEFAULT);
@@ -279,5 +450,15 @@ public class WinRmConnection implements ProcessConnection {
         }
     }
 
+    private static final class IdleShell {
+        private final WinRmClient client;
+        private final long idleSince;
+
+        IdleShell(WinRmClient client) {
+            this.client = client;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
     private static Logger logger = LoggerFactory.getLogger(WinRmConnection.class);
 }
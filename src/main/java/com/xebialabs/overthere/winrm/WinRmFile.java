@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.spi.BaseOverthereFile;
+
+import static java.lang.String.format;
+
+/**
+ * A file on a Windows host that is manipulated through a {@link WinRmFileHelper} running in a WinRM shell.
+ */
+class WinRmFile extends BaseOverthereFile<WinRmFileConnection> {
+
+    private static final char SEPARATOR = '\\';
+
+    private final String path;
+
+    WinRmFile(WinRmFileConnection connection, String path) {
+        super(connection);
+        this.path = normalize(path);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getName() {
+        return path.substring(path.lastIndexOf(SEPARATOR) + 1);
+    }
+
+    @Override
+    public OverthereFile getParentFile() {
+        int i = path.lastIndexOf(SEPARATOR);
+        if (i == -1 || i == path.length() - 1) {
+            return null;
+        }
+        if (i == 2 && path.charAt(1) == ':') {
+            // The parent of C:\dir is the root of the drive
+            return new WinRmFile(connection, path.substring(0, 3));
+        }
+        return new WinRmFile(connection, path.substring(0, i));
+    }
+
+    @Override
+    public boolean exists() {
+        return getAttributes().exists();
+    }
+
+    @Override
+    public boolean canRead() {
+        return exists();
+    }
+
+    @Override
+    public boolean canWrite() {
+        return getAttributes().canWrite();
+    }
+
+    @Override
+    public boolean canExecute() {
+        return exists();
+    }
+
+    @Override
+    public boolean isFile() {
+        return getAttributes().isFile();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return getAttributes().isDirectory();
+    }
+
+    @Override
+    public boolean isHidden() {
+        return getAttributes().isHidden();
+    }
+
+    @Override
+    public long lastModified() {
+        return getAttributes().lastModified();
+    }
+
+    @Override
+    public long length() {
+        return getAttributes().length();
+    }
+
+    @Override
+    protected OverthereFileAttributes retrieveAttributes() {
+        return toAttributes(stat(), 0);
+    }
+
+    /**
+     * Converts the fields of a STAT reply, starting at the given offset, to attributes.
+     */
+    private static OverthereFileAttributes toAttributes(String[] stat, int offset) {
+        if (!stat[offset].equals("1")) {
+            return OverthereFileAttributes.nonExistent();
+        }
+        boolean isDirectory = stat[offset + 1].equals("1");
+        return new OverthereFileAttributes(true, !isDirectory, isDirectory, stat[offset + 4].equals("1"), Long.parseLong(stat[offset + 2]),
+                Long.parseLong(stat[offset + 3]), true, stat[offset + 5].equals("0"), true);
+    }
+
+    private String[] stat() {
+        return connection.withHelper(new WinRmFileConnection.HelperOperation<String[]>() {
+            @Override
+            public String[] execute(WinRmFileHelper helper) throws IOException {
+                return helper.stat(path);
+            }
+        });
+    }
+
+    @Override
+    public InputStream getInputStream() throws RuntimeIOException {
+        logger.debug("Opening WinRM input stream for {}", this);
+        final WinRmFileHelper helper = connection.leaseHelper();
+        try {
+            helper.startRead(path, connection.getChunkSize());
+        } catch (WinRmFileHelperException exc) {
+            connection.releaseHelper(helper, false);
+            throw exc;
+        } catch (IOException | RuntimeException exc) {
+            connection.releaseHelper(helper, true);
+            throw new RuntimeIOException(format("Cannot open %s for reading", this), exc);
+        }
+
+        return new InputStream() {
+            private byte[] chunk = new byte[0];
+            private int pos;
+            private boolean eof;
+            private boolean broken;
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                return fill() ? chunk[pos++] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, chunk.length - pos);
+                System.arraycopy(chunk, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return chunk.length - pos;
+            }
+
+            private boolean fill() throws IOException {
+                if (closed) {
+                    throw new IOException(format("Input stream for %s has been closed", WinRmFile.this));
+                }
+                while (pos == chunk.length && !eof) {
+                    try {
+                        byte[] next = helper.readChunk(path);
+                        if (next == null) {
+                            eof = true;
+                        } else {
+                            chunk = next;
+                            pos = 0;
+                        }
+                    } catch (WinRmFileHelperException exc) {
+                        // The helper reported an error and is ready for the next request
+                        eof = true;
+                        throw new IOException(exc.getMessage(), exc);
+                    } catch (IOException | RuntimeException exc) {
+                        eof = true;
+                        broken = true;
+                        throw exc;
+                    }
+                }
+                return pos < chunk.length;
+            }
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                logger.debug("Closing WinRM input stream for {}", WinRmFile.this);
+                // A helper that has not sent the whole file yet cannot be reused
+                connection.releaseHelper(helper, broken || !eof);
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        logger.debug("Opening WinRM output stream for {}", this);
+        invalidateAttributes();
+        final WinRmFileHelper helper = connection.leaseHelper();
+        try {
+            helper.startWrite(path);
+        } catch (IOException | RuntimeException exc) {
+            connection.releaseHelper(helper, true);
+            throw new RuntimeIOException(format("Cannot open %s for writing", this), exc);
+        }
+
+        return new OutputStream() {
+            private final byte[] chunk = new byte[connection.getChunkSize()];
+            private int count;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                checkOpen();
+                if (count == chunk.length) {
+                    flushChunk();
+                }
+                chunk[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                checkOpen();
+                while (len > 0) {
+                    if (count == chunk.length) {
+                        flushChunk();
+                    }
+                    int n = Math.min(len, chunk.length - count);
+                    System.arraycopy(b, off, chunk, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            private void flushChunk() throws IOException {
+                if (count > 0) {
+                    try {
+                        helper.writeChunk(chunk, 0, count);
+                    } catch (IOException exc) {
+                        closed = true;
+                        connection.releaseHelper(helper, true);
+                        throw exc;
+                    }
+                    count = 0;
+                }
+            }
+
+            private void checkOpen() throws IOException {
+                if (closed) {
+                    throw new IOException(format("Output stream for %s has been closed", WinRmFile.this));
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                flushChunk();
+                closed = true;
+                logger.debug("Closing WinRM output stream for {}", WinRmFile.this);
+                boolean broken = true;
+                try {
+                    helper.finishWrite(path);
+                    broken = false;
+                } catch (WinRmFileHelperException exc) {
+                    broken = false;
+                    throw new IOException(exc.getMessage(), exc);
+                } finally {
+                    connection.releaseHelper(helper, broken);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void setExecutable(boolean executable) {
+        // the execute permission does not exist on Windows
+    }
+
+    @Override
+    public void delete() {
+        logger.debug("Deleting {}", this);
+        invalidateAttributes();
+        connection.withHelper(new WinRmFileConnection.HelperOperation<Void>() {
+            @Override
+            public Void execute(WinRmFileHelper helper) throws IOException {
+                helper.delete(path, false);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void deleteRecursively() {
+        logger.debug("Deleting {} recursively", this);
+        invalidateAttributes();
+        connection.withHelper(new WinRmFileConnection.HelperOperation<Void>() {
+            @Override
+            public Void execute(WinRmFileHelper helper) throws IOException {
+                helper.delete(path, true);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<OverthereFile> listFiles() {
+        logger.debug("Listing directory {}", this);
+        List<String[]> children = connection.withHelper(new WinRmFileConnection.HelperOperation<List<String[]>>() {
+            @Override
+            public List<String[]> execute(WinRmFileHelper helper) throws IOException {
+                return helper.list(path);
+            }
+        });
+        List<OverthereFile> files = new ArrayList<>(children.size());
+        for (String[] child : children) {
+            WinRmFile file = (WinRmFile) getFile(child[0]);
+            file.setListedAttributes(toAttributes(child, 1));
+            files.add(file);
+        }
+        return files;
+    }
+
+    @Override
+    public void mkdir() {
+        logger.debug("Creating directory {}", this);
+        invalidateAttributes();
+        connection.withHelper(new WinRmFileConnection.HelperOperation<Void>() {
+            @Override
+            public Void execute(WinRmFileHelper helper) throws IOException {
+                helper.mkdir(path);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void mkdirs() {
+        logger.debug("Creating directories {}", this);
+        invalidateAttributes();
+        connection.withHelper(new WinRmFileConnection.HelperOperation<Void>() {
+            @Override
+            public Void execute(WinRmFileHelper helper) throws IOException {
+                helper.mkdirs(path);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void renameTo(final OverthereFile dest) {
+        logger.debug("Renaming {} to {}", this, dest);
+        invalidateAttributes();
+        invalidateAttributes(dest);
+        if (!(dest instanceof WinRmFile) || dest.getConnection() != getConnection()) {
+            throw new RuntimeIOException(format("Cannot move/rename %s to %s on another connection", this, dest));
+        }
+        connection.withHelper(new WinRmFileConnection.HelperOperation<Void>() {
+            @Override
+            public Void execute(WinRmFileHelper helper) throws IOException {
+                helper.rename(path, dest.getPath());
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (!(that instanceof WinRmFile)) {
+            return false;
+        }
+        return path.equals(((WinRmFile) that).getPath());
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getConnection() + "/" + path;
+    }
+
+    static String normalize(String path) {
+        String p = path.replace('/', SEPARATOR);
+        while (p.length() > 1 && p.charAt(p.length() - 1) == SEPARATOR && !(p.length() == 3 && p.charAt(1) == ':')) {
+            p = p.substring(0, p.length() - 1);
+        }
+        return p;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(WinRmFile.class);
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.CmdLine;
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereProcess;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.cifs.CifsConnectionType;
+import com.xebialabs.overthere.proxy.ProxyConnection;
+import com.xebialabs.overthere.spi.AddressPortMapper;
+import com.xebialabs.overthere.spi.BaseOverthereConnection;
+
+import static com.xebialabs.overthere.ConnectionOptions.ADDRESS;
+import static com.xebialabs.overthere.ConnectionOptions.PORT;
+import static com.xebialabs.overthere.ConnectionOptions.USERNAME;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.WINRM_ENVELOP_SIZE;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.WINRM_ENVELOP_SIZE_DEFAULT;
+import static com.xebialabs.overthere.util.OverthereUtils.checkState;
+import static java.net.InetSocketAddress.createUnresolved;
+
+/**
+ * A connection to a Windows host that uses WinRM both to execute commands and to manipulate files. File operations
+ * are performed by PowerShell {@link WinRmFileHelper helpers} that run in WinRM shells, so only the WinRM port needs to
+ * be reachable.
+ */
+public class WinRmFileConnection extends BaseOverthereConnection {
+
+    private final WinRmConnection processConnection;
+
+    private final String username;
+
+    private final String address;
+
+    private final int port;
+
+    private final int chunkSize;
+
+    private final Deque<WinRmFileHelper> idleHelpers = new ArrayDeque<>();
+
+    private boolean closed;
+
+    public WinRmFileConnection(String protocol, ConnectionOptions options, AddressPortMapper mapper) {
+        super(protocol, options, mapper, true);
+        if (mapper instanceof ProxyConnection) {
+            throw new IllegalArgumentException("Cannot open a " + protocol + ": connection through an HTTP proxy");
+        }
+        options.set(ConnectionOptions.PROTOCOL, protocol);
+        this.username = options.get(USERNAME);
+        String unmappedAddress = options.get(ADDRESS);
+        int unmappedPort = options.get(PORT, CifsConnectionType.WINRM_INTERNAL.getDefaultPort(options));
+        InetSocketAddress addressPort = mapper.map(createUnresolved(unmappedAddress, unmappedPort));
+        this.address = addressPort.getHostName();
+        this.port = addressPort.getPort();
+        // A line of file contents is base64 encoded by the helper protocol and then once more by WinRM, so size it
+        // to fill one Send request including its newline
+        this.chunkSize = (WinRmClient.maxInputChunkSize(options.getInteger(WINRM_ENVELOP_SIZE, WINRM_ENVELOP_SIZE_DEFAULT)) - 1) / 4 * 3;
+        this.processConnection = new WinRmConnection(options, mapper, workingDirectory);
+    }
+
+    public void connect() {
+        processConnection.connect();
+        connected();
+    }
+
+    @Override
+    protected void doClose() {
+        List<WinRmFileHelper> helpers;
+        synchronized (idleHelpers) {
+            closed = true;
+            helpers = new ArrayList<>(idleHelpers);
+            idleHelpers.clear();
+        }
+        for (WinRmFileHelper helper : helpers) {
+            helper.close();
+        }
+        processConnection.close();
+    }
+
+    @Override
+    public OverthereFile getFile(String hostPath) throws RuntimeIOException {
+        return new WinRmFile(this, hostPath);
+    }
+
+    @Override
+    public OverthereFile getFile(OverthereFile parent, String child) throws RuntimeIOException {
+        StringBuilder childPath = new StringBuilder();
+        childPath.append(parent.getPath());
+        if (!parent.getPath().endsWith(getHostOperatingSystem().getFileSeparator())) {
+            childPath.append(getHostOperatingSystem().getFileSeparator());
+        }
+        childPath.append(child.replace('/', '\\'));
+        return getFile(childPath.toString());
+    }
+
+    @Override
+    protected OverthereFile getFileForTempFile(OverthereFile parent, String name) {
+        return getFile(parent, name);
+    }
+
+    @Override
+    public void setWorkingDirectory(OverthereFile workingDirectory) {
+        super.setWorkingDirectory(workingDirectory);
+        processConnection.setWorkingDirectory(workingDirectory);
+    }
+
+    @Override
+    public OverthereProcess startProcess(CmdLine cmd) {
+        return processConnection.startProcess(cmd);
+    }
+
+    /**
+     * @return the number of bytes of file contents per line, so that a line fits in one WinRM envelop.
+     */
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Leases a file helper. An idle helper is reused if available, otherwise a new helper is started in a WinRM shell.
+     * Every leased helper must be handed back with {@link #releaseHelper(WinRmFileHelper, boolean)}.
+     */
+    WinRmFileHelper leaseHelper() {
+        synchronized (idleHelpers) {
+            checkState(!closed, "Cannot use closed connection %s", this);
+            WinRmFileHelper helper = idleHelpers.pollFirst();
+            if (helper != null) {
+                return helper;
+            }
+        }
+        logger.debug("Starting WinRM file helper on {}", this);
+        return WinRmFileHelper.start(processConnection);
+    }
+
+    /**
+     * Hands back a leased file helper.
+     *
+     * @param broken whether the helper is in an unknown state, in which case it is destroyed.
+     */
+    void releaseHelper(WinRmFileHelper helper, boolean broken) {
+        if (broken) {
+            helper.destroy();
+            return;
+        }
+        synchronized (idleHelpers) {
+            if (!closed) {
+                idleHelpers.addFirst(helper);
+                return;
+            }
+        }
+        helper.close();
+    }
+
+    /**
+     * Runs a request on a leased file helper. A request that the helper answers with an error leaves the helper
+     * usable, any other failure, such as a failure of the WinRM transport, destroys it.
+     */
+    <T> T withHelper(HelperOperation<T> operation) {
+        WinRmFileHelper helper = leaseHelper();
+        boolean broken = true;
+        try {
+            T result = operation.execute(helper);
+            broken = false;
+            return result;
+        } catch (WinRmFileHelperException exc) {
+            broken = false;
+            throw exc;
+        } catch (IOException exc) {
+            throw new RuntimeIOException("Cannot communicate with WinRM file helper on " + this, exc);
+        } finally {
+            releaseHelper(helper, broken);
+        }
+    }
+
+    interface HelperOperation<T> {
+        T execute(WinRmFileHelper helper) throws IOException;
+    }
+
+    @Override
+    public String toString() {
+        return protocol + "://" + username + "@" + address + ":" + port;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(WinRmFileConnection.class);
+}
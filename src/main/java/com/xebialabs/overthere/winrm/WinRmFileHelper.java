@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xebialabs.overthere.CmdLine;
+import com.xebialabs.overthere.OverthereProcess;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.spi.ProcessConnection;
+
+import static com.xebialabs.overthere.util.OverthereUtils.closeQuietly;
+import static java.lang.String.format;
+
+/**
+ * A PowerShell process on the remote host that performs file operations on behalf of a {@link WinRmFileConnection}.
+ * <p/>
+ * The helper reads one request per line from its stdin and answers on its stdout. Paths and error messages are base64
+ * encoded UTF-8, file contents are sent as lines of base64 encoded chunks. A reply starts with <code>OK</code> or with
+ * <code>ERR</code> followed by the error message. Requests that fail with <code>ERR</code> throw a
+ * {@link WinRmFileHelperException} and leave the helper usable, any other failure means that the helper is broken and
+ * must be {@link #destroy() destroyed}.
+ */
+class WinRmFileHelper {
+
+    static final String SCRIPT = """
+            $ErrorActionPreference = 'Stop'
+            $ProgressPreference = 'SilentlyContinue'
+            $rd = [Console]::In
+            $wr = [Console]::Out
+            $utf8 = New-Object Text.UTF8Encoding $false
+            $epoch = New-Object DateTime 1970,1,1,0,0,0,([DateTimeKind]::Utc)
+            function Dec($s) { $utf8.GetString([Convert]::FromBase64String($s)) }
+            function Enc($s) { [Convert]::ToBase64String($utf8.GetBytes($s)) }
+            function Reply($s) { $wr.Write($s + "`n"); $wr.Flush() }
+            function Info($i) {
+                $d = 0; $l = 0
+                if ($i -is [IO.DirectoryInfo]) { $d = 1 } else { $l = $i.Length }
+                $h = [int](($i.Attributes -band [IO.FileAttributes]::Hidden) -ne 0)
+                $r = [int](($i.Attributes -band [IO.FileAttributes]::ReadOnly) -ne 0)
+                $m = [long]($i.LastWriteTimeUtc - $epoch).TotalMilliseconds
+                "1 $d $l $m $h $r"
+            }
+            function Stat($p) {
+                if ([IO.Directory]::Exists($p)) { Info (New-Object IO.DirectoryInfo $p) }
+                elseif ([IO.File]::Exists($p)) { Info (New-Object IO.FileInfo $p) }
+                else { '0 0 0 0 0 0' }
+            }
+            while (($line = $rd.ReadLine()) -ne $null) {
+                $f = $line.Split(' ')
+                try {
+                    switch ($f[0]) {
+                        'STAT' { Reply ('OK ' + (Stat (Dec $f[1]))) }
+                        'LIST' {
+                            $lines = @('OK')
+                            foreach ($c in (New-Object IO.DirectoryInfo (Dec $f[1])).GetFileSystemInfos()) { $lines += ((Enc $c.Name) + ' ' + (Info $c)) }
+                            $lines += 'END'
+                            Reply ($lines -join "`n")
+                        }
+                        'MKDIR' {
+                            $p = Dec $f[1]
+                            if ([IO.Directory]::Exists($p) -or [IO.File]::Exists($p)) { throw "$p already exists" }
+                            $q = [IO.Path]::GetDirectoryName($p)
+                            if ($q -and -not [IO.Directory]::Exists($q)) { throw "Parent directory $q does not exist" }
+                            [void][IO.Directory]::CreateDirectory($p)
+                            Reply 'OK'
+                        }
+                        'MKDIRS' { [void][IO.Directory]::CreateDirectory((Dec $f[1])); Reply 'OK' }
+                        'DELETE' {
+                            $p = Dec $f[1]
+                            if ([IO.Directory]::Exists($p)) { [IO.Directory]::Delete($p, ($f[2] -eq '1')) }
+                            elseif ([IO.File]::Exists($p)) { [IO.File]::Delete($p) }
+                            else { throw "$p does not exist" }
+                            Reply 'OK'
+                        }
+                        'RENAME' {
+                            $p = Dec $f[1]; $q = Dec $f[2]
+                            if ([IO.Directory]::Exists($p)) { [IO.Directory]::Move($p, $q) } else { [IO.File]::Move($p, $q) }
+                            Reply 'OK'
+                        }
+                        'READ' {
+                            $s = [IO.File]::OpenRead((Dec $f[1]))
+                            try {
+                                Reply 'OK'
+                                $b = New-Object byte[] ([int]$f[2])
+                                while (($n = $s.Read($b, 0, $b.Length)) -gt 0) { $wr.Write([Convert]::ToBase64String($b, 0, $n) + "`n") }
+                            } finally { $s.Close() }
+                            Reply 'END'
+                        }
+                        'WRITE' {
+                            $s = $null; $err = $null
+                            try { $s = [IO.File]::Create((Dec $f[1])) } catch { $err = $_.Exception.Message }
+                            while (($l = $rd.ReadLine()) -ne 'END') {
+                                if ($l -eq $null) { exit 1 }
+                                if ($err -eq $null) {
+                                    try { $b = [Convert]::FromBase64String($l); $s.Write($b, 0, $b.Length) } catch { $err = $_.Exception.Message }
+                                }
+                            }
+                            if ($s -ne $null) { try { $s.Close() } catch { if ($err -eq $null) { $err = $_.Exception.Message } } }
+                            if ($err -eq $null) { Reply 'OK' } else { Reply ('ERR ' + (Enc $err)) }
+                        }
+                        'EXIT' { exit 0 }
+                        default { throw "Unknown request $($f[0])" }
+                    }
+                } catch {
+                    Reply ('ERR ' + (Enc $_.Exception.Message))
+                }
+            }
+            """;
+
+    /**
+     * Reads the helper script from stdin, so that the command line stays short.
+     */
+    private static final String BOOTSTRAP = "$s=[Console]::In.ReadLine();iex ([Text.Encoding]::UTF8.GetString([Convert]::FromBase64String($s)))";
+
+    private final OverthereProcess process;
+    private final OutputStream stdin;
+    private final BufferedReader stdout;
+
+    private WinRmFileHelper(OverthereProcess process) {
+        this.process = process;
+        this.stdin = process.getStdin();
+        this.stdout = new BufferedReader(new InputStreamReader(process.getStdout(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Starts a helper.
+     */
+    static WinRmFileHelper start(ProcessConnection connection) {
+        String encodedBootstrap = Base64.encodeBase64String(BOOTSTRAP.getBytes(StandardCharsets.UTF_16LE));
+        CmdLine cmdLine = CmdLine.build("powershell.exe", "-NoProfile", "-NonInteractive", "-ExecutionPolicy", "Bypass", "-EncodedCommand", encodedBootstrap);
+        OverthereProcess process = connection.startProcess(cmdLine);
+        WinRmFileHelper helper = new WinRmFileHelper(process);
+        helper.drainStderr();
+        try {
+            helper.writeLine(encode(SCRIPT));
+        } catch (IOException exc) {
+            helper.destroy();
+            throw new RuntimeIOException("Cannot start WinRM file helper", exc);
+        }
+        return helper;
+    }
+
+    /**
+     * @return the fields of the STAT reply: exists, is directory, length, last modified, hidden and read-only.
+     */
+    String[] stat(String path) throws IOException {
+        writeLine("STAT " + encode(path));
+        String reply = readReply("stat", path);
+        return reply.substring(3).split(" ");
+    }
+
+    /**
+     * @return the children of the directory, each with its name followed by the fields of the STAT reply.
+     */
+    List<String[]> list(String path) throws IOException {
+        writeLine("LIST " + encode(path));
+        readReply("list", path);
+        List<String[]> children = new ArrayList<>();
+        for (String line = readLine(); !line.equals("END"); line = readLine()) {
+            String[] fields = line.split(" ");
+            fields[0] = decode(fields[0]);
+            children.add(fields);
+        }
+        return children;
+    }
+
+    void mkdir(String path) throws IOException {
+        writeLine("MKDIR " + encode(path));
+        readReply("create directory", path);
+    }
+
+    void mkdirs(String path) throws IOException {
+        writeLine("MKDIRS " + encode(path));
+        readReply("create directories", path);
+    }
+
+    void delete(String path, boolean recursive) throws IOException {
+        writeLine("DELETE " + encode(path) + (recursive ? " 1" : " 0"));
+        readReply("delete", path);
+    }
+
+    void rename(String path, String newPath) throws IOException {
+        writeLine("RENAME " + encode(path) + " " + encode(newPath));
+        readReply("rename", path);
+    }
+
+    /**
+     * Starts reading a file, the contents are returned by {@link #readChunk()}.
+     *
+     * @param chunkSize the number of bytes the helper sends per line.
+     */
+    void startRead(String path, int chunkSize) throws IOException {
+        writeLine("READ " + encode(path) + " " + chunkSize);
+        readReply("read", path);
+    }
+
+    /**
+     * @return the next chunk of the file being read, or <code>null</code> if the whole file has been read.
+     */
+    byte[] readChunk(String path) throws IOException {
+        String line = readLine();
+        if (line.equals("END")) {
+            return null;
+        }
+        if (line.startsWith("ERR ")) {
+            throw new WinRmFileHelperException(format("Cannot read %s: %s", path, decode(line.substring(4))));
+        }
+        return Base64.decodeBase64(line);
+    }
+
+    /**
+     * Starts writing a file, the contents are sent by {@link #writeChunk(byte[], int, int)} and the file is closed by
+     * {@link #finishWrite(String)}.
+     */
+    void startWrite(String path) throws IOException {
+        writeLine("WRITE " + encode(path));
+    }
+
+    void writeChunk(byte[] b, int off, int len) throws IOException {
+        stdin.write(new Base64().encode(b, off, len));
+        stdin.write('\n');
+    }
+
+    void finishWrite(String path) throws IOException {
+        writeLine("END");
+        readReply("write", path);
+    }
+
+    /**
+     * Stops the helper, so that the shell it runs in can be reused.
+     */
+    void close() {
+        try {
+            writeLine("EXIT");
+            closeQuietly(stdin);
+            process.waitFor();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            destroy();
+        } catch (IOException | RuntimeException exc) {
+            logger.debug("Cannot stop WinRM file helper cleanly, destroying it", exc);
+            destroy();
+        }
+    }
+
+    void destroy() {
+        closeQuietly(stdin);
+        process.destroy();
+    }
+
+    private String readReply(String operation, String path) throws IOException {
+        String reply = readLine();
+        if (reply.startsWith("ERR ")) {
+            throw new WinRmFileHelperException(format("Cannot %s %s: %s", operation, path, decode(reply.substring(4))));
+        }
+        if (!reply.startsWith("OK")) {
+            throw new IOException(format("Unexpected reply from WinRM file helper: %s", reply));
+        }
+        return reply;
+    }
+
+    private String readLine() throws IOException {
+        String line = stdout.readLine();
+        if (line == null) {
+            throw new IOException("WinRM file helper has exited");
+        }
+        return line;
+    }
+
+    private void writeLine(String line) throws IOException {
+        stdin.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        stdin.flush();
+    }
+
+    private void drainStderr() {
+        final InputStream stderr = process.getStderr();
+        Thread t = new Thread("WinRM file helper stderr reader") {
+            @Override
+            public void run() {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(stderr, StandardCharsets.UTF_8))) {
+                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                        logger.debug("WinRM file helper: {}", line);
+                    }
+                } catch (IOException exc) {
+                    logger.trace("Stopped reading stderr of WinRM file helper", exc);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static String encode(String s) {
+        return Base64.encodeBase64String(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String s) {
+        return new String(Base64.decodeBase64(s), StandardCharsets.UTF_8);
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(WinRmFileHelper.class);
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere;
+
+import java.io.IOException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.local.LocalConnection;
+import com.xebialabs.overthere.spi.AddressPortMapper;
+import com.xebialabs.overthere.spi.Protocol;
+import com.xebialabs.overthere.util.OverthereUtils;
+
+import static com.xebialabs.overthere.ConnectionOptions.CONNECTION_POOL_IDLE_TIMEOUT_MILLIS;
+import static com.xebialabs.overthere.ConnectionOptions.CONNECTION_POOL_MAX_SIZE;
+import static com.xebialabs.overthere.ConnectionOptions.CONNECTION_POOL_MAX_WAIT_MILLIS;
+import static com.xebialabs.overthere.ConnectionOptions.TEMPORARY_DIRECTORY_PATH;
+import static com.xebialabs.overthere.local.LocalConnection.LOCAL_PROTOCOL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class OverthereConnectionPoolTest {
+
+    private TemporaryFolder temp = new TemporaryFolder();
+
+    private OverthereConnectionPool pool;
+
+    private ConnectionOptions options;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        temp.create();
+        pool = new OverthereConnectionPool();
+        options = new ConnectionOptions();
+        options.set(TEMPORARY_DIRECTORY_PATH, temp.getRoot().getPath());
+        options.set(CONNECTION_POOL_MAX_SIZE, 1);
+        options.set(CONNECTION_POOL_MAX_WAIT_MILLIS, 100);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void teardown() {
+        pool.close();
+        temp.delete();
+    }
+
+    @Test
+    public void shouldReturnConnectionToPoolOnClose() {
+        OverthereConnection connection = pool.getConnection(LOCAL_PROTOCOL, options);
+        assertThat(pool.getLeasedCount(LOCAL_PROTOCOL, options), equalTo(1));
+        connection.close();
+        assertThat(pool.getLeasedCount(LOCAL_PROTOCOL, options), equalTo(0));
+        assertThat(pool.getIdleCount(LOCAL_PROTOCOL, options), equalTo(1));
+
+        OverthereConnection reused = pool.getConnection(LOCAL_PROTOCOL, options);
+        assertThat(pool.getIdleCount(LOCAL_PROTOCOL, options), equalTo(0));
+        reused.close();
+    }
+
+    @Test
+    public void shouldIgnorePoolOptionsWhenMatchingConnections() {
+        pool.getConnection(LOCAL_PROTOCOL, options).close();
+
+        ConnectionOptions otherOptions = new ConnectionOptions(options);
+        otherOptions.set(CONNECTION_POOL_MAX_SIZE, 2);
+        assertThat(pool.getIdleCount(LOCAL_PROTOCOL, otherOptions), equalTo(1));
+    }
+
+    @Test
+    public void shouldResetLeaseStateOnReturn() {
+        OverthereConnection connection = pool.getConnection(LOCAL_PROTOCOL, options);
+        OverthereFile tempFile = connection.getTempFile("pooled.txt");
+        OverthereUtils.write("Some text", "UTF-8", tempFile);
+        connection.setWorkingDirectory(tempFile.getParentFile());
+        connection.close();
+
+        assertThat(tempFile.exists(), equalTo(false));
+        OverthereConnection reused = pool.getConnection(LOCAL_PROTOCOL, options);
+        assertThat(reused.getWorkingDirectory(), nullValue());
+        reused.close();
+    }
+
+    @Test(expectedExceptions = RuntimeIOException.class)
+    public void shouldTimeOutWhenPoolIsExhausted() {
+        OverthereConnection connection = pool.getConnection(LOCAL_PROTOCOL, options);
+        try {
+            pool.getConnection(LOCAL_PROTOCOL, options);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void shouldEvictIdleConnections() {
+        options.set(CONNECTION_POOL_IDLE_TIMEOUT_MILLIS, 0);
+        pool.getConnection(LOCAL_PROTOCOL, options).close();
+        pool.evictIdle();
+        assertThat(pool.getIdleCount(LOCAL_PROTOCOL, options), equalTo(0));
+    }
+
+    @Test
+    public void shouldReuseConnectionsOfProtocolThatChangesItsOptions() {
+        OverthereConnector connector = new OverthereConnector();
+        connector.registerProtocol(OptionsChangingConnection.class);
+        OverthereConnectionPool changingPool = new OverthereConnectionPool(connector);
+        try {
+            changingPool.getConnection(OptionsChangingConnection.NAME, options).close();
+            assertThat(options.getOptional(OptionsChangingConnection.CHANGED), nullValue());
+            assertThat(changingPool.getIdleCount(OptionsChangingConnection.NAME, options), equalTo(1));
+
+            OverthereConnection reused = changingPool.getConnection(OptionsChangingConnection.NAME, options);
+            assertThat(changingPool.getIdleCount(OptionsChangingConnection.NAME, options), equalTo(0));
+            assertThat(changingPool.getLeasedCount(OptionsChangingConnection.NAME, options), equalTo(1));
+            reused.close();
+        } finally {
+            changingPool.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void shouldNotAllowUseAfterReturn() {
+        OverthereConnection connection = pool.getConnection(LOCAL_PROTOCOL, options);
+        connection.close();
+        connection.getFile(temp.getRoot().getPath());
+    }
+
+    /**
+     * A local connection that changes the options it is created with, like the CIFS, SMB and WinRM connections do.
+     */
+    @Protocol(name = OptionsChangingConnection.NAME)
+    public static class OptionsChangingConnection extends LocalConnection {
+        static final String NAME = "options-changing";
+        static final String CHANGED = "changed";
+
+        public OptionsChangingConnection(String protocol, ConnectionOptions options, AddressPortMapper mapper) {
+            super(protocol, changed(options), mapper);
+        }
+
+        private static ConnectionOptions changed(ConnectionOptions options) {
+            options.set(CHANGED, true);
+            return options;
+        }
+    }
+}
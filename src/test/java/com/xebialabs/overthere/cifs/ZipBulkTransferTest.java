@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.cifs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.Overthere;
+import com.xebialabs.overthere.OverthereConnection;
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.TemporaryFolder;
+
+import static com.xebialabs.overthere.ConnectionOptions.OPERATING_SYSTEM;
+import static com.xebialabs.overthere.ConnectionOptions.TEMPORARY_DIRECTORY_PATH;
+import static com.xebialabs.overthere.OperatingSystemFamily.UNIX;
+import static com.xebialabs.overthere.OperatingSystemFamily.getLocalHostOperatingSystemFamily;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_EXPAND_COMMAND;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_PROBE_COMMAND;
+import static com.xebialabs.overthere.cifs.BaseCifsConnectionBuilder.ZIP_TRANSFER;
+import static com.xebialabs.overthere.local.LocalConnection.LOCAL_PROTOCOL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Runs the zip transfer over a local connection, with expand commands that stand in for <code>tar.exe</code>.
+ */
+public class ZipBulkTransferTest {
+
+    private TemporaryFolder temp = new TemporaryFolder();
+
+    private OverthereConnection connection;
+
+    private OverthereFile source;
+
+    @BeforeMethod
+    public void createSource() throws IOException {
+        temp.create();
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(OPERATING_SYSTEM, getLocalHostOperatingSystemFamily());
+        options.set(TEMPORARY_DIRECTORY_PATH, temp.newFolder("tmp").getPath());
+        connection = Overthere.getConnection(LOCAL_PROTOCOL, options);
+
+        File dir = temp.newFolder("source");
+        Files.write(new File(dir, "top.txt").toPath(), "top".getBytes(StandardCharsets.UTF_8));
+        File subdir = new File(dir, "subdir");
+        subdir.mkdir();
+        Files.write(new File(subdir, "nested.txt").toPath(), "nested".getBytes(StandardCharsets.UTF_8));
+        source = connection.getFile(dir.getPath());
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        connection.close();
+        temp.delete();
+    }
+
+    @Test
+    public void shouldWriteDirectoryAsZipArchiveAndExpandIt() throws IOException {
+        if (getLocalHostOperatingSystemFamily() != UNIX) {
+            return;
+        }
+        OverthereFile destination = connection.getFile(new File(temp.getRoot(), "destination").getPath());
+
+        boolean copied = newTransfer(true, "true", "cp {0} {1}").copy(source, destination);
+
+        assertThat(copied, is(true));
+        File[] expanded = new File(destination.getPath()).listFiles();
+        assertThat(expanded.length, is(1));
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(expanded[0])) {
+            zip.stream().forEach(e -> names.add(e.getName()));
+        }
+        Collections.sort(names);
+        assertThat(names, contains("subdir/", "subdir/nested.txt", "top.txt"));
+        try (Stream<Path> leftovers = Files.walk(new File(temp.getRoot(), "tmp").toPath())) {
+            assertThat(leftovers.filter(Files::isRegularFile).count(), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldFallBackWhenExpandCommandFails() {
+        if (getLocalHostOperatingSystemFamily() != UNIX) {
+            return;
+        }
+        ZipBulkTransfer transfer = newTransfer(true, "true", "false {0} {1}");
+        OverthereFile destination = connection.getFile(new File(temp.getRoot(), "destination").getPath());
+
+        assertThat(transfer.copy(source, destination), is(false));
+        assertThat(transfer.copy(source, destination), is(false));
+    }
+
+    @Test
+    public void shouldNotCopyWhenDisabled() {
+        OverthereFile destination = connection.getFile(new File(temp.getRoot(), "destination").getPath());
+
+        assertThat(newTransfer(false, "true", "cp {0} {1}").copy(source, destination), is(false));
+        assertThat(destination.exists(), is(false));
+    }
+
+    @Test
+    public void shouldNotUploadArchiveWhenProbeFails() throws IOException {
+        if (getLocalHostOperatingSystemFamily() != UNIX) {
+            return;
+        }
+        OverthereFile destination = connection.getFile(new File(temp.getRoot(), "destination").getPath());
+        File marker = new File(temp.getRoot(), "expanded");
+
+        assertThat(newTransfer(true, "false", "touch " + marker.getPath()).copy(source, destination), is(false));
+        assertThat(destination.exists(), is(false));
+        assertThat(marker.exists(), is(false));
+        try (Stream<Path> leftovers = Files.walk(new File(temp.getRoot(), "tmp").toPath())) {
+            assertThat(leftovers.filter(Files::isRegularFile).count(), is(0L));
+        }
+    }
+
+    private static ZipBulkTransfer newTransfer(boolean enabled, String probeCommand, String expandCommand) {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(ZIP_TRANSFER, enabled);
+        options.set(ZIP_PROBE_COMMAND, probeCommand);
+        options.set(ZIP_EXPAND_COMMAND, expandCommand);
+        return new ZipBulkTransfer(options);
+    }
+
+}
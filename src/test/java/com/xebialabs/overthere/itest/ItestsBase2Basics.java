@@ -26,12 +26,15 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.testng.annotations.Test;
 
 import com.xebialabs.overthere.ConnectionOptions;
 import com.xebialabs.overthere.OperatingSystemFamily;
 import com.xebialabs.overthere.Overthere;
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
 import com.xebialabs.overthere.RuntimeIOException;
 import com.xebialabs.overthere.util.OverthereUtils;
 
@@ -122,6 +125,84 @@ public abstract class ItestsBase2Basics extends ItestsBase1Utils {
         assertThat("Expected temporary file to no longer exist", tempFile.exists(), equalTo(false));
     }
 
+    @Test
+    public void shouldReturnAttributesOfFileAndDirectory() {
+        final byte[] contents = "Contents of the file".getBytes();
+
+        OverthereFile tempDir = connection.getTempFile("attributes", ".dir");
+        assertThat("Expected temporary directory to not exist yet", tempDir.getAttributes().exists(), equalTo(false));
+        tempDir.mkdir();
+
+        OverthereFileAttributes dirAttributes = tempDir.getAttributes();
+        assertThat("Expected directory to exist", dirAttributes.exists(), equalTo(true));
+        assertThat("Expected directory to be a directory", dirAttributes.isDirectory(), equalTo(true));
+        assertThat("Expected directory to not be a file", dirAttributes.isFile(), equalTo(false));
+
+        OverthereFile file = tempDir.getFile("file.txt");
+        OverthereUtils.write(contents, file);
+
+        OverthereFileAttributes fileAttributes = file.getAttributes();
+        assertThat("Expected file to exist", fileAttributes.exists(), equalTo(true));
+        assertThat("Expected file to be a file", fileAttributes.isFile(), equalTo(true));
+        assertThat("Expected file to not be a directory", fileAttributes.isDirectory(), equalTo(false));
+        assertThat("Expected file to have the size of the contents written to it", fileAttributes.length(), equalTo((long) contents.length));
+        assertThat("Expected file to be readable", fileAttributes.canRead(), equalTo(true));
+        assertThat("Expected file to be writeable", fileAttributes.canWrite(), equalTo(true));
+
+        tempDir.deleteRecursively();
+        assertThat("Expected file to no longer exist", file.getAttributes().exists(), equalTo(false));
+    }
+
+    @Test
+    public void shouldReturnAttributesOfListedFiles() {
+        final byte[] contents = "Contents of the file".getBytes();
+
+        OverthereFile tempDir = connection.getTempFile("listed", ".dir");
+        tempDir.mkdir();
+        tempDir.getFile("subdir").mkdir();
+        OverthereUtils.write(contents, tempDir.getFile("file.txt"));
+
+        List<OverthereFile> children = tempDir.listFiles();
+        assertThat("Expected directory to contain two children", children.size(), equalTo(2));
+        for (OverthereFile child : children) {
+            OverthereFileAttributes attributes = child.getAttributes();
+            assertThat("Expected listed child to exist", attributes.exists(), equalTo(true));
+            if (child.getName().equals("subdir")) {
+                assertThat("Expected listed subdir to be a directory", attributes.isDirectory(), equalTo(true));
+            } else {
+                assertThat("Expected listed file to be a file", attributes.isFile(), equalTo(true));
+                assertThat("Expected listed file to have the size of the contents written to it", attributes.length(), equalTo((long) contents.length));
+                child.delete();
+                assertThat("Expected deleted listed file to no longer exist", child.getAttributes().exists(), equalTo(false));
+            }
+        }
+
+        tempDir.deleteRecursively();
+    }
+
+    @Test
+    public void shouldStreamListingOfDirectory() {
+        OverthereFile tempDir = connection.getTempFile("streamed", ".dir");
+        tempDir.mkdir();
+        for (int i = 0; i < 10; i++) {
+            OverthereUtils.write(("Contents of file " + i).getBytes(), tempDir.getFile("file" + i + ".txt"));
+        }
+
+        List<String> names;
+        try (Stream<OverthereFile> files = tempDir.streamFiles()) {
+            names = files.map(OverthereFile::getName).sorted().collect(Collectors.toList());
+        }
+        assertThat("Expected streamed listing to contain all files", names.size(), equalTo(10));
+        assertThat(names.get(0), equalTo("file0.txt"));
+        assertThat(names.get(9), equalTo("file9.txt"));
+
+        try (Stream<OverthereFile> files = tempDir.streamFiles()) {
+            assertThat("Expected a partially consumed listing to be closeable", files.limit(2).count(), equalTo(2L));
+        }
+
+        tempDir.deleteRecursively();
+    }
+
     @Test
     public void shouldCreatePopulateListAndRemoveTemporaryDirectory() {
         final String prefix = "prefix";
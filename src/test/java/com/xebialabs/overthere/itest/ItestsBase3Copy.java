@@ -26,6 +26,8 @@ import java.util.Arrays;
 import org.testng.annotations.Test;
 
 import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.util.OverthereFileCopier;
+
 import static com.xebialabs.overthere.local.LocalConnection.getLocalConnection;
 import static java.lang.String.format;
 import static org.hamcrest.CoreMatchers.is;
@@ -156,6 +158,29 @@ public abstract class ItestsBase3Copy extends ItestsBase2Basics {
         shouldCopyToExistentDirectory(getLocalSourceDirectory(), getRemoteDestinationDirectoryWithDifferentName());
     }
 
+    @Test
+    public void shouldCopyLocalDirectoryInParallelToNonExistentRemoteDirectory() {
+        OverthereFile srcDir = getLocalSourceDirectory();
+        populateSourceDirectory(srcDir);
+        OverthereFile nestedSrcDir = srcDir.getFile(SOURCE_DIR_NAME);
+        nestedSrcDir.mkdir();
+        for (int i = 0; i < 10; i++) {
+            writeData(srcDir.getFile(i + "-" + SOURCE_FILE_NAME), SOURCE_FILE_CONTENTS);
+            writeData(nestedSrcDir.getFile(i + "-" + SOURCE_FILE_NAME), SOURCE_FILE_CONTENTS);
+        }
+        OverthereFile dstDir = getRemoteDestinationDirectory();
+
+        OverthereFileCopier.copy(srcDir, dstDir, 4);
+
+        assertSourceDirectoryWasCopiedToNonExistentDestinationDirectory(dstDir);
+        OverthereFile nestedDstDir = connection.getFile(dstDir.getPath()).getFile(SOURCE_DIR_NAME);
+        assertDir(nestedDstDir);
+        for (int i = 0; i < 10; i++) {
+            assertFile(connection.getFile(dstDir.getPath()).getFile(i + "-" + SOURCE_FILE_NAME), SOURCE_FILE_CONTENTS);
+            assertFile(nestedDstDir.getFile(i + "-" + SOURCE_FILE_NAME), SOURCE_FILE_CONTENTS);
+        }
+    }
+
     /**
      * Test copies from a remote directory to a remote directory.
      */
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.TemporaryFolder;
+
+import static com.xebialabs.overthere.ConnectionOptions.ATTRIBUTES_CACHE_TTL_MILLIS;
+import static com.xebialabs.overthere.ConnectionOptions.TEMPORARY_DIRECTORY_PATH;
+import static com.xebialabs.overthere.local.LocalConnection.LOCAL_COPY_STRATEGY;
+import static com.xebialabs.overthere.local.LocalConnection.LOCAL_PROTOCOL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class LocalFileTest {
+
+    private TemporaryFolder temp = new TemporaryFolder();
+
+    @BeforeMethod
+    public void createTemp() throws IOException {
+        temp.create();
+    }
+
+    @AfterMethod
+    public void deleteTemp() {
+        temp.delete();
+    }
+
+    @Test
+    public void shouldCopyFile() throws IOException {
+        LocalConnection connection = newConnection(LocalCopyStrategy.COPY);
+        File src = write(temp.newFile("src.txt"), "contents");
+        File dst = new File(temp.getRoot(), "dst.txt");
+
+        connection.getFile(src.getPath()).copyTo(connection.getFile(dst.getPath()));
+
+        assertThat(read(dst), equalTo("contents"));
+        assertThat(Files.isSameFile(src.toPath(), dst.toPath()), is(false));
+    }
+
+    @Test
+    public void shouldMergeDirectoryIntoExistingDirectory() throws IOException {
+        LocalConnection connection = newConnection(LocalCopyStrategy.COPY);
+        File src = temp.newFolder("src");
+        new File(src, "sub").mkdir();
+        write(new File(src, "sub/nested.txt"), "nested");
+        write(new File(src, "top.txt"), "new");
+        File dst = temp.newFolder("dst");
+        write(new File(dst, "top.txt"), "old");
+        write(new File(dst, "other.txt"), "other");
+
+        connection.getFile(src.getPath()).copyTo(connection.getFile(dst.getPath()));
+
+        assertThat(read(new File(dst, "top.txt")), equalTo("new"));
+        assertThat(read(new File(dst, "sub/nested.txt")), equalTo("nested"));
+        assertThat(read(new File(dst, "other.txt")), equalTo("other"));
+    }
+
+    @Test
+    public void shouldHardLinkFilesWithHardLinkStrategy() throws IOException {
+        LocalConnection connection = newConnection(LocalCopyStrategy.HARDLINK);
+        File src = temp.newFolder("src");
+        write(new File(src, "file.txt"), "linked");
+        File dst = new File(temp.getRoot(), "dst");
+
+        connection.getFile(src.getPath()).copyTo(connection.getFile(dst.getPath()));
+
+        assertThat(read(new File(dst, "file.txt")), equalTo("linked"));
+        assertThat(Files.isSameFile(new File(src, "file.txt").toPath(), new File(dst, "file.txt").toPath()), is(true));
+    }
+
+    @Test(expectedExceptions = RuntimeIOException.class)
+    public void shouldNotCopyFileOverDirectory() throws IOException {
+        LocalConnection connection = newConnection(LocalCopyStrategy.COPY);
+        File src = write(temp.newFile("src.txt"), "contents");
+        File dst = temp.newFolder("dst");
+        write(new File(dst, "keep.txt"), "keep");
+
+        OverthereFile srcFile = connection.getFile(src.getPath());
+        ((LocalFile) connection.getFile(dst.getPath())).copyFrom(srcFile);
+    }
+
+    @Test
+    public void shouldReadAndWriteThroughByteChannel() throws IOException {
+        LocalConnection connection = newConnection(LocalCopyStrategy.COPY);
+        File file = write(temp.newFile("channel.txt"), "0123456789");
+
+        try (SeekableByteChannel channel = connection.getFile(file.getPath()).newByteChannel(StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer tail = ByteBuffer.allocate(3);
+            channel.position(7).read(tail);
+            assertThat(new String(tail.array(), StandardCharsets.UTF_8), equalTo("789"));
+
+            channel.position(2).write(ByteBuffer.wrap("ab".getBytes(StandardCharsets.UTF_8)));
+            assertThat(channel.size(), equalTo(10L));
+        }
+
+        assertThat(read(file), equalTo("01ab456789"));
+    }
+
+    @Test
+    public void shouldAnswerAccessorsFromAttributesCache() throws IOException {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(TEMPORARY_DIRECTORY_PATH, temp.getRoot().getPath());
+        options.set(ATTRIBUTES_CACHE_TTL_MILLIS, 60000);
+        LocalConnection connection = new LocalConnection(LOCAL_PROTOCOL, options);
+        File file = write(temp.newFile("cached.txt"), "contents");
+        OverthereFile cached = connection.getFile(file.getPath());
+
+        assertThat(cached.length(), equalTo(8L));
+        write(file, "changed by another process");
+
+        assertThat(cached.exists(), is(true));
+        assertThat(cached.isFile(), is(true));
+        assertThat(cached.length(), equalTo(8L));
+        assertThat(connection.getAttributesCache().getHitCount(), equalTo(3L));
+    }
+
+    private LocalConnection newConnection(LocalCopyStrategy strategy) {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(TEMPORARY_DIRECTORY_PATH, temp.getRoot().getPath());
+        options.set(LOCAL_COPY_STRATEGY, strategy);
+        return new LocalConnection(LOCAL_PROTOCOL, options);
+    }
+
+    private static File write(File file, String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.OverthereFileAttributes;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class AttributesCacheTest {
+
+    private static final OverthereFileAttributes FILE = new OverthereFileAttributes(true, true, false, false, 42, 0, true, true, false);
+
+    private static final OverthereFileAttributes DIRECTORY = new OverthereFileAttributes(true, false, true, false, 0, 0, true, true, true);
+
+    private static final OverthereFileAttributes NON_EXISTENT = OverthereFileAttributes.nonExistent();
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        AttributesCache cache = new AttributesCache(60000, 10);
+
+        assertThat(cache.get("/tmp/a"), nullValue());
+        cache.put("/tmp/a", FILE);
+        assertThat(cache.get("/tmp/a"), sameInstance(FILE));
+
+        assertThat(cache.getHitCount(), equalTo(1L));
+        assertThat(cache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() {
+        AttributesCache cache = new AttributesCache(0, 10);
+
+        cache.put("/tmp/a", FILE);
+
+        assertThat(cache.get("/tmp/a"), nullValue());
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedPath() {
+        AttributesCache cache = new AttributesCache(60000, 2);
+        cache.put("/tmp/a", FILE);
+        cache.put("/tmp/b", FILE);
+        cache.get("/tmp/a");
+
+        cache.put("/tmp/c", FILE);
+
+        assertThat(cache.get("/tmp/a"), sameInstance(FILE));
+        assertThat(cache.get("/tmp/b"), nullValue());
+        assertThat(cache.get("/tmp/c"), sameInstance(FILE));
+    }
+
+    @Test
+    public void shouldInvalidateAncestorsAndDescendantsOfDirectory() {
+        AttributesCache cache = new AttributesCache(60000, 10);
+        cache.put("/tmp", DIRECTORY);
+        cache.put("/tmp/dir", DIRECTORY);
+        cache.put("/tmp/dir/a", FILE);
+        cache.put("/tmp/dir2", DIRECTORY);
+
+        cache.invalidate("/tmp/dir");
+
+        assertThat(cache.get("/tmp"), nullValue());
+        assertThat(cache.get("/tmp/dir"), nullValue());
+        assertThat(cache.get("/tmp/dir/a"), nullValue());
+        assertThat(cache.get("/tmp/dir2"), sameInstance(DIRECTORY));
+    }
+
+    @Test
+    public void shouldNotInvalidateSiblingsOfFile() {
+        AttributesCache cache = new AttributesCache(60000, 10);
+        cache.put("C:\\temp", DIRECTORY);
+        cache.put("C:\\temp\\a", FILE);
+        cache.put("C:\\temp\\b", FILE);
+
+        cache.invalidate("C:\\temp\\a");
+
+        assertThat(cache.get("C:\\temp"), nullValue());
+        assertThat(cache.get("C:\\temp\\a"), nullValue());
+        assertThat(cache.get("C:\\temp\\b"), sameInstance(FILE));
+    }
+
+    @Test
+    public void shouldOnlyInvalidatePathsBelowDirectory() {
+        AttributesCache cache = new AttributesCache(60000, 10);
+        cache.put("/tmp/dir", DIRECTORY);
+        cache.put("/tmp/dir/a", FILE);
+        cache.put("/tmp/dir/sub/b", FILE);
+        cache.put("/tmp/dir-old", DIRECTORY);
+        cache.put("/tmp/dir.txt", FILE);
+        cache.put("/tmp/dir0", FILE);
+
+        cache.invalidate("/tmp/dir");
+
+        assertThat(cache.get("/tmp/dir/a"), nullValue());
+        assertThat(cache.get("/tmp/dir/sub/b"), nullValue());
+        assertThat(cache.get("/tmp/dir-old"), sameInstance(DIRECTORY));
+        assertThat(cache.get("/tmp/dir.txt"), sameInstance(FILE));
+        assertThat(cache.get("/tmp/dir0"), sameInstance(FILE));
+        assertThat(cache.size(), equalTo(3));
+    }
+
+    @Test
+    public void shouldInvalidatePathsBelowRootAndWindowsDirectory() {
+        AttributesCache cache = new AttributesCache(60000, 10);
+        cache.put("C:\\temp", DIRECTORY);
+        cache.put("C:\\temp\\a", FILE);
+        cache.put("C:\\temp2", DIRECTORY);
+
+        cache.invalidate("C:\\temp");
+
+        assertThat(cache.get("C:\\temp\\a"), nullValue());
+        assertThat(cache.get("C:\\temp2"), sameInstance(DIRECTORY));
+
+        cache.put("/tmp", DIRECTORY);
+        cache.invalidate("/");
+
+        assertThat(cache.get("/tmp"), nullValue());
+        assertThat(cache.get("C:\\temp2"), sameInstance(DIRECTORY));
+    }
+
+    @Test
+    public void shouldInvalidatePathsBelowNonExistentPathWhenInvalidatingTree() {
+        AttributesCache cache = new AttributesCache(60000, 10);
+        cache.put("/tmp/dst", NON_EXISTENT);
+        cache.put("/tmp/dst/a", NON_EXISTENT);
+        cache.put("/tmp/dst2", FILE);
+
+        cache.invalidate("/tmp/dst");
+
+        assertThat(cache.get("/tmp/dst/a"), sameInstance(NON_EXISTENT));
+
+        cache.invalidateTree("/tmp/dst");
+
+        assertThat(cache.get("/tmp/dst/a"), nullValue());
+        assertThat(cache.get("/tmp/dst2"), sameInstance(FILE));
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.util.ByteArrayFile;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.testng.Assert.fail;
+
+public class FileListingIteratorTest {
+
+    @Test
+    public void shouldCloseWhenExhausted() {
+        CountingListing listing = new CountingListing("a", "b");
+
+        List<String> names = listing.stream().map(OverthereFile::getPath).collect(Collectors.toList());
+
+        assertThat(names, contains("a", "b"));
+        assertThat(listing.closeCount, equalTo(1));
+    }
+
+    @Test
+    public void shouldCloseOnceWhenStreamIsClosedEarly() {
+        CountingListing listing = new CountingListing("a", "b", "c");
+
+        try (Stream<OverthereFile> files = listing.stream()) {
+            assertThat(files.findFirst().get().getPath(), equalTo("a"));
+        }
+        listing.close();
+
+        assertThat(listing.closeCount, equalTo(1));
+        assertThat(listing.readCount, equalTo(1));
+    }
+
+    @Test
+    public void shouldCloseAndWrapFailureToRead() {
+        CountingListing listing = new CountingListing("a") {
+            @Override
+            protected OverthereFile computeNext() throws IOException {
+                if (readCount++ > 0) {
+                    throw new IOException("connection lost");
+                }
+                return new ByteArrayFile("a", new byte[0]);
+            }
+        };
+
+        assertThat(listing.next().getPath(), equalTo("a"));
+        try {
+            listing.hasNext();
+            fail("Expected the failure to read to be reported");
+        } catch (RuntimeIOException expected) {
+            assertThat(expected.getCause().getMessage(), equalTo("connection lost"));
+        }
+        assertThat(listing.closeCount, equalTo(1));
+    }
+
+    private static class CountingListing extends FileListingIterator {
+        private final Iterator<String> names;
+        int readCount;
+        int closeCount;
+
+        CountingListing(String... names) {
+            super(new ByteArrayFile("dir", new byte[0]));
+            this.names = Arrays.asList(names).iterator();
+        }
+
+        @Override
+        protected OverthereFile computeNext() throws IOException {
+            if (!names.hasNext()) {
+                return null;
+            }
+            readCount++;
+            return new ByteArrayFile(names.next(), new byte[0]);
+        }
+
+        @Override
+        protected void doClose() {
+            closeCount++;
+        }
+    }
+}
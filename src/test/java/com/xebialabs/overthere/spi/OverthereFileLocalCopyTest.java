@@ -25,6 +25,7 @@ package com.xebialabs.overthere.spi;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -36,11 +37,18 @@ import com.xebialabs.overthere.Overthere;
 import com.xebialabs.overthere.OverthereConnection;
 import com.xebialabs.overthere.OverthereFile;
 import com.xebialabs.overthere.TemporaryFolder;
+import com.xebialabs.overthere.util.OverthereFileCopier;
 
+import static com.xebialabs.overthere.ConnectionOptions.ATTRIBUTES_CACHE_TTL_MILLIS;
+import static com.xebialabs.overthere.ConnectionOptions.COPY_PARALLELISM;
 import static com.xebialabs.overthere.ConnectionOptions.OPERATING_SYSTEM;
 import static com.xebialabs.overthere.ConnectionOptions.TEMPORARY_DIRECTORY_PATH;
 import static com.xebialabs.overthere.OperatingSystemFamily.getLocalHostOperatingSystemFamily;
 import static com.xebialabs.overthere.local.LocalConnection.LOCAL_PROTOCOL;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -105,6 +113,71 @@ public class OverthereFileLocalCopyTest {
         verify(spy, times(1)).copyFrom(tempFile);
     }
 
+    @Test
+    public void shouldNotKeepCachedAttributesOfCopiedTree() throws IOException {
+        ConnectionOptions cachingOptions = new ConnectionOptions(options);
+        cachingOptions.set(ATTRIBUTES_CACHE_TTL_MILLIS, 60000);
+        OverthereConnection cachingConnection = Overthere.getConnection(protocol, cachingOptions);
+        try {
+            OverthereFile srcDir = cachingConnection.getTempFile("src");
+            srcDir.mkdir();
+            final OverthereFile srcFile = srcDir.getFile("Foo.txt");
+            new ByteSink() {
+                @Override
+                public OutputStream openStream() throws IOException {
+                    return srcFile.getOutputStream();
+                }
+            }.write(generateRandomBytes(1000));
+
+            OverthereFile dstDir = cachingConnection.getTempFile("dst");
+            OverthereFile dstFile = dstDir.getFile("Foo.txt");
+            assertThat(dstDir.getAttributes().exists(), equalTo(false));
+            assertThat(dstFile.getAttributes().exists(), equalTo(false));
+
+            srcDir.copyTo(dstDir);
+
+            assertThat(dstDir.getAttributes().isDirectory(), equalTo(true));
+            assertThat(dstFile.getAttributes().isFile(), equalTo(true));
+            assertThat(dstFile.getAttributes().length(), equalTo(1000L));
+        } finally {
+            cachingConnection.close();
+        }
+    }
+
+    @Test
+    public void shouldShareCopyExecutorAndPermitsOfConnection() throws IOException {
+        ConnectionOptions parallelOptions = new ConnectionOptions(otherOptions);
+        parallelOptions.set(COPY_PARALLELISM, 2);
+        BaseOverthereConnection parallelConnection = (BaseOverthereConnection) Overthere.getConnection(protocol, parallelOptions);
+        try {
+            OverthereFile srcDir = connection.getTempFile("src");
+            srcDir.mkdir();
+            for (int i = 0; i < 5; i++) {
+                final OverthereFile srcFile = srcDir.getFile(i + ".txt");
+                new ByteSink() {
+                    @Override
+                    public OutputStream openStream() throws IOException {
+                        return srcFile.getOutputStream();
+                    }
+                }.write(generateRandomBytes(1000));
+            }
+
+            ExecutorService executor = parallelConnection.getCopyExecutor();
+            for (String name : asList("dst1", "dst2")) {
+                OverthereFile dstDir = parallelConnection.getTempFile(name);
+                OverthereFileCopier.copy(srcDir, dstDir, parallelConnection.getCopyExecutor(), parallelConnection.copyPermits);
+
+                for (int i = 0; i < 5; i++) {
+                    assertThat(dstDir.getFile(i + ".txt").getAttributes().length(), equalTo(1000L));
+                }
+            }
+            assertThat(parallelConnection.getCopyExecutor(), sameInstance(executor));
+            assertThat(parallelConnection.copyPermits.availablePermits(), equalTo(2));
+        } finally {
+            parallelConnection.close();
+        }
+    }
+
     protected static byte[] generateRandomBytes(final int size) {
         byte[] randomBytes = new byte[size];
         new Random().nextBytes(randomBytes);
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.spi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class PositionalByteChannelTest {
+
+    @Test
+    public void shouldOpenForReadingWithoutOptions() {
+        ByteChannelOptions options = ByteChannelOptions.of();
+
+        assertThat(options.isRead(), is(true));
+        assertThat(options.isWrite(), is(false));
+    }
+
+    @Test
+    public void shouldOpenForWritingWithAppend() {
+        ByteChannelOptions options = ByteChannelOptions.of(StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+
+        assertThat(options.isRead(), is(false));
+        assertThat(options.isWrite(), is(true));
+        assertThat(options.isAppend(), is(true));
+        assertThat(options.isCreate(), is(true));
+    }
+
+    @Test
+    public void shouldIgnoreCreateAndTruncateWhenReading() {
+        ByteChannelOptions options = ByteChannelOptions.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertThat(options.isCreateNew(), is(false));
+        assertThat(options.isTruncateExisting(), is(false));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldNotReadWithAppend() {
+        ByteChannelOptions.of(StandardOpenOption.READ, StandardOpenOption.APPEND);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotAcceptUnsupportedOption() {
+        ByteChannelOptions.of(StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    @Test
+    public void shouldReadInRequestsOfAtMostMaximumSize() throws IOException {
+        InMemoryChannel channel = new InMemoryChannel("0123456789", 4, StandardOpenOption.READ);
+
+        ByteBuffer dst = ByteBuffer.allocate(10);
+        assertThat(channel.position(3).read(dst), equalTo(4));
+        assertThat(channel.read(dst), equalTo(3));
+        assertThat(channel.read(dst), equalTo(-1));
+
+        assertThat(new String(dst.array(), 0, dst.position(), StandardCharsets.UTF_8), equalTo("3456789"));
+        assertThat(channel.position(), equalTo(10L));
+    }
+
+    @Test
+    public void shouldWriteWholeBufferAndGrowFile() throws IOException {
+        InMemoryChannel channel = new InMemoryChannel("0123", 3, StandardOpenOption.WRITE);
+
+        ByteBuffer src = ByteBuffer.allocateDirect(8);
+        src.put("abcdefgh".getBytes(StandardCharsets.UTF_8)).flip();
+        assertThat(channel.position(2).write(src), equalTo(8));
+
+        assertThat(channel.contents(), equalTo("01abcdefgh"));
+        assertThat(channel.writes, equalTo(3));
+    }
+
+    @Test
+    public void shouldWriteAtEndWhenAppending() throws IOException {
+        InMemoryChannel channel = new InMemoryChannel("0123", 16, StandardOpenOption.APPEND);
+
+        channel.position(1).write(ByteBuffer.wrap("45".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(channel.contents(), equalTo("012345"));
+        assertThat(channel.position(), equalTo(6L));
+    }
+
+    @Test
+    public void shouldTruncateAndMovePosition() throws IOException {
+        InMemoryChannel channel = new InMemoryChannel("0123456789", 16, StandardOpenOption.WRITE);
+
+        channel.position(8).truncate(5);
+        channel.truncate(7);
+
+        assertThat(channel.contents(), equalTo("01234"));
+        assertThat(channel.position(), equalTo(5L));
+    }
+
+    @Test(expectedExceptions = NonWritableChannelException.class)
+    public void shouldNotWriteWhenOpenedForReading() throws IOException {
+        new InMemoryChannel("0123", 16, StandardOpenOption.READ).write(ByteBuffer.allocate(1));
+    }
+
+    @Test
+    public void shouldCloseOnce() throws IOException {
+        InMemoryChannel channel = new InMemoryChannel("0123", 16, StandardOpenOption.READ);
+
+        channel.close();
+        channel.close();
+
+        assertThat(channel.isOpen(), is(false));
+        assertThat(channel.closeCount, equalTo(1));
+    }
+
+    @Test(expectedExceptions = ClosedChannelException.class)
+    public void shouldNotReadWhenClosed() throws IOException {
+        InMemoryChannel channel = new InMemoryChannel("0123", 16, StandardOpenOption.READ);
+        channel.close();
+
+        channel.read(ByteBuffer.allocate(1));
+    }
+
+    private static class InMemoryChannel extends PositionalByteChannel {
+        byte[] data;
+        int length;
+        int writes;
+        int closeCount;
+
+        InMemoryChannel(String contents, int maxRequestSize, StandardOpenOption... options) {
+            super(ByteChannelOptions.of(options), maxRequestSize);
+            data = contents.getBytes(StandardCharsets.UTF_8);
+            length = data.length;
+        }
+
+        @Override
+        protected int readAt(long offset, byte[] b, int off, int len) {
+            if (offset >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - offset);
+            System.arraycopy(data, (int) offset, b, off, n);
+            return n;
+        }
+
+        @Override
+        protected void writeAt(long offset, byte[] b, int off, int len) {
+            writes++;
+            int end = (int) offset + len;
+            if (end > data.length) {
+                data = Arrays.copyOf(data, end);
+            }
+            System.arraycopy(b, off, data, (int) offset, len);
+            length = Math.max(length, end);
+        }
+
+        @Override
+        protected long sizeOf() {
+            return length;
+        }
+
+        @Override
+        protected void truncateTo(long size) {
+            length = (int) size;
+        }
+
+        @Override
+        protected void closeChannel() {
+            closeCount++;
+        }
+
+        String contents() {
+            return new String(data, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
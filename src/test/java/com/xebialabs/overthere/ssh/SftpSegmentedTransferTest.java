@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.util.DefaultAddressPortMapper;
+
+import static com.xebialabs.overthere.ConnectionOptions.ADDRESS;
+import static com.xebialabs.overthere.ConnectionOptions.OPERATING_SYSTEM;
+import static com.xebialabs.overthere.ConnectionOptions.USERNAME;
+import static com.xebialabs.overthere.OperatingSystemFamily.UNIX;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.CONNECTION_TYPE;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENTED_TRANSFER_THRESHOLD;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_SEGMENT_RETRIES;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SSH_PROTOCOL;
+import static com.xebialabs.overthere.ssh.SshConnectionType.SFTP;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.testng.Assert.fail;
+
+/**
+ * Unit tests for the segment plan and the retries of {@link SftpSegmentedTransfer}
+ */
+public class SftpSegmentedTransferTest {
+
+    private ConnectionOptions options;
+
+    @BeforeMethod
+    public void init() {
+        options = new ConnectionOptions();
+        options.set(CONNECTION_TYPE, SFTP);
+        options.set(OPERATING_SYSTEM, UNIX);
+        options.set(ADDRESS, "nowhere.example.com");
+        options.set(USERNAME, "some-user");
+        options.set(SFTP_SEGMENT_RETRIES, 2);
+    }
+
+    @Test
+    public void shouldSplitFileIntoSegmentsWithShorterLastSegment() {
+        List<SftpSegmentedTransfer.Segment> segments = SftpSegmentedTransfer.plan(250, 100);
+
+        assertThat(segments, hasSize(3));
+        assertSegment(segments.get(0), 0, 100);
+        assertSegment(segments.get(1), 100, 100);
+        assertSegment(segments.get(2), 200, 50);
+    }
+
+    @Test
+    public void shouldSplitFileIntoEqualSegments() {
+        List<SftpSegmentedTransfer.Segment> segments = SftpSegmentedTransfer.plan(200, 100);
+
+        assertThat(segments, hasSize(2));
+        assertSegment(segments.get(1), 100, 100);
+    }
+
+    @Test
+    public void shouldPlanSegmentsBeyondTwoGigabytes() {
+        long length = 5L * 1024 * 1024 * 1024 + 1;
+        List<SftpSegmentedTransfer.Segment> segments = SftpSegmentedTransfer.plan(length, 1024 * 1024 * 1024);
+
+        assertThat(segments, hasSize(6));
+        assertSegment(segments.get(5), 5L * 1024 * 1024 * 1024, 1);
+    }
+
+    @Test
+    public void shouldPlanNoSegmentsForEmptyFile() {
+        assertThat(SftpSegmentedTransfer.plan(0, 100), empty());
+    }
+
+    @Test
+    public void shouldRetryFailedSegmentFromItsStart() {
+        FailingTransfer transfer = new FailingTransfer(newConnection(), 2);
+
+        transfer.transferSegment(transfer.connection, 300, 100);
+
+        assertThat(transfer.attempts, contains(300L, 300L, 300L));
+    }
+
+    @Test
+    public void shouldGiveUpAfterConfiguredRetries() {
+        FailingTransfer transfer = new FailingTransfer(newConnection(), 3);
+
+        try {
+            transfer.transferSegment(transfer.connection, 0, 100);
+            fail("Expected segment to fail");
+        } catch (RuntimeIOException expected) {
+            assertThat(expected.getCause(), instanceOf(IOException.class));
+        }
+        assertThat(transfer.attempts, hasSize(3));
+    }
+
+    @Test
+    public void shouldAcceptThresholdAboveTwoGigabytes() {
+        options.set(SFTP_SEGMENTED_TRANSFER_THRESHOLD, "8589934592");
+
+        assertThat(newConnection().sftpSegmentedTransferThreshold, equalTo(8L * 1024 * 1024 * 1024));
+    }
+
+    private SshSftpConnection newConnection() {
+        return new SshSftpUnixConnection(SSH_PROTOCOL, options, DefaultAddressPortMapper.INSTANCE);
+    }
+
+    private static void assertSegment(SftpSegmentedTransfer.Segment segment, long offset, long length) {
+        assertThat(segment.offset, equalTo(offset));
+        assertThat(segment.length, equalTo(length));
+    }
+
+    /**
+     * A transfer whose segments fail a number of times before they succeed.
+     */
+    private static class FailingTransfer extends SftpSegmentedTransfer {
+        final SshSftpConnection connection;
+        final List<Long> attempts = new ArrayList<>();
+        private int failures;
+
+        FailingTransfer(SshSftpConnection connection, int failures) {
+            super(connection, "/tmp/file", new File("file"), true, 1000);
+            this.connection = connection;
+            this.failures = failures;
+        }
+
+        @Override
+        void copySegment(SshSftpConnection segmentConnection, long offset, long segmentLength) throws IOException {
+            attempts.add(offset);
+            if (failures-- > 0) {
+                throw new IOException("Connection reset");
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.spi.ByteChannelOptions;
+import com.xebialabs.overthere.util.DefaultAddressPortMapper;
+
+import static com.xebialabs.overthere.ConnectionOptions.ADDRESS;
+import static com.xebialabs.overthere.ConnectionOptions.OPERATING_SYSTEM;
+import static com.xebialabs.overthere.ConnectionOptions.USERNAME;
+import static com.xebialabs.overthere.OperatingSystemFamily.UNIX;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.CONNECTION_TYPE;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SSH_PROTOCOL;
+import static com.xebialabs.overthere.ssh.SshConnectionType.SCP;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the <code>dd</code> commands that {@link SshScpByteChannel} starts to write a file.
+ */
+public class SshScpByteChannelTest {
+
+    private SSHClient client;
+
+    private byte[] contents;
+
+    private List<String> commandLines;
+
+    private List<ByteArrayOutputStream> stdins;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        client = mock(SSHClient.class);
+        contents = new byte[0];
+        commandLines = new ArrayList<>();
+        stdins = new ArrayList<>();
+        when(client.startSession()).thenAnswer(invocation -> {
+            Session session = mock(Session.class);
+            when(session.exec(any(String.class))).thenAnswer(exec -> newCommand(exec.getArgument(0)));
+            return session;
+        });
+    }
+
+    @Test
+    public void shouldStreamSequentialWritesThroughOneCommand() throws IOException {
+        try (SeekableByteChannel channel = newChannel()) {
+            channel.write(bytes("hello"));
+            channel.write(bytes(" world"));
+        }
+
+        assertThat(commandLines, contains("dd of=/tmp/file.bin bs=1048576 seek=0 conv=notrunc"));
+        assertThat(stdin(0), equalTo("hello world"));
+    }
+
+    @Test
+    public void shouldWriteBackStartOfBlockForUnalignedWrite() throws IOException {
+        contents = "0123456789".getBytes(StandardCharsets.ISO_8859_1);
+
+        try (SeekableByteChannel channel = newChannel()) {
+            channel.position(4).write(bytes("ab"));
+        }
+
+        assertThat(commandLines, contains("dd if=/tmp/file.bin bs=65536 skip=0 count=16", "dd of=/tmp/file.bin bs=1048576 seek=0 conv=notrunc"));
+        assertThat(stdin(0), equalTo("0123ab"));
+    }
+
+    @Test
+    public void shouldWriteZeroesBeforeUnalignedWriteBeyondEndOfFile() throws IOException {
+        try (SeekableByteChannel channel = newChannel()) {
+            channel.position(SshScpByteChannel.READ_AHEAD_SIZE + 3).write(bytes("ab"));
+        }
+
+        assertThat(commandLines, contains("dd if=/tmp/file.bin bs=65536 skip=16 count=16", "dd of=/tmp/file.bin bs=1048576 seek=1 conv=notrunc"));
+        assertThat(stdin(0), equalTo("\0\0\0ab"));
+    }
+
+    @Test
+    public void shouldStartNewCommandWhenWriteDoesNotContinuePreviousOne() throws IOException {
+        try (SeekableByteChannel channel = newChannel()) {
+            channel.write(bytes("first"));
+            channel.position(SshScpByteChannel.READ_AHEAD_SIZE).write(bytes("second"));
+        }
+
+        assertThat(commandLines, contains("dd of=/tmp/file.bin bs=1048576 seek=0 conv=notrunc", "dd of=/tmp/file.bin bs=1048576 seek=1 conv=notrunc"));
+        assertThat(stdin(0), equalTo("first"));
+        assertThat(stdin(1), equalTo("second"));
+    }
+
+    private Session.Command newCommand(String commandLine) {
+        commandLines.add(commandLine);
+        Session.Command command = mock(Session.Command.class);
+        ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+        stdins.add(stdin);
+        when(command.getInputStream()).thenReturn(new ByteArrayInputStream(commandLine.startsWith("dd if=") ? contents : new byte[0]));
+        when(command.getOutputStream()).thenReturn(stdin);
+        when(command.getExitStatus()).thenReturn(0);
+        return command;
+    }
+
+    private String stdin(int write) {
+        int i = 0;
+        for (int j = 0; j < commandLines.size(); j++) {
+            if (commandLines.get(j).startsWith("dd of=") && i++ == write) {
+                return new String(stdins.get(j).toByteArray(), StandardCharsets.ISO_8859_1);
+            }
+        }
+        throw new AssertionError("No write command " + write + " in " + commandLines);
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private SeekableByteChannel newChannel() {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(CONNECTION_TYPE, SCP);
+        options.set(OPERATING_SYSTEM, UNIX);
+        options.set(ADDRESS, "nowhere.example.com");
+        options.set(USERNAME, "some-user");
+        SshScpConnection connection = new SshScpConnection(SSH_PROTOCOL, options, DefaultAddressPortMapper.INSTANCE) {
+            @Override
+            protected SSHClient getSshClient() {
+                return client;
+            }
+        };
+        return new SshScpByteChannel(new SshScpFile(connection, "/tmp/file.bin"), ByteChannelOptions.of(WRITE));
+    }
+}
@@ -22,11 +22,33 @@
  */
 package com.xebialabs.overthere.ssh;
 
+import java.util.List;
+
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.xebialabs.overthere.CmdLine;
+import com.xebialabs.overthere.OverthereExecutionOutputHandler;
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.OverthereFileAttributes;
+
+import static com.xebialabs.overthere.OperatingSystemFamily.UNIX;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.GET_FILE_ATTRIBUTES_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.GET_FILE_INFO_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_TREE_COMMAND_DEFAULT;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.LIST_TREE_FALLBACK_COMMAND_DEFAULT;
+import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class SshScpFileTest {
 
@@ -78,4 +100,153 @@ public class SshScpFileTest {
         assertThat("Should be a directory", results.isDirectory);
         assertThat("Should be executable", results.canExecute);
     }
+
+    @Test
+    public void shouldParseFindOutputIntoTree() {
+        SshScpFile root = newTreeRoot();
+        assertThat("Should parse", root.parseFindOutput(asList(
+                "d/4096/1481988480.5000000000/755/build",
+                "f/340/1481988481.0000000000/644/build/output.txt",
+                "f/12/1481988482.0000000000/600/.hidden"), -1));
+
+        List<OverthereFile> children = root.listFiles();
+        assertThat(children, hasSize(2));
+        OverthereFile build = children.get(0);
+        assertThat(build.getPath(), equalTo("/foo/bar/build"));
+        OverthereFileAttributes buildAttributes = build.getAttributes();
+        assertThat("Should be a directory", buildAttributes.isDirectory());
+        assertThat(buildAttributes.lastModified(), equalTo(1481988480500L));
+        assertThat("Should be executable", buildAttributes.canExecute());
+        OverthereFileAttributes hiddenAttributes = children.get(1).getAttributes();
+        assertThat("Should be hidden", hiddenAttributes.isHidden());
+        assertThat("Should not be executable", !hiddenAttributes.canExecute());
+
+        List<OverthereFile> grandChildren = build.listFiles();
+        assertThat(grandChildren, hasSize(1));
+        OverthereFileAttributes outputAttributes = grandChildren.get(0).getAttributes();
+        assertThat(outputAttributes.length(), equalTo(340L));
+        assertThat("Should be a file", outputAttributes.isFile());
+    }
+
+    @Test
+    public void shouldNotParseFindOutputWithUnknownDirectory() {
+        assertThat("Should not parse", !newTreeRoot().parseFindOutput(asList("f/340/1481988481.0000000000/644/build/output.txt"), -1));
+    }
+
+    @Test
+    public void shouldParseRecursiveLsOutputIntoTree() {
+        SshScpFile root = newTreeRoot();
+        assertThat("Should parse", root.parseLsRecursiveOutput(asList(
+                "/foo/bar:",
+                "total 8",
+                "drwxr-xr-x  3 ajvanerp  staff   102 Dec 17 15:28 .",
+                "drwxr-xr-x  5 ajvanerp  staff   170 Dec 17 15:28 ..",
+                "drwxr-xr-x  3 ajvanerp  staff   102 Dec 17 15:28 my build",
+                "lrwxr-xr-x  1 ajvanerp  staff     5 Dec 17 15:28 link -> my build",
+                "",
+                "/foo/bar/my build:",
+                "total 8",
+                "-rw-r--r--  1 ajvanerp  staff   340 Dec 17 15:28 output.txt"), -1));
+
+        List<OverthereFile> children = root.listFiles();
+        assertThat(children, hasSize(2));
+        assertThat(children.get(0).getName(), equalTo("my build"));
+        assertThat(children.get(1).getName(), equalTo("link"));
+
+        List<OverthereFile> grandChildren = children.get(0).listFiles();
+        assertThat(grandChildren, hasSize(1));
+        assertThat(grandChildren.get(0).getName(), equalTo("output.txt"));
+        OverthereFileAttributes outputAttributes = grandChildren.get(0).getAttributes();
+        assertThat(outputAttributes.length(), equalTo(340L));
+        assertThat("Should be writable", outputAttributes.canWrite());
+    }
+
+    @Test
+    public void shouldRetrieveLastModifiedWithFind() {
+        SshScpFile root = newTreeRoot();
+        SshScpConnection treeConnection = (SshScpConnection) root.getConnection();
+        when(treeConnection.execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class))).thenAnswer(invocation -> {
+            ((OverthereExecutionOutputHandler) invocation.getArgument(0)).handleLine("d/4096/1481988480.5000000000/755/");
+            return 0;
+        });
+
+        OverthereFileAttributes attributes = root.getAttributes();
+        assertThat("Should be a directory", attributes.isDirectory());
+        assertThat(attributes.lastModified(), equalTo(1481988480500L));
+        assertThat(attributes.length(), equalTo(4096L));
+        verify(treeConnection, times(1)).execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class));
+    }
+
+    @Test
+    public void shouldRetrieveAttributesWithLsWhenFindFails() {
+        SshScpFile root = newTreeRoot();
+        SshScpConnection treeConnection = (SshScpConnection) root.getConnection();
+        treeConnection.getFileInfoCommand = GET_FILE_INFO_COMMAND_DEFAULT;
+        when(treeConnection.execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class))).thenReturn(1)
+                .thenAnswer(invocation -> {
+                    ((OverthereExecutionOutputHandler) invocation.getArgument(0)).handleLine("-rw-r--r--  1 ajvanerp  staff   340 Dec 17 15:28 /foo/bar");
+                    return 0;
+                });
+
+        OverthereFileAttributes attributes = root.getAttributes();
+        assertThat("Should be a file", attributes.isFile());
+        assertThat(attributes.length(), equalTo(340L));
+        assertThat(attributes.lastModified(), equalTo(0L));
+        verify(treeConnection, times(2)).execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class));
+    }
+
+    @Test
+    public void shouldUseListedAttributesOnlyOnce() {
+        SshScpFile root = newTreeRoot();
+        SshScpConnection treeConnection = (SshScpConnection) root.getConnection();
+        treeConnection.getFileInfoCommand = GET_FILE_INFO_COMMAND_DEFAULT;
+        when(treeConnection.execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class))).thenReturn(1);
+        assertThat("Should parse", root.parseFindOutput(asList("f/340/1481988481.0000000000/644/output.txt"), -1));
+
+        OverthereFile output = root.listFiles().get(0);
+        assertThat("Should be a file", output.getAttributes().isFile());
+        verify(treeConnection, times(0)).execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class));
+
+        assertThat("Should be retrieved again", !output.getAttributes().exists());
+        verify(treeConnection, atLeastOnce()).execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class));
+    }
+
+    @Test
+    public void shouldLimitDepthOfRecursiveLsOutput() {
+        SshScpFile root = newTreeRoot();
+        assertThat("Should parse", root.parseLsRecursiveOutput(asList(
+                "/foo/bar:",
+                "drwxr-xr-x  3 ajvanerp  staff   102 Dec 17 15:28 build",
+                "",
+                "/foo/bar/build:",
+                "-rw-r--r--  1 ajvanerp  staff   340 Dec 17 15:28 output.txt"), 1));
+
+        List<OverthereFile> children = root.listFiles();
+        assertThat(children, hasSize(1));
+        assertThat("Should be a directory", children.get(0).getAttributes().isDirectory());
+    }
+
+    @Test
+    public void shouldNotReadWholeTreeWithFallbackCommandWhenDepthIsLimited() {
+        SshScpFile root = newTreeRoot();
+        SshScpConnection treeConnection = (SshScpConnection) root.getConnection();
+        when(treeConnection.execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class))).thenReturn(1);
+
+        assertThat(root.prefetchTree(2), sameInstance((OverthereFile) root));
+        verify(treeConnection, times(1)).execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class));
+
+        assertThat(root.prefetchTree(-1), sameInstance((OverthereFile) root));
+        verify(treeConnection, times(3)).execute(any(OverthereExecutionOutputHandler.class), any(OverthereExecutionOutputHandler.class), any(CmdLine.class));
+    }
+
+    private SshScpFile newTreeRoot() {
+        final SshScpConnection treeConnection = mock(SshScpConnection.class);
+        when(treeConnection.getHostOperatingSystem()).thenReturn(UNIX);
+        treeConnection.getFileAttributesCommand = GET_FILE_ATTRIBUTES_COMMAND_DEFAULT;
+        treeConnection.listTreeCommand = LIST_TREE_COMMAND_DEFAULT;
+        treeConnection.listTreeFallbackCommand = LIST_TREE_FALLBACK_COMMAND_DEFAULT;
+        when(treeConnection.getFile(any(OverthereFile.class), anyString())).thenAnswer(invocation ->
+                new SshScpFile(treeConnection, ((OverthereFile) invocation.getArgument(0)).getPath() + "/" + invocation.getArgument(1)));
+        return new SshScpFile(treeConnection, "/foo/bar");
+    }
 }
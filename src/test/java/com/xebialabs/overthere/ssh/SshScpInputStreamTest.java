@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.util.DefaultAddressPortMapper;
+
+import static com.xebialabs.overthere.ConnectionOptions.ADDRESS;
+import static com.xebialabs.overthere.ConnectionOptions.OPERATING_SYSTEM;
+import static com.xebialabs.overthere.ConnectionOptions.USERNAME;
+import static com.xebialabs.overthere.OperatingSystemFamily.UNIX;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.CONNECTION_TYPE;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SSH_PROTOCOL;
+import static com.xebialabs.overthere.ssh.SshConnectionType.SCP;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+/**
+ * Feeds canned SCP protocol output to {@link SshScpInputStream} and {@link SshCommandStreams}.
+ */
+public class SshScpInputStreamTest {
+
+    private SSHClient client;
+
+    private Session session;
+
+    private Session.Command command;
+
+    private ByteArrayOutputStream acks;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        client = mock(SSHClient.class);
+        session = mock(Session.class);
+        command = mock(Session.Command.class);
+        acks = new ByteArrayOutputStream();
+        when(client.startSession()).thenReturn(session);
+        when(session.exec(any(String.class))).thenReturn(command);
+        when(command.getOutputStream()).thenReturn(acks);
+    }
+
+    @Test
+    public void shouldReadFileAndAcknowledgeHeaderAndStatus() throws IOException {
+        replyWith("C0644 5 file.txt\nhello\0");
+
+        InputStream in = SshScpInputStream.open(client, "scp -f /tmp/file.txt", "file.txt");
+
+        assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), equalTo("hello"));
+        in.close();
+        assertThat(acks.toByteArray(), equalTo(new byte[] { 0, 0, 0 }));
+        verify(session).close();
+    }
+
+    @Test
+    public void shouldReadEmptyFile() throws IOException {
+        replyWith("C0644 0 empty\n\0");
+
+        InputStream in = SshScpInputStream.open(client, "scp -f /tmp/empty", "empty");
+
+        assertThat(in.read(), equalTo(-1));
+        in.close();
+        assertThat(acks.toByteArray(), equalTo(new byte[] { 0, 0, 0 }));
+    }
+
+    @Test
+    public void shouldNotAcknowledgeStatusWhenClosedEarly() throws IOException {
+        replyWith("C0644 5 file.txt\nhello\0");
+
+        InputStream in = SshScpInputStream.open(client, "scp -f /tmp/file.txt", "file.txt");
+        assertThat(in.read(), equalTo((int) 'h'));
+        in.close();
+
+        assertThat(acks.toByteArray(), equalTo(new byte[] { 0, 0 }));
+        verify(session).close();
+    }
+
+    @Test
+    public void shouldThrowErrorReplyOfScp() {
+        replyWith("\u0001scp: /tmp/missing: No such file or directory\n");
+
+        try {
+            SshScpInputStream.open(client, "scp -f /tmp/missing", "missing");
+            fail("Expected error reply");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("No such file or directory"));
+        }
+        verify(session).close();
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = ".*protocol error.*")
+    public void shouldThrowFatalErrorReplyOfScp() throws IOException {
+        replyWith("\u0002scp: protocol error\n");
+
+        SshScpInputStream.open(client, "scp -f /tmp/file.txt", "file.txt");
+    }
+
+    @Test
+    public void shouldThrowErrorReplyAfterContents() throws IOException {
+        replyWith("C0644 5 file.txt\nhello\u0001scp: /tmp/file.txt: Input/output error\n");
+
+        InputStream in = SshScpInputStream.open(client, "scp -f /tmp/file.txt", "file.txt");
+        try {
+            in.readAllBytes();
+            fail("Expected error reply");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("Input/output error"));
+        }
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void shouldThrowWhenContentsAreTruncated() throws IOException {
+        replyWith("C0644 10 file.txt\nhello");
+
+        SshScpInputStream.open(client, "scp -f /tmp/file.txt", "file.txt").readAllBytes();
+    }
+
+    @Test
+    public void shouldNotReadOutputThatIsNotScp() throws IOException {
+        replyWith("Welcome to nowhere.example.com\n");
+
+        assertThat(SshScpInputStream.open(client, "scp -f /tmp/file.txt", "file.txt"), nullValue());
+        verify(session).close();
+    }
+
+    @Test
+    public void shouldNotReadMalformedHeader() throws IOException {
+        replyWith("Cxyz\n");
+
+        assertThat(SshScpInputStream.open(client, "scp -f /tmp/file.txt", "file.txt"), nullValue());
+    }
+
+    @Test
+    public void shouldFallBackToReadFileCommandWhenOutputIsNotScp() throws IOException {
+        Session scpSession = mock(Session.class);
+        Session.Command scpCommand = mock(Session.Command.class);
+        when(client.startSession()).thenReturn(scpSession, session);
+        when(scpSession.exec(any(String.class))).thenReturn(scpCommand);
+        when(scpCommand.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(scpCommand.getInputStream()).thenReturn(bytes("Last login: yesterday\nhello"));
+        replyWith("hello");
+        when(command.getExitStatus()).thenReturn(0);
+
+        SshScpFile file = new SshScpFile(newConnection(), "/tmp/file.txt");
+        try (InputStream in = file.getInputStream()) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), equalTo("hello"));
+        }
+
+        verify(scpSession).exec("scp -f /tmp/file.txt");
+        verify(scpSession).close();
+        verify(session).exec("cat /tmp/file.txt");
+        verify(session).close();
+    }
+
+    @Test
+    public void shouldFailReadFileCommandThatExitsWithError() throws IOException {
+        replyWith("");
+        when(command.getExitStatus()).thenReturn(1);
+        when(command.getErrorStream()).thenReturn(bytes("cat: /tmp/file.txt: Permission denied\n"));
+
+        InputStream in = SshCommandStreams.openInputStream(client, "cat /tmp/file.txt", "file.txt");
+        try {
+            in.close();
+            fail("Expected command to fail");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("returned 1: cat: /tmp/file.txt: Permission denied"));
+        }
+        verify(command).join(anyLong(), any(TimeUnit.class));
+        verify(session).close();
+    }
+
+    @Test
+    public void shouldWriteToWriteFileCommand() throws IOException {
+        when(command.getExitStatus()).thenReturn(0);
+
+        OutputStream out = SshCommandStreams.openOutputStream(client, "cat > /tmp/file.txt", "file.txt");
+        out.write("hello".getBytes(StandardCharsets.UTF_8));
+        out.close();
+
+        assertThat(new String(acks.toByteArray(), StandardCharsets.UTF_8), equalTo("hello"));
+        verify(session).close();
+    }
+
+    @Test
+    public void shouldReturnMinusOneWhenCommandHasNoExitStatus() throws IOException {
+        replyWith("");
+
+        assertThat(SshCommandStreams.execute(client, "true"), equalTo(-1));
+        verify(session).close();
+    }
+
+    private void replyWith(String output) {
+        when(command.getInputStream()).thenReturn(bytes(output));
+    }
+
+    private static InputStream bytes(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private SshScpConnection newConnection() {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(CONNECTION_TYPE, SCP);
+        options.set(OPERATING_SYSTEM, UNIX);
+        options.set(ADDRESS, "nowhere.example.com");
+        options.set(USERNAME, "some-user");
+        return new SshScpConnection(SSH_PROTOCOL, options, DefaultAddressPortMapper.INSTANCE) {
+            @Override
+            protected SSHClient getSshClient() {
+                return client;
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.IOException;
+import net.schmizz.sshj.sftp.SFTPClient;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.util.DefaultAddressPortMapper;
+
+import static com.xebialabs.overthere.ConnectionOptions.ADDRESS;
+import static com.xebialabs.overthere.ConnectionOptions.OPERATING_SYSTEM;
+import static com.xebialabs.overthere.ConnectionOptions.USERNAME;
+import static com.xebialabs.overthere.OperatingSystemFamily.UNIX;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.CONNECTION_TYPE;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SFTP_MAX_CHANNELS;
+import static com.xebialabs.overthere.ssh.SshConnectionBuilder.SSH_PROTOCOL;
+import static com.xebialabs.overthere.ssh.SshConnectionType.SFTP;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the SFTP client pool of {@link SshSftpConnection}
+ */
+public class SshSftpConnectionTest {
+
+    private SshSftpConnection connection;
+
+    private int clientsOpened;
+
+    @BeforeMethod
+    public void init() {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(CONNECTION_TYPE, SFTP);
+        options.set(OPERATING_SYSTEM, UNIX);
+        options.set(ADDRESS, "nowhere.example.com");
+        options.set(USERNAME, "some-user");
+        options.set(SFTP_MAX_CHANNELS, 2);
+        clientsOpened = 0;
+        connection = new SshSftpUnixConnection(SSH_PROTOCOL, options, DefaultAddressPortMapper.INSTANCE) {
+            @Override
+            SFTPClient connectSftp() {
+                clientsOpened++;
+                SFTPClient sftp = mock(SFTPClient.class, RETURNS_DEEP_STUBS);
+                when(sftp.getSFTPEngine().getSubsystem().isOpen()).thenReturn(true);
+                return sftp;
+            }
+        };
+    }
+
+    @Test
+    public void shouldReuseReleasedClient() {
+        SFTPClient first = connection.leaseSftpClient();
+        connection.releaseSftpClient(first, false);
+        SFTPClient second = connection.leaseSftpClient();
+
+        assertThat(second, sameInstance(first));
+        assertThat(clientsOpened, equalTo(1));
+    }
+
+    @Test
+    public void shouldOpenSeparateClientsForConcurrentLeases() {
+        SFTPClient first = connection.leaseSftpClient();
+        SFTPClient second = connection.leaseSftpClient();
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(clientsOpened, equalTo(2));
+    }
+
+    @Test
+    public void shouldShareClientsWhenMaximumIsReached() {
+        SFTPClient first = connection.leaseSftpClient();
+        SFTPClient second = connection.leaseSftpClient();
+        SFTPClient third = connection.leaseSftpClient();
+
+        assertThat(third, anyOf(sameInstance(first), sameInstance(second)));
+        assertThat(clientsOpened, equalTo(2));
+    }
+
+    @Test
+    public void shouldDisconnectBrokenClient() throws IOException {
+        SFTPClient first = connection.leaseSftpClient();
+        connection.releaseSftpClient(first, true);
+        SFTPClient second = connection.leaseSftpClient();
+
+        verify(first).close();
+        assertThat(second, not(sameInstance(first)));
+        assertThat(clientsOpened, equalTo(2));
+    }
+
+    @Test
+    public void shouldCloseSharedBrokenClientWhenLastLeaseIsReleased() throws IOException {
+        SFTPClient first = connection.leaseSftpClient();
+        SFTPClient second = connection.leaseSftpClient();
+        SFTPClient shared = connection.leaseSftpClient();
+        SFTPClient other = shared == first ? second : first;
+
+        connection.releaseSftpClient(shared, true);
+        verify(shared, never()).close();
+        SFTPClient next = connection.leaseSftpClient();
+        assertThat(next, not(sameInstance(shared)));
+
+        connection.releaseSftpClient(shared, false);
+        verify(shared).close();
+        verify(other, never()).close();
+        assertThat(clientsOpened, equalTo(3));
+    }
+
+    @Test
+    public void shouldReleaseClientAfterOperation() throws IOException {
+        SFTPClient used = connection.withSftpClient(sftp -> sftp);
+        SFTPClient next = connection.leaseSftpClient();
+
+        assertThat(next, sameInstance(used));
+        assertThat(clientsOpened, equalTo(1));
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.OverthereFileAttributes;
+
+import static com.xebialabs.overthere.ssh.SshSftpFile.SFTP_MAX_WRITE_SIZE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SshSftpFileTest {
+
+    @Test
+    public void shouldSplitLargeWritesIntoRequestsThatEveryServerAccepts() throws IOException {
+        byte[] data = new byte[300 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        RequestRecordingOutputStream out = new RequestRecordingOutputStream();
+
+        SshSftpFile.writeInRequests(out, data, 0, data.length);
+
+        assertThat(out.requestSizes, everyItem(lessThanOrEqualTo(SFTP_MAX_WRITE_SIZE)));
+        assertThat(out.requestSizes.size(), equalTo(10));
+        assertThat(out.toByteArray(), equalTo(data));
+    }
+
+    @Test
+    public void shouldWriteSliceOfBuffer() throws IOException {
+        byte[] data = new byte[SFTP_MAX_WRITE_SIZE * 2];
+        new Random(7).nextBytes(data);
+        RequestRecordingOutputStream out = new RequestRecordingOutputStream();
+
+        SshSftpFile.writeInRequests(out, data, 10, SFTP_MAX_WRITE_SIZE + 1);
+
+        assertThat(out.requestSizes.size(), equalTo(2));
+        byte[] expected = new byte[SFTP_MAX_WRITE_SIZE + 1];
+        System.arraycopy(data, 10, expected, 0, expected.length);
+        assertThat(out.toByteArray(), equalTo(expected));
+    }
+
+    @Test
+    public void shouldUseListedAttributesOfRegularFilesAndDirectories() {
+        OverthereFileAttributes file = SshSftpFile.listedAttributes(listed("file", FileMode.Type.REGULAR));
+        assertThat(file, notNullValue());
+        assertThat(file.isFile(), equalTo(true));
+        assertThat(file.length(), equalTo(1234L));
+
+        OverthereFileAttributes dir = SshSftpFile.listedAttributes(listed(".dir", FileMode.Type.DIRECTORY));
+        assertThat(dir, notNullValue());
+        assertThat(dir.isDirectory(), equalTo(true));
+        assertThat(dir.isHidden(), equalTo(true));
+    }
+
+    @Test
+    public void shouldNotUseListedAttributesOfSymbolicLinks() {
+        assertThat(SshSftpFile.listedAttributes(listed("link", FileMode.Type.SYMLINK)), nullValue());
+    }
+
+    private static RemoteResourceInfo listed(String name, FileMode.Type type) {
+        FileAttributes attrs = new FileAttributes.Builder().withType(type).withSize(1234L).withPermissions(0644).build();
+        RemoteResourceInfo info = mock(RemoteResourceInfo.class);
+        when(info.getName()).thenReturn(name);
+        when(info.getAttributes()).thenReturn(attrs);
+        return info;
+    }
+
+    private static class RequestRecordingOutputStream extends ByteArrayOutputStream {
+        final List<Integer> requestSizes = new ArrayList<>();
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            requestSizes.add(len);
+            super.write(b, off, len);
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.ssh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class TarArchiveTest {
+
+    private TemporaryFolder temp = new TemporaryFolder();
+
+    @BeforeMethod
+    public void createTemp() throws IOException {
+        temp.create();
+    }
+
+    @AfterMethod
+    public void deleteTemp() {
+        temp.delete();
+    }
+
+    @Test
+    public void shouldRecreateDirectoryTree() throws IOException {
+        Path source = temp.newFolder("source").toPath();
+        Files.createDirectories(source.resolve("dir/subdir"));
+        Files.write(source.resolve("file.txt"), "top".getBytes(StandardCharsets.UTF_8));
+        Files.write(source.resolve("dir/subdir/nested.bin"), new byte[70000]);
+        Files.createDirectories(source.resolve("empty"));
+
+        Path target = extract(archive(source));
+
+        assertThat(new String(Files.readAllBytes(target.resolve("file.txt")), StandardCharsets.UTF_8), equalTo("top"));
+        assertThat(Files.size(target.resolve("dir/subdir/nested.bin")), equalTo(70000L));
+        assertThat(Files.isDirectory(target.resolve("empty")), is(true));
+    }
+
+    @Test
+    public void shouldPreserveLongPaths() throws IOException {
+        Path source = temp.newFolder("source").toPath();
+        char[] longName = new char[120];
+        Arrays.fill(longName, 'a');
+        Path split = source.resolve("prefix").resolve(new String(longName, 0, 90)).resolve("file.txt");
+        Path pax = source.resolve(new String(longName)).resolve(new String(longName)).resolve(new String(longName));
+        Files.createDirectories(split.getParent());
+        Files.createDirectories(pax.getParent());
+        Files.write(split, "split".getBytes(StandardCharsets.UTF_8));
+        Files.write(pax, "pax".getBytes(StandardCharsets.UTF_8));
+
+        Path target = extract(archive(source));
+
+        assertThat(new String(Files.readAllBytes(target.resolve(source.relativize(split))), StandardCharsets.UTF_8), equalTo("split"));
+        assertThat(new String(Files.readAllBytes(target.resolve(source.relativize(pax))), StandardCharsets.UTF_8), equalTo("pax"));
+    }
+
+    @Test
+    public void shouldPreserveExecutableFilesAndSymbolicLinks() throws IOException {
+        Path source = temp.newFolder("source").toPath();
+        File script = source.resolve("script.sh").toFile();
+        Files.write(script.toPath(), "#!/bin/sh".getBytes(StandardCharsets.UTF_8));
+        script.setExecutable(true);
+        Files.createSymbolicLink(source.resolve("link"), Paths.get("script.sh"));
+
+        Path target = extract(archive(source));
+
+        assertThat(Files.isExecutable(target.resolve("script.sh")), is(true));
+        assertThat(Files.isSymbolicLink(target.resolve("link")), is(true));
+        assertThat(Files.readSymbolicLink(target.resolve("link")), equalTo(Paths.get("script.sh")));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldNotExtractEntriesOutsideTargetDirectory() throws IOException {
+        extract(archiveWithEntry("../escaped.txt"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldNotExtractEntriesWithAbsolutePaths() throws IOException {
+        extract(archiveWithEntry("/tmp/escaped.txt"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRejectStreamThatIsNotATarArchive() throws IOException {
+        byte[] garbage = new byte[TarArchive.BLOCK_SIZE];
+        Arrays.fill(garbage, (byte) 'x');
+        extract(garbage);
+    }
+
+    private static byte[] archive(Path source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TarArchive.write(source, out);
+        return out.toByteArray();
+    }
+
+    private Path extract(byte[] archive) throws IOException {
+        Path target = temp.newFolder("target").toPath();
+        TarArchive.extract(new ByteArrayInputStream(archive), target);
+        return target;
+    }
+
+    private static byte[] archiveWithEntry(String name) {
+        byte[] archive = new byte[3 * TarArchive.BLOCK_SIZE];
+        byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(nameBytes, 0, archive, 0, nameBytes.length);
+        putField(archive, 100, "0000644");
+        putField(archive, 108, "0000000");
+        putField(archive, 116, "0000000");
+        putField(archive, 124, "00000000000");
+        putField(archive, 136, "00000000000");
+        archive[156] = '0';
+        Arrays.fill(archive, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (int i = 0; i < TarArchive.BLOCK_SIZE; i++) {
+            sum += archive[i] & 0xff;
+        }
+        putField(archive, 148, String.format("%06o", sum));
+        archive[154] = 0;
+        return archive;
+    }
+
+    private static void putField(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+}
@@ -29,6 +29,15 @@ import com.xebialabs.overthere.local.LocalConnection;
 import com.xebialabs.overthere.local.LocalFile;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
 import static com.xebialabs.overthere.ConnectionOptions.TEMPORARY_DIRECTORY_PATH;
 import static com.xebialabs.overthere.local.LocalConnection.LOCAL_PROTOCOL;
 import static org.testng.Assert.*;
@@ -60,4 +69,92 @@ public class OverthereUtilsTest extends OverthereConnectionItestBase {
         assertTrue(folderTwo.exists());
         assertNotEquals(folderOne.getPath(), folderTwo.getPath());
     }
+
+    @Test
+    public void shouldReadWholeFile() throws IOException {
+        byte[] contents = randomBytes(3 * 64 * 1024 + 17);
+        File file = temp.newFile("read.bin");
+        Files.write(file.toPath(), contents);
+
+        assertEquals(OverthereUtils.read(LocalFile.valueOf(file)), contents);
+    }
+
+    @Test
+    public void shouldReadEmptyFile() throws IOException {
+        File file = temp.newFile("empty.bin");
+
+        assertEquals(OverthereUtils.read(LocalFile.valueOf(file)).length, 0);
+    }
+
+    @Test
+    public void shouldReadFileAsString() throws IOException {
+        File file = temp.newFile("read.txt");
+        Files.write(file.toPath(), "caf\u00e9".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(OverthereUtils.read(LocalFile.valueOf(file), "UTF-8"), "caf\u00e9");
+    }
+
+    @Test
+    public void shouldCopyStreamWithAnyBufferSize() {
+        byte[] contents = randomBytes(100 * 1024 + 3);
+        for (int bufferSize : new int[] { 1, 1000, 64 * 1024, 2 * 1024 * 1024 }) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            OverthereUtils.write(new ByteArrayInputStream(contents), out, bufferSize);
+            assertEquals(out.toByteArray(), contents, "buffer size " + bufferSize);
+        }
+    }
+
+    @Test
+    public void shouldSizeTransferBufferFromLength() {
+        assertEquals(OverthereUtils.transferBufferSize(10 * 1024 * 1024, 64 * 1024), 64 * 1024);
+        assertEquals(OverthereUtils.transferBufferSize(20 * 1024, 64 * 1024), 20 * 1024);
+        assertEquals(OverthereUtils.transferBufferSize(100, 64 * 1024), OverthereUtils.MIN_TRANSFER_BUFFER_SIZE);
+        assertEquals(OverthereUtils.transferBufferSize(100, 1024), 1024);
+        assertEquals(OverthereUtils.transferBufferSize(-1, 64 * 1024), 64 * 1024);
+        assertEquals(OverthereUtils.transferBufferSize(-1, 0), OverthereUtils.DEFAULT_TRANSFER_BUFFER_SIZE);
+    }
+
+    @Test
+    public void shouldReuseTransferBufferOnSameThread() {
+        BufferRecordingInputStream first = new BufferRecordingInputStream();
+        OverthereUtils.write(first, new ByteArrayOutputStream(), 64 * 1024);
+        BufferRecordingInputStream second = new BufferRecordingInputStream();
+        OverthereUtils.write(second, new ByteArrayOutputStream(), 16 * 1024);
+
+        assertSame(second.buffer, first.buffer);
+    }
+
+    @Test
+    public void shouldNotKeepTransferBufferLargerThanMaximum() {
+        BufferRecordingInputStream first = new BufferRecordingInputStream();
+        OverthereUtils.write(first, new ByteArrayOutputStream(), OverthereUtils.MAX_POOLED_TRANSFER_BUFFER_SIZE + 1);
+        BufferRecordingInputStream second = new BufferRecordingInputStream();
+        OverthereUtils.write(second, new ByteArrayOutputStream(), OverthereUtils.MAX_POOLED_TRANSFER_BUFFER_SIZE + 1);
+
+        assertNotSame(second.buffer, first.buffer);
+    }
+
+    /**
+     * An empty stream that records the buffer it is read into.
+     */
+    private static class BufferRecordingInputStream extends InputStream {
+        byte[] buffer;
+
+        @Override
+        public int read() {
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            buffer = b;
+            return -1;
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
 }
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.OverthereFile;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.TemporaryFolder;
+import com.xebialabs.overthere.local.LocalConnection;
+
+import static com.xebialabs.overthere.ConnectionOptions.TEMPORARY_DIRECTORY_PATH;
+import static com.xebialabs.overthere.local.LocalConnection.LOCAL_PROTOCOL;
+import static com.xebialabs.overthere.util.ResumableFileCopier.RESUMABLE;
+import static com.xebialabs.overthere.util.ResumableFileCopier.RESUME_CHECKSUM_LENGTH;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class ResumableFileCopierTest {
+
+    private static final int LENGTH = 3 * 1024 * 1024 + 17;
+
+    private TemporaryFolder temp = new TemporaryFolder();
+
+    private LocalConnection sourceConnection;
+
+    private LocalConnection destinationConnection;
+
+    private byte[] contents;
+
+    private File src;
+
+    private File dst;
+
+    @BeforeMethod
+    public void createFiles() throws IOException {
+        temp.create();
+        sourceConnection = newConnection(temp.newFolder("source-tmp"));
+        destinationConnection = newConnection(temp.newFolder("destination-tmp"));
+        contents = new byte[LENGTH];
+        new Random(LENGTH).nextBytes(contents);
+        src = temp.newFile("src.bin");
+        Files.write(src.toPath(), contents);
+        dst = new File(temp.getRoot(), "dst.bin");
+    }
+
+    @AfterMethod
+    public void deleteFiles() {
+        sourceConnection.close();
+        destinationConnection.close();
+        temp.delete();
+    }
+
+    @Test
+    public void shouldCopyToNewFile() throws IOException {
+        copy(config());
+
+        assertThat(Arrays.equals(Files.readAllBytes(dst.toPath()), contents), is(true));
+    }
+
+    @Test
+    public void shouldContinueAfterMatchingPrefix() throws IOException {
+        byte[] partial = Arrays.copyOf(contents, 2 * 1024 * 1024);
+        // Outside of the bytes that are compared, so the copy continues after it
+        partial[0] ^= 1;
+        Files.write(dst.toPath(), partial);
+
+        Map<String, String> config = config();
+        config.put(RESUME_CHECKSUM_LENGTH, "1024");
+        copy(config);
+
+        byte[] copied = Files.readAllBytes(dst.toPath());
+        assertThat(copied.length, equalTo(LENGTH));
+        assertThat(copied[0], equalTo((byte) (contents[0] ^ 1)));
+        assertThat(Arrays.equals(Arrays.copyOfRange(copied, 1, LENGTH), Arrays.copyOfRange(contents, 1, LENGTH)), is(true));
+    }
+
+    @Test
+    public void shouldStartOverWhenChecksumDoesNotMatch() throws IOException {
+        byte[] partial = Arrays.copyOf(contents, 2 * 1024 * 1024);
+        partial[partial.length - 1] ^= 1;
+        Files.write(dst.toPath(), partial);
+
+        copy(config());
+
+        assertThat(Arrays.equals(Files.readAllBytes(dst.toPath()), contents), is(true));
+    }
+
+    @Test
+    public void shouldStartOverWhenDestinationIsLonger() throws IOException {
+        byte[] longer = Arrays.copyOf(contents, LENGTH + 10);
+        Files.write(dst.toPath(), longer);
+
+        copy(config());
+
+        assertThat(Arrays.equals(Files.readAllBytes(dst.toPath()), contents), is(true));
+    }
+
+    @Test
+    public void shouldOnlyResumeWhenConfigured() {
+        assertThat(ResumableFileCopier.isResumable(null), is(false));
+        assertThat(ResumableFileCopier.isResumable(new HashMap<>()), is(false));
+        assertThat(ResumableFileCopier.isResumable(config()), is(true));
+    }
+
+    @Test
+    public void shouldRetryTransportFailures() {
+        assertThat(ResumableFileCopier.isTransient(new RuntimeIOException("lost")), is(true));
+        assertThat(ResumableFileCopier.isTransient(new IllegalStateException("channel closed")), is(true));
+        assertThat(ResumableFileCopier.isTransient(new RuntimeException(new IOException("connection reset"))), is(true));
+    }
+
+    @Test
+    public void shouldNotRetryOtherFailures() {
+        assertThat(ResumableFileCopier.isTransient(new IllegalArgumentException("bad argument")), is(false));
+        assertThat(ResumableFileCopier.isTransient(new UnsupportedOperationException()), is(false));
+    }
+
+    private void copy(Map<String, String> config) {
+        OverthereFile source = sourceConnection.getFile(src.getPath());
+        OverthereFile destination = destinationConnection.getFile(dst.getPath());
+        source.copyToWithConfig(destination, config);
+    }
+
+    private static Map<String, String> config() {
+        Map<String, String> config = new HashMap<>();
+        config.put(RESUMABLE, "true");
+        return config;
+    }
+
+    /**
+     * Connections with the same options are equal, and a copy between equal connections is never resumable.
+     */
+    private static LocalConnection newConnection(File temporaryDirectory) {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(TEMPORARY_DIRECTORY_PATH, temporaryDirectory.getPath());
+        return new LocalConnection(LOCAL_PROTOCOL, options);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.testng.Assert.fail;
+
+public class RingBufferPipeTest {
+
+    @Test(timeOut = 10000)
+    public void shouldHandOverAllBytesWhenWrappingAround() throws Exception {
+        final RingBufferPipe pipe = new RingBufferPipe(17);
+        final byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try (OutputStream out = pipe.getOutputStream()) {
+                    for (int off = 0; off < data.length; off += 1000) {
+                        out.write(data, off, 1000);
+                    }
+                } catch (IOException exc) {
+                    throw new RuntimeException(exc);
+                }
+            }
+        };
+        producer.start();
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        InputStream in = pipe.getInputStream();
+        byte[] buf = new byte[13];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            received.write(buf, 0, n);
+        }
+        producer.join();
+
+        assertThat(received.toByteArray(), equalTo(data));
+    }
+
+    @Test
+    public void shouldReturnZeroWhenTimedReadExpires() throws IOException {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+
+        assertThat(pipe.getInputStream().read(new byte[4], 0, 4, 10, TimeUnit.MILLISECONDS), equalTo(0));
+    }
+
+    @Test
+    public void shouldReadRemainingBytesBeforeReportingFailure() throws IOException {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        pipe.getOutputStream().write(new byte[]{1, 2, 3});
+        IOException cause = new IOException("connection reset");
+        pipe.fail(cause);
+
+        byte[] buf = new byte[16];
+        assertThat(pipe.getInputStream().read(buf), equalTo(3));
+        try {
+            pipe.getInputStream().read(buf);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertThat(expected.getCause(), sameInstance((Throwable) cause));
+        }
+    }
+
+    @Test(timeOut = 10000, expectedExceptions = IOException.class)
+    public void shouldFailBlockedWriteWhenReaderCloses() throws Exception {
+        final RingBufferPipe pipe = new RingBufferPipe(4);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                pipe.getInputStream().close();
+            }
+        }.start();
+
+        pipe.getOutputStream().write(new byte[8]);
+    }
+}
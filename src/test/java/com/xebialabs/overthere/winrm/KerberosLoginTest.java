@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.util.Date;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class KerberosLoginTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void shouldNotRenewFreshTicket() {
+        long now = System.currentTimeMillis();
+        assertThat(KerberosLogin.needsRenewal(ticket(now, now + 10 * HOUR), now + HOUR), equalTo(false));
+    }
+
+    @Test
+    public void shouldRenewTicketNearingExpiry() {
+        long now = System.currentTimeMillis();
+        assertThat(KerberosLogin.needsRenewal(ticket(now, now + 10 * HOUR), now + 9 * HOUR), equalTo(true));
+    }
+
+    @Test
+    public void shouldRenewExpiredTicket() {
+        long now = System.currentTimeMillis();
+        assertThat(KerberosLogin.needsRenewal(ticket(now - 2 * HOUR, now - HOUR), now), equalTo(true));
+    }
+
+    private static KerberosTicket ticket(long start, long end) {
+        return new KerberosTicket(new byte[0], new KerberosPrincipal("user@EXAMPLE.COM"), new KerberosPrincipal("krbtgt/EXAMPLE.COM@EXAMPLE.COM"),
+                new byte[16], 17, new boolean[32], new Date(start), new Date(start), new Date(end), null, null);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.testng.annotations.Test;
+import com.google.common.io.Resources;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReceiveResponseTest {
+
+    private static final String RUNNING_RESPONSE = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:rsp=\"http://schemas.microsoft.com/wbem/wsman/1/windows/shell\">" +
+            "<s:Body><rsp:ReceiveResponse>" +
+            "<rsp:Stream Name=\"stdout\" CommandId=\"1\">b3V0</rsp:Stream>" +
+            "<rsp:Stream Name=\"stderr\" CommandId=\"1\">ZXJy</rsp:Stream>" +
+            "<rsp:CommandState CommandId=\"1\" State=\"http://schemas.microsoft.com/wbem/wsman/1/windows/shell/CommandState/Running\"/>" +
+            "</rsp:ReceiveResponse></s:Body></s:Envelope>";
+
+    @Test
+    public void shouldDecodeStreamsAndExitCodeOfFinishedCommand() throws Exception {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+        ReceiveResponse response;
+        try (InputStream in = Resources.getResource("winrm/winrm-exitcode-test_20.xml").openStream()) {
+            response = ReceiveResponse.parse(in, stdout, stderr);
+        }
+
+        assertThat(response.isDone(), equalTo(true));
+        assertThat(response.getExitCode(), equalTo(16));
+        assertThat(stdout.toString("UTF-8"), equalTo("\r\nC:\\TEMP>echo Exiting with 16 \r\nExiting with 16\r\n\r\nC:\\TEMP>exit 16 \r\n"));
+        assertThat(stderr.size(), equalTo(0));
+    }
+
+    @Test
+    public void shouldDecodeStreamsOfRunningCommand() throws Exception {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+        ReceiveResponse response = ReceiveResponse.parse(new ByteArrayInputStream(RUNNING_RESPONSE.getBytes(StandardCharsets.UTF_8)), stdout, stderr);
+
+        assertThat(response.isDone(), equalTo(false));
+        assertThat(response.getExitCode(), nullValue());
+        assertThat(stdout.toString("UTF-8"), equalTo("out"));
+        assertThat(stderr.toString("UTF-8"), equalTo("err"));
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class WinRmClientTest {
+
+    @Test
+    public void shouldFitBase64EncodedInputChunkInEnvelop() {
+        int chunkSize = WinRmClient.maxInputChunkSize(153600);
+
+        assertThat(chunkSize % 3, equalTo(0));
+        assertThat(chunkSize / 3 * 4 < 153600 - 1024, equalTo(true));
+        assertThat(chunkSize > 100 * 1024, equalTo(true));
+    }
+
+    @Test
+    public void shouldNotSendChunksSmallerThanStdinBufferSize() {
+        assertThat(WinRmClient.maxInputChunkSize(2048), equalTo(WinRmConnection.STDIN_BUF_SIZE));
+    }
+
+    @Test
+    public void shouldDoubleReceiveEnvelopWhenOutputFillsIt() {
+        assertThat(WinRmClient.nextReceiveEnvelopSize(153600, 512000, 100000), equalTo(307200));
+        assertThat(WinRmClient.nextReceiveEnvelopSize(307200, 512000, 200000), equalTo(512000));
+        assertThat(WinRmClient.nextReceiveEnvelopSize(512000, 512000, 380000), equalTo(512000));
+    }
+
+    @Test
+    public void shouldKeepReceiveEnvelopWhenOutputIsSmall() {
+        assertThat(WinRmClient.nextReceiveEnvelopSize(153600, 512000, 1000), equalTo(153600));
+        assertThat(WinRmClient.nextReceiveEnvelopSize(153600, 153600, 150000), equalTo(153600));
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.io.IOException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.ConnectionOptions;
+import com.xebialabs.overthere.RuntimeIOException;
+import com.xebialabs.overthere.util.DefaultAddressPortMapper;
+
+import static com.xebialabs.overthere.ConnectionOptions.ADDRESS;
+import static com.xebialabs.overthere.ConnectionOptions.OPERATING_SYSTEM;
+import static com.xebialabs.overthere.ConnectionOptions.PASSWORD;
+import static com.xebialabs.overthere.ConnectionOptions.USERNAME;
+import static com.xebialabs.overthere.OperatingSystemFamily.WINDOWS;
+import static com.xebialabs.overthere.winrm.WinRmConnectionBuilder.WINRM_PROTOCOL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.fail;
+
+/**
+ * Unit tests for the file helper pool of {@link WinRmFileConnection}
+ */
+public class WinRmFileConnectionTest {
+
+    private WinRmFileConnection connection;
+
+    private Boolean releasedBroken;
+
+    @BeforeMethod
+    public void init() {
+        ConnectionOptions options = new ConnectionOptions();
+        options.set(OPERATING_SYSTEM, WINDOWS);
+        options.set(ADDRESS, "nowhere.example.com");
+        options.set(USERNAME, "some-user");
+        options.set(PASSWORD, "some-password");
+        releasedBroken = null;
+        connection = new WinRmFileConnection(WINRM_PROTOCOL, options, DefaultAddressPortMapper.INSTANCE) {
+            @Override
+            WinRmFileHelper leaseHelper() {
+                return mock(WinRmFileHelper.class);
+            }
+
+            @Override
+            void releaseHelper(WinRmFileHelper helper, boolean broken) {
+                releasedBroken = broken;
+            }
+        };
+    }
+
+    @Test
+    public void shouldKeepHelperAfterSuccessfulRequest() {
+        String result = connection.withHelper(helper -> "done");
+
+        assertThat(result, equalTo("done"));
+        assertThat(releasedBroken, equalTo(false));
+    }
+
+    @Test
+    public void shouldKeepHelperAfterErrorReply() {
+        try {
+            connection.withHelper(helper -> {
+                throw new WinRmFileHelperException("Cannot delete C:\\foo: access denied");
+            });
+            fail("Expected error reply");
+        } catch (WinRmFileHelperException expected) {
+            assertThat(releasedBroken, equalTo(false));
+        }
+    }
+
+    @Test
+    public void shouldDiscardHelperAfterTransportFailure() {
+        try {
+            connection.withHelper(helper -> {
+                throw new WinRmRuntimeIOException("Connection refused");
+            });
+            fail("Expected transport failure");
+        } catch (WinRmRuntimeIOException expected) {
+            assertThat(releasedBroken, equalTo(true));
+        }
+    }
+
+    @Test
+    public void shouldDiscardHelperAfterProtocolFailure() {
+        try {
+            connection.withHelper(helper -> {
+                throw new IOException("WinRM file helper has exited");
+            });
+            fail("Expected protocol failure");
+        } catch (RuntimeIOException expected) {
+            assertThat(expected.getCause(), instanceOf(IOException.class));
+            assertThat(releasedBroken, equalTo(true));
+        }
+    }
+}
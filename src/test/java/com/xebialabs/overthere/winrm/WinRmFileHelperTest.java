@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2008-2016, XebiaLabs B.V., All rights reserved.
+ *
+ *
+ * Overthere is licensed under the terms of the GPLv2
+ * <http://www.gnu.org/licenses/old-licenses/gpl-2.0.html>, like most XebiaLabs Libraries.
+ * There are special exceptions to the terms and conditions of the GPLv2 as it is applied to
+ * this software, see the FLOSS License Exception
+ * <http://github.com/xebialabs/overthere/blob/master/LICENSE>.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation; version 2
+ * of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth
+ * Floor, Boston, MA 02110-1301  USA
+ */
+package com.xebialabs.overthere.winrm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.apache.commons.codec.binary.Base64;
+import org.testng.annotations.Test;
+
+import com.xebialabs.overthere.CmdLine;
+import com.xebialabs.overthere.OverthereProcess;
+import com.xebialabs.overthere.spi.ProcessConnection;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+public class WinRmFileHelperTest {
+
+    @Test
+    public void shouldSendScriptWhenStarted() throws IOException {
+        HelperProcess process = new HelperProcess("");
+        start(process);
+
+        assertThat(process.requests()[0], equalTo(encode(WinRmFileHelper.SCRIPT)));
+    }
+
+    @Test
+    public void shouldStatFile() throws IOException {
+        HelperProcess process = new HelperProcess("OK 1 0 42 1000 0 1\n");
+        WinRmFileHelper helper = start(process);
+
+        assertThat(helper.stat("C:\\foo.txt"), arrayContaining("1", "0", "42", "1000", "0", "1"));
+        assertThat(process.requests()[1], equalTo("STAT " + encode("C:\\foo.txt")));
+    }
+
+    @Test
+    public void shouldListDirectory() throws IOException {
+        HelperProcess process = new HelperProcess("OK\n" + encode("a b.txt") + " 1 0 3 0 1 0\n" + encode("sub") + " 1 1 0 0 0 0\nEND\n");
+        WinRmFileHelper helper = start(process);
+
+        List<String[]> children = helper.list("C:\\dir");
+
+        assertThat(children, hasSize(2));
+        assertThat(children.get(0), arrayContaining("a b.txt", "1", "0", "3", "0", "1", "0"));
+        assertThat(children.get(1), arrayContaining("sub", "1", "1", "0", "0", "0", "0"));
+        assertThat(process.requests()[1], equalTo("LIST " + encode("C:\\dir")));
+    }
+
+    @Test
+    public void shouldSendDeleteAndRenameRequests() throws IOException {
+        HelperProcess process = new HelperProcess("OK\nOK\nOK\n");
+        WinRmFileHelper helper = start(process);
+
+        helper.delete("C:\\dir", true);
+        helper.delete("C:\\file", false);
+        helper.rename("C:\\a", "C:\\b");
+
+        String[] requests = process.requests();
+        assertThat(requests[1], equalTo("DELETE " + encode("C:\\dir") + " 1"));
+        assertThat(requests[2], equalTo("DELETE " + encode("C:\\file") + " 0"));
+        assertThat(requests[3], equalTo("RENAME " + encode("C:\\a") + " " + encode("C:\\b")));
+    }
+
+    @Test
+    public void shouldThrowHelperExceptionOnErrorReplyAndStayUsable() throws IOException {
+        HelperProcess process = new HelperProcess("ERR " + encode("Access is denied") + "\nOK\n");
+        WinRmFileHelper helper = start(process);
+
+        try {
+            helper.mkdir("C:\\Windows\\foo");
+            fail("Expected error reply");
+        } catch (WinRmFileHelperException expected) {
+            assertThat(expected.getMessage(), containsString("Access is denied"));
+        }
+        helper.mkdirs("C:\\Temp\\foo");
+    }
+
+    @Test
+    public void shouldThrowIOExceptionOnUnexpectedReply() {
+        WinRmFileHelper helper = start(new HelperProcess("Windows PowerShell\n"));
+
+        try {
+            helper.mkdir("C:\\foo");
+            fail("Expected unexpected reply");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("Windows PowerShell"));
+        }
+    }
+
+    @Test
+    public void shouldThrowIOExceptionWhenHelperHasExited() {
+        WinRmFileHelper helper = start(new HelperProcess(""));
+
+        try {
+            helper.stat("C:\\foo");
+            fail("Expected exited helper");
+        } catch (IOException expected) {
+            assertThat(expected, not(instanceOf(WinRmFileHelperException.class)));
+        } catch (WinRmFileHelperException unexpected) {
+            fail("Exited helper reported as error reply", unexpected);
+        }
+    }
+
+    @Test
+    public void shouldReadChunksUntilEnd() throws IOException {
+        byte[] first = "Hello, ".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "World".getBytes(StandardCharsets.UTF_8);
+        HelperProcess process = new HelperProcess("OK\n" + Base64.encodeBase64String(first) + "\n" + Base64.encodeBase64String(second) + "\nEND\n");
+        WinRmFileHelper helper = start(process);
+
+        helper.startRead("C:\\foo.txt", 7);
+
+        assertThat(helper.readChunk("C:\\foo.txt"), equalTo(first));
+        assertThat(helper.readChunk("C:\\foo.txt"), equalTo(second));
+        assertThat(helper.readChunk("C:\\foo.txt"), nullValue());
+        assertThat(process.requests()[1], equalTo("READ " + encode("C:\\foo.txt") + " 7"));
+    }
+
+    @Test(expectedExceptions = WinRmFileHelperException.class)
+    public void shouldThrowHelperExceptionOnErrorWhileReading() throws IOException {
+        WinRmFileHelper helper = start(new HelperProcess("OK\nERR " + encode("Disk error") + "\n"));
+
+        helper.startRead("C:\\foo.txt", 7);
+        helper.readChunk("C:\\foo.txt");
+    }
+
+    @Test
+    public void shouldWriteChunksUntilEnd() throws IOException {
+        byte[] contents = "Hello, World".getBytes(StandardCharsets.UTF_8);
+        HelperProcess process = new HelperProcess("OK\n");
+        WinRmFileHelper helper = start(process);
+
+        helper.startWrite("C:\\foo.txt");
+        helper.writeChunk(contents, 7, 5);
+        helper.finishWrite("C:\\foo.txt");
+
+        String[] requests = process.requests();
+        assertThat(requests[1], equalTo("WRITE " + encode("C:\\foo.txt")));
+        assertThat(requests[2], equalTo(Base64.encodeBase64String("World".getBytes(StandardCharsets.UTF_8))));
+        assertThat(requests[3], equalTo("END"));
+    }
+
+    private static WinRmFileHelper start(HelperProcess process) {
+        ProcessConnection connection = mock(ProcessConnection.class);
+        when(connection.startProcess(any(CmdLine.class))).thenReturn(process);
+        return WinRmFileHelper.start(connection);
+    }
+
+    private static String encode(String s) {
+        return Base64.encodeBase64String(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A helper process that answers with canned replies and records the requests it was sent.
+     */
+    static class HelperProcess implements OverthereProcess {
+        private final ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+        private final InputStream stdout;
+
+        HelperProcess(String replies) {
+            this.stdout = new ByteArrayInputStream(replies.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        String[] requests() {
+            return new String(stdin.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return stdin;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return stdout;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+    }
+}